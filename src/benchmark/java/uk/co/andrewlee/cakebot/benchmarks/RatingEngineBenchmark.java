@@ -0,0 +1,111 @@
+package uk.co.andrewlee.cakebot.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import de.gesundkrank.jskills.GameInfo;
+import de.gesundkrank.jskills.IPlayer;
+import de.gesundkrank.jskills.Player;
+import de.gesundkrank.jskills.Rating;
+import de.gesundkrank.jskills.SkillCalculator;
+import de.gesundkrank.jskills.Team;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RatingEngine;
+
+/**
+ * Time taken by each {@link RatingEngine} to rate a match and to score a possible match, for
+ * different team sizes. The engines keep rating a fixed, random sequence of matches between a pool
+ * of players, so ratings and any engine state look like those of a ladder in use. For predictive
+ * accuracy, see {@link uk.co.andrewlee.cakebot.tools.RatingEngineReplay}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RatingEngineBenchmark {
+
+  private static final int PLAYERS = 200;
+  private static final int MATCHES = 1024;
+  private static final long SEED = 20201018;
+
+  @Param({"TRUESKILL", "GLICKO2"})
+  public RatingEngine ratingEngine;
+
+  @Param({"1", "2", "4"})
+  public int teamSize;
+
+  private GameInfo gameInfo;
+  private SkillCalculator skillCalculator;
+  private HashMap<Long, Rating> ratings;
+  private long[][] team1PlayerIds;
+  private long[][] team2PlayerIds;
+  private boolean[] team1Won;
+  private int nextMatch;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    gameInfo = GameInfo.getDefaultGameInfo();
+    skillCalculator = ratingEngine.newSkillCalculator();
+    ratings = new HashMap<>();
+    team1PlayerIds = new long[MATCHES][];
+    team2PlayerIds = new long[MATCHES][];
+    team1Won = new boolean[MATCHES];
+    nextMatch = 0;
+
+    Random random = new Random(SEED);
+    for (int match = 0; match < MATCHES; match++) {
+      long[] playerIds = random.longs(1, PLAYERS + 1).distinct().limit(2 * teamSize).toArray();
+      team1PlayerIds[match] = new long[teamSize];
+      team2PlayerIds[match] = new long[teamSize];
+      System.arraycopy(playerIds, 0, team1PlayerIds[match], 0, teamSize);
+      System.arraycopy(playerIds, teamSize, team2PlayerIds[match], 0, teamSize);
+      team1Won[match] = random.nextBoolean();
+    }
+  }
+
+  @Benchmark
+  public Map<IPlayer, Rating> calculateNewRatings() {
+    int match = nextMatch;
+    nextMatch = (nextMatch + 1) % MATCHES;
+
+    Map<IPlayer, Rating> newRatings = skillCalculator.calculateNewRatings(gameInfo,
+        ImmutableList.of(team(team1PlayerIds[match]), team(team2PlayerIds[match])),
+        team1Won[match] ? 1 : 2, team1Won[match] ? 2 : 1);
+    newRatings.forEach((player, rating) ->
+        ratings.put(((Player<Long>) player).getId(), rating));
+    return newRatings;
+  }
+
+  @Benchmark
+  public double calculateMatchQuality() {
+    int match = nextMatch;
+    nextMatch = (nextMatch + 1) % MATCHES;
+
+    return skillCalculator.calculateMatchQuality(gameInfo,
+        ImmutableList.of(team(team1PlayerIds[match]), team(team2PlayerIds[match])));
+  }
+
+  private Team team(long[] playerIds) {
+    Team team = new Team();
+    for (long playerId : playerIds) {
+      team.addPlayer(new Player<>(playerId),
+          ratings.getOrDefault(playerId, gameInfo.getDefaultRating()));
+    }
+    return team;
+  }
+}
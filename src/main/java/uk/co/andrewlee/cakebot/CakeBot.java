@@ -6,31 +6,42 @@ import uk.co.andrewlee.cakebot.clients.channelregistration.ChannelRegistrar;
 import uk.co.andrewlee.cakebot.clients.channelregistration.ChannelRegistrationBotClient;
 import uk.co.andrewlee.cakebot.clients.lol.LeagueOfLegendsBotClient;
 import uk.co.andrewlee.cakebot.discord.BotSystem;
+import uk.co.andrewlee.cakebot.persistence.PersistenceService;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import uk.co.andrewlee.cakebot.clients.aoe.AgeOfEmpiresBotClient;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RatingEngine;
 
 public class CakeBot {
   private static final Logger logger = LoggerFactory.getLogger(CakeBot.class);
+  private static final int DEFAULT_MAX_LOADED_LADDERS = 8;
+  private static final RatingEngine DEFAULT_RATING_ENGINE = RatingEngine.TRUESKILL;
 
   public static void main(String[] args) throws Exception {
     if (args.length < 2) {
-      logger.info("Usage: CakeBot [DiscordToken] [SaveDirectory].");
+      logger.info("Usage: CakeBot [DiscordToken] [SaveDirectory] [MaxLoadedLadders]"
+          + " [trueskill|glicko2].");
       System.exit(1);
     }
 
     Path saveDirectory = Paths.get(args[1]);
+    int maxLoadedLadders = args.length >= 3 ? Integer.parseInt(args[2])
+        : DEFAULT_MAX_LOADED_LADDERS;
+    RatingEngine ratingEngine = args.length >= 4 ? RatingEngine.parse(args[3])
+        : DEFAULT_RATING_ENGINE;
 
     BotSystem botSystem = BotSystem.create(args[0]);
+    PersistenceService persistenceService = PersistenceService.create();
 
     ChannelRegistrationBotClient channelRegistrationBotClient = ChannelRegistrationBotClient
-        .create(botSystem, saveDirectory);
+        .create(botSystem, saveDirectory, persistenceService);
     ChannelRegistrar channelRegistrar = channelRegistrationBotClient.getChannelRegistrar();
     AgeOfEmpiresBotClient ageOfEmpiresBotClient = AgeOfEmpiresBotClient
-        .create(botSystem, 10, saveDirectory, channelRegistrar);
+        .create(botSystem, ratingEngine, 10, maxLoadedLadders, saveDirectory, channelRegistrar,
+            persistenceService);
     LeagueOfLegendsBotClient leagueOfLegendsBotClient = LeagueOfLegendsBotClient
-        .create(botSystem, channelRegistrar, saveDirectory);
+        .create(botSystem, channelRegistrar, saveDirectory, persistenceService);
 
     botSystem.registerBotClient(channelRegistrationBotClient);
     botSystem.registerBotClient(ageOfEmpiresBotClient);
@@ -1,25 +1,50 @@
 package uk.co.andrewlee.cakebot.clients.aoe;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.gesundkrank.jskills.GameInfo;
 import de.gesundkrank.jskills.SkillCalculator;
-import de.gesundkrank.jskills.trueskill.FactorGraphTrueSkillCalculator;
 import de.vandermeer.asciitable.AsciiTable;
-import discord4j.common.util.Snowflake;
-import discord4j.core.object.VoiceState;
-import discord4j.core.object.entity.Member;
+import discord4j.core.object.entity.Attachment;
 import discord4j.core.object.entity.Message;
-import discord4j.core.object.entity.channel.VoiceChannel;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import org.slf4j.Logger;
@@ -28,16 +53,35 @@ import uk.co.andrewlee.cakebot.clients.channelregistration.ChannelRegistrar;
 import uk.co.andrewlee.cakebot.clients.channelregistration.ChannelSpecificBotClient;
 import uk.co.andrewlee.cakebot.discord.BotSystem;
 import uk.co.andrewlee.cakebot.discord.DiscordHelper;
+import uk.co.andrewlee.cakebot.matchmaking.SearchBudget;
+import uk.co.andrewlee.cakebot.persistence.BackupStore.BackupEntry;
+import uk.co.andrewlee.cakebot.persistence.PersistenceService;
 import uk.co.andrewlee.cakebot.clients.aoe.drafter.RandomCivDrafter;
 import uk.co.andrewlee.cakebot.clients.aoe.drafter.RankedMapSelector;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.LadderRegistry;
 import uk.co.andrewlee.cakebot.clients.aoe.ranking.Match;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchConstraints;
 import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchOutcome;
-import uk.co.andrewlee.cakebot.clients.aoe.ranking.PlayerRankingData.PlayedWithStats;
-import uk.co.andrewlee.cakebot.clients.aoe.ranking.PlayerRankingData.PlayerStats;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchmakingQueue;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MultiMatch;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.PendingMatchRegistry;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.PendingMatchRegistry.PendingMatch;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.PlayedWithRanking;
 import uk.co.andrewlee.cakebot.clients.aoe.ranking.PlayerRankingSystem;
 import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingOperation;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingOperation.BatchRankingOperation;
 import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingOperation.CreatePlayerRankingOperation;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingOperation.ImportRankingOperation;
 import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingOperation.MatchOutcomeRankingOperation;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingOperation.RestoreBackupRankingOperation;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingSnapshot;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingSnapshot.PlayedWithSnapshot;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingSnapshot.PlayerSnapshot;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RatingEngine;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.Rebalance;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.Rebalance.Swap;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers.RankingExportWriter;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers.RankingExportWriter.ExportFormat;
 
 @ThreadSafe
 public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
@@ -50,70 +94,212 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
 
   // TODO: Add flags?
   private final static boolean HIDE_RATING = true;
+  private final static int MAX_STATS_TOP_COUNT = RankingSnapshot.MAX_RANKED_PLAYED_WITH;
+  private final static int READ_THREADS = 4;
+  private final static int MAX_MULTIGAME_GAMES = PendingMatchRegistry
+      .MAX_PENDING_MATCHES_PER_CHANNEL;
+  private final static Duration GAME_SEARCH_TIME_BUDGET = Duration.ofSeconds(2);
+  private final static Duration MULTIGAME_TIME_BUDGET = Duration.ofMillis(500);
+  private final static long PENDING_MATCH_TTL_MILLIS = TimeUnit.HOURS.toMillis(6);
+  private final static int QUEUE_DEFAULT_PLAYERS_PER_GAME = 8;
+  private final static double QUEUE_QUALITY_THRESHOLD = 0.4;
+  private final static long QUEUE_MAX_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+  private final static long QUEUE_CHECK_INTERVAL_SECONDS = 30;
+  private final static int BACKUPS_TO_LIST = 15;
+  private final static int MAX_IMPORT_BYTES = 8 * 1024 * 1024;
+  private final static Duration IMPORT_DOWNLOAD_TIMEOUT = Duration.ofSeconds(30);
+  private final static int MAX_UPLOAD_BYTES = 8 * 1024 * 1024;
+  private final static DateTimeFormatter TIME_FORMAT = DateTimeFormatter
+      .ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
 
   @GuardedBy("executor")
-  private final PlayerRankingSystem playerRankingSystem;
+  private final LadderRegistry ladderRegistry;
+  private final PendingMatchRegistry pendingMatches;
+  private final GameInfo gameInfo;
+  // Channel id to the players queued there. Not saved, so queues are empty after a restart.
   @GuardedBy("executor")
-  private Optional<Match> lastMatch;
-
-  public static AgeOfEmpiresBotClient create(BotSystem botSystem, int maxOperationHistory,
-      Path saveDirectory, ChannelRegistrar channelRegistrar) throws Exception {
-    return AgeOfEmpiresBotClient.create(botSystem, new FactorGraphTrueSkillCalculator(),
-        GameInfo.getDefaultGameInfo(), maxOperationHistory, saveDirectory, channelRegistrar);
+  private final HashMap<Long, MatchmakingQueue> queues;
+  // Forms games for players in a queue who have waited too long.
+  private final ScheduledExecutorService queueCheckExecutor;
+
+  public static AgeOfEmpiresBotClient create(BotSystem botSystem, RatingEngine ratingEngine,
+      int maxOperationHistory, int maxLoadedLadders, Path saveDirectory,
+      ChannelRegistrar channelRegistrar, PersistenceService persistenceService) throws Exception {
+    return AgeOfEmpiresBotClient.create(botSystem, ratingEngine::newSkillCalculator,
+        GameInfo.getDefaultGameInfo(), maxOperationHistory, maxLoadedLadders, saveDirectory,
+        channelRegistrar, persistenceService);
   }
 
+  /**
+   * {@param skillCalculatorFactory} is called once for each ladder.
+   */
   public static AgeOfEmpiresBotClient create(BotSystem botSystem,
-      SkillCalculator skillCalculator, GameInfo gameInfo, int maxOperationHistory,
-      Path saveDirectory, ChannelRegistrar channelRegistrar) throws Exception {
+      Supplier<SkillCalculator> skillCalculatorFactory, GameInfo gameInfo, int maxOperationHistory,
+      int maxLoadedLadders, Path saveDirectory, ChannelRegistrar channelRegistrar,
+      PersistenceService persistenceService) throws Exception {
 
     ExecutorService executor = Executors.newSingleThreadExecutor();
-    PlayerRankingSystem playerRankingSystem = PlayerRankingSystem
-        .create(skillCalculator, gameInfo, maxOperationHistory, saveDirectory);
+    ExecutorService readExecutor = Executors.newFixedThreadPool(READ_THREADS,
+        new ThreadFactoryBuilder().setNameFormat("aoe-read-%d").build());
+    LadderRegistry ladderRegistry = LadderRegistry.create(skillCalculatorFactory, gameInfo,
+        maxOperationHistory, saveDirectory, persistenceService, maxLoadedLadders);
 
+    // Other ladders are loaded on first use, but the default ladder is loaded up front so that a
+    // bad save file is caught at startup.
     Future<Boolean> initFuture = executor.submit(() -> {
-      playerRankingSystem.init();
+      ladderRegistry.getLadder(LadderRegistry.DEFAULT_LADDER);
       return true;
     });
     initFuture.get();
 
+    PendingMatchRegistry pendingMatches = PendingMatchRegistry.create(saveDirectory,
+        persistenceService, PENDING_MATCH_TTL_MILLIS);
+
     RandomCivDrafter randomCivDrafter = RandomCivDrafter.create();
     RankedMapSelector rankedMapSelector = RankedMapSelector.create();
 
-    return new AgeOfEmpiresBotClient(botSystem, executor, playerRankingSystem,
-        randomCivDrafter, rankedMapSelector, channelRegistrar);
+    ScheduledExecutorService queueCheckExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("aoe-queue-%d").setDaemon(true).build());
+
+    return new AgeOfEmpiresBotClient(botSystem, executor, readExecutor, ladderRegistry,
+        pendingMatches, gameInfo, queueCheckExecutor, randomCivDrafter, rankedMapSelector,
+        channelRegistrar);
   }
 
   private AgeOfEmpiresBotClient(BotSystem botSystem, ExecutorService executor,
-      PlayerRankingSystem playerRankingSystem, RandomCivDrafter randomCivDrafter,
+      ExecutorService readExecutor, LadderRegistry ladderRegistry,
+      PendingMatchRegistry pendingMatches, GameInfo gameInfo,
+      ScheduledExecutorService queueCheckExecutor, RandomCivDrafter randomCivDrafter,
       RankedMapSelector rankedMapSelector, ChannelRegistrar channelRegistrar) {
-    super(botSystem, executor, channelRegistrar, CHANNEL_REGISTRATION_TAG);
-    this.playerRankingSystem = playerRankingSystem;
+    super(botSystem, executor, readExecutor, channelRegistrar, CHANNEL_REGISTRATION_TAG);
+    this.gameInfo = gameInfo;
+    this.queues = new HashMap<>();
+    this.queueCheckExecutor = queueCheckExecutor;
+    this.ladderRegistry = ladderRegistry;
     this.randomCivDrafter = randomCivDrafter;
     this.rankedMapSelector = rankedMapSelector;
-    this.lastMatch = Optional.empty();
+    this.pendingMatches = pendingMatches;
   }
 
   @Override
   public void init() {
-    registerMessageHandler("game", this::gameCommand);
-    registerMessageHandler("channelgame", this::channelGameCommand);
+    registerReadOnlyMessageHandler("game", this::gameCommand);
+    registerReadOnlyMessageHandler("channelgame", this::channelGameCommand);
+    registerReadOnlyMessageHandler("multigame", this::multiGameCommand);
+    registerReadOnlyMessageHandler("rebalance", this::rebalanceCommand);
     registerMessageHandler("outcome", this::gameOutcomeCommand);
     registerMessageHandler("team1", this::teamOutcomeCommand);
-    registerMessageHandler("team2", this::team2OutcomeCommand);
+    registerMessageHandler("team2", this::teamOutcomeCommand);
+    registerReadOnlyMessageHandler("pending", this::pendingCommand);
+    registerMessageHandler("queue", this::queueCommand);
+    registerMessageHandler("leave", this::leaveQueueCommand);
 
     registerMessageHandler("register", this::registerPlayerCommand);
     registerMessageHandler("undo", this::undoCommand);
-    registerMessageHandler("last", this::lastCommand);
-    registerMessageHandler("list", this::listPlayerCommand);
-    registerMessageHandler("stats", this::statCommand);
+    registerReadOnlyMessageHandler("last", this::lastCommand);
+    registerMessageHandler("restore", this::restoreCommand);
+    registerReadOnlyMessageHandler("import", this::importCommand);
+    registerReadOnlyMessageHandler("export", this::exportCommand);
+    registerReadOnlyMessageHandler("list", this::listPlayerCommand);
+    registerReadOnlyMessageHandler("stats", this::statCommand);
     registerMessageHandler("draft", this::randomDraft);
     registerMessageHandler("maps", this::listMaps);
     super.init();
+
+    queueCheckExecutor.scheduleWithFixedDelay(() -> executor.execute(this::checkQueues),
+        QUEUE_CHECK_INTERVAL_SECONDS, QUEUE_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private void gameCommand(List<String> arguments, Message message) throws Exception {
+    MatchConstraintsParser constraintsParser = new MatchConstraintsParser();
+    Optional<ImmutableSet<Long>> playersOpt = parseRoster(MatchConstraintsParser
+        .joinOperators(arguments.subList(1, arguments.size())), constraintsParser::parse, message);
+    if (!playersOpt.isPresent()) {
+      return;
+    }
+
+    findBalancedGame(ImmutableSet.<Long>builder().addAll(playersOpt.get())
+        .addAll(constraintsParser.players()).build(), constraintsParser.build(), message);
   }
 
-  private void gameCommand(List<String> arguments, Message message) {
+  private void channelGameCommand(List<String> arguments, Message message) throws Exception {
+    MatchConstraintsParser constraintsParser = new MatchConstraintsParser();
+    Optional<ImmutableSet<Long>> playersOpt = parseChannelRoster(MatchConstraintsParser
+        .joinOperators(arguments.subList(1, arguments.size())), constraintsParser::parse, message);
+    if (!playersOpt.isPresent()) {
+      return;
+    }
+
+    findBalancedGame(ImmutableSet.<Long>builder().addAll(playersOpt.get())
+        .addAll(constraintsParser.players()).build(), constraintsParser.build(), message);
+  }
+
+  private void findBalancedGame(ImmutableSet<Long> playerIds, MatchConstraints constraints,
+      Message message) throws Exception {
+    if (playerIds.size() < 2 || playerIds.size() > RankingSnapshot.MAX_MATCH_PLAYERS) {
+      DiscordHelper.respond(message, String.format("A game needs from 2 to %d players.",
+          RankingSnapshot.MAX_MATCH_PLAYERS));
+      return;
+    }
+
+    Optional<RankingSnapshot> snapshotOpt = snapshotFor(message);
+    if (!snapshotOpt.isPresent()) {
+      return;
+    }
+    Optional<Match> matchOpt = snapshotOpt.get().findBalancedMatch(playerIds, constraints,
+        SearchBudget.create(GAME_SEARCH_TIME_BUDGET));
+    if (!matchOpt.isPresent()) {
+      DiscordHelper.respond(message, "No teams meeting all of the constraints were found.");
+      return;
+    }
+    Match match = matchOpt.get();
+    PendingMatch pendingMatch = pendingMatches.add(message.getChannelId().asLong(), match);
+
+    StringBuilder outputBuilder = new StringBuilder();
+    outputBuilder.append(String.format("**Recommended Teams** `#%d`", pendingMatch.getId()));
+    outputBuilder.append("\n");
+    outputBuilder.append("\n");
+    printMatch(outputBuilder, match);
+    outputBuilder.append("\n");
+    outputBuilder.append("\n");
+    outputBuilder.append(new Random().nextBoolean() ? "Team 1 picks first." :
+        "Team 2 picks first.");
+    outputBuilder.append("\n");
+    outputBuilder.append("Map: ");
+    outputBuilder.append(rankedMapSelector.randomMap());
+    outputBuilder.append("\n");
+    outputBuilder.append("\n");
+    outputBuilder.append(String.format("Record the result with %s team1 won #%d",
+        botSystem.selfNicknameMention(), pendingMatch.getId()));
+
+    DiscordHelper.respond(message, outputBuilder.toString());
+  }
+
+  private void multiGameCommand(List<String> arguments, Message message) throws Exception {
+    int gameCount = 0;
+    if (arguments.size() >= 2) {
+      try {
+        gameCount = Integer.parseInt(arguments.get(1));
+      } catch (NumberFormatException e) {
+        gameCount = 0;
+      }
+    }
+    if (gameCount < 1 || gameCount > MAX_MULTIGAME_GAMES) {
+      DiscordHelper.respond(message, String.format("Usage: %s multigame [number of games]"
+              + " [players], from 1 to %d games. Without players, everyone in your voice channel"
+              + " plays.", botSystem.selfNicknameMention(), MAX_MULTIGAME_GAMES));
+      return;
+    }
+
     HashSet<Long> players = new HashSet<>();
-    for (String argument : arguments.subList(1, arguments.size())) {
+    if (arguments.size() == 2) {
+      Optional<ImmutableList<Long>> channelUsersOpt = voiceChannelUsers(message);
+      if (!channelUsersOpt.isPresent()) {
+        return;
+      }
+      players.addAll(channelUsersOpt.get());
+    }
+    for (String argument : arguments.subList(2, arguments.size())) {
       Optional<Long> playerIdOpt = DiscordHelper.extractUserId(argument);
 
       if (!playerIdOpt.isPresent()) {
@@ -124,73 +310,221 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
       players.add(playerIdOpt.get());
     }
 
-    findBalancedGame(ImmutableSet.copyOf(players), message);
-  }
-
-  private void channelGameCommand(List<String> arguments, Message message) {
-    VoiceChannel voiceChannel = message.getAuthorAsMember().flatMap(Member::getVoiceState)
-        .flatMap(VoiceState::getChannel).block();
+    if (players.size() < 2 * gameCount) {
+      DiscordHelper.respond(message, String.format("%d games need at least %d players.",
+          gameCount, 2 * gameCount));
+      return;
+    }
 
-    if (voiceChannel == null) {
-      DiscordHelper.respond(message, "Not in voice channel.");
+    Optional<RankingSnapshot> snapshotOpt = snapshotFor(message);
+    if (!snapshotOpt.isPresent()) {
       return;
     }
+    MultiMatch multiMatch = snapshotOpt.get().findBalancedMatches(ImmutableSet.copyOf(players),
+        gameCount, MULTIGAME_TIME_BUDGET);
 
-    ImmutableList<Long> channelUsers = voiceChannel.getVoiceStates()
-        .map(VoiceState::getUserId)
-        .map(Snowflake::asLong)
-        .collect(ImmutableList.toImmutableList())
-        .block();
+    StringBuilder outputBuilder = new StringBuilder();
+    outputBuilder.append(String.format("**Recommended Games** (%d players)", players.size()));
+    for (int game = 0; game < multiMatch.getMatches().size(); game++) {
+      Match match = multiMatch.getMatches().get(game);
+      PendingMatch pendingMatch = pendingMatches.add(message.getChannelId().asLong(), match);
 
-    HashSet<Long> players = new HashSet<>();
-    players.addAll(channelUsers);
+      outputBuilder.append("\n");
+      outputBuilder.append("\n");
+      outputBuilder.append(String.format("**Game %d** `#%d`", game + 1, pendingMatch.getId()));
+      outputBuilder.append("\n");
+      printMatch(outputBuilder, match);
+      outputBuilder.append("\n");
+      outputBuilder.append("Map: ");
+      outputBuilder.append(rankedMapSelector.randomMap());
+    }
+    outputBuilder.append("\n");
+    outputBuilder.append("\n");
+    outputBuilder.append(String.format("Lowest Match Quality: %,.1f%%, found in %d ms.",
+        multiMatch.lowestMatchQuality() * 100, multiMatch.getSearchTime().toMillis()));
+    outputBuilder.append("\n");
+    outputBuilder.append(String.format("Record each result with %s team1 won #[game id]",
+        botSystem.selfNicknameMention()));
 
-    for (String argument : arguments.subList(1, arguments.size())) {
-      boolean addPlayer = true;
-      String playerString = argument;
+    DiscordHelper.respond(message, outputBuilder.toString());
+  }
+
+  private void rebalanceCommand(List<String> arguments, Message message) throws Exception {
+    ArrayList<Long> team1 = new ArrayList<>();
+    ArrayList<Long> team2 = new ArrayList<>();
+    boolean firstTeam = true;
 
-      if (argument.startsWith("+")) {
-        playerString = argument.substring(1);
-      } else if (argument.startsWith("-")) {
-        addPlayer = false;
-        playerString = argument.substring(1);
+    for (String argument : arguments.subList(1, arguments.size())) {
+      if (argument.equals("vs")) {
+        firstTeam = false;
+        continue;
       }
-      Optional<Long> playerIdOpt = DiscordHelper.extractUserId(playerString);
+
+      Optional<Long> playerIdOpt = DiscordHelper.extractUserId(argument);
 
       if (!playerIdOpt.isPresent()) {
-        DiscordHelper.respond(message, String.format("Unknown player %s.", playerString));
+        DiscordHelper.respond(message, String.format("Unknown player %s.", argument));
         return;
       }
 
-      if (addPlayer) {
-        players.add(playerIdOpt.get());
-      } else if (argument.startsWith("-")) {
-        players.remove(playerIdOpt.get());
+      if (team1.contains(playerIdOpt.get()) || team2.contains(playerIdOpt.get())) {
+        DiscordHelper.respond(message, String.format("Player %s is listed twice.", argument));
+        return;
+      }
+
+      if (firstTeam) {
+        team1.add(playerIdOpt.get());
+      } else {
+        team2.add(playerIdOpt.get());
       }
     }
 
-    findBalancedGame(ImmutableSet.copyOf(players), message);
-  }
+    if (team1.isEmpty() || team2.isEmpty()) {
+      DiscordHelper.respond(message, String.format("Provide two teams. Usage: %s rebalance"
+          + " [player1] [player2] vs [player3] [player4]", botSystem.selfNicknameMention()));
+      return;
+    }
 
-  private void findBalancedGame(ImmutableSet<Long> playerIds, Message message) {
-    Match match = playerRankingSystem.findBalancedMatch(ImmutableSet.copyOf(playerIds));
+    Optional<RankingSnapshot> snapshotOpt = snapshotFor(message);
+    if (!snapshotOpt.isPresent()) {
+      return;
+    }
+    Rebalance rebalance = snapshotOpt.get().rebalance(ImmutableList.copyOf(team1),
+        ImmutableList.copyOf(team2));
 
     StringBuilder outputBuilder = new StringBuilder();
-    outputBuilder.append("**Recommended Teams**");
-    outputBuilder.append("\n");
-    outputBuilder.append("\n");
-    printMatch(outputBuilder, match);
+    outputBuilder.append("**Current Teams**");
     outputBuilder.append("\n");
     outputBuilder.append("\n");
-    outputBuilder.append(new Random().nextBoolean() ? "Team 1 picks first." :
-        "Team 2 picks first.");
-    outputBuilder.append("\n");
-    outputBuilder.append("Map: ");
-    outputBuilder.append(rankedMapSelector.randomMap());
+    printMatch(outputBuilder, rebalance.getCurrentMatch());
+
+    if (rebalance.getSwaps().isEmpty()) {
+      outputBuilder.append("\n");
+      outputBuilder.append("\n");
+      outputBuilder.append("Swapping one or two players would not improve the match.");
+    }
+    for (Swap swap : rebalance.getSwaps()) {
+      outputBuilder.append("\n");
+      outputBuilder.append("\n");
+      outputBuilder.append(String.format("**Swap %s for %s**",
+          DiscordHelper.mentionListOfPLayers(botSystem, swap.getFromTeam1()),
+          DiscordHelper.mentionListOfPLayers(botSystem, swap.getFromTeam2())));
+      outputBuilder.append("\n");
+      outputBuilder.append("\n");
+      printMatch(outputBuilder, swap.getResult());
+    }
 
     DiscordHelper.respond(message, outputBuilder.toString());
+  }
 
-    lastMatch = Optional.of(match);
+  private void queueCommand(List<String> arguments, Message message) {
+    long channelId = message.getChannelId().asLong();
+    MatchmakingQueue queue = queues.computeIfAbsent(channelId, id -> MatchmakingQueue.create(
+        gameInfo, QUEUE_DEFAULT_PLAYERS_PER_GAME, QUEUE_QUALITY_THRESHOLD,
+        QUEUE_MAX_WAIT_MILLIS));
+
+    if (arguments.size() == 2 && arguments.get(1).equals("list")) {
+      ImmutableList<Long> queuedPlayers = queue.players();
+      DiscordHelper.respond(message, queuedPlayers.isEmpty() ? "Nobody is queued."
+          : String.format("Queued for %d player games (%d): %s", queue.getPlayersPerGame(),
+              queuedPlayers.size(), DiscordHelper.mentionListOfPLayers(botSystem,
+                  queuedPlayers)));
+      return;
+    }
+
+    if (arguments.size() == 3 && arguments.get(1).equals("size")) {
+      if (!DiscordHelper.messageIsFromAdmin(message)) {
+        return;
+      }
+      int playersPerGame;
+      try {
+        playersPerGame = Integer.parseInt(arguments.get(2));
+      } catch (NumberFormatException e) {
+        playersPerGame = 0;
+      }
+      if (playersPerGame < 2 || playersPerGame > RankingSnapshot.MAX_MATCH_PLAYERS) {
+        DiscordHelper.respond(message, String.format("A game needs from 2 to %d players.",
+            RankingSnapshot.MAX_MATCH_PLAYERS));
+        return;
+      }
+      queue.setPlayersPerGame(playersPerGame);
+      DiscordHelper.respond(message, String.format("The queue now forms %d player games.",
+          playersPerGame));
+      formQueuedGames(channelId, queue);
+      return;
+    }
+
+    if (arguments.size() != 1) {
+      DiscordHelper.respond(message, String.format("Usage: %s queue   or   %s queue list   or"
+              + "   %s queue size [players per game]", botSystem.selfNicknameMention(),
+          botSystem.selfNicknameMention(), botSystem.selfNicknameMention()));
+      return;
+    }
+
+    Optional<PlayerRankingSystem> playerRankingSystemOpt = ladderFor(message);
+    if (!playerRankingSystemOpt.isPresent()) {
+      return;
+    }
+    long playerId = Long.parseLong(message.getUserData().id());
+    if (!queue.join(playerId, playerRankingSystemOpt.get().getSnapshot()
+        .getPlayerRatingOrDefault(playerId), System.currentTimeMillis())) {
+      DiscordHelper.respond(message, queue.players().contains(playerId)
+          ? "You are already queued." : "The queue is full.");
+      return;
+    }
+
+    DiscordHelper.respond(message, String.format("%s joined the queue (%d/%d).",
+        DiscordHelper.mentionPlayer(playerId), queue.players().size(),
+        queue.getPlayersPerGame()));
+    formQueuedGames(channelId, queue);
+  }
+
+  private void leaveQueueCommand(List<String> arguments, Message message) {
+    MatchmakingQueue queue = queues.get(message.getChannelId().asLong());
+    long playerId = Long.parseLong(message.getUserData().id());
+    if (queue == null || !queue.leave(playerId)) {
+      DiscordHelper.respond(message, "You are not queued.");
+      return;
+    }
+    DiscordHelper.respond(message, String.format("%s left the queue.",
+        DiscordHelper.mentionPlayer(playerId)));
+  }
+
+  @GuardedBy("executor")
+  private void checkQueues() {
+    try {
+      queues.forEach(this::formQueuedGames);
+    } catch (Exception e) {
+      logger.error("Error while checking queues.", e);
+    }
+  }
+
+  /**
+   * Announces every game which is due in the channel's queue, and adds them as pending matches.
+   */
+  @GuardedBy("executor")
+  private void formQueuedGames(long channelId, MatchmakingQueue queue) {
+    Optional<Match> matchOpt;
+    while ((matchOpt = queue.poll(System.currentTimeMillis())).isPresent()) {
+      Match match = matchOpt.get();
+      PendingMatch pendingMatch = pendingMatches.add(channelId, match);
+
+      StringBuilder outputBuilder = new StringBuilder();
+      outputBuilder.append(String.format("**Game Ready** `#%d`", pendingMatch.getId()));
+      outputBuilder.append("\n");
+      outputBuilder.append("\n");
+      printMatch(outputBuilder, match);
+      outputBuilder.append("\n");
+      outputBuilder.append("\n");
+      outputBuilder.append("Map: ");
+      outputBuilder.append(rankedMapSelector.randomMap());
+      outputBuilder.append("\n");
+      outputBuilder.append("\n");
+      outputBuilder.append(String.format("Record the result with %s team1 won #%d",
+          botSystem.selfNicknameMention(), pendingMatch.getId()));
+
+      DiscordHelper.sendMessage(botSystem, channelId, outputBuilder.toString());
+    }
   }
 
   private void gameOutcomeCommand(List<String> arguments, Message message) {
@@ -198,6 +532,28 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
       return;
     }
 
+    // Several outcomes can be pasted at once, one per line, and are recorded together.
+    ImmutableList.Builder<MatchOutcome> matchOutcomesBuilder = ImmutableList.builder();
+    for (List<String> lineArguments : commandLines(arguments, message)) {
+      Optional<MatchOutcome> matchOutcome = parseMatchOutcome(lineArguments, message);
+      if (!matchOutcome.isPresent()) {
+        return;
+      }
+      matchOutcomesBuilder.add(matchOutcome.get());
+    }
+
+    ImmutableList<MatchOutcome> matchOutcomes = matchOutcomesBuilder.build();
+    if (matchOutcomes.size() == 1) {
+      recordMatchOutcome(matchOutcomes.get(0), message);
+    } else {
+      recordMatchOutcomes(matchOutcomes, message);
+    }
+  }
+
+  /**
+   * Parses one {@code outcome} command. Responds and returns empty if it is malformed.
+   */
+  private Optional<MatchOutcome> parseMatchOutcome(List<String> arguments, Message message) {
     HashSet<Long> winners = new HashSet<>();
     HashSet<Long> losers = new HashSet<>();
     boolean winningTeam = true;
@@ -212,7 +568,7 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
 
       if (!playerIdOpt.isPresent()) {
         DiscordHelper.respond(message, String.format("Unknown player %s.", argument));
-        return;
+        return Optional.empty();
       }
 
       if (winningTeam) {
@@ -225,13 +581,13 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
     if (winningTeam) {
       DiscordHelper.respond(message,
           String.format("Provide two teams. Usage: %s outcome [player1] [player2] beat [player3] " +
-                  "[player4]   or   %s outcome team1 won",
+                  "[player4]   or   %s team1 won [#match]",
               botSystem.selfNicknameMention(), botSystem.selfNicknameMention()));
-      return;
+      return Optional.empty();
     }
 
-    recordMatchOutcome(MatchOutcome.createTeam1Won(new Match(ImmutableList.copyOf(winners),
-        ImmutableList.copyOf(losers), Optional.empty())), message);
+    return Optional.of(MatchOutcome.createTeam1Won(new Match(ImmutableList.copyOf(winners),
+        ImmutableList.copyOf(losers), Optional.empty())));
   }
 
   private void teamOutcomeCommand(List<String> arguments, Message message) {
@@ -239,76 +595,138 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
       return;
     }
 
-    if (arguments.size() != 2) {
+    if (arguments.size() != 2 && arguments.size() != 3) {
       return;
     }
 
     boolean team1 = arguments.get(0).equals("team1");
-    boolean team2 = arguments.get(0).equals("team2");
     boolean won = arguments.get(1).equals("won");
     boolean lost = arguments.get(1).equals("lost");
 
-    if (team1) {
-      if (won) {
-        registerTeam1Won(message);
-      } else if (lost) {
-        registerTeam2Won(message);
-      }
-    } else if (team2) {
-      if (won) {
-        registerTeam2Won(message);
-      } else if (lost) {
-        registerTeam1Won(message);
-      }
+    if (!won && !lost) {
+      return;
     }
-  }
 
-  private void team2OutcomeCommand(List<String> arguments, Message message) {
-    if (!DiscordHelper.messageIsFromAdmin(message)) {
+    Optional<PendingMatch> pendingMatchOpt = resolvePendingMatch(
+        arguments.size() == 3 ? Optional.of(arguments.get(2)) : Optional.empty(), message);
+    if (!pendingMatchOpt.isPresent()) {
       return;
     }
+    PendingMatch pendingMatch = pendingMatchOpt.get();
 
-    if (arguments.size() != 2) {
-      return;
+    MatchOutcome matchOutcome = team1 == won
+        ? MatchOutcome.createTeam1Won(pendingMatch.getMatch())
+        : MatchOutcome.createTeam2Won(pendingMatch.getMatch());
+    if (recordMatchOutcome(matchOutcome, message)) {
+      pendingMatches.remove(message.getChannelId().asLong(), pendingMatch.getId());
     }
+  }
 
-    if (arguments.get(1).equals("won")) {
-      registerTeam2Won(message);
+  /**
+   * Finds the pending match named by {@param idArgument}, eg. {@code #3}. Without an id, the
+   * channel's newest pending match is used. Responds with an error if there is no such match.
+   */
+  private Optional<PendingMatch> resolvePendingMatch(Optional<String> idArgument,
+      Message message) {
+    long channelId = message.getChannelId().asLong();
+
+    if (idArgument.isPresent()) {
+      Optional<Integer> id = parsePendingMatchId(idArgument.get());
+      Optional<PendingMatch> pendingMatch = id.flatMap(matchId ->
+          pendingMatches.get(channelId, matchId));
+      if (!pendingMatch.isPresent()) {
+        DiscordHelper.respond(message, String.format("No pending match %s.", idArgument.get()));
+      }
+      return pendingMatch;
     }
 
-    if (arguments.get(1).equals("lost")) {
-      registerTeam1Won(message);
+    Optional<PendingMatch> newestMatch = pendingMatches.newest(channelId);
+    if (!newestMatch.isPresent()) {
+      DiscordHelper.respond(message, "No previous match.");
     }
+    return newestMatch;
   }
 
-  private void registerTeam1Won(Message message) {
-    if (!lastMatch.isPresent()) {
-      DiscordHelper.respond(message, "No previous match.");
-      return;
+  private static Optional<Integer> parsePendingMatchId(String argument) {
+    try {
+      return Optional.of(Integer.parseInt(argument.replace("#", "")));
+    } catch (NumberFormatException e) {
+      return Optional.empty();
     }
-    recordMatchOutcome(MatchOutcome.createTeam1Won(lastMatch.get()), message);
   }
 
-  private void registerTeam2Won(Message message) {
-    if (!lastMatch.isPresent()) {
-      DiscordHelper.respond(message, "No previous match.");
+  private void pendingCommand(List<String> arguments, Message message) {
+    ImmutableList<PendingMatch> channelMatches = pendingMatches
+        .list(message.getChannelId().asLong());
+    if (channelMatches.isEmpty()) {
+      DiscordHelper.respond(message, "No pending matches.");
       return;
     }
-    recordMatchOutcome(MatchOutcome.createTeam2Won(lastMatch.get()), message);
+
+    StringBuilder outputBuilder = new StringBuilder();
+    outputBuilder.append("**Pending Matches**");
+    outputBuilder.append("\n");
+    for (PendingMatch pendingMatch : channelMatches) {
+      outputBuilder.append("\n");
+      outputBuilder.append(String.format("`#%d` suggested at %s", pendingMatch.getId(),
+          TIME_FORMAT.format(Instant.ofEpochMilli(pendingMatch.getCreatedMillis()))));
+      outputBuilder.append("\n");
+      printMatch(outputBuilder, pendingMatch.getMatch());
+      outputBuilder.append("\n");
+    }
+
+    DiscordHelper.respond(message, outputBuilder.toString());
   }
 
-  private void recordMatchOutcome(MatchOutcome matchOutcome, Message message) {
+  /**
+   * Returns true if the outcome was recorded.
+   */
+  private boolean recordMatchOutcome(MatchOutcome matchOutcome, Message message) {
+    Optional<PlayerRankingSystem> playerRankingSystemOpt = ladderFor(message);
+    if (!playerRankingSystemOpt.isPresent()) {
+      return false;
+    }
+
     try {
-      playerRankingSystem.recordMatchOutcome(matchOutcome);
+      playerRankingSystemOpt.get().recordMatchOutcome(matchOutcome);
       StringBuilder outputBuilder = new StringBuilder();
       outputBuilder.append("Match recorded. Player ratings have been adjusted.");
       outputBuilder.append("\n");
       outputBuilder.append("\n");
       printMatchOutcome(outputBuilder, matchOutcome);
       DiscordHelper.respond(message, outputBuilder.toString());
+      return true;
     } catch (Exception e) {
       logger.error("Error recording match outcome.", e);
       DiscordHelper.respond(message, "Error recording match outcome. Please check server logs.");
+      return false;
+    }
+  }
+
+  /**
+   * Records several outcomes as a single operation, which is undone as one.
+   */
+  private void recordMatchOutcomes(ImmutableList<MatchOutcome> matchOutcomes, Message message) {
+    Optional<PlayerRankingSystem> playerRankingSystemOpt = ladderFor(message);
+    if (!playerRankingSystemOpt.isPresent()) {
+      return;
+    }
+
+    try {
+      playerRankingSystemOpt.get().recordMatchOutcomes(matchOutcomes);
+      StringBuilder outputBuilder = new StringBuilder();
+      outputBuilder.append(String.format("%d matches recorded. Player ratings have been "
+          + "adjusted. Use undo to revert them all.", matchOutcomes.size()));
+      for (MatchOutcome matchOutcome : matchOutcomes) {
+        outputBuilder.append("\n");
+        outputBuilder.append("\n");
+        printMatchOutcome(outputBuilder, matchOutcome);
+      }
+      DiscordHelper.respond(message, outputBuilder.toString());
+    } catch (Exception e) {
+      logger.error("Error recording match outcomes.", e);
+      DiscordHelper.respond(message, "Error recording match outcomes, so none were recorded. "
+          + "Please check server logs.");
     }
   }
 
@@ -318,6 +736,13 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
       return;
     }
 
+    // Several players can be pasted at once, one per line, and are registered together.
+    ImmutableList<ImmutableList<String>> commandLines = commandLines(arguments, message);
+    if (commandLines.size() > 1) {
+      registerPlayers(commandLines, message);
+      return;
+    }
+
     if (arguments.size() != 3 && arguments.size() != 2) {
       if (HIDE_RATING) {
         DiscordHelper
@@ -332,10 +757,15 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
     }
 
     String playerMention = arguments.get(1);
-    Optional<Integer> initialRating = Optional.empty();
+    Optional<Double> initialRating = Optional.empty();
 
     if (arguments.size() == 3) {
-      initialRating = Optional.of(Integer.parseInt(arguments.get(2)));
+      initialRating = parseRating(arguments.get(2));
+      if (!initialRating.isPresent()) {
+        DiscordHelper.respond(message, String.format("Invalid rating %s. Usage: %s register "
+            + "[user] [rating]", arguments.get(2), botSystem.selfNicknameMention()));
+        return;
+      }
     }
 
     Optional<Long> playerIdOpt = DiscordHelper.extractUserId(playerMention);
@@ -346,6 +776,12 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
       return;
     }
 
+    Optional<PlayerRankingSystem> playerRankingSystemOpt = ladderFor(message);
+    if (!playerRankingSystemOpt.isPresent()) {
+      return;
+    }
+    PlayerRankingSystem playerRankingSystem = playerRankingSystemOpt.get();
+
     long playerId = playerIdOpt.get();
     if (playerRankingSystem.hasPlayer(playerId)) {
       DiscordHelper.respond(message, String.format("User %s is already registered.",
@@ -373,13 +809,96 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
     }
   }
 
+  private void registerPlayers(ImmutableList<ImmutableList<String>> commandLines,
+      Message message) {
+    // Ordered, so players are reported back in the order given.
+    LinkedHashMap<Long, Optional<Double>> initialRatings = new LinkedHashMap<>();
+    for (List<String> lineArguments : commandLines) {
+      if (lineArguments.size() != 3 && lineArguments.size() != 2) {
+        DiscordHelper.respond(message, String.format("Provide one player per line. Usage: %s "
+                + "register [user] [rating], on as many lines as needed",
+            botSystem.selfNicknameMention()));
+        return;
+      }
+
+      Optional<Long> playerIdOpt = DiscordHelper.extractUserId(lineArguments.get(1));
+      if (!playerIdOpt.isPresent()) {
+        DiscordHelper.respond(message, String.format("Unknown player %s.",
+            lineArguments.get(1)));
+        return;
+      }
+      if (initialRatings.containsKey(playerIdOpt.get())) {
+        DiscordHelper.respond(message, String.format("User %s is on more than one line, so "
+            + "nobody was registered.", DiscordHelper.mentionPlayer(playerIdOpt.get())));
+        return;
+      }
+
+      Optional<Double> initialRating = Optional.empty();
+      if (lineArguments.size() == 3) {
+        initialRating = parseRating(lineArguments.get(2));
+        if (!initialRating.isPresent()) {
+          DiscordHelper.respond(message, String.format("Invalid rating %s, so nobody was "
+                  + "registered. Usage: %s register [user] [rating], on as many lines as needed",
+              lineArguments.get(2), botSystem.selfNicknameMention()));
+          return;
+        }
+      }
+      initialRatings.put(playerIdOpt.get(), initialRating);
+    }
+
+    Optional<PlayerRankingSystem> playerRankingSystemOpt = ladderFor(message);
+    if (!playerRankingSystemOpt.isPresent()) {
+      return;
+    }
+    PlayerRankingSystem playerRankingSystem = playerRankingSystemOpt.get();
+
+    for (long playerId : initialRatings.keySet()) {
+      if (playerRankingSystem.hasPlayer(playerId)) {
+        DiscordHelper.respond(message, String.format("User %s is already registered, so nobody "
+            + "was registered.", DiscordHelper.mentionPlayer(playerId)));
+        return;
+      }
+    }
+
+    try {
+      playerRankingSystem.createPlayers(ImmutableMap.copyOf(initialRatings));
+      DiscordHelper.respond(message, String.format("Registered users %s.",
+          initialRatings.keySet().stream()
+              .map(DiscordHelper::mentionPlayer)
+              .collect(Collectors.joining(", "))));
+    } catch (Exception e) {
+      logger.error("Error registering users.", e);
+      DiscordHelper.respond(message, "Error registering users, so nobody was registered. "
+          + "Please check server logs.");
+    }
+  }
+
+  /**
+   * Parses an initial mean rating, eg. {@code 25} or {@code 25.5}. Returns empty if it is not a
+   * finite number.
+   */
+  private static Optional<Double> parseRating(String argument) {
+    try {
+      double rating = Double.parseDouble(argument);
+      return Double.isFinite(rating) ? Optional.of(rating) : Optional.empty();
+    } catch (NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+
   private void undoCommand(List<String> arguments, Message message) {
     if (!DiscordHelper.messageIsFromAdmin(message)) {
       return;
     }
 
+    Optional<PlayerRankingSystem> playerRankingSystemOpt = ladderFor(message);
+    if (!playerRankingSystemOpt.isPresent()) {
+      return;
+    }
+
     try {
-      Optional<RankingOperation> rankingOperation = playerRankingSystem.undoLastRankingChange();
+      Optional<RankingOperation> rankingOperation = playerRankingSystemOpt.get()
+          .undoLastRankingChange();
 
       if (!rankingOperation.isPresent()) {
         DiscordHelper.respond(message, "No operations to undo.");
@@ -398,12 +917,217 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
     }
   }
 
-  private void lastCommand(List<String> arguments, Message message) {
+  private void restoreCommand(List<String> arguments, Message message) {
+    if (!DiscordHelper.messageIsFromAdmin(message)) {
+      return;
+    }
+
+    Optional<PlayerRankingSystem> playerRankingSystemOpt = ladderFor(message);
+    if (!playerRankingSystemOpt.isPresent()) {
+      return;
+    }
+    PlayerRankingSystem playerRankingSystem = playerRankingSystemOpt.get();
+
+    if (arguments.size() == 1) {
+      ImmutableList<BackupEntry> backups = playerRankingSystem.listBackups();
+      if (backups.isEmpty()) {
+        DiscordHelper.respond(message, "No backups.");
+        return;
+      }
+
+      StringBuilder outputBuilder = new StringBuilder();
+      outputBuilder.append("**Backups**");
+      outputBuilder.append("\n");
+      outputBuilder.append("\n");
+      backups.stream().limit(BACKUPS_TO_LIST).forEach(backup -> {
+        outputBuilder.append(String.format("`#%d` %s, %s", backup.getBackupId(),
+            TIME_FORMAT.format(Instant.ofEpochMilli(backup.getTimestampMillis())),
+            backup.getDescription()));
+        outputBuilder.append("\n");
+      });
+      outputBuilder.append("\n");
+      outputBuilder.append(String.format("Usage: %s restore [backup id]",
+          botSystem.selfNicknameMention()));
+      DiscordHelper.respond(message, outputBuilder.toString());
+      return;
+    }
+
+    if (arguments.size() != 2) {
+      return;
+    }
+
+    long backupId;
+    try {
+      backupId = Long.parseLong(arguments.get(1).replace("#", ""));
+    } catch (NumberFormatException e) {
+      DiscordHelper.respond(message, String.format("Unknown backup %s.", arguments.get(1)));
+      return;
+    }
+
+    if (playerRankingSystem.listBackups().stream()
+        .noneMatch(backup -> backup.getBackupId() == backupId)) {
+      DiscordHelper.respond(message, String.format("Unknown backup %s.", arguments.get(1)));
+      return;
+    }
+
+    try {
+      playerRankingSystem.restoreBackup(backupId);
+      DiscordHelper.respond(message, String.format("Restored backup #%d. Use undo to revert.",
+          backupId));
+    } catch (Exception e) {
+      logger.error("Error restoring backup.", e);
+      DiscordHelper.respond(message, "Error restoring backup. Please check server logs.");
+    }
+  }
+
+  /**
+   * Imports match outcomes from an attached CSV file. The attachment is downloaded to a temporary
+   * file off the command thread, with timeouts and at most {@link #MAX_IMPORT_BYTES}, so that a
+   * slow download never holds up writes. Only the import itself runs on the command thread.
+   */
+  private void importCommand(List<String> arguments, Message message) throws Exception {
     if (!DiscordHelper.messageIsFromAdmin(message)) {
       return;
     }
 
-    Optional<RankingOperation> rankingOperation = playerRankingSystem.lastOperation();
+    if (message.getAttachments().size() != 1) {
+      DiscordHelper.respond(message, String.format("Attach one CSV file. Usage: %s import, with "
+              + "one match per line as `winners,losers` and players separated by spaces.",
+          botSystem.selfNicknameMention()));
+      return;
+    }
+
+    Attachment attachment = message.getAttachments().iterator().next();
+    if (attachment.getSize() > MAX_IMPORT_BYTES) {
+      DiscordHelper.respond(message, String.format("%s is too large to import. The limit is "
+          + "%d MB.", attachment.getFilename(), MAX_IMPORT_BYTES / (1024 * 1024)));
+      return;
+    }
+
+    Path importFile = Files.createTempFile("aoe-import", ".csv");
+    try {
+      if (!download(attachment.getUrl(), importFile)) {
+        DiscordHelper.respond(message, String.format("%s is too large to import. The limit is "
+            + "%d MB.", attachment.getFilename(), MAX_IMPORT_BYTES / (1024 * 1024)));
+        return;
+      }
+      executor.submit(() -> importMatchOutcomes(importFile, attachment.getFilename(), message))
+          .get();
+    } catch (IOException e) {
+      logger.error("Error downloading match outcomes.", e);
+      DiscordHelper.respond(message, String.format("Error downloading %s. Please try again.",
+          attachment.getFilename()));
+    } finally {
+      Files.deleteIfExists(importFile);
+    }
+  }
+
+  /**
+   * Downloads {@param url} to {@param file}. Returns false, leaving the file incomplete, if it is
+   * larger than {@link #MAX_IMPORT_BYTES}.
+   */
+  private static boolean download(String url, Path file) throws IOException {
+    URLConnection connection = new URL(url).openConnection();
+    connection.setConnectTimeout((int) IMPORT_DOWNLOAD_TIMEOUT.toMillis());
+    connection.setReadTimeout((int) IMPORT_DOWNLOAD_TIMEOUT.toMillis());
+    try (InputStream inputStream = connection.getInputStream();
+        OutputStream outputStream = Files.newOutputStream(file)) {
+      return ByteStreams.copy(ByteStreams.limit(inputStream, MAX_IMPORT_BYTES + 1L),
+          outputStream) <= MAX_IMPORT_BYTES;
+    }
+  }
+
+  @GuardedBy("executor")
+  private void importMatchOutcomes(Path importFile, String fileName, Message message) {
+    Optional<PlayerRankingSystem> playerRankingSystemOpt = ladderFor(message);
+    if (!playerRankingSystemOpt.isPresent()) {
+      return;
+    }
+
+    try (Reader reader = new InputStreamReader(Files.newInputStream(importFile),
+        StandardCharsets.UTF_8)) {
+      ImportRankingOperation importRankingOperation = playerRankingSystemOpt.get()
+          .importMatchOutcomes(reader, fileName);
+      DiscordHelper.respond(message, String.format("Imported %d match outcomes from %s. "
+          + "Use undo to revert.", importRankingOperation.getMatchOutcomeCount(), fileName));
+    } catch (IllegalArgumentException e) {
+      DiscordHelper.respond(message, String.format("Nothing was imported. %s", e.getMessage()));
+    } catch (Exception e) {
+      logger.error("Error importing match outcomes.", e);
+      DiscordHelper.respond(message, "Error importing match outcomes. Please check server logs.");
+    }
+  }
+
+  /**
+   * Uploads the ladder as a gzipped CSV or NDJSON file. The export is written from the latest
+   * snapshot to a temporary file, so it neither holds up writes nor builds the file in memory.
+   */
+  private void exportCommand(List<String> arguments, Message message) throws Exception {
+    if (!DiscordHelper.messageIsFromAdmin(message)) {
+      return;
+    }
+
+    ExportFormat exportFormat = ExportFormat.CSV;
+    if (arguments.size() == 2) {
+      try {
+        exportFormat = ExportFormat.valueOf(arguments.get(1).toUpperCase());
+      } catch (IllegalArgumentException e) {
+        DiscordHelper.respond(message, String.format("Unknown format %s. Usage: %s export "
+            + "[csv|ndjson]", arguments.get(1), botSystem.selfNicknameMention()));
+        return;
+      }
+    } else if (arguments.size() > 2) {
+      return;
+    }
+
+    Optional<RankingSnapshot> snapshotOpt = snapshotFor(message);
+    if (!snapshotOpt.isPresent()) {
+      return;
+    }
+
+    Optional<ByteSource> saveData = snapshotOpt.get().getSaveData();
+    if (!saveData.isPresent()) {
+      DiscordHelper.respond(message, "Nothing to export.");
+      return;
+    }
+
+    String ladderName = ladderName(message);
+    String fileName = String.format("aoe%s-export.%s.gz",
+        ladderName.equals(LadderRegistry.DEFAULT_LADDER) ? "" : "-" + ladderName,
+        exportFormat.getFileExtension());
+
+    Path exportFile = Files.createTempFile("aoe-export", ".gz");
+    try {
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+          new GZIPOutputStream(Files.newOutputStream(exportFile)), StandardCharsets.UTF_8))) {
+        RankingExportWriter.write(saveData.get(), exportFormat, writer);
+      }
+
+      if (Files.size(exportFile) > MAX_UPLOAD_BYTES) {
+        DiscordHelper.respond(message, "Export is too large to upload. Please use the "
+            + "RankingExporter tool on the server.");
+        return;
+      }
+
+      try (InputStream inputStream = Files.newInputStream(exportFile)) {
+        DiscordHelper.respondWithFile(message, "**Ladder export**", fileName, inputStream);
+      }
+    } finally {
+      Files.deleteIfExists(exportFile);
+    }
+  }
+
+  private void lastCommand(List<String> arguments, Message message) throws Exception {
+    if (!DiscordHelper.messageIsFromAdmin(message)) {
+      return;
+    }
+
+    Optional<RankingSnapshot> snapshotOpt = snapshotFor(message);
+    if (!snapshotOpt.isPresent()) {
+      return;
+    }
+
+    Optional<RankingOperation> rankingOperation = snapshotOpt.get().lastOperation();
 
     if (!rankingOperation.isPresent()) {
       DiscordHelper.respond(message, "No previous operations.");
@@ -417,7 +1141,13 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
     }
   }
 
-  private void listPlayerCommand(List<String> arguments, Message message) {
+  private void listPlayerCommand(List<String> arguments, Message message) throws Exception {
+    Optional<RankingSnapshot> snapshotOpt = snapshotFor(message);
+    if (!snapshotOpt.isPresent()) {
+      return;
+    }
+    RankingSnapshot snapshot = snapshotOpt.get();
+
     AsciiTable asciiTable = new AsciiTable();
 
     if (HIDE_RATING) {
@@ -425,12 +1155,12 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
       asciiTable.addRow("Player Name", "Games Played", "Win Rate");
       asciiTable.addRule();
 
-      playerRankingSystem.getAllPlayerStats().entrySet().stream()
+      snapshot.getAllPlayers().entrySet().stream()
           .sorted(
               Comparator.comparingDouble(entry -> -entry.getValue().winRate()))
           .forEach(entry -> {
             long playerId = entry.getKey();
-            PlayerStats playerStats = entry.getValue();
+            PlayerSnapshot playerStats = entry.getValue();
             asciiTable.addRow(DiscordHelper.playerName(botSystem, playerId, message),
                 String.format("%d", playerStats.totalGamesPlayed()),
                 String.format("%,.1f%%", playerStats.winRate() * 100));
@@ -442,12 +1172,12 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
       asciiTable.addRow("Player Name", "Rating", "Std. Dev", "Games Played", "Win Rate");
       asciiTable.addRule();
 
-      playerRankingSystem.getAllPlayerStats().entrySet().stream()
+      snapshot.getAllPlayers().entrySet().stream()
           .sorted(
               Comparator.comparingDouble(entry -> -entry.getValue().getPlayerRating().getMean()))
           .forEach(entry -> {
             long playerId = entry.getKey();
-            PlayerStats playerStats = entry.getValue();
+            PlayerSnapshot playerStats = entry.getValue();
             asciiTable.addRow(DiscordHelper.playerName(botSystem, playerId, message),
                 String.format("%,.1f", playerStats.getPlayerRating().getMean()),
                 String.format("%,.1f", playerStats.getPlayerRating().getStandardDeviation()),
@@ -480,35 +1210,61 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
 
   }
 
-  private void statCommand(List<String> arguments, Message message) {
-    if (arguments.size() > 2) {
+  private void statCommand(List<String> arguments, Message message) throws Exception {
+    List<String> statArguments = arguments.subList(1, arguments.size());
+    int topCount = 1;
+
+    // Optional "top N" suffix, eg. "stats @player top 5".
+    if (statArguments.size() >= 2
+        && statArguments.get(statArguments.size() - 2).equals("top")) {
+      try {
+        topCount = Integer.parseInt(statArguments.get(statArguments.size() - 1));
+      } catch (NumberFormatException e) {
+        DiscordHelper.respond(message, String.format("Unknown number %s.",
+            statArguments.get(statArguments.size() - 1)));
+        return;
+      }
+      if (topCount < 1 || topCount > MAX_STATS_TOP_COUNT) {
+        DiscordHelper.respond(message, String.format("Top must be between 1 and %d.",
+            MAX_STATS_TOP_COUNT));
+        return;
+      }
+      statArguments = statArguments.subList(0, statArguments.size() - 2);
+    }
+
+    if (statArguments.size() > 1) {
       return;
     }
 
-    if (arguments.size() == 1) {
-      postStats(Long.parseLong(message.getUserData().id()), message);
+    if (statArguments.isEmpty()) {
+      postStats(Long.parseLong(message.getUserData().id()), topCount, message);
       return;
     }
 
-    Optional<Long> userIdOpt = DiscordHelper.extractUserId(arguments.get(1));
+    Optional<Long> userIdOpt = DiscordHelper.extractUserId(statArguments.get(0));
     if (!userIdOpt.isPresent()) {
-      DiscordHelper.respond(message, String.format("Unknown user %s.", arguments.get(1)));
+      DiscordHelper.respond(message, String.format("Unknown user %s.", statArguments.get(0)));
       return;
     }
 
     long userId = userIdOpt.get();
-    postStats(userId, message);
+    postStats(userId, topCount, message);
   }
 
-  private void postStats(long userId, Message message) {
-    Optional<PlayerStats> playerStatsOpt = playerRankingSystem.getPlayerStats(userId);
+  private void postStats(long userId, int topCount, Message message) throws Exception {
+    Optional<RankingSnapshot> snapshotOpt = snapshotFor(message);
+    if (!snapshotOpt.isPresent()) {
+      return;
+    }
+
+    Optional<PlayerSnapshot> playerStatsOpt = snapshotOpt.get().getPlayer(userId);
     if (!playerStatsOpt.isPresent()) {
       DiscordHelper.respond(message,
           String.format("No stats for user %s.", DiscordHelper.mentionPlayer(userId)));
       return;
     }
 
-    PlayerStats playerStats = playerStatsOpt.get();
+    PlayerSnapshot playerStats = playerStatsOpt.get();
 
     StringBuilder outputBuilder = new StringBuilder();
     outputBuilder
@@ -525,75 +1281,87 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
     outputBuilder.append("\n");
     outputBuilder.append("\n");
 
-    playerStats.getPlayedWithStats().values().stream()
-        .max(Comparator.comparingInt(PlayedWithStats::getGamesWon))
-        .ifPresent(playedWithStats -> {
-          outputBuilder.append("Most games won with: ");
-          outputBuilder.append(String.format("%s (%d)",
-              DiscordHelper.mentionPlayer(playedWithStats.getOtherPlayerId()),
-              playedWithStats.getGamesWon()));
-          outputBuilder.append("\n");
-        });
-
-    playerStats.getPlayedWithStats().values().stream()
-        .max(Comparator.comparingInt(PlayedWithStats::getGamesLost))
-        .ifPresent(playedWithStats -> {
-          outputBuilder.append("Most games lost with: ");
-          outputBuilder.append(String.format("%s (%d)",
-              DiscordHelper.mentionPlayer(playedWithStats.getOtherPlayerId()),
-              playedWithStats.getGamesLost()));
-          outputBuilder.append("\n");
-        });
+    printPlayedWithRanking(outputBuilder, playerStats, PlayedWithRanking.MOST_WON_WITH,
+        topCount, "Most games won with", playedWithStats ->
+            String.format("%d", playedWithStats.getGamesWon()));
+    printPlayedWithRanking(outputBuilder, playerStats, PlayedWithRanking.MOST_LOST_WITH,
+        topCount, "Most games lost with", playedWithStats ->
+            String.format("%d", playedWithStats.getGamesLost()));
 
     outputBuilder.append("\n");
 
-    playerStats.getPlayedWithStats().values().stream()
-        .max(Comparator.comparingInt(PlayedWithStats::getGamesWonAgainst))
-        .ifPresent(playedWithStats -> {
-          outputBuilder.append("Most games won against: ");
-          outputBuilder.append(String.format("%s (%d)",
-              DiscordHelper.mentionPlayer(playedWithStats.getOtherPlayerId()),
-              playedWithStats.getGamesWonAgainst()));
-          outputBuilder.append("\n");
-        });
-
-    playerStats.getPlayedWithStats().values().stream()
-        .max(Comparator.comparingInt(PlayedWithStats::getGamesLostAgainst))
-        .ifPresent(playedWithStats -> {
-          outputBuilder.append("Most games lost against: ");
-          outputBuilder.append(String.format("%s (%d)",
-              DiscordHelper.mentionPlayer(playedWithStats.getOtherPlayerId()),
-              playedWithStats.getGamesLostAgainst()));
-          outputBuilder.append("\n");
-        });
+    printPlayedWithRanking(outputBuilder, playerStats, PlayedWithRanking.MOST_WON_AGAINST,
+        topCount, "Most games won against", playedWithStats ->
+            String.format("%d", playedWithStats.getGamesWonAgainst()));
+    printPlayedWithRanking(outputBuilder, playerStats, PlayedWithRanking.MOST_LOST_AGAINST,
+        topCount, "Most games lost against", playedWithStats ->
+            String.format("%d", playedWithStats.getGamesLostAgainst()));
 
     outputBuilder.append("\n");
 
-    playerStats.getPlayedWithStats().values().stream()
-        .filter(stats -> stats.totalGamesPlayed() > 0)
-        .max(Comparator.comparingDouble(PlayedWithStats::winRate))
-        .ifPresent(playedWithStats -> {
-          outputBuilder.append("Highest win rate with: ");
-          outputBuilder.append(String.format("%s (%,.1f%%)",
-              DiscordHelper.mentionPlayer(playedWithStats.getOtherPlayerId()),
-              playedWithStats.winRate() * 100));
-          outputBuilder.append("\n");
-        });
-
-    playerStats.getPlayedWithStats().values().stream()
-        .filter(stats -> stats.totalGamesPlayed() > 0)
-        .min(Comparator.comparingDouble(PlayedWithStats::winRate))
-        .ifPresent(playedWithStats -> {
-          outputBuilder.append("Lowest win rate with: ");
-          outputBuilder.append(String.format("%s (%,.1f%%)",
-              DiscordHelper.mentionPlayer(playedWithStats.getOtherPlayerId()),
-              playedWithStats.winRate() * 100));
-          outputBuilder.append("\n");
-        });
+    printPlayedWithRanking(outputBuilder, playerStats, PlayedWithRanking.HIGHEST_WIN_RATE_WITH,
+        topCount, "Highest win rate with", playedWithStats ->
+            String.format("%,.1f%%", playedWithStats.winRate() * 100));
+    printPlayedWithRanking(outputBuilder, playerStats, PlayedWithRanking.LOWEST_WIN_RATE_WITH,
+        topCount, "Lowest win rate with", playedWithStats ->
+            String.format("%,.1f%%", playedWithStats.winRate() * 100));
 
     DiscordHelper.respond(message, outputBuilder.toString());
   }
 
+  /**
+   * Returns the ladder of the channel the message was posted in, responding with an error if it
+   * cannot be loaded.
+   */
+  private Optional<PlayerRankingSystem> ladderFor(Message message) {
+    String ladderName = ladderName(message);
+    try {
+      return Optional.of(ladderRegistry.getLadder(ladderName));
+    } catch (IllegalArgumentException e) {
+      DiscordHelper.respond(message, String.format("Invalid ladder name %s. Ladder names may "
+          + "only use a-z, 0-9, _ and -. Please register this channel again.", ladderName));
+    } catch (Exception e) {
+      logger.error(String.format("Error loading ladder '%s'.", ladderName), e);
+      DiscordHelper.respond(message, "Error loading ladder. Please check server logs.");
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Returns the latest snapshot of the ladder of the channel the message was posted in. If the
+   * ladder is not loaded, it is loaded on the command thread, since loading is a write.
+   */
+  private Optional<RankingSnapshot> snapshotFor(Message message) throws Exception {
+    Optional<RankingSnapshot> snapshot = ladderRegistry.getLoadedSnapshot(ladderName(message));
+    if (snapshot.isPresent()) {
+      return snapshot;
+    }
+    return executor.submit(() -> ladderFor(message).map(PlayerRankingSystem::getSnapshot)).get();
+  }
+
+  private String ladderName(Message message) {
+    return channelTagSuffix(message.getChannelId().asLong())
+        .orElse(LadderRegistry.DEFAULT_LADDER);
+  }
+
+  private void printPlayedWithRanking(StringBuilder stringBuilder, PlayerSnapshot playerStats,
+      PlayedWithRanking ranking, int topCount, String title,
+      Function<PlayedWithSnapshot, String> formatValue) {
+    ImmutableList<PlayedWithSnapshot> topPlayedWith = playerStats.topPlayedWith(ranking, topCount);
+    if (topPlayedWith.isEmpty()) {
+      return;
+    }
+
+    stringBuilder.append(title);
+    stringBuilder.append(": ");
+    stringBuilder.append(topPlayedWith.stream()
+        .map(playedWithStats -> String.format("%s (%s)",
+            DiscordHelper.mentionPlayer(playedWithStats.getOtherPlayerId()),
+            formatValue.apply(playedWithStats)))
+        .collect(Collectors.joining(", ")));
+    stringBuilder.append("\n");
+  }
+
   private void printRankingOperation(StringBuilder stringBuilder,
       RankingOperation rankingOperation) {
     if (rankingOperation instanceof CreatePlayerRankingOperation) {
@@ -617,6 +1385,29 @@ public class AgeOfEmpiresBotClient extends ChannelSpecificBotClient {
       stringBuilder.append("\n");
       stringBuilder.append("\n");
       printMatchOutcome(stringBuilder, matchOutcomeRankingOperation.getMatchOutcome());
+    } else if (rankingOperation instanceof ImportRankingOperation) {
+      ImportRankingOperation importRankingOperation = (ImportRankingOperation) rankingOperation;
+      stringBuilder.append("Import of ");
+      stringBuilder.append(importRankingOperation.getMatchOutcomeCount());
+      stringBuilder.append(" match outcomes from ");
+      stringBuilder.append(importRankingOperation.getSource());
+      stringBuilder.append(".");
+    } else if (rankingOperation instanceof BatchRankingOperation) {
+      BatchRankingOperation batchRankingOperation = (BatchRankingOperation) rankingOperation;
+      stringBuilder.append("Batch of ");
+      stringBuilder.append(batchRankingOperation.getRankingOperations().size());
+      stringBuilder.append(" operations:");
+      for (RankingOperation batchedOperation : batchRankingOperation.getRankingOperations()) {
+        stringBuilder.append("\n");
+        stringBuilder.append("\n");
+        printRankingOperation(stringBuilder, batchedOperation);
+      }
+    } else if (rankingOperation instanceof RestoreBackupRankingOperation) {
+      RestoreBackupRankingOperation restoreBackupRankingOperation =
+          (RestoreBackupRankingOperation) rankingOperation;
+      stringBuilder.append("Restore of backup #");
+      stringBuilder.append(restoreBackupRankingOperation.getBackupId());
+      stringBuilder.append(".");
     } else {
       logger.error(String.format("Unknown ranking operation, %s.", rankingOperation.getClass()));
       stringBuilder.append("Unknown operation. Please check server logs.");
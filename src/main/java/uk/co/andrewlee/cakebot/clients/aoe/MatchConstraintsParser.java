@@ -0,0 +1,131 @@
+package uk.co.andrewlee.cakebot.clients.aoe;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import javax.annotation.concurrent.NotThreadSafe;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchConstraints;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchConstraints.PlayerPair;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingSnapshot;
+import uk.co.andrewlee.cakebot.discord.DiscordHelper;
+
+/**
+ * Collects the team constraints given to the game commands:
+ * <ul>
+ *   <li>{@code @a&@b} keeps players on the same team. Chains like {@code @a&@b&@c} keep them
+ *   all together.</li>
+ *   <li>{@code @a!@b} keeps two players on different teams.</li>
+ *   <li>{@code fresh:N} splits up anyone who were teammates in the ladder's last N games.</li>
+ * </ul>
+ */
+@NotThreadSafe
+class MatchConstraintsParser {
+
+  private static final String FRESH_PREFIX = "fresh:";
+  private static final Pattern OPERATOR_SPACING = Pattern.compile("\\s*([&!])\\s*");
+  // Nickname mentions contain a !, so they are reduced to plain ids before looking for
+  // operators.
+  private static final Pattern MENTION = Pattern.compile("<@!?([0-9]+)>");
+  private static final Splitter TOGETHER_SPLITTER = Splitter.on('&');
+  private static final Splitter APART_SPLITTER = Splitter.on('!');
+
+  private final ImmutableList.Builder<PlayerPair> together;
+  private final ImmutableList.Builder<PlayerPair> apart;
+  private final ImmutableSet.Builder<Long> players;
+  private int recentTeammateGames;
+
+  MatchConstraintsParser() {
+    this.together = ImmutableList.builder();
+    this.apart = ImmutableList.builder();
+    this.players = ImmutableSet.builder();
+    this.recentTeammateGames = 0;
+  }
+
+  /**
+   * Rejoins constraints which were typed with spaces around their operator, eg. {@code @a & @b}.
+   */
+  static ImmutableList<String> joinOperators(List<String> arguments) {
+    String joined = OPERATOR_SPACING.matcher(String.join(" ", arguments)).replaceAll("$1");
+    return ImmutableList.copyOf(Splitter.on(' ').omitEmptyStrings().split(joined));
+  }
+
+  /**
+   * Returns false if the argument is not a constraint.
+   *
+   * @throws IllegalArgumentException if the argument is a malformed constraint.
+   */
+  boolean parse(String argument) throws IllegalArgumentException {
+    if (argument.startsWith(FRESH_PREFIX)) {
+      parseRecentTeammateGames(argument.substring(FRESH_PREFIX.length()));
+      return true;
+    }
+
+    String withoutMentions = MENTION.matcher(argument).replaceAll("$1");
+    if (withoutMentions.contains("&")) {
+      ImmutableList<Long> group = parsePlayers(TOGETHER_SPLITTER.split(withoutMentions),
+          argument);
+      for (int i = 1; i < group.size(); i++) {
+        together.add(new PlayerPair(group.get(i - 1), group.get(i)));
+      }
+      return true;
+    }
+    if (withoutMentions.contains("!")) {
+      ImmutableList<Long> pair = parsePlayers(APART_SPLITTER.split(withoutMentions), argument);
+      if (pair.size() != 2) {
+        throw new IllegalArgumentException(String.format(
+            "Only two players can be kept apart, in %s.", argument));
+      }
+      apart.add(new PlayerPair(pair.get(0), pair.get(1)));
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns every player named in a constraint.
+   */
+  ImmutableSet<Long> players() {
+    return players.build();
+  }
+
+  MatchConstraints build() {
+    return MatchConstraints.create(together.build(), apart.build(), recentTeammateGames);
+  }
+
+  private void parseRecentTeammateGames(String games) {
+    try {
+      recentTeammateGames = Integer.parseInt(games);
+    } catch (NumberFormatException e) {
+      recentTeammateGames = -1;
+    }
+    if (recentTeammateGames < 0
+        || recentTeammateGames > RankingSnapshot.MAX_RECENT_MATCH_OUTCOMES) {
+      throw new IllegalArgumentException(String.format(
+          "fresh needs a number of games from 0 to %d.",
+          RankingSnapshot.MAX_RECENT_MATCH_OUTCOMES));
+    }
+  }
+
+  private ImmutableList<Long> parsePlayers(Iterable<String> playerStrings, String argument) {
+    ImmutableList.Builder<Long> playerIds = ImmutableList.builder();
+    for (String playerString : playerStrings) {
+      Optional<Long> playerIdOpt = playerString.isEmpty() ? Optional.empty()
+          : DiscordHelper.extractUserId(playerString);
+      if (!playerIdOpt.isPresent()) {
+        throw new IllegalArgumentException(String.format("Unknown player %s in %s.",
+            playerString, argument));
+      }
+      playerIds.add(playerIdOpt.get());
+    }
+
+    ImmutableList<Long> parsedIds = playerIds.build();
+    if (ImmutableSet.copyOf(parsedIds).size() != parsedIds.size()) {
+      throw new IllegalArgumentException(String.format("A player is repeated in %s.", argument));
+    }
+    players.addAll(parsedIds);
+    return parsedIds;
+  }
+}
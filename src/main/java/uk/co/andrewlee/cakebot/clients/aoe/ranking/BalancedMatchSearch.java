@@ -0,0 +1,311 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Optional;
+import javax.annotation.concurrent.NotThreadSafe;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchConstraints.PlayerPair;
+import uk.co.andrewlee.cakebot.matchmaking.ScoredCandidate;
+import uk.co.andrewlee.cakebot.matchmaking.SearchBudget;
+import uk.co.andrewlee.cakebot.matchmaking.SearchResult;
+
+/**
+ * Branch and bound search for the most balanced ways to split players into two teams, subject to
+ * players who must be together or apart.
+ * <p>
+ * For a fixed set of players, TrueSkill match quality depends only on the difference between the
+ * teams' total mean ratings, so the search minimises that difference. Players are placed
+ * strongest first. A partial split is dropped as soon as it breaks a constraint, or as soon as no
+ * placement of the remaining players could beat the worst of the splits kept so far. Mirror
+ * image splits are skipped by always putting the strongest player on team 1 when the teams are
+ * the same size.
+ * <p>
+ * This is the default search of {@link RankingSnapshot#matchmakingEngine}.
+ */
+@NotThreadSafe
+class BalancedMatchSearch {
+
+  // Maximum players, so that a split fits in a long.
+  static final int MAX_PLAYERS = 64;
+  private static final int NO_TEAM = -1;
+  // Placements between checks of the budget.
+  private static final int BUDGET_CHECK_INTERVAL = 4096;
+
+  private final int playerCount;
+  private final long[] playerIds;
+  // Strongest first.
+  private final double[] means;
+  // prefixSums[i] is the sum of the first i means.
+  private final double[] prefixSums;
+  private final int team1Size;
+  private final int team2Size;
+
+  // Players who must be together share a group. Groups are indexed by their first player.
+  private final int[] groups;
+  private final int[] groupSizes;
+  // Bitmask of the groups each group must be apart from.
+  private final long[] apartGroups;
+
+  private final int splitsToKeep;
+  // Once this many splits are kept, stop if the worst is this close to an even match.
+  private final double goodEnoughDifference;
+  private final SearchBudget budget;
+
+  private final int[] groupTeams;
+  // Kept splits, best first, as a bitmask of team 1 and the difference in total mean rating.
+  private final long[] keptSplits;
+  private final double[] keptDifferences;
+  private int keptCount;
+  private boolean finished;
+  private boolean budgetExhausted;
+  private long placements;
+  private long splitsEvaluated;
+
+  /**
+   * Returns up to {@param splitsToKeep} of the most balanced splits, best first, without match
+   * qualities. Each is scored by its difference in total mean rating. Team 1 has the fewer
+   * players if there is an odd number. Empty if no split meets the constraints.
+   *
+   * @param goodEnoughDifference the search stops early once it has enough splits whose
+   * difference in total mean rating is at most this.
+   */
+  static SearchResult<Match> findBestSplits(ImmutableMap<Long, Double> playerMeans,
+      ImmutableList<PlayerPair> together, ImmutableList<PlayerPair> apart, int splitsToKeep,
+      double goodEnoughDifference, SearchBudget budget) {
+    Preconditions.checkArgument(playerMeans.size() >= 2 && playerMeans.size() <= MAX_PLAYERS);
+    Preconditions.checkArgument(splitsToKeep >= 1);
+
+    BalancedMatchSearch search = new BalancedMatchSearch(playerMeans, splitsToKeep,
+        goodEnoughDifference, budget);
+    if (search.addConstraints(together, apart)) {
+      search.search(0, 0, 0, 0, 0, 0L);
+    }
+    return new SearchResult<>(search.keptMatches(), !search.budgetExhausted,
+        search.splitsEvaluated, budget.elapsed());
+  }
+
+  private BalancedMatchSearch(ImmutableMap<Long, Double> playerMeans, int splitsToKeep,
+      double goodEnoughDifference, SearchBudget budget) {
+    this.playerCount = playerMeans.size();
+    this.playerIds = new long[playerCount];
+    this.means = new double[playerCount];
+    this.prefixSums = new double[playerCount + 1];
+
+    int index = 0;
+    for (Long playerId : playerMeans.keySet().stream()
+        .sorted(Comparator.comparingDouble(playerMeans::get).reversed())
+        .toArray(Long[]::new)) {
+      playerIds[index] = playerId;
+      means[index] = playerMeans.get(playerId);
+      prefixSums[index + 1] = prefixSums[index] + means[index];
+      index++;
+    }
+
+    this.team1Size = playerCount / 2;
+    this.team2Size = playerCount - team1Size;
+
+    this.groups = new int[playerCount];
+    this.groupSizes = new int[playerCount];
+    this.apartGroups = new long[playerCount];
+    for (int i = 0; i < playerCount; i++) {
+      groups[i] = i;
+      groupSizes[i] = 1;
+    }
+
+    this.splitsToKeep = splitsToKeep;
+    this.goodEnoughDifference = goodEnoughDifference;
+    this.budget = budget;
+    this.groupTeams = new int[playerCount];
+    Arrays.fill(groupTeams, NO_TEAM);
+    this.keptSplits = new long[splitsToKeep];
+    this.keptDifferences = new double[splitsToKeep];
+    this.keptCount = 0;
+    this.finished = false;
+    this.budgetExhausted = false;
+    this.placements = 0;
+    this.splitsEvaluated = 0;
+  }
+
+  /**
+   * Returns false if the constraints contradict each other.
+   */
+  private boolean addConstraints(ImmutableList<PlayerPair> together,
+      ImmutableList<PlayerPair> apart) {
+    for (PlayerPair pair : together) {
+      int group1 = group(indexOf(pair.getPlayer1()));
+      int group2 = group(indexOf(pair.getPlayer2()));
+      if (group1 != group2) {
+        int mergedGroup = Math.min(group1, group2);
+        int otherGroup = Math.max(group1, group2);
+        groups[otherGroup] = mergedGroup;
+        groupSizes[mergedGroup] += groupSizes[otherGroup];
+      }
+    }
+
+    // Flatten, so that every player points straight at their group.
+    for (int i = 0; i < playerCount; i++) {
+      groups[i] = group(i);
+      if (groupSizes[groups[i]] > team2Size) {
+        return false;
+      }
+    }
+
+    for (PlayerPair pair : apart) {
+      int group1 = groups[indexOf(pair.getPlayer1())];
+      int group2 = groups[indexOf(pair.getPlayer2())];
+      if (group1 == group2) {
+        return false;
+      }
+      apartGroups[group1] |= 1L << group2;
+      apartGroups[group2] |= 1L << group1;
+    }
+    return true;
+  }
+
+  /**
+   * Places player {@param next} onwards, given the players before them.
+   *
+   * @param difference total mean rating of team 1 minus team 2 so far.
+   * @param team1Count players placed on team 1 so far.
+   * @param team1Reserved places on team 1 taken by the groups with a player placed so far,
+   * including their players still to be placed. Likewise {@param team2Reserved}.
+   */
+  private void search(int next, double difference, int team1Count, int team1Reserved,
+      int team2Reserved, long team1Mask) {
+    if (finished) {
+      return;
+    }
+    if (++placements % BUDGET_CHECK_INTERVAL == 0 && budget.isExhausted()) {
+      budgetExhausted = true;
+      finished = true;
+      return;
+    }
+    if (next == playerCount) {
+      splitsEvaluated++;
+      keepSplit(team1Mask, Math.abs(difference));
+      return;
+    }
+    if (keptCount == splitsToKeep
+        && lowerBound(next, difference, team1Count) >= keptDifferences[keptCount - 1]) {
+      return;
+    }
+
+    int group = groups[next];
+    int groupTeam = groupTeams[group];
+    if (groupTeam == 0) {
+      search(next + 1, difference + means[next], team1Count + 1, team1Reserved, team2Reserved,
+          team1Mask | (1L << next));
+      return;
+    }
+    if (groupTeam == 1) {
+      search(next + 1, difference - means[next], team1Count, team1Reserved, team2Reserved,
+          team1Mask);
+      return;
+    }
+
+    if (team1Reserved + groupSizes[group] <= team1Size && !conflicts(group, 0)) {
+      groupTeams[group] = 0;
+      search(next + 1, difference + means[next], team1Count + 1,
+          team1Reserved + groupSizes[group], team2Reserved, team1Mask | (1L << next));
+      groupTeams[group] = NO_TEAM;
+    }
+
+    boolean mirrorImage = next == 0 && team1Size == team2Size;
+    if (!mirrorImage && team2Reserved + groupSizes[group] <= team2Size
+        && !conflicts(group, 1)) {
+      groupTeams[group] = 1;
+      search(next + 1, difference - means[next], team1Count, team1Reserved,
+          team2Reserved + groupSizes[group], team1Mask);
+      groupTeams[group] = NO_TEAM;
+    }
+  }
+
+  private boolean conflicts(int group, int team) {
+    long apart = apartGroups[group];
+    while (apart != 0) {
+      int otherGroup = Long.numberOfTrailingZeros(apart);
+      if (groupTeams[otherGroup] == team) {
+        return true;
+      }
+      apart &= apart - 1;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the smallest difference in total mean rating that any placement of the remaining
+   * players could reach, ignoring constraints. The remaining players are the weakest, in order,
+   * so the most and least team 1 could gain are sums of a prefix and a suffix of them.
+   */
+  private double lowerBound(int next, double difference, int team1Count) {
+    int team1Remaining = team1Size - team1Count;
+    double remainingTotal = prefixSums[playerCount] - prefixSums[next];
+    double strongestToTeam1 = prefixSums[next + team1Remaining] - prefixSums[next];
+    double weakestToTeam1 = prefixSums[playerCount]
+        - prefixSums[playerCount - team1Remaining];
+
+    double maxDifference = difference + 2 * strongestToTeam1 - remainingTotal;
+    double minDifference = difference + 2 * weakestToTeam1 - remainingTotal;
+    if (minDifference <= 0 && maxDifference >= 0) {
+      return 0;
+    }
+    return Math.min(Math.abs(minDifference), Math.abs(maxDifference));
+  }
+
+  private void keepSplit(long team1Mask, double difference) {
+    if (keptCount == splitsToKeep && difference >= keptDifferences[keptCount - 1]) {
+      return;
+    }
+
+    int index = Math.min(keptCount, splitsToKeep - 1);
+    while (index > 0 && keptDifferences[index - 1] > difference) {
+      keptSplits[index] = keptSplits[index - 1];
+      keptDifferences[index] = keptDifferences[index - 1];
+      index--;
+    }
+    keptSplits[index] = team1Mask;
+    keptDifferences[index] = difference;
+    keptCount = Math.min(keptCount + 1, splitsToKeep);
+
+    finished = keptCount == splitsToKeep
+        && keptDifferences[keptCount - 1] <= goodEnoughDifference;
+  }
+
+  private ImmutableList<ScoredCandidate<Match>> keptMatches() {
+    ImmutableList.Builder<ScoredCandidate<Match>> matches = ImmutableList.builder();
+    for (int split = 0; split < keptCount; split++) {
+      ImmutableList.Builder<Long> team1 = ImmutableList.builder();
+      ImmutableList.Builder<Long> team2 = ImmutableList.builder();
+      for (int i = 0; i < playerCount; i++) {
+        if ((keptSplits[split] & (1L << i)) != 0) {
+          team1.add(playerIds[i]);
+        } else {
+          team2.add(playerIds[i]);
+        }
+      }
+      matches.add(ScoredCandidate.create(keptSplits[split], keptDifferences[split],
+          new Match(team1.build(), team2.build(), Optional.empty())));
+    }
+    return matches.build();
+  }
+
+  private int indexOf(long playerId) {
+    for (int i = 0; i < playerCount; i++) {
+      if (playerIds[i] == playerId) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException(String.format("Player %d is not in the match.",
+        playerId));
+  }
+
+  private int group(int player) {
+    while (groups[player] != player) {
+      player = groups[player];
+    }
+    return player;
+  }
+}
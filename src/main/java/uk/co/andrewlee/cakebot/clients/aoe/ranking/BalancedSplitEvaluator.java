@@ -0,0 +1,107 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import de.gesundkrank.jskills.GameInfo;
+import de.gesundkrank.jskills.Rating;
+import java.util.Optional;
+import javax.annotation.concurrent.Immutable;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchConstraints.PlayerPair;
+import uk.co.andrewlee.cakebot.matchmaking.SplitEvaluator;
+
+/**
+ * Scores splits of AoE players by match quality, so that any {@link
+ * uk.co.andrewlee.cakebot.matchmaking.SearchStrategy} can be used in place of {@link
+ * BalancedMatchSearch}. Splits which break a constraint are not allowed.
+ */
+@Immutable
+class BalancedSplitEvaluator implements SplitEvaluator<Match> {
+
+  private final GameInfo gameInfo;
+  private final long[] playerIds;
+  private final double[] means;
+  private final double variance;
+  // Bitmasks of players who must be together or apart, a pair at a time.
+  private final long[] togetherMasks;
+  private final long[] apartMasks;
+
+  static BalancedSplitEvaluator create(GameInfo gameInfo, ImmutableMap<Long, Rating> ratings,
+      ImmutableList<PlayerPair> together, ImmutableList<PlayerPair> apart) {
+    ImmutableList<Long> playerIds = ratings.keySet().asList();
+    long[] ids = new long[playerIds.size()];
+    double[] means = new double[playerIds.size()];
+    double variance = 0;
+    for (int i = 0; i < ids.length; i++) {
+      Rating rating = ratings.get(playerIds.get(i));
+      ids[i] = playerIds.get(i);
+      means[i] = rating.getMean();
+      variance += TwoTeamQuality.variance(gameInfo, rating);
+    }
+
+    return new BalancedSplitEvaluator(gameInfo, ids, means, variance,
+        pairMasks(playerIds, together), pairMasks(playerIds, apart));
+  }
+
+  private BalancedSplitEvaluator(GameInfo gameInfo, long[] playerIds, double[] means,
+      double variance, long[] togetherMasks, long[] apartMasks) {
+    this.gameInfo = gameInfo;
+    this.playerIds = playerIds;
+    this.means = means;
+    this.variance = variance;
+    this.togetherMasks = togetherMasks;
+    this.apartMasks = apartMasks;
+  }
+
+  @Override
+  public int playerCount() {
+    return playerIds.length;
+  }
+
+  @Override
+  public Optional<Match> evaluate(long team1Mask) {
+    for (long togetherMask : togetherMasks) {
+      long onTeam1 = team1Mask & togetherMask;
+      if (onTeam1 != 0 && onTeam1 != togetherMask) {
+        return Optional.empty();
+      }
+    }
+    for (long apartMask : apartMasks) {
+      long onTeam1 = team1Mask & apartMask;
+      if (onTeam1 == 0 || onTeam1 == apartMask) {
+        return Optional.empty();
+      }
+    }
+
+    ImmutableList.Builder<Long> team1 = ImmutableList.builder();
+    ImmutableList.Builder<Long> team2 = ImmutableList.builder();
+    double difference = 0;
+    for (int i = 0; i < playerIds.length; i++) {
+      if ((team1Mask & (1L << i)) != 0) {
+        team1.add(playerIds[i]);
+        difference += means[i];
+      } else {
+        team2.add(playerIds[i]);
+        difference -= means[i];
+      }
+    }
+    return Optional.of(new Match(team1.build(), team2.build(), Optional.of(
+        TwoTeamQuality.quality(gameInfo, playerIds.length, difference, variance))));
+  }
+
+  /**
+   * Highest match quality first, which for a fixed set of players is the same as the smallest
+   * difference in total mean rating.
+   */
+  @Override
+  public double score(Match match) {
+    return -match.getMatchQuality().get();
+  }
+
+  private static long[] pairMasks(ImmutableList<Long> playerIds,
+      ImmutableList<PlayerPair> pairs) {
+    return pairs.stream()
+        .mapToLong(pair -> (1L << playerIds.indexOf(pair.getPlayer1()))
+            | (1L << playerIds.indexOf(pair.getPlayer2())))
+        .toArray();
+  }
+}
@@ -0,0 +1,410 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import com.google.common.base.Preconditions;
+import de.gesundkrank.jskills.GameInfo;
+import de.gesundkrank.jskills.IPlayer;
+import de.gesundkrank.jskills.ITeam;
+import de.gesundkrank.jskills.Player;
+import de.gesundkrank.jskills.Rating;
+import de.gesundkrank.jskills.SkillCalculator;
+import de.gesundkrank.jskills.numerics.Range;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.annotation.concurrent.NotThreadSafe;
+import uk.co.andrewlee.cakebot.persistence.CorruptSnapshotException;
+import uk.co.andrewlee.cakebot.persistence.SnapshotInput;
+import uk.co.andrewlee.cakebot.persistence.SnapshotOutput;
+
+/**
+ * Glicko-2 for two teams, using the composite opponent method: each player is rated as if they
+ * had played a single game against one opponent with the mean rating and root mean square
+ * deviation of the other team.
+ * <p>
+ * Ratings are kept on the {@link GameInfo} scale, so they can be swapped with TrueSkill ratings.
+ * A player at the initial mean and standard deviation has the Glicko-2 defaults of 1500 and 350.
+ * <p>
+ * Each player's volatility and the rating period they last played in are kept here, in primitive
+ * arrays keyed by player id, and saved with the ranking data. At the start of each game, a
+ * player's deviation grows by their volatility once for every rating period they have missed,
+ * which stands in for the end of period step of batch Glicko-2.
+ */
+@NotThreadSafe
+public class Glicko2SkillCalculator extends SkillCalculator implements StatefulSkillCalculator {
+
+  public static final double DEFAULT_TAU = 0.5;
+  public static final double DEFAULT_INITIAL_VOLATILITY = 0.06;
+  public static final long DEFAULT_RATING_PERIOD_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  // Glicko-2 rating units per unit of the Glicko-2 internal scale, and the default deviation.
+  private static final double GLICKO_SCALE = 173.7178;
+  private static final double GLICKO_INITIAL_DEVIATION = 350;
+  private static final double CONVERGENCE_TOLERANCE = 0.000001;
+  private static final int STATE_FORMAT = 1;
+
+  private final double tau;
+  private final double initialVolatility;
+  private final long ratingPeriodMillis;
+  private final LongSupplier clock;
+  private final PlayerStateTable playerStates;
+
+  public static Glicko2SkillCalculator create() {
+    return create(DEFAULT_TAU, DEFAULT_INITIAL_VOLATILITY, DEFAULT_RATING_PERIOD_MILLIS,
+        System::currentTimeMillis);
+  }
+
+  public static Glicko2SkillCalculator create(double tau, double initialVolatility,
+      long ratingPeriodMillis, LongSupplier clock) {
+    Preconditions.checkArgument(tau > 0);
+    Preconditions.checkArgument(initialVolatility > 0);
+    Preconditions.checkArgument(ratingPeriodMillis > 0);
+    return new Glicko2SkillCalculator(tau, initialVolatility, ratingPeriodMillis, clock);
+  }
+
+  private Glicko2SkillCalculator(double tau, double initialVolatility, long ratingPeriodMillis,
+      LongSupplier clock) {
+    super(EnumSet.noneOf(SupportedOptions.class), Range.<ITeam>exactly(2),
+        Range.<IPlayer>atLeast(1));
+    this.tau = tau;
+    this.initialVolatility = initialVolatility;
+    this.ratingPeriodMillis = ratingPeriodMillis;
+    this.clock = clock;
+    this.playerStates = new PlayerStateTable();
+  }
+
+  @Override
+  public Map<IPlayer, Rating> calculateNewRatings(GameInfo gameInfo,
+      Collection<? extends ITeam> teams, int... teamRanks) {
+    Preconditions.checkArgument(teams.size() == 2 && teamRanks.length == 2,
+        "Glicko-2 supports exactly two teams.");
+    validateTeamCountAndPlayersCountPerTeam(teams);
+
+    Iterator<? extends ITeam> teamIterator = teams.iterator();
+    ITeam team1 = teamIterator.next();
+    ITeam team2 = teamIterator.next();
+    double team1Score = teamRanks[0] < teamRanks[1] ? 1 : teamRanks[0] == teamRanks[1] ? 0.5 : 0;
+
+    double scale = scale(gameInfo);
+    int currentPeriod = currentPeriod();
+
+    // Both composite opponents are taken from the ratings before the game.
+    double[] team1Composite = composite(gameInfo, team1, scale, currentPeriod);
+    double[] team2Composite = composite(gameInfo, team2, scale, currentPeriod);
+
+    Map<IPlayer, Rating> newRatings = new HashMap<>();
+    updateTeam(gameInfo, team1, team2Composite, team1Score, scale, currentPeriod, newRatings);
+    updateTeam(gameInfo, team2, team1Composite, 1 - team1Score, scale, currentPeriod,
+        newRatings);
+    return newRatings;
+  }
+
+  /**
+   * Returns 1 for an even match, falling to 0 as either team becomes certain to win.
+   */
+  @Override
+  public double calculateMatchQuality(GameInfo gameInfo, Collection<? extends ITeam> teams) {
+    Preconditions.checkArgument(teams.size() == 2, "Glicko-2 supports exactly two teams.");
+    Iterator<? extends ITeam> teamIterator = teams.iterator();
+    double winProbability = winProbability(gameInfo, teamIterator.next(), teamIterator.next());
+    return 1 - Math.abs(2 * winProbability - 1);
+  }
+
+  /**
+   * Returns the probability that {@param team} beats {@param otherTeam}, taking into account the
+   * uncertainty in both teams' ratings.
+   */
+  public double winProbability(GameInfo gameInfo, ITeam team, ITeam otherTeam) {
+    double scale = scale(gameInfo);
+    int currentPeriod = currentPeriod();
+    double[] teamComposite = composite(gameInfo, team, scale, currentPeriod);
+    double[] otherComposite = composite(gameInfo, otherTeam, scale, currentPeriod);
+
+    double combinedDeviation = Math.sqrt(square(teamComposite[1]) + square(otherComposite[1]));
+    return expectedScore(teamComposite[0], otherComposite[0], g(combinedDeviation));
+  }
+
+  @Override
+  public void saveState(SnapshotOutput output) throws IOException {
+    output.writeVarInt(STATE_FORMAT);
+    output.writeVarInt(playerStates.size);
+
+    // Sorted, so that the same state always saves to the same bytes.
+    long[] playerIds = playerStates.playerIds();
+    Arrays.sort(playerIds);
+    for (long playerId : playerIds) {
+      int slot = playerStates.find(playerId);
+      output.writeVarLong(playerId);
+      output.writeDouble(playerStates.volatilities[slot]);
+      output.writeSignedVarInt(playerStates.lastActivePeriods[slot]);
+    }
+  }
+
+  @Override
+  public void loadState(SnapshotInput input) throws IOException {
+    playerStates.clear();
+    if (!input.hasRemaining()) {
+      return;
+    }
+
+    int stateFormat = input.readVarInt();
+    if (stateFormat != STATE_FORMAT) {
+      throw new CorruptSnapshotException(String.format("Unknown Glicko-2 state format %d.",
+          stateFormat));
+    }
+
+    int playerCount = input.readCount();
+    for (int i = 0; i < playerCount; i++) {
+      long playerId = input.readVarLong();
+      double volatility = input.readDouble();
+      int lastActivePeriod = input.readSignedVarInt();
+      playerStates.put(playerId, volatility, lastActivePeriod);
+    }
+  }
+
+  @Override
+  public void clearState() {
+    playerStates.clear();
+  }
+
+  private void updateTeam(GameInfo gameInfo, ITeam team, double[] opponent, double score,
+      double scale, int currentPeriod, Map<IPlayer, Rating> newRatings) {
+    double opponentG = g(opponent[1]);
+
+    for (Map.Entry<IPlayer, Rating> entry : team.entrySet()) {
+      long playerId = playerId(entry.getKey());
+      double mean = (entry.getValue().getMean() - gameInfo.getInitialMean()) / scale;
+      double deviation = deviationAtStartOfGame(gameInfo, playerId, entry.getValue(), scale,
+          currentPeriod);
+      double volatility = volatility(playerId);
+
+      double expectedScore = expectedScore(mean, opponent[0], opponentG);
+      double variance = 1 / (square(opponentG) * expectedScore * (1 - expectedScore));
+      double improvement = variance * opponentG * (score - expectedScore);
+
+      double newVolatility = newVolatility(deviation, volatility, variance, improvement);
+      double newDeviation = 1 / Math.sqrt(1 / square(deviation) + 1 / variance);
+      double newMean = mean + square(newDeviation) * opponentG * (score - expectedScore);
+
+      playerStates.put(playerId, newVolatility, currentPeriod);
+      newRatings.put(entry.getKey(), new Rating(gameInfo.getInitialMean() + newMean * scale,
+          newDeviation * scale));
+    }
+  }
+
+  /**
+   * Returns the team's mean rating and root mean square deviation, on the Glicko-2 scale.
+   */
+  private double[] composite(GameInfo gameInfo, ITeam team, double scale, int currentPeriod) {
+    double meanTotal = 0;
+    double varianceTotal = 0;
+    for (Map.Entry<IPlayer, Rating> entry : team.entrySet()) {
+      meanTotal += (entry.getValue().getMean() - gameInfo.getInitialMean()) / scale;
+      varianceTotal += square(deviationAtStartOfGame(gameInfo, playerId(entry.getKey()),
+          entry.getValue(), scale, currentPeriod));
+    }
+    return new double[]{meanTotal / team.size(), Math.sqrt(varianceTotal / team.size())};
+  }
+
+  /**
+   * Returns the player's deviation on the Glicko-2 scale, grown for every rating period they have
+   * missed but never beyond the initial deviation.
+   */
+  private double deviationAtStartOfGame(GameInfo gameInfo, long playerId, Rating rating,
+      double scale, int currentPeriod) {
+    double deviation = rating.getStandardDeviation() / scale;
+    int slot = playerStates.find(playerId);
+    if (slot < 0) {
+      return deviation;
+    }
+
+    int missedPeriods = Math.max(0, currentPeriod - playerStates.lastActivePeriods[slot]);
+    double inflatedDeviation = Math.sqrt(square(deviation)
+        + missedPeriods * square(playerStates.volatilities[slot]));
+    return Math.min(inflatedDeviation, gameInfo.getInitialStandardDeviation() / scale);
+  }
+
+  private double volatility(long playerId) {
+    int slot = playerStates.find(playerId);
+    return slot < 0 ? initialVolatility : playerStates.volatilities[slot];
+  }
+
+  /**
+   * Step 5 of Glicko-2, solving for the new volatility with the Illinois algorithm.
+   */
+  private double newVolatility(double deviation, double volatility, double variance,
+      double improvement) {
+    double a = Math.log(square(volatility));
+    double deviationSquared = square(deviation);
+    double improvementSquared = square(improvement);
+
+    VolatilityFunction f = x -> {
+      double ex = Math.exp(x);
+      return ex * (improvementSquared - deviationSquared - variance - ex)
+          / (2 * square(deviationSquared + variance + ex)) - (x - a) / square(tau);
+    };
+
+    double lower = a;
+    double upper;
+    if (improvementSquared > deviationSquared + variance) {
+      upper = Math.log(improvementSquared - deviationSquared - variance);
+    } else {
+      int k = 1;
+      while (f.apply(a - k * tau) < 0) {
+        k++;
+      }
+      upper = a - k * tau;
+    }
+
+    double fLower = f.apply(lower);
+    double fUpper = f.apply(upper);
+    while (Math.abs(upper - lower) > CONVERGENCE_TOLERANCE) {
+      double next = lower + (lower - upper) * fLower / (fUpper - fLower);
+      double fNext = f.apply(next);
+      if (fNext * fUpper <= 0) {
+        lower = upper;
+        fLower = fUpper;
+      } else {
+        fLower /= 2;
+      }
+      upper = next;
+      fUpper = fNext;
+    }
+    return Math.exp(lower / 2);
+  }
+
+  private int currentPeriod() {
+    return Math.toIntExact(clock.getAsLong() / ratingPeriodMillis);
+  }
+
+  /**
+   * Rating points on the {@link GameInfo} scale per unit of the Glicko-2 internal scale.
+   */
+  private static double scale(GameInfo gameInfo) {
+    return gameInfo.getInitialStandardDeviation() * GLICKO_SCALE / GLICKO_INITIAL_DEVIATION;
+  }
+
+  private static double g(double deviation) {
+    return 1 / Math.sqrt(1 + 3 * square(deviation) / square(Math.PI));
+  }
+
+  private static double expectedScore(double mean, double opponentMean, double g) {
+    return 1 / (1 + Math.exp(-g * (mean - opponentMean)));
+  }
+
+  private static double square(double value) {
+    return value * value;
+  }
+
+  private static long playerId(IPlayer player) {
+    Preconditions.checkArgument(player instanceof Player
+            && ((Player<?>) player).getId() instanceof Long,
+        "Glicko-2 players must be identified by a Long id.");
+    return (Long) ((Player<?>) player).getId();
+  }
+
+  @FunctionalInterface
+  private interface VolatilityFunction {
+
+    double apply(double x);
+  }
+
+  /**
+   * Open addressing hash table from player id to state, with linear probing. Discord ids are
+   * never 0, so 0 marks an empty slot.
+   */
+  @NotThreadSafe
+  private static class PlayerStateTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long EMPTY = 0;
+
+    private long[] playerIds;
+    private double[] volatilities;
+    private int[] lastActivePeriods;
+    private int size;
+
+    private PlayerStateTable() {
+      allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns the slot holding the player, or -1 if they have no state.
+     */
+    private int find(long playerId) {
+      int slot = slot(playerId);
+      while (playerIds[slot] != EMPTY) {
+        if (playerIds[slot] == playerId) {
+          return slot;
+        }
+        slot = (slot + 1) & (playerIds.length - 1);
+      }
+      return -1;
+    }
+
+    private void put(long playerId, double volatility, int lastActivePeriod) {
+      Preconditions.checkArgument(playerId != EMPTY);
+      // Kept at most half full, so probe sequences stay short.
+      if ((size + 1) * 2 > playerIds.length) {
+        resize(playerIds.length * 2);
+      }
+
+      int slot = slot(playerId);
+      while (playerIds[slot] != EMPTY && playerIds[slot] != playerId) {
+        slot = (slot + 1) & (playerIds.length - 1);
+      }
+      if (playerIds[slot] == EMPTY) {
+        playerIds[slot] = playerId;
+        size++;
+      }
+      volatilities[slot] = volatility;
+      lastActivePeriods[slot] = lastActivePeriod;
+    }
+
+    private long[] playerIds() {
+      long[] result = new long[size];
+      int index = 0;
+      for (long playerId : playerIds) {
+        if (playerId != EMPTY) {
+          result[index++] = playerId;
+        }
+      }
+      return result;
+    }
+
+    private void clear() {
+      allocate(INITIAL_CAPACITY);
+    }
+
+    private void resize(int capacity) {
+      long[] oldPlayerIds = playerIds;
+      double[] oldVolatilities = volatilities;
+      int[] oldLastActivePeriods = lastActivePeriods;
+
+      allocate(capacity);
+      for (int i = 0; i < oldPlayerIds.length; i++) {
+        if (oldPlayerIds[i] != EMPTY) {
+          put(oldPlayerIds[i], oldVolatilities[i], oldLastActivePeriods[i]);
+        }
+      }
+    }
+
+    private void allocate(int capacity) {
+      playerIds = new long[capacity];
+      volatilities = new double[capacity];
+      lastActivePeriods = new int[capacity];
+      size = 0;
+    }
+
+    private int slot(long playerId) {
+      // Snowflakes share their high timestamp bits, so mix before masking.
+      long mixed = playerId * 0x9E3779B97F4A7C15L;
+      return (int) (mixed ^ (mixed >>> 32)) & (playerIds.length - 1);
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import com.google.common.base.Preconditions;
+import de.gesundkrank.jskills.GameInfo;
+import de.gesundkrank.jskills.SkillCalculator;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.andrewlee.cakebot.persistence.PersistenceService;
+
+/**
+ * Holds one {@link PlayerRankingSystem} per ladder, each with its own save file.
+ * <p>
+ * The default ladder lives in the save directory itself, so existing save files keep working.
+ * Named ladders live in their own folder under {@code ladders}. A ladder is loaded the first time
+ * it is used, and once more than {@code maxLoadedLadders} are loaded the least recently used ones
+ * are dropped from memory, counting reads of their snapshots as well as writes. An evicted ladder
+ * loses its undo history, but not its backups. Each ladder gets its own {@link SkillCalculator},
+ * as some keep per-player state.
+ * <p>
+ * Only {@link #getLoadedSnapshot} may be called from threads other than the one that owns the
+ * registry.
+ */
+@NotThreadSafe
+public class LadderRegistry {
+
+  private static final Logger logger = LoggerFactory.getLogger(LadderRegistry.class);
+  private static final String LADDERS_FOLDER = "ladders";
+  private static final Pattern LADDER_NAME_PATTERN = Pattern.compile("[a-z0-9_-]{1,32}");
+
+  public static final String DEFAULT_LADDER = "";
+
+  private final Supplier<SkillCalculator> skillCalculatorFactory;
+  private final GameInfo gameInfo;
+  private final int maxOperationHistory;
+  private final Path saveDirectory;
+  private final PersistenceService persistenceService;
+  private final int maxLoadedLadders;
+
+  private final HashMap<String, LoadedLadder> loadedLadders;
+  private final HashSet<String> evictedLadders;
+  // Mirrors loadedLadders for readers on other threads.
+  private final ConcurrentHashMap<String, LoadedLadder> publishedLadders;
+
+  public static LadderRegistry create(Supplier<SkillCalculator> skillCalculatorFactory,
+      GameInfo gameInfo, int maxOperationHistory, Path saveDirectory,
+      PersistenceService persistenceService, int maxLoadedLadders) {
+    Preconditions.checkArgument(maxLoadedLadders >= 1);
+    return new LadderRegistry(skillCalculatorFactory, gameInfo, maxOperationHistory,
+        saveDirectory, persistenceService, maxLoadedLadders);
+  }
+
+  private LadderRegistry(Supplier<SkillCalculator> skillCalculatorFactory, GameInfo gameInfo,
+      int maxOperationHistory, Path saveDirectory, PersistenceService persistenceService,
+      int maxLoadedLadders) {
+    this.skillCalculatorFactory = skillCalculatorFactory;
+    this.gameInfo = gameInfo;
+    this.maxOperationHistory = maxOperationHistory;
+    this.saveDirectory = saveDirectory;
+    this.persistenceService = persistenceService;
+    this.maxLoadedLadders = maxLoadedLadders;
+    this.loadedLadders = new HashMap<>();
+    this.evictedLadders = new HashSet<>();
+    this.publishedLadders = new ConcurrentHashMap<>();
+  }
+
+  public static boolean isValidLadderName(String ladderName) {
+    return ladderName.equals(DEFAULT_LADDER) || LADDER_NAME_PATTERN.matcher(ladderName).matches();
+  }
+
+  /**
+   * Returns the ladder called {@param ladderName}, loading it from its save file if it is not
+   * already in memory.
+   */
+  public PlayerRankingSystem getLadder(String ladderName) throws IllegalArgumentException,
+      IOException {
+    LoadedLadder loadedLadder = loadedLadders.get(ladderName);
+    if (loadedLadder != null) {
+      return loadedLadder.access();
+    }
+
+    if (!isValidLadderName(ladderName)) {
+      throw new IllegalArgumentException(String.format("Invalid ladder name, %s.", ladderName));
+    }
+
+    // The last save of an evicted ladder may not have been written yet.
+    if (evictedLadders.remove(ladderName)) {
+      persistenceService.flush();
+    }
+
+    Path ladderDirectory = ladderDirectory(ladderName);
+    Files.createDirectories(ladderDirectory);
+
+    logger.info("Loading ladder '{}' from {}.", ladderName, ladderDirectory);
+    PlayerRankingSystem playerRankingSystem = PlayerRankingSystem.create(
+        skillCalculatorFactory.get(), gameInfo, maxOperationHistory, ladderDirectory,
+        persistenceService);
+    playerRankingSystem.init();
+
+    loadedLadder = new LoadedLadder(playerRankingSystem);
+    loadedLadders.put(ladderName, loadedLadder);
+    publishedLadders.put(ladderName, loadedLadder);
+    evictIdleLadders();
+    return loadedLadder.access();
+  }
+
+  /**
+   * Returns the latest snapshot of the ladder if it is loaded. Safe to call from any thread.
+   */
+  public Optional<RankingSnapshot> getLoadedSnapshot(String ladderName) {
+    return Optional.ofNullable(publishedLadders.get(ladderName))
+        .map(loadedLadder -> loadedLadder.access().getSnapshot());
+  }
+
+  public int loadedLadderCount() {
+    return loadedLadders.size();
+  }
+
+  private void evictIdleLadders() {
+    while (loadedLadders.size() > maxLoadedLadders) {
+      String ladderName = loadedLadders.entrySet().stream()
+          .min(Comparator.comparingLong(entry -> entry.getValue().lastAccessNanos))
+          .get().getKey();
+      loadedLadders.remove(ladderName);
+      publishedLadders.remove(ladderName);
+      evictedLadders.add(ladderName);
+      logger.info("Evicted idle ladder '{}'.", ladderName);
+    }
+  }
+
+  private Path ladderDirectory(String ladderName) {
+    if (ladderName.equals(DEFAULT_LADDER)) {
+      return saveDirectory;
+    }
+    return saveDirectory.resolve(LADDERS_FOLDER).resolve(ladderName);
+  }
+
+  /**
+   * A loaded ladder, with when it was last used. Reads on other threads update the time too, so
+   * that a ladder only read from is not evicted as idle.
+   */
+  private static class LoadedLadder {
+
+    private final PlayerRankingSystem playerRankingSystem;
+    private volatile long lastAccessNanos;
+
+    private LoadedLadder(PlayerRankingSystem playerRankingSystem) {
+      this.playerRankingSystem = playerRankingSystem;
+      this.lastAccessNanos = System.nanoTime();
+    }
+
+    private PlayerRankingSystem access() {
+      lastAccessNanos = System.nanoTime();
+      return playerRankingSystem;
+    }
+  }
+}
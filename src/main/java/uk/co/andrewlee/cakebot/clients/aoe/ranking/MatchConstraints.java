@@ -0,0 +1,87 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Restrictions on how {@link RankingSnapshot#findBalancedMatch} may split players into teams.
+ */
+@Immutable
+public class MatchConstraints {
+
+  private static final MatchConstraints NONE = new MatchConstraints(ImmutableList.of(),
+      ImmutableList.of(), 0);
+
+  private final ImmutableList<PlayerPair> together;
+  private final ImmutableList<PlayerPair> apart;
+  private final int recentTeammateGames;
+
+  public static MatchConstraints none() {
+    return NONE;
+  }
+
+  /**
+   * @param together pairs of players who must be on the same team.
+   * @param apart pairs of players who must be on different teams.
+   * @param recentTeammateGames players who were teammates in any of this many of the ladder's
+   * most recent games must be on different teams. At most {@link
+   * RankingSnapshot#MAX_RECENT_MATCH_OUTCOMES}.
+   */
+  public static MatchConstraints create(ImmutableList<PlayerPair> together,
+      ImmutableList<PlayerPair> apart, int recentTeammateGames) {
+    Preconditions.checkArgument(recentTeammateGames >= 0
+        && recentTeammateGames <= RankingSnapshot.MAX_RECENT_MATCH_OUTCOMES);
+    return new MatchConstraints(together, apart, recentTeammateGames);
+  }
+
+  private MatchConstraints(ImmutableList<PlayerPair> together, ImmutableList<PlayerPair> apart,
+      int recentTeammateGames) {
+    this.together = together;
+    this.apart = apart;
+    this.recentTeammateGames = recentTeammateGames;
+  }
+
+  public ImmutableList<PlayerPair> getTogether() {
+    return together;
+  }
+
+  public ImmutableList<PlayerPair> getApart() {
+    return apart;
+  }
+
+  public int getRecentTeammateGames() {
+    return recentTeammateGames;
+  }
+
+  /**
+   * Returns every player named by a together or apart constraint.
+   */
+  public ImmutableSet<Long> players() {
+    ImmutableSet.Builder<Long> players = ImmutableSet.builder();
+    together.forEach(pair -> players.add(pair.getPlayer1(), pair.getPlayer2()));
+    apart.forEach(pair -> players.add(pair.getPlayer1(), pair.getPlayer2()));
+    return players.build();
+  }
+
+  @Immutable
+  public static class PlayerPair {
+
+    private final long player1;
+    private final long player2;
+
+    public PlayerPair(long player1, long player2) {
+      this.player1 = player1;
+      this.player2 = player2;
+    }
+
+    public long getPlayer1() {
+      return player1;
+    }
+
+    public long getPlayer2() {
+      return player2;
+    }
+  }
+}
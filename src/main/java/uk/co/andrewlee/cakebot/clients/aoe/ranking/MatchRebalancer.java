@@ -0,0 +1,164 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import de.gesundkrank.jskills.GameInfo;
+import de.gesundkrank.jskills.Rating;
+import java.util.Arrays;
+import java.util.Optional;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.Rebalance.Swap;
+
+/**
+ * Finds the swaps of one or two players between two existing teams which make them most even.
+ * <p>
+ * Swapping players does not change who is playing, so only the difference between the teams'
+ * total mean ratings changes, see {@link TwoTeamQuality}. Each one player swap shifts the
+ * difference by twice the gap between the two players, and is scored in constant time. For two
+ * player swaps, the totals of every pair on team 2 are sorted, and the best partner for each pair
+ * on team 1 is found by binary search.
+ */
+class MatchRebalancer {
+
+  private MatchRebalancer() {
+  }
+
+  static Rebalance rebalance(GameInfo gameInfo, ImmutableList<Long> team1,
+      ImmutableList<Long> team2, ImmutableMap<Long, Rating> ratings) {
+    double[] team1Means = team1.stream().mapToDouble(playerId -> ratings.get(playerId).getMean())
+        .toArray();
+    double[] team2Means = team2.stream().mapToDouble(playerId -> ratings.get(playerId).getMean())
+        .toArray();
+    double difference = Arrays.stream(team1Means).sum() - Arrays.stream(team2Means).sum();
+    double variance = ratings.values().stream()
+        .mapToDouble(rating -> TwoTeamQuality.variance(gameInfo, rating)).sum();
+    int players = team1.size() + team2.size();
+
+    Match currentMatch = new Match(team1, team2, Optional.of(
+        TwoTeamQuality.quality(gameInfo, players, difference, variance)));
+
+    ImmutableList.Builder<Swap> swaps = ImmutableList.builder();
+    bestSingleSwap(team1Means, team2Means, difference).ifPresent(swap -> swaps.add(
+        toSwap(gameInfo, team1, team2, swap, players, variance)));
+    bestDoubleSwap(team1Means, team2Means, difference).ifPresent(swap -> swaps.add(
+        toSwap(gameInfo, team1, team2, swap, players, variance)));
+    return new Rebalance(currentMatch, swaps.build());
+  }
+
+  /**
+   * Returns the one player swap giving the smallest difference, if it is smaller than the
+   * current one.
+   */
+  private static Optional<IndexSwap> bestSingleSwap(double[] team1Means, double[] team2Means,
+      double difference) {
+    IndexSwap best = null;
+    double bestDifference = Math.abs(difference);
+    for (int i = 0; i < team1Means.length; i++) {
+      for (int j = 0; j < team2Means.length; j++) {
+        double newDifference = Math.abs(difference - 2 * (team1Means[i] - team2Means[j]));
+        if (newDifference < bestDifference) {
+          bestDifference = newDifference;
+          best = new IndexSwap(new int[]{i}, new int[]{j},
+              difference - 2 * (team1Means[i] - team2Means[j]));
+        }
+      }
+    }
+    return Optional.ofNullable(best);
+  }
+
+  /**
+   * As {@link #bestSingleSwap}, swapping two players from each team. Swapping the pairs (a, b)
+   * and (c, d) gives a difference of {@code difference - 2 * (a + b - c - d)}, which is closest
+   * to 0 when c + d is closest to a + b - difference / 2.
+   */
+  private static Optional<IndexSwap> bestDoubleSwap(double[] team1Means, double[] team2Means,
+      double difference) {
+    if (team1Means.length < 2 || team2Means.length < 2) {
+      return Optional.empty();
+    }
+
+    int team2PairCount = team2Means.length * (team2Means.length - 1) / 2;
+    double[] team2PairTotals = new double[team2PairCount];
+    int[] team2FirstPlayers = new int[team2PairCount];
+    int[] team2SecondPlayers = new int[team2PairCount];
+    int pair = 0;
+    for (int c = 0; c < team2Means.length; c++) {
+      for (int d = c + 1; d < team2Means.length; d++) {
+        team2PairTotals[pair] = team2Means[c] + team2Means[d];
+        team2FirstPlayers[pair] = c;
+        team2SecondPlayers[pair] = d;
+        pair++;
+      }
+    }
+    Integer[] order = new Integer[team2PairCount];
+    for (int i = 0; i < team2PairCount; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (x, y) -> Double.compare(team2PairTotals[x], team2PairTotals[y]));
+    double[] sortedTotals = new double[team2PairCount];
+    for (int i = 0; i < team2PairCount; i++) {
+      sortedTotals[i] = team2PairTotals[order[i]];
+    }
+
+    IndexSwap best = null;
+    double bestDifference = Math.abs(difference);
+    for (int a = 0; a < team1Means.length; a++) {
+      for (int b = a + 1; b < team1Means.length; b++) {
+        double team1PairTotal = team1Means[a] + team1Means[b];
+        double target = team1PairTotal - difference / 2;
+
+        int insertion = Arrays.binarySearch(sortedTotals, target);
+        if (insertion < 0) {
+          insertion = -insertion - 1;
+        }
+        // The closest total is either side of where the target would go.
+        for (int candidate = insertion - 1; candidate <= insertion; candidate++) {
+          if (candidate < 0 || candidate >= team2PairCount) {
+            continue;
+          }
+          double newDifference = difference - 2 * (team1PairTotal - sortedTotals[candidate]);
+          if (Math.abs(newDifference) < bestDifference) {
+            bestDifference = Math.abs(newDifference);
+            int team2Pair = order[candidate];
+            best = new IndexSwap(new int[]{a, b},
+                new int[]{team2FirstPlayers[team2Pair], team2SecondPlayers[team2Pair]},
+                newDifference);
+          }
+        }
+      }
+    }
+    return Optional.ofNullable(best);
+  }
+
+  private static Swap toSwap(GameInfo gameInfo, ImmutableList<Long> team1,
+      ImmutableList<Long> team2, IndexSwap indexSwap, int players, double variance) {
+    ImmutableList<Long> fromTeam1 = Arrays.stream(indexSwap.team1Indexes)
+        .mapToObj(team1::get).collect(ImmutableList.toImmutableList());
+    ImmutableList<Long> fromTeam2 = Arrays.stream(indexSwap.team2Indexes)
+        .mapToObj(team2::get).collect(ImmutableList.toImmutableList());
+
+    ImmutableList<Long> newTeam1 = ImmutableList.<Long>builder()
+        .addAll(team1.stream().filter(playerId -> !fromTeam1.contains(playerId)).iterator())
+        .addAll(fromTeam2)
+        .build();
+    ImmutableList<Long> newTeam2 = ImmutableList.<Long>builder()
+        .addAll(team2.stream().filter(playerId -> !fromTeam2.contains(playerId)).iterator())
+        .addAll(fromTeam1)
+        .build();
+
+    return new Swap(fromTeam1, fromTeam2, new Match(newTeam1, newTeam2, Optional.of(
+        TwoTeamQuality.quality(gameInfo, players, indexSwap.difference, variance))));
+  }
+
+  private static class IndexSwap {
+
+    private final int[] team1Indexes;
+    private final int[] team2Indexes;
+    private final double difference;
+
+    private IndexSwap(int[] team1Indexes, int[] team2Indexes, double difference) {
+      this.team1Indexes = team1Indexes;
+      this.team2Indexes = team2Indexes;
+      this.difference = difference;
+    }
+  }
+}
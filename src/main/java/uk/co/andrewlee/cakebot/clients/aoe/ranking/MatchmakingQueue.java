@@ -0,0 +1,223 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import de.gesundkrank.jskills.GameInfo;
+import de.gesundkrank.jskills.Rating;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import uk.co.andrewlee.cakebot.matchmaking.SearchBudget;
+
+/**
+ * Players waiting for a game in one channel, and the candidate games between them.
+ * <p>
+ * Players are kept sorted by mean rating, and the candidate games are runs of neighbouring
+ * players in that order, each split into its most balanced teams. When a player joins, only the
+ * runs which include them are searched, and when a player leaves, only their candidates are
+ * dropped and the runs which now span the gap are searched. Nothing is searched when the queue is
+ * polled, so players can come and go without the whole queue being searched again.
+ * <p>
+ * A game is formed as soon as a candidate reaches the quality threshold, or as soon as a player
+ * has waited too long, with the best candidate which includes them. Ratings are as of when each
+ * player joined.
+ */
+@NotThreadSafe
+public class MatchmakingQueue {
+
+  public static final int MAX_QUEUED_PLAYERS = 100;
+
+  private final GameInfo gameInfo;
+  private final double qualityThreshold;
+  private final long maxWaitMillis;
+  private int playersPerGame;
+
+  // In the order they joined.
+  private final LinkedHashMap<Long, QueuedPlayer> players;
+  // Weakest first.
+  private final ArrayList<QueuedPlayer> playersByRating;
+  // Keyed by their players, so that the same run is never kept twice.
+  private final HashMap<ImmutableSet<Long>, Match> candidates;
+
+  /**
+   * @param qualityThreshold a game is formed as soon as one has at least this match quality.
+   * @param maxWaitMillis a game is formed for any player who has waited this long, whatever its
+   * quality.
+   */
+  public static MatchmakingQueue create(GameInfo gameInfo, int playersPerGame,
+      double qualityThreshold, long maxWaitMillis) {
+    checkPlayersPerGame(playersPerGame);
+    return new MatchmakingQueue(gameInfo, playersPerGame, qualityThreshold, maxWaitMillis);
+  }
+
+  private MatchmakingQueue(GameInfo gameInfo, int playersPerGame, double qualityThreshold,
+      long maxWaitMillis) {
+    this.gameInfo = gameInfo;
+    this.playersPerGame = playersPerGame;
+    this.qualityThreshold = qualityThreshold;
+    this.maxWaitMillis = maxWaitMillis;
+    this.players = new LinkedHashMap<>();
+    this.playersByRating = new ArrayList<>();
+    this.candidates = new HashMap<>();
+  }
+
+  /**
+   * Returns false if the player is already queued, or the queue is full.
+   */
+  public boolean join(long playerId, Rating rating, long nowMillis) {
+    if (players.containsKey(playerId) || players.size() >= MAX_QUEUED_PLAYERS) {
+      return false;
+    }
+
+    QueuedPlayer player = new QueuedPlayer(playerId, rating, nowMillis);
+    players.put(playerId, player);
+    int index = insertionIndex(player);
+    playersByRating.add(index, player);
+
+    // Every run of players which includes the new player.
+    addCandidates(index - playersPerGame + 1, index);
+    return true;
+  }
+
+  /**
+   * Returns false if the player was not queued.
+   */
+  public boolean leave(long playerId) {
+    QueuedPlayer player = players.remove(playerId);
+    if (player == null) {
+      return false;
+    }
+
+    int index = playersByRating.indexOf(player);
+    playersByRating.remove(index);
+    candidates.keySet().removeIf(candidatePlayers -> candidatePlayers.contains(playerId));
+
+    // Every run of players which spans the gap left behind.
+    addCandidates(index - playersPerGame + 1, index - 1);
+    return true;
+  }
+
+  /**
+   * Returns the next game to play, if any is due, and takes its players out of the queue. Call
+   * again until empty, since more than one game can be due at once.
+   */
+  public Optional<Match> poll(long nowMillis) {
+    Optional<Match> bestCandidate = candidates.values().stream()
+        .max(Comparator.comparingDouble(match -> match.getMatchQuality().get()));
+    if (!bestCandidate.isPresent()) {
+      return Optional.empty();
+    }
+
+    Optional<Match> game = Optional.empty();
+    if (bestCandidate.get().getMatchQuality().get() >= qualityThreshold) {
+      game = bestCandidate;
+    } else {
+      QueuedPlayer longestWaiting = players.values().iterator().next();
+      if (nowMillis - longestWaiting.joinedMillis >= maxWaitMillis) {
+        game = candidates.entrySet().stream()
+            .filter(candidate -> candidate.getKey().contains(longestWaiting.playerId))
+            .map(Map.Entry::getValue)
+            .max(Comparator.comparingDouble(match -> match.getMatchQuality().get()));
+      }
+    }
+
+    game.ifPresent(match -> {
+      match.getTeam1().forEach(this::leave);
+      match.getTeam2().forEach(this::leave);
+    });
+    return game;
+  }
+
+  /**
+   * Returns the queued players, in the order they joined.
+   */
+  public ImmutableList<Long> players() {
+    return ImmutableList.copyOf(players.keySet());
+  }
+
+  public int getPlayersPerGame() {
+    return playersPerGame;
+  }
+
+  /**
+   * Changes the size of the games formed, searching every run of players again.
+   */
+  public void setPlayersPerGame(int playersPerGame) {
+    checkPlayersPerGame(playersPerGame);
+    this.playersPerGame = playersPerGame;
+    candidates.clear();
+    addCandidates(0, playersByRating.size() - playersPerGame);
+  }
+
+  /**
+   * Searches the runs of {@link #playersPerGame} players starting from each index from {@param
+   * firstStart} to {@param lastStart} in rating order, skipping any which do not fit.
+   */
+  private void addCandidates(int firstStart, int lastStart) {
+    for (int start = Math.max(0, firstStart);
+        start <= Math.min(lastStart, playersByRating.size() - playersPerGame); start++) {
+      ImmutableList<QueuedPlayer> run = ImmutableList.copyOf(
+          playersByRating.subList(start, start + playersPerGame));
+      ImmutableSet<Long> runPlayers = run.stream().map(player -> player.playerId)
+          .collect(ImmutableSet.toImmutableSet());
+      if (!candidates.containsKey(runPlayers)) {
+        candidates.put(runPlayers, bestSplit(run));
+      }
+    }
+  }
+
+  private Match bestSplit(ImmutableList<QueuedPlayer> run) {
+    ImmutableMap<Long, Double> playerMeans = run.stream()
+        .collect(ImmutableMap.toImmutableMap(player -> player.playerId,
+            player -> player.rating.getMean()));
+    Match split = BalancedMatchSearch.findBestSplits(playerMeans, ImmutableList.of(),
+        ImmutableList.of(), 1, 0, SearchBudget.unlimited()).candidates().get(0);
+
+    double difference = split.getTeam1().stream().mapToDouble(playerMeans::get).sum()
+        - split.getTeam2().stream().mapToDouble(playerMeans::get).sum();
+    double variance = run.stream()
+        .mapToDouble(player -> TwoTeamQuality.variance(gameInfo, player.rating)).sum();
+    return new Match(split.getTeam1(), split.getTeam2(), Optional.of(
+        TwoTeamQuality.quality(gameInfo, run.size(), difference, variance)));
+  }
+
+  private int insertionIndex(QueuedPlayer player) {
+    int low = 0;
+    int high = playersByRating.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (playersByRating.get(middle).rating.getMean() < player.rating.getMean()) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private static void checkPlayersPerGame(int playersPerGame) {
+    Preconditions.checkArgument(playersPerGame >= 2
+        && playersPerGame <= BalancedMatchSearch.MAX_PLAYERS);
+  }
+
+  @Immutable
+  private static class QueuedPlayer {
+
+    private final long playerId;
+    private final Rating rating;
+    private final long joinedMillis;
+
+    private QueuedPlayer(long playerId, Rating rating, long joinedMillis) {
+      this.playerId = playerId;
+      this.rating = rating;
+      this.joinedMillis = joinedMillis;
+    }
+  }
+}
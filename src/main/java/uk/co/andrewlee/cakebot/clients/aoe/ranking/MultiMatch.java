@@ -0,0 +1,45 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Several games to be played at the same time, see {@link RankingSnapshot#findBalancedMatches}.
+ */
+@Immutable
+public class MultiMatch {
+
+  private final ImmutableList<Match> matches;
+  private final Duration searchTime;
+  private final long iterations;
+
+  MultiMatch(ImmutableList<Match> matches, Duration searchTime, long iterations) {
+    this.matches = matches;
+    this.searchTime = searchTime;
+    this.iterations = iterations;
+  }
+
+  /**
+   * Returns the games, each with its match quality.
+   */
+  public ImmutableList<Match> getMatches() {
+    return matches;
+  }
+
+  public double lowestMatchQuality() {
+    return matches.stream().mapToDouble(match -> match.getMatchQuality().get()).min()
+        .orElse(0);
+  }
+
+  public Duration getSearchTime() {
+    return searchTime;
+  }
+
+  /**
+   * Returns the number of changes to the games that were tried.
+   */
+  public long getIterations() {
+    return iterations;
+  }
+}
@@ -0,0 +1,253 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import de.gesundkrank.jskills.GameInfo;
+import de.gesundkrank.jskills.Rating;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.Random;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Splits players into several simultaneous games, maximising the lowest match quality of any of
+ * them, and then their total match quality.
+ * <p>
+ * Games are as close to the same size as possible. The search starts from a snake draft and
+ * then anneals, swapping two players at a time until the time budget runs out. A swap only
+ * changes the games of the two players, and each game's TrueSkill quality is kept as the totals
+ * it depends on, so every swap is scored in time proportional to the number of games.
+ */
+@NotThreadSafe
+class MultiMatchOptimizer {
+
+  // How much the total quality counts, relative to the lowest quality.
+  private static final double TOTAL_QUALITY_WEIGHT = 0.01;
+  private static final double INITIAL_TEMPERATURE = 0.02;
+  private static final double FINAL_TEMPERATURE = 0.0001;
+  // Iterations between checks of the clock.
+  private static final int CLOCK_CHECK_INTERVAL = 256;
+
+  private final GameInfo gameInfo;
+  private final int playerCount;
+  private final int gameCount;
+  private final long[] playerIds;
+  private final double[] means;
+  // See TwoTeamQuality#variance.
+  private final double[] variances;
+  private final Random random;
+
+  // Player index to game, and to team within the game, 0 or 1.
+  private final int[] games;
+  private final int[] teams;
+  // Per game: total mean of each team, total of variances, and number of players.
+  private final double[][] teamMeans;
+  private final double[] gameVariances;
+  private final int[] gameSizes;
+  private final double[] qualities;
+
+  private final int[] bestGames;
+  private final int[] bestTeams;
+  private double bestScore;
+  private long iterations;
+
+  /**
+   * @param playerRatings the players, with their current ratings.
+   */
+  static MultiMatchOptimizer create(GameInfo gameInfo, ImmutableMap<Long, Rating> playerRatings,
+      int gameCount, Random random) {
+    Preconditions.checkArgument(gameCount >= 1);
+    Preconditions.checkArgument(playerRatings.size() >= 2 * gameCount,
+        "Each game needs at least two players.");
+    return new MultiMatchOptimizer(gameInfo, playerRatings, gameCount, random);
+  }
+
+  private MultiMatchOptimizer(GameInfo gameInfo, ImmutableMap<Long, Rating> playerRatings,
+      int gameCount, Random random) {
+    this.gameInfo = gameInfo;
+    this.playerCount = playerRatings.size();
+    this.gameCount = gameCount;
+    this.playerIds = new long[playerCount];
+    this.means = new double[playerCount];
+    this.variances = new double[playerCount];
+    this.random = random;
+
+    int index = 0;
+    for (Long playerId : playerRatings.keySet().stream()
+        .sorted(Comparator.comparingDouble(playerId -> -playerRatings.get(playerId).getMean()))
+        .toArray(Long[]::new)) {
+      Rating rating = playerRatings.get(playerId);
+      playerIds[index] = playerId;
+      means[index] = rating.getMean();
+      variances[index] = TwoTeamQuality.variance(gameInfo, rating);
+      index++;
+    }
+
+    this.games = new int[playerCount];
+    this.teams = new int[playerCount];
+    this.teamMeans = new double[gameCount][2];
+    this.gameVariances = new double[gameCount];
+    this.gameSizes = new int[gameCount];
+    this.qualities = new double[gameCount];
+    this.bestGames = new int[playerCount];
+    this.bestTeams = new int[playerCount];
+
+    snakeDraft();
+    for (int game = 0; game < gameCount; game++) {
+      qualities[game] = quality(game);
+    }
+    bestScore = score();
+    saveBest();
+  }
+
+  /**
+   * Improves the games until {@param deadlineNanos}, on the {@link System#nanoTime} clock, and
+   * returns the best found, with their TrueSkill match quality.
+   */
+  ImmutableList<Match> optimise(long startNanos, long deadlineNanos) {
+    double score = bestScore;
+    double temperature = INITIAL_TEMPERATURE;
+    double cooling = Math.log(FINAL_TEMPERATURE / INITIAL_TEMPERATURE);
+
+    while (true) {
+      if (iterations % CLOCK_CHECK_INTERVAL == 0) {
+        long now = System.nanoTime();
+        if (now >= deadlineNanos) {
+          break;
+        }
+        double progress = (double) (now - startNanos) / Math.max(1, deadlineNanos - startNanos);
+        temperature = INITIAL_TEMPERATURE * Math.exp(cooling * progress);
+      }
+      iterations++;
+
+      int player1 = random.nextInt(playerCount);
+      int player2 = random.nextInt(playerCount);
+      if (games[player1] == games[player2] && teams[player1] == teams[player2]) {
+        continue;
+      }
+
+      swap(player1, player2);
+      double newScore = score();
+      if (newScore >= score
+          || random.nextDouble() < Math.exp((newScore - score) / temperature)) {
+        score = newScore;
+        if (score > bestScore) {
+          bestScore = score;
+          saveBest();
+        }
+      } else {
+        swap(player1, player2);
+      }
+    }
+
+    return bestMatches();
+  }
+
+  long getIterations() {
+    return iterations;
+  }
+
+  /**
+   * Deals players strongest first into games in snake order, so that each game gets a similar
+   * spread, and then within each game to whichever team is weaker and has room.
+   */
+  private void snakeDraft() {
+    for (int player = 0; player < playerCount; player++) {
+      int round = player / gameCount;
+      int position = player % gameCount;
+      games[player] = round % 2 == 0 ? position : gameCount - 1 - position;
+      gameSizes[games[player]]++;
+    }
+
+    int[][] teamSizes = new int[gameCount][2];
+    for (int player = 0; player < playerCount; player++) {
+      int game = games[player];
+      int team1Capacity = gameSizes[game] / 2;
+      int team2Capacity = gameSizes[game] - team1Capacity;
+
+      boolean team1Weaker = teamMeans[game][0] <= teamMeans[game][1];
+      int team = teamSizes[game][1] == team2Capacity
+          || (teamSizes[game][0] < team1Capacity && team1Weaker) ? 0 : 1;
+
+      teams[player] = team;
+      teamSizes[game][team]++;
+      teamMeans[game][team] += means[player];
+      gameVariances[game] += variances[player];
+    }
+  }
+
+  private void swap(int player1, int player2) {
+    int game1 = games[player1];
+    int team1 = teams[player1];
+    int game2 = games[player2];
+    int team2 = teams[player2];
+
+    teamMeans[game1][team1] += means[player2] - means[player1];
+    teamMeans[game2][team2] += means[player1] - means[player2];
+    gameVariances[game1] += variances[player2] - variances[player1];
+    gameVariances[game2] += variances[player1] - variances[player2];
+
+    games[player1] = game2;
+    teams[player1] = team2;
+    games[player2] = game1;
+    teams[player2] = team1;
+
+    qualities[game1] = quality(game1);
+    if (game2 != game1) {
+      qualities[game2] = quality(game2);
+    }
+  }
+
+  private double quality(int game) {
+    return TwoTeamQuality.quality(gameInfo, gameSizes[game],
+        teamMeans[game][0] - teamMeans[game][1], gameVariances[game]);
+  }
+
+  private double score() {
+    double lowest = 1;
+    double total = 0;
+    for (double quality : qualities) {
+      lowest = Math.min(lowest, quality);
+      total += quality;
+    }
+    return lowest + TOTAL_QUALITY_WEIGHT * total;
+  }
+
+  private void saveBest() {
+    System.arraycopy(games, 0, bestGames, 0, playerCount);
+    System.arraycopy(teams, 0, bestTeams, 0, playerCount);
+  }
+
+  private ImmutableList<Match> bestMatches() {
+    ImmutableList.Builder<Match> matches = ImmutableList.builder();
+    for (int game = 0; game < gameCount; game++) {
+      ImmutableList.Builder<Long> team1 = ImmutableList.builder();
+      ImmutableList.Builder<Long> team2 = ImmutableList.builder();
+      double team1Mean = 0;
+      double team2Mean = 0;
+      double variance = 0;
+      int size = 0;
+      for (int player = 0; player < playerCount; player++) {
+        if (bestGames[player] != game) {
+          continue;
+        }
+        if (bestTeams[player] == 0) {
+          team1.add(playerIds[player]);
+          team1Mean += means[player];
+        } else {
+          team2.add(playerIds[player]);
+          team2Mean += means[player];
+        }
+        variance += variances[player];
+        size++;
+      }
+
+      // Recalculated, as the running totals drift after many swaps.
+      matches.add(new Match(team1.build(), team2.build(),
+          Optional.of(TwoTeamQuality.quality(gameInfo, size, team1Mean - team2Mean,
+              variance))));
+    }
+    return matches.build();
+  }
+}
@@ -0,0 +1,259 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.andrewlee.cakebot.persistence.PersistenceService;
+
+/**
+ * Matches which have been suggested but whose outcome has not been recorded yet.
+ * <p>
+ * Each channel has its own matches, numbered from a counter which only goes up, so that a late
+ * or repeated outcome for a match which has gone can never be recorded against a newer one.
+ * Suggesting teams again for the same players replaces their earlier suggestion. Matches expire
+ * after a fixed time, and each channel keeps at most {@link #MAX_PENDING_MATCHES_PER_CHANNEL},
+ * dropping the oldest. The registry and its counters are saved on every change, so pending
+ * matches survive a restart.
+ */
+@ThreadSafe
+public class PendingMatchRegistry {
+
+  private static final Logger logger = LoggerFactory.getLogger(PendingMatchRegistry.class);
+  private static final Gson GSON = new GsonBuilder().create();
+  private static final String SAVE_FILE = "aoe-pending.json";
+
+  public static final int MAX_PENDING_MATCHES_PER_CHANNEL = 10;
+
+  private final Path saveFile;
+  private final PersistenceService persistenceService;
+  private final long timeToLiveMillis;
+
+  // Channel id to pending match id to pending match.
+  @GuardedBy("this")
+  private final HashMap<Long, TreeMap<Integer, PendingMatch>> pendingMatches;
+  // Channel id to the id the channel's next pending match will get.
+  @GuardedBy("this")
+  private final HashMap<Long, Integer> nextIds;
+
+  public static PendingMatchRegistry create(Path saveDirectory,
+      PersistenceService persistenceService, long timeToLiveMillis)
+      throws IOException, JsonParseException {
+    PendingMatchRegistry pendingMatchRegistry = new PendingMatchRegistry(
+        saveDirectory.resolve(SAVE_FILE), persistenceService, timeToLiveMillis);
+    pendingMatchRegistry.load();
+    return pendingMatchRegistry;
+  }
+
+  private PendingMatchRegistry(Path saveFile, PersistenceService persistenceService,
+      long timeToLiveMillis) {
+    this.saveFile = saveFile;
+    this.persistenceService = persistenceService;
+    this.timeToLiveMillis = timeToLiveMillis;
+    this.pendingMatches = new HashMap<>();
+    this.nextIds = new HashMap<>();
+  }
+
+  /**
+   * Adds a pending match to the channel with a new id, replacing any pending match of the same
+   * players.
+   */
+  public synchronized PendingMatch add(long channelId, Match match) {
+    expireOldMatches();
+
+    TreeMap<Integer, PendingMatch> channelMatches = pendingMatches
+        .computeIfAbsent(channelId, id -> new TreeMap<>());
+    ImmutableSet<Long> players = players(match);
+    channelMatches.values()
+        .removeIf(pendingMatch -> players(pendingMatch.getMatch()).equals(players));
+    if (channelMatches.size() >= MAX_PENDING_MATCHES_PER_CHANNEL) {
+      channelMatches.values().stream()
+          .min(Comparator.comparingLong(PendingMatch::getCreatedMillis))
+          .ifPresent(oldestMatch -> channelMatches.remove(oldestMatch.getId()));
+    }
+
+    int id = nextIds.getOrDefault(channelId, 1);
+    nextIds.put(channelId, id + 1);
+
+    PendingMatch pendingMatch = new PendingMatch(id, match, System.currentTimeMillis());
+    channelMatches.put(id, pendingMatch);
+    save();
+    return pendingMatch;
+  }
+
+  public synchronized Optional<PendingMatch> get(long channelId, int id) {
+    expireOldMatches();
+    return Optional.ofNullable(pendingMatches.get(channelId)).map(matches -> matches.get(id));
+  }
+
+  /**
+   * Returns the channel's most recently added pending match, if it has any.
+   */
+  public synchronized Optional<PendingMatch> newest(long channelId) {
+    expireOldMatches();
+    return Optional.ofNullable(pendingMatches.get(channelId))
+        .map(matches -> matches.lastEntry().getValue());
+  }
+
+  /**
+   * Returns the channel's pending matches, in id order, which is the order they were added.
+   */
+  public synchronized ImmutableList<PendingMatch> list(long channelId) {
+    expireOldMatches();
+    return Optional.ofNullable(pendingMatches.get(channelId))
+        .map(matches -> ImmutableList.copyOf(matches.values()))
+        .orElse(ImmutableList.of());
+  }
+
+  public synchronized boolean remove(long channelId, int id) {
+    TreeMap<Integer, PendingMatch> channelMatches = pendingMatches.get(channelId);
+    if (channelMatches == null || channelMatches.remove(id) == null) {
+      return false;
+    }
+
+    if (channelMatches.isEmpty()) {
+      pendingMatches.remove(channelId);
+    }
+    save();
+    return true;
+  }
+
+  @GuardedBy("this")
+  private void expireOldMatches() {
+    long expiryMillis = System.currentTimeMillis() - timeToLiveMillis;
+    boolean expiredAny = false;
+
+    Iterator<TreeMap<Integer, PendingMatch>> iterator = pendingMatches.values().iterator();
+    while (iterator.hasNext()) {
+      TreeMap<Integer, PendingMatch> channelMatches = iterator.next();
+      expiredAny |= channelMatches.values()
+          .removeIf(match -> match.getCreatedMillis() < expiryMillis);
+      if (channelMatches.isEmpty()) {
+        iterator.remove();
+      }
+    }
+
+    if (expiredAny) {
+      save();
+    }
+  }
+
+  private static ImmutableSet<Long> players(Match match) {
+    return ImmutableSet.<Long>builder().addAll(match.getTeam1()).addAll(match.getTeam2()).build();
+  }
+
+  @GuardedBy("this")
+  private void save() {
+    List<SerializedPendingMatch> serializedMatches = new ArrayList<>();
+    pendingMatches.forEach((channelId, channelMatches) -> channelMatches.values().forEach(
+        pendingMatch -> serializedMatches.add(new SerializedPendingMatch(channelId,
+            pendingMatch))));
+
+    persistenceService.scheduleWrite(saveFile,
+        GSON.toJson(new SerializedData(serializedMatches, nextIds))
+            .getBytes(StandardCharsets.UTF_8));
+  }
+
+  private synchronized void load() throws IOException, JsonParseException {
+    if (!Files.exists(saveFile)) {
+      return;
+    }
+
+    SerializedData serializedData;
+    try (Reader reader = Files.newBufferedReader(saveFile)) {
+      serializedData = GSON.fromJson(reader, SerializedData.class);
+    }
+
+    for (SerializedPendingMatch serializedMatch : serializedData.pendingMatches) {
+      Match match = new Match(ImmutableList.copyOf(serializedMatch.team1),
+          ImmutableList.copyOf(serializedMatch.team2),
+          Optional.ofNullable(serializedMatch.matchQuality));
+      pendingMatches.computeIfAbsent(serializedMatch.channelId, id -> new TreeMap<>())
+          .put(serializedMatch.id, new PendingMatch(serializedMatch.id, match,
+              serializedMatch.createdMillis));
+      // Saves from before the counters were kept start after the highest id in use.
+      nextIds.merge(serializedMatch.channelId, serializedMatch.id + 1, Math::max);
+    }
+    if (serializedData.nextIds != null) {
+      serializedData.nextIds.forEach((channelId, nextId) ->
+          nextIds.merge(channelId, nextId, Math::max));
+    }
+    logger.info("Loaded {} pending matches.", serializedData.pendingMatches.size());
+  }
+
+  @Immutable
+  public static class PendingMatch {
+
+    private final int id;
+    private final Match match;
+    private final long createdMillis;
+
+    private PendingMatch(int id, Match match, long createdMillis) {
+      this.id = id;
+      this.match = match;
+      this.createdMillis = createdMillis;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public Match getMatch() {
+      return match;
+    }
+
+    public long getCreatedMillis() {
+      return createdMillis;
+    }
+  }
+
+  private static class SerializedData {
+
+    public List<SerializedPendingMatch> pendingMatches;
+    public Map<Long, Integer> nextIds;
+
+    public SerializedData(List<SerializedPendingMatch> pendingMatches,
+        Map<Long, Integer> nextIds) {
+      this.pendingMatches = pendingMatches;
+      this.nextIds = nextIds;
+    }
+  }
+
+  private static class SerializedPendingMatch {
+
+    public long channelId;
+    public int id;
+    public List<Long> team1;
+    public List<Long> team2;
+    public Double matchQuality;
+    public long createdMillis;
+
+    public SerializedPendingMatch(long channelId, PendingMatch pendingMatch) {
+      this.channelId = channelId;
+      this.id = pendingMatch.getId();
+      this.team1 = pendingMatch.getMatch().getTeam1();
+      this.team2 = pendingMatch.getMatch().getTeam2();
+      this.matchQuality = pendingMatch.getMatch().getMatchQuality().orElse(null);
+      this.createdMillis = pendingMatch.getCreatedMillis();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import java.util.Comparator;
+import java.util.function.Predicate;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.PlayerRankingData.PlayedWithStats;
+
+/**
+ * The orderings of a player's {@link PlayedWithStats} which are indexed by {@link
+ * PlayerRankingData}, so that the best entries can be read without scanning every other player.
+ */
+public enum PlayedWithRanking {
+  MOST_WON_WITH(
+      stats -> stats.getGamesWon() > 0,
+      Comparator.comparingInt(PlayedWithStats::getGamesWon).reversed()),
+  MOST_LOST_WITH(
+      stats -> stats.getGamesLost() > 0,
+      Comparator.comparingInt(PlayedWithStats::getGamesLost).reversed()),
+  MOST_WON_AGAINST(
+      stats -> stats.getGamesWonAgainst() > 0,
+      Comparator.comparingInt(PlayedWithStats::getGamesWonAgainst).reversed()),
+  MOST_LOST_AGAINST(
+      stats -> stats.getGamesLostAgainst() > 0,
+      Comparator.comparingInt(PlayedWithStats::getGamesLostAgainst).reversed()),
+  HIGHEST_WIN_RATE_WITH(
+      stats -> stats.totalGamesPlayed() >= PlayedWithRanking.MIN_GAMES_FOR_WIN_RATE,
+      Comparator.comparingDouble(PlayedWithStats::winRate).reversed()),
+  LOWEST_WIN_RATE_WITH(
+      stats -> stats.totalGamesPlayed() >= PlayedWithRanking.MIN_GAMES_FOR_WIN_RATE,
+      Comparator.comparingDouble(PlayedWithStats::winRate));
+
+  /**
+   * Number of games two players must have played together before their win rate is ranked.
+   */
+  public static final int MIN_GAMES_FOR_WIN_RATE = 3;
+
+  private final Predicate<PlayedWithStats> isRanked;
+  private final Comparator<PlayedWithStats> comparator;
+
+  PlayedWithRanking(Predicate<PlayedWithStats> isRanked,
+      Comparator<PlayedWithStats> comparator) {
+    this.isRanked = isRanked;
+    // Ties are broken on the other player's id so that the ordering is total.
+    this.comparator = comparator.thenComparingLong(PlayedWithStats::getOtherPlayerId);
+  }
+
+  boolean isRanked(PlayedWithStats playedWithStats) {
+    return isRanked.test(playedWithStats);
+  }
+
+  Comparator<PlayedWithStats> getComparator() {
+    return comparator;
+  }
+}
@@ -3,9 +3,11 @@ package uk.co.andrewlee.cakebot.clients.aoe.ranking;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 import de.gesundkrank.jskills.GameInfo;
 import de.gesundkrank.jskills.IPlayer;
@@ -13,32 +15,46 @@ import de.gesundkrank.jskills.Player;
 import de.gesundkrank.jskills.Rating;
 import de.gesundkrank.jskills.SkillCalculator;
 import de.gesundkrank.jskills.Team;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers.MatchOutcomeSerializer;
-import uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers.RatingSerializer;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingSnapshot.PlayedWithSnapshot;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingSnapshot.PlayerSnapshot;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers.MatchOutcomeTypeAdapter;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers.RankingSnapshotSerializer;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers.RatingTypeAdapter;
 
 @NotThreadSafe
 public class PlayerRankingData {
 
   private static final Logger logger = LoggerFactory.getLogger(PlayerRankingData.class);
-  private static final Gson GSON = new GsonBuilder()
-      .registerTypeAdapter(Rating.class, new RatingSerializer())
-      .registerTypeAdapter(MatchOutcome.class, new MatchOutcomeSerializer())
-      .create();
+  private static final RatingTypeAdapter RATING_ADAPTER = new RatingTypeAdapter();
+  private static final MatchOutcomeTypeAdapter MATCH_OUTCOME_ADAPTER =
+      new MatchOutcomeTypeAdapter();
+
+  private static final String RATINGS_PROPERTY = "ratings";
+  private static final String MATCH_OUTCOMES_PROPERTY = "matchOutcomes";
 
   private final HashMap<Long, PlayerStats> playerStats;
   // TODO: Perhaps we shouldn't store all of the matches in memory...
   private final List<MatchOutcome> matchHistory;
+  // Players whose stats have changed since the last snapshot.
+  private final HashSet<Long> modifiedPlayers;
 
   private final SkillCalculator skillCalculator;
   private final GameInfo gameInfo;
@@ -48,6 +64,7 @@ public class PlayerRankingData {
     this.gameInfo = gameInfo;
     this.matchHistory = new ArrayList<>();
     this.playerStats = new HashMap<>();
+    this.modifiedPlayers = new HashSet<>();
   }
 
   public boolean hasPlayer(long playerId) {
@@ -78,6 +95,14 @@ public class PlayerRankingData {
     logger.info("Match history changes processed.");
   }
 
+  /**
+   * Same as {@link #recordMatchOutcome}, without logging, for replaying many outcomes at once.
+   */
+  void replayMatchOutcome(MatchOutcome matchOutcome) {
+    recordMatchRatingChanges(matchOutcome);
+    recordMatchHistoryChanges(matchOutcome);
+  }
+
   public Rating getPlayerRatingOrDefault(long playerId) {
     return Optional.ofNullable(playerStats.get(playerId))
         .map(PlayerStats::getPlayerRating)
@@ -87,30 +112,144 @@ public class PlayerRankingData {
   public void clear() {
     playerStats.clear();
     matchHistory.clear();
+    statefulSkillCalculator().ifPresent(StatefulSkillCalculator::clearState);
   }
 
-  public void save(Writer writer) throws JsonParseException {
-    ImmutableMap<Long, Rating> playerRatings = playerStats.entrySet().stream()
-        .collect(ImmutableMap.toImmutableMap(Entry::getKey, entry ->
-            entry.getValue().playerRating));
+  /**
+   * Returns immutable copies of every player's stats. Copies from {@param previous} are reused
+   * for players whose stats have not changed since it was taken.
+   */
+  ImmutableMap<Long, PlayerSnapshot> snapshotPlayers(
+      ImmutableMap<Long, PlayerSnapshot> previous) {
+    ImmutableMap.Builder<Long, PlayerSnapshot> players = ImmutableMap
+        .builderWithExpectedSize(playerStats.size());
+    playerStats.forEach((playerId, stats) -> {
+      PlayerSnapshot previousSnapshot = previous.get(playerId);
+      if (previousSnapshot != null && !modifiedPlayers.contains(playerId)) {
+        players.put(playerId, previousSnapshot);
+      } else {
+        players.put(playerId, stats.snapshot());
+      }
+    });
+    modifiedPlayers.clear();
+    return players.build();
+  }
+
+  /**
+   * Returns up to {@param count} of the most recent match outcomes, oldest first.
+   */
+  ImmutableList<MatchOutcome> recentMatchOutcomes(int count) {
+    return ImmutableList.copyOf(matchHistory.subList(Math.max(0, matchHistory.size() - count),
+        matchHistory.size()));
+  }
+
+  public void save(Writer writer) throws IOException {
+    JsonWriter jsonWriter = new JsonWriter(writer);
+    jsonWriter.beginObject();
+
+    jsonWriter.name(RATINGS_PROPERTY);
+    jsonWriter.beginObject();
+    for (PlayerStats stats : playerStats.values()) {
+      jsonWriter.name(Long.toString(stats.playerId));
+      RATING_ADAPTER.write(jsonWriter, stats.playerRating);
+    }
+    jsonWriter.endObject();
+
+    jsonWriter.name(MATCH_OUTCOMES_PROPERTY);
+    jsonWriter.beginArray();
+    for (MatchOutcome matchOutcome : matchHistory) {
+      MATCH_OUTCOME_ADAPTER.write(jsonWriter, matchOutcome);
+    }
+    jsonWriter.endArray();
+
+    jsonWriter.endObject();
+    jsonWriter.flush();
+    logger.info("Saved {} player ratings.", playerStats.size());
+    logger.info("Saved {} match histories.", matchHistory.size());
+  }
+
+  /**
+   * Loads from JSON. Match outcomes are replayed one at a time as they are parsed, so no
+   * intermediate representation of the whole file is built.
+   */
+  public void load(Reader reader) throws IOException, JsonParseException {
+    clear();
+
+    JsonReader jsonReader = new JsonReader(reader);
+    jsonReader.beginObject();
+    while (jsonReader.hasNext()) {
+      switch (jsonReader.nextName()) {
+        case RATINGS_PROPERTY:
+          jsonReader.beginObject();
+          while (jsonReader.hasNext()) {
+            long playerId = Long.parseLong(jsonReader.nextName());
+            loadPlayerRating(playerId, RATING_ADAPTER.read(jsonReader));
+          }
+          jsonReader.endObject();
+          logger.info("Loaded {} player ratings.", playerStats.size());
+          break;
+        case MATCH_OUTCOMES_PROPERTY:
+          jsonReader.beginArray();
+          while (jsonReader.hasNext()) {
+            recordMatchHistoryChanges(MATCH_OUTCOME_ADAPTER.read(jsonReader));
+          }
+          jsonReader.endArray();
+          logger.info("Loaded {} match histories.", matchHistory.size());
+          break;
+        default:
+          jsonReader.skipValue();
+      }
+    }
+    jsonReader.endObject();
+  }
 
-    SerializedData serializedData = new SerializedData(playerRatings, matchHistory);
-    GSON.toJson(serializedData, writer);
-    logger.info("Saved {} player ratings.", serializedData.ratings.size());
-    logger.info("Saved {} match histories.", serializedData.matchOutcomes.size());
+  /**
+   * Saves in the binary snapshot format. See {@link RankingSnapshotSerializer}.
+   */
+  public void save(OutputStream outputStream) throws IOException {
+    ImmutableMap<Long, Rating> playerRatings = playerRatings();
+    Optional<StatefulSkillCalculator> statefulSkillCalculator = statefulSkillCalculator();
+    RankingSnapshotSerializer.write(outputStream, playerRatings, matchHistory, output -> {
+      if (statefulSkillCalculator.isPresent()) {
+        statefulSkillCalculator.get().saveState(output);
+      }
+    });
+    logger.info("Saved {} player ratings.", playerRatings.size());
+    logger.info("Saved {} match histories.", matchHistory.size());
   }
 
-  public void load(Reader reader) throws JsonParseException {
+  /**
+   * Loads from the binary snapshot format. See {@link RankingSnapshotSerializer}.
+   */
+  public void load(InputStream inputStream) throws IOException {
     clear();
 
-    SerializedData loadedData = GSON.fromJson(reader, SerializedData.class);
-    loadedData.ratings.forEach((playerId, rating) -> playerStats.put(playerId,
-        new PlayerStats(playerId, rating)));
+    Optional<StatefulSkillCalculator> statefulSkillCalculator = statefulSkillCalculator();
+    RankingSnapshotSerializer.read(inputStream, this::loadPlayerRating,
+        this::recordMatchHistoryChanges, input -> {
+          if (statefulSkillCalculator.isPresent()) {
+            statefulSkillCalculator.get().loadState(input);
+          }
+        });
     logger.info("Loaded {} player ratings.", playerStats.size());
-    loadedData.matchOutcomes.forEach(this::recordMatchHistoryChanges);
     logger.info("Loaded {} match histories.", matchHistory.size());
   }
 
+  private Optional<StatefulSkillCalculator> statefulSkillCalculator() {
+    return skillCalculator instanceof StatefulSkillCalculator
+        ? Optional.of((StatefulSkillCalculator) skillCalculator) : Optional.empty();
+  }
+
+  private ImmutableMap<Long, Rating> playerRatings() {
+    return playerStats.entrySet().stream()
+        .collect(ImmutableMap.toImmutableMap(Entry::getKey, entry ->
+            entry.getValue().playerRating));
+  }
+
+  private void loadPlayerRating(long playerId, Rating rating) {
+    getOrCreatePlayerStats(playerId).playerRating = rating;
+  }
+
   private void recordMatchRatingChanges(MatchOutcome matchOutcome) {
     Team winningTeam = new Team();
     Team losingTeam = new Team();
@@ -139,16 +278,14 @@ public class PlayerRankingData {
 
       matchOutcome.getWinningPlayers().forEach(otherWinningPlayer -> {
         if (!otherWinningPlayer.equals(winningPlayerId)) {
-          PlayedWithStats playedWithStats = playerStats
-              .getOrCreatePlayedWithStats(otherWinningPlayer);
-          playedWithStats.gamesWonWith += 1;
+          playerStats.updatePlayedWithStats(otherWinningPlayer,
+              playedWithStats -> playedWithStats.gamesWonWith += 1);
         }
       });
       matchOutcome.getLosingPlayers().forEach(otherLosingPlayer -> {
         if (!otherLosingPlayer.equals(winningPlayerId)) {
-          PlayedWithStats playedWithStats = playerStats
-              .getOrCreatePlayedWithStats(otherLosingPlayer);
-          playedWithStats.gamesWonAgainst += 1;
+          playerStats.updatePlayedWithStats(otherLosingPlayer,
+              playedWithStats -> playedWithStats.gamesWonAgainst += 1);
         }
       });
     });
@@ -159,16 +296,14 @@ public class PlayerRankingData {
 
       matchOutcome.getWinningPlayers().forEach(otherWinningPlayer -> {
         if (!otherWinningPlayer.equals(losingPlayerId)) {
-          PlayedWithStats playedWithStats = playerStats
-              .getOrCreatePlayedWithStats(otherWinningPlayer);
-          playedWithStats.gamesLostAgainst += 1;
+          playerStats.updatePlayedWithStats(otherWinningPlayer,
+              playedWithStats -> playedWithStats.gamesLostAgainst += 1);
         }
       });
       matchOutcome.getLosingPlayers().forEach(otherLosingPlayer -> {
         if (!otherLosingPlayer.equals(losingPlayerId)) {
-          PlayedWithStats playedWithStats = playerStats
-              .getOrCreatePlayedWithStats(otherLosingPlayer);
-          playedWithStats.gamesLostWith += 1;
+          playerStats.updatePlayedWithStats(otherLosingPlayer,
+              playedWithStats -> playedWithStats.gamesLostWith += 1);
         }
       });
     });
@@ -176,7 +311,11 @@ public class PlayerRankingData {
     matchHistory.add(matchOutcome);
   }
 
+  /**
+   * Every change to a player's stats goes through here, so it also marks the player as modified.
+   */
   private PlayerStats getOrCreatePlayerStats(long playerId) {
+    modifiedPlayers.add(playerId);
     return playerStats.computeIfAbsent(playerId,
         playerId1 -> new PlayerStats(playerId1, gameInfo.getDefaultRating()));
   }
@@ -185,6 +324,7 @@ public class PlayerRankingData {
 
     private final long playerId;
     private final HashMap<Long, PlayedWithStats> playedWithStats;
+    private final EnumMap<PlayedWithRanking, TreeSet<PlayedWithStats>> playedWithRankings;
 
     private Rating playerRating;
 
@@ -195,6 +335,10 @@ public class PlayerRankingData {
       this.playerId = playerId;
       this.playerRating = playerRating;
       this.playedWithStats = new HashMap<>();
+      this.playedWithRankings = new EnumMap<>(PlayedWithRanking.class);
+      for (PlayedWithRanking ranking : PlayedWithRanking.values()) {
+        playedWithRankings.put(ranking, new TreeSet<>(ranking.getComparator()));
+      }
     }
 
     public long getPlayerId() {
@@ -219,9 +363,38 @@ public class PlayerRankingData {
       return playedWithStats;
     }
 
-    private PlayedWithStats getOrCreatePlayedWithStats(long otherPlayerId) {
-      return playedWithStats
+    /**
+     * Returns up to {@param limit} {@link PlayedWithStats} for the given ranking, best first.
+     */
+    public ImmutableList<PlayedWithStats> topPlayedWith(PlayedWithRanking ranking, int limit) {
+      return ImmutableList.copyOf(Iterables.limit(playedWithRankings.get(ranking), limit));
+    }
+
+    private PlayerSnapshot snapshot() {
+      ImmutableMap<PlayedWithRanking, ImmutableList<PlayedWithSnapshot>> rankings =
+          Maps.immutableEnumMap(Maps.transformValues(playedWithRankings, rankedStats ->
+              rankedStats.stream()
+                  .limit(RankingSnapshot.MAX_RANKED_PLAYED_WITH)
+                  .map(PlayedWithStats::snapshot)
+                  .collect(ImmutableList.toImmutableList())));
+      return new PlayerSnapshot(playerId, playerRating, gamesWon, gamesLost, rankings);
+    }
+
+    /**
+     * Applies {@param update} to the stats against {@param otherPlayerId}. The stats are taken
+     * out of the ranking indexes while they are mutated, since their ordering may change.
+     */
+    private void updatePlayedWithStats(long otherPlayerId, Consumer<PlayedWithStats> update) {
+      PlayedWithStats stats = playedWithStats
           .computeIfAbsent(otherPlayerId, other -> new PlayedWithStats(playerId, other));
+
+      playedWithRankings.values().forEach(rankedStats -> rankedStats.remove(stats));
+      update.accept(stats);
+      playedWithRankings.forEach((ranking, rankedStats) -> {
+        if (ranking.isRanked(stats)) {
+          rankedStats.add(stats);
+        }
+      });
     }
   }
 
@@ -265,6 +438,11 @@ public class PlayerRankingData {
     public int getGamesLostAgainst() {
       return gamesLostAgainst;
     }
+
+    private PlayedWithSnapshot snapshot() {
+      return new PlayedWithSnapshot(otherPlayerId, gamesWonWith, gamesLostWith, gamesWonAgainst,
+          gamesLostAgainst);
+    }
   }
 
   public abstract class WinLossStat {
@@ -281,16 +459,4 @@ public class PlayerRankingData {
       return (double) getGamesWon() / totalGamesPlayed();
     }
   }
-
-  private static class SerializedData {
-
-    public Map<Long, Rating> ratings;
-    public List<MatchOutcome> matchOutcomes;
-
-    public SerializedData(Map<Long, Rating> ratings,
-        List<MatchOutcome> matchOutcomes) {
-      this.ratings = ratings;
-      this.matchOutcomes = matchOutcomes;
-    }
-  }
 }
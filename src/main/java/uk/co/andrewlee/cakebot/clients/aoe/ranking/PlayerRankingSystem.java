@@ -3,49 +3,54 @@ package uk.co.andrewlee.cakebot.clients.aoe.ranking;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
 import com.google.gson.JsonParseException;
 import de.gesundkrank.jskills.GameInfo;
-import de.gesundkrank.jskills.Player;
-import de.gesundkrank.jskills.Rating;
 import de.gesundkrank.jskills.SkillCalculator;
-import de.gesundkrank.jskills.Team;
-import de.gesundkrank.jskills.TrueSkillCalculator;
+import de.gesundkrank.jskills.trueskill.FactorGraphTrueSkillCalculator;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.text.SimpleDateFormat;
-import java.util.Comparator;
-import java.util.Date;
 import java.util.Deque;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Optional;
-import java.util.PriorityQueue;
-import java.util.Random;
-import java.util.Set;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import uk.co.andrewlee.cakebot.clients.aoe.ranking.PlayerRankingData.PlayerStats;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingSnapshot.PlayerSnapshot;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingOperation.BatchRankingOperation;
 import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingOperation.CreatePlayerRankingOperation;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingOperation.ImportRankingOperation;
 import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingOperation.MatchOutcomeRankingOperation;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingOperation.RestoreBackupRankingOperation;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers.MatchOutcomeCsvReader;
+import uk.co.andrewlee.cakebot.persistence.BackupStore;
+import uk.co.andrewlee.cakebot.persistence.BackupStore.BackupEntry;
+import uk.co.andrewlee.cakebot.persistence.BackupStore.RetentionPolicy;
+import uk.co.andrewlee.cakebot.persistence.PersistenceService;
 
 @NotThreadSafe
 public class PlayerRankingSystem {
 
   private static final Logger logger = LoggerFactory.getLogger(PlayerRankingSystem.class);
-  private static final SimpleDateFormat BACKUP_FILE_NAME_FORMAT = new SimpleDateFormat(
-      "yyyy-HH-dd_HH-mm-ss-SSS");
   private static final String BACKUP_FOLDER = "backups";
+  private static final int BACKUPS_TO_KEEP = 20;
+  private static final int DAILY_BACKUPS_TO_KEEP = 7;
+  private static final int WEEKLY_BACKUPS_TO_KEEP = 8;
   private static final String SAVE_FILE = "aoe";
-  private static final String SAVE_FILE_EXTENSION = ".json";
+  private static final String SAVE_FILE_EXTENSION = ".bin";
+  private static final String LEGACY_SAVE_FILE_EXTENSION = ".json";
 
   private final PlayerRankingData playerRankingData;
   private final SkillCalculator skillCalculator;
@@ -54,16 +59,26 @@ public class PlayerRankingSystem {
   private final int maxOperationHistory;
   private final Deque<RankingOperationState> rankingOperationStates;
 
-  private final Path backupDirectory;
+  private final BackupStore backupStore;
   private final Path saveFile;
+  private final Path legacySaveFile;
+  private final PersistenceService persistenceService;
+
+  // The contents of the save file as of the last save, used to write backups without reading the
+  // save file back from disk.
+  private Optional<byte[]> savedSnapshot;
+
+  // Replaced after every change, for readers on other threads.
+  private final AtomicReference<RankingSnapshot> snapshot;
 
   public static PlayerRankingSystem create(SkillCalculator skillCalculator, GameInfo gameInfo,
-      int maxOperationHistory, Path saveDirectory)
+      int maxOperationHistory, Path saveDirectory, PersistenceService persistenceService)
       throws IllegalArgumentException, IOException, JsonParseException {
     PlayerRankingData playerRankingData = new PlayerRankingData(skillCalculator, gameInfo);
 
     Path backupDirectory = saveDirectory.resolve(BACKUP_FOLDER);
     Path saveFile = saveDirectory.resolve(SAVE_FILE + SAVE_FILE_EXTENSION);
+    Path legacySaveFile = saveDirectory.resolve(SAVE_FILE + LEGACY_SAVE_FILE_EXTENSION);
 
     File saveDirectoryFile = saveDirectory.toFile();
     if (saveDirectoryFile.exists() && !saveDirectoryFile.isDirectory()) {
@@ -85,89 +100,69 @@ public class PlayerRankingSystem {
       Files.createDirectory(backupDirectory);
     }
 
+    // Undo needs the backups of every operation in the history.
+    BackupStore backupStore = BackupStore.create(backupDirectory,
+        new RetentionPolicy(Math.max(BACKUPS_TO_KEEP, maxOperationHistory),
+            DAILY_BACKUPS_TO_KEEP, WEEKLY_BACKUPS_TO_KEEP), persistenceService);
+
     return new PlayerRankingSystem(playerRankingData,
-        skillCalculator, gameInfo, maxOperationHistory, backupDirectory, saveFile);
+        skillCalculator, gameInfo, maxOperationHistory, backupStore, saveFile,
+        legacySaveFile, persistenceService);
   }
 
   private PlayerRankingSystem(PlayerRankingData playerRankingData,
       SkillCalculator skillCalculator, GameInfo gameInfo, int maxOperationHistory,
-      Path backupDirectory, Path saveFile) {
+      BackupStore backupStore, Path saveFile, Path legacySaveFile,
+      PersistenceService persistenceService) {
     this.playerRankingData = playerRankingData;
     this.skillCalculator = skillCalculator;
     this.gameInfo = gameInfo;
     this.maxOperationHistory = maxOperationHistory;
-    this.backupDirectory = backupDirectory;
+    this.backupStore = backupStore;
     this.saveFile = saveFile;
+    this.legacySaveFile = legacySaveFile;
+    this.persistenceService = persistenceService;
     this.rankingOperationStates = new LinkedList<>();
+    this.savedSnapshot = Optional.empty();
+    this.snapshot = new AtomicReference<>(RankingSnapshot.empty(gameInfo));
   }
 
   public void init() throws IOException {
     if (Files.exists(saveFile)) {
-      loadFromFile(saveFile);
+      logger.info("Loading from save file, {}.", saveFile);
+      byte[] snapshot = Files.readAllBytes(saveFile);
+      playerRankingData.load(new ByteArrayInputStream(snapshot));
+      savedSnapshot = Optional.of(snapshot);
+      logger.info("Finished loading from save file, {}.", saveFile);
+    } else if (Files.exists(legacySaveFile)) {
+      logger.info("Migrating legacy save file, {}, to {}.", legacySaveFile, saveFile);
+      loadFromFile(legacySaveFile);
+      saveToFile(saveFile);
     }
+    publishSnapshot();
   }
 
-  public Match findBalancedMatch(ImmutableSet<Long> allPlayers) {
-    Preconditions.checkArgument(allPlayers.size() >= 2);
-
-    int numberOfConfigurationsToConsider = numberOfTopConfigurationsToConsider(allPlayers.size());
-
-    // If there are an even number of players, then this algorithm will consider both:
-    // A B C vs D E F and D E F vs A B C. To offset this problem, we consider double the number
-    // of combinations.
-    if (allPlayers.size() % 2 == 0) {
-      numberOfConfigurationsToConsider *= 2;
-    }
-
-    ImmutableMap<Long, Player<Long>> playerIdToPlayer = allPlayers.stream()
-        .collect(ImmutableMap.toImmutableMap(Function.identity(), Player::new));
-    ImmutableMap<Long, Rating> playerIdToRating = allPlayers.stream()
-        .collect(ImmutableMap.toImmutableMap(Function.identity(),
-            playerRankingData::getPlayerRatingOrDefault));
-
-    int numberOfPlayersOnTeam1 = allPlayers.size() / 2;
-
-    Set<Set<Long>> combinations = Sets.combinations(allPlayers, numberOfPlayersOnTeam1);
-
-    PriorityQueue<Match> potentialMatches = new PriorityQueue<>(
-        Comparator.comparingDouble(match -> match.getMatchQuality().get()));
-
-    for (Set<Long> playersOnTeam1 : combinations) {
-      Set<Long> playersOnTeam2 = Sets.difference(allPlayers, playersOnTeam1);
-
-      Team team1 = new Team();
-      Team team2 = new Team();
-
-      playersOnTeam1.forEach(playerId -> team1.addPlayer(playerIdToPlayer.get(playerId),
-          playerIdToRating.get(playerId)));
-      playersOnTeam2.forEach(playerId -> team2.addPlayer(playerIdToPlayer.get(playerId),
-          playerIdToRating.get(playerId)));
-
-      double quality = TrueSkillCalculator.calculateMatchQuality(gameInfo,
-          ImmutableList.of(team1, team2));
-
-      potentialMatches.add(new Match(ImmutableList.copyOf(playersOnTeam1),
-          ImmutableList.copyOf(playersOnTeam2), Optional.of(quality)));
-
-      if (potentialMatches.size() > numberOfConfigurationsToConsider) {
-        potentialMatches.poll();
-      }
-    }
-
-    ImmutableList<Match> bestMatches = ImmutableList.copyOf(potentialMatches);
-    return bestMatches.get(new Random().nextInt(bestMatches.size()));
+  /**
+   * Converts between the JSON and binary save file formats. The format of each file is chosen by
+   * its extension.
+   */
+  public static void convertSaveFile(Path sourceFile, Path destinationFile) throws IOException {
+    PlayerRankingData playerRankingData = new PlayerRankingData(
+        new FactorGraphTrueSkillCalculator(), GameInfo.getDefaultGameInfo());
+    readSaveFile(playerRankingData, sourceFile);
+    writeSaveFile(playerRankingData, destinationFile);
   }
 
   public boolean hasPlayer(long playerId) {
     return playerRankingData.hasPlayer(playerId);
   }
 
-  public Optional<PlayerStats> getPlayerStats(long playerId) {
-    return playerRankingData.getPlayerStats(playerId);
-  }
-
-  public HashMap<Long, PlayerStats> getAllPlayerStats() {
-    return playerRankingData.getAllPlayerStats();
+  /**
+   * Returns the ladder as of its last change. Unlike the rest of this class, this is safe to call
+   * from any thread.
+   */
+  public RankingSnapshot getSnapshot() {
+    return snapshot.get();
   }
 
   public void createPlayerWithDefaultRating(long playerId) throws Exception {
@@ -185,6 +180,81 @@ public class PlayerRankingSystem {
         () -> playerRankingData.recordMatchOutcome(matchOutcome));
   }
 
+  /**
+   * Registers several players as a single operation: one backup beforehand and one save
+   * afterwards. Players without a rating get the default one. If any player is already
+   * registered, nobody is.
+   */
+  public BatchRankingOperation createPlayers(ImmutableMap<Long, Optional<Double>> meanRatings)
+      throws Exception {
+    ImmutableList.Builder<RankingOperation> rankingOperations = ImmutableList.builder();
+    ImmutableList.Builder<DataOperation> dataOperations = ImmutableList.builder();
+    meanRatings.forEach((playerId, meanRatingOpt) -> {
+      double meanRating = meanRatingOpt.orElse(gameInfo.getInitialMean());
+      rankingOperations.add(new CreatePlayerRankingOperation(playerId, meanRating));
+      dataOperations.add(() -> playerRankingData.createPlayerWithRating(playerId, meanRating));
+    });
+    return performBatch(rankingOperations.build(), dataOperations.build());
+  }
+
+  /**
+   * Records several match outcomes, in order, as a single operation: one backup beforehand and
+   * one save afterwards. If any fails, none are recorded.
+   */
+  public BatchRankingOperation recordMatchOutcomes(ImmutableList<MatchOutcome> matchOutcomes)
+      throws Exception {
+    ImmutableList.Builder<RankingOperation> rankingOperations = ImmutableList.builder();
+    ImmutableList.Builder<DataOperation> dataOperations = ImmutableList.builder();
+    for (MatchOutcome matchOutcome : matchOutcomes) {
+      rankingOperations.add(new MatchOutcomeRankingOperation(matchOutcome));
+      dataOperations.add(() -> playerRankingData.replayMatchOutcome(matchOutcome));
+    }
+    return performBatch(rankingOperations.build(), dataOperations.build());
+  }
+
+  /**
+   * Records every match outcome read from {@param reader}, in order, as a single operation: one
+   * backup beforehand and one save afterwards. Outcomes are applied as they are read, so the
+   * input is never held in memory. If any line is malformed, nothing is recorded.
+   *
+   * @throws IllegalArgumentException if a line is malformed. The message names the line.
+   */
+  public ImportRankingOperation importMatchOutcomes(Reader reader, String source)
+      throws Exception {
+    return (ImportRankingOperation) performRankingOperation(
+        String.format("importing match outcomes from %s", source), () -> {
+          MatchOutcomeCsvReader csvReader = new MatchOutcomeCsvReader(reader);
+          int matchOutcomeCount = 0;
+
+          Optional<MatchOutcome> matchOutcome;
+          while ((matchOutcome = csvReader.next()).isPresent()) {
+            playerRankingData.replayMatchOutcome(matchOutcome.get());
+            matchOutcomeCount++;
+          }
+
+          logger.info("Imported {} match outcomes from {}.", matchOutcomeCount, source);
+          return new ImportRankingOperation(source, matchOutcomeCount);
+        });
+  }
+
+  /**
+   * Replaces all ranking data with the contents of a backup. This is itself an operation, so it
+   * can be undone.
+   */
+  public void restoreBackup(long backupId) throws Exception {
+    Preconditions.checkArgument(backupStore.getBackup(backupId).isPresent(),
+        "Unknown backup %s.", backupId);
+    performRankingOperation(new RestoreBackupRankingOperation(backupId),
+        () -> loadFromBackup(backupId));
+  }
+
+  /**
+   * Returns all retained backups, newest first.
+   */
+  public ImmutableList<BackupEntry> listBackups() {
+    return backupStore.listBackups();
+  }
+
   public Optional<RankingOperation> lastOperation() {
     return Optional.ofNullable(rankingOperationStates.peekLast())
         .map(RankingOperationState::getRankingOperation);
@@ -200,91 +270,187 @@ public class PlayerRankingSystem {
     RankingOperationState lastOperation = lastOperationOpt.get();
 
     playerRankingData.clear();
-    if (lastOperation.dataBeforeOperation.isPresent()) {
-      Path backupFile = lastOperation.dataBeforeOperation.get();
-      loadFromFile(backupFile);
-      Files.deleteIfExists(backupFile);
+    if (lastOperation.backupBeforeOperation.isPresent()) {
+      loadFromBackup(lastOperation.backupBeforeOperation.get());
     }
     saveToFile(saveFile);
+    publishSnapshot();
 
     return Optional.of(lastOperation.rankingOperation);
   }
 
   private void performRankingOperation(RankingOperation rankingOperation,
-      Runnable runnableOperation) throws Exception {
-    Optional<Path> dataBeforeOperation = Optional.empty();
+      DataOperation dataOperation) throws Exception {
+    performRankingOperation(rankingOperation.getDescription(), () -> {
+      dataOperation.run();
+      return rankingOperation;
+    });
+  }
 
-    // Create a backup
-    if (Files.exists(saveFile)) {
-      Path backupFile = backupDirectory.resolve(
-          BACKUP_FILE_NAME_FORMAT.format(new Date()) + SAVE_FILE_EXTENSION);
+  private BatchRankingOperation performBatch(ImmutableList<RankingOperation> rankingOperations,
+      ImmutableList<DataOperation> dataOperations) throws Exception {
+    Preconditions.checkArgument(!rankingOperations.isEmpty());
+    BatchRankingOperation batchRankingOperation = new BatchRankingOperation(rankingOperations);
+    return (BatchRankingOperation) performRankingOperation(
+        batchRankingOperation.getDescription(), () -> {
+          for (DataOperation dataOperation : dataOperations) {
+            dataOperation.run();
+          }
+          return batchRankingOperation;
+        });
+  }
 
-      logger.info("Backing up data to {}.", backupFile);
-      Files.copy(saveFile, backupFile);
-      logger.info("Finished backing up data to {}.", backupFile);
+  /**
+   * Backs up the data, runs {@param dataOperation} and saves. If the operation fails, the data
+   * is rolled back to the last save.
+   */
+  private RankingOperation performRankingOperation(String description,
+      RecordingDataOperation dataOperation) throws Exception {
+    Optional<Long> backupBeforeOperation = Optional.empty();
 
-      dataBeforeOperation = Optional.of(backupFile);
+    // Create a backup
+    if (savedSnapshot.isPresent()) {
+      BackupEntry backupEntry = backupStore.backup(savedSnapshot.get(),
+          "Before " + description);
+      backupBeforeOperation = Optional.of(backupEntry.getBackupId());
     }
 
-    runnableOperation.run();
+    RankingOperation rankingOperation;
+    try {
+      rankingOperation = dataOperation.run();
+    } catch (Exception e) {
+      logger.info("Rolling back failed operation, {}.", description);
+      rollBackToLastSave();
+      throw e;
+    }
 
     // Save
     saveToFile(saveFile);
 
     // Add to operation stack.
     rankingOperationStates.addLast(new RankingOperationState(rankingOperation,
-        dataBeforeOperation));
+        backupBeforeOperation));
 
     while (rankingOperationStates.size() > maxOperationHistory) {
       rankingOperationStates.pollFirst();
     }
+    publishSnapshot();
+    return rankingOperation;
+  }
+
+  private void rollBackToLastSave() throws IOException {
+    if (savedSnapshot.isPresent()) {
+      playerRankingData.load(new ByteArrayInputStream(savedSnapshot.get()));
+    } else {
+      playerRankingData.clear();
+    }
+  }
+
+  /**
+   * Copies the current data into a new {@link RankingSnapshot}. Only the players changed since
+   * the last snapshot are copied, the rest are shared with it.
+   */
+  private void publishSnapshot() {
+    ImmutableMap<Long, PlayerSnapshot> players = playerRankingData
+        .snapshotPlayers(snapshot.get().getAllPlayers());
+    snapshot.set(new RankingSnapshot(gameInfo, players,
+        playerRankingData.recentMatchOutcomes(RankingSnapshot.MAX_RECENT_MATCH_OUTCOMES),
+        lastOperation(), savedSnapshot));
+  }
+
+  private void loadFromBackup(long backupId) throws IOException {
+    // The backup may still be waiting to be written.
+    persistenceService.flush();
+
+    logger.info("Loading from backup {}.", backupId);
+    byte[] snapshot = backupStore.restore(backupId).orElseThrow(() ->
+        new IOException(String.format("Backup %d no longer exists.", backupId)));
+    playerRankingData.load(new ByteArrayInputStream(snapshot));
+    logger.info("Finished loading from backup {}.", backupId);
   }
 
   private void loadFromFile(Path file) throws IOException {
     logger.info("Loading from save file, {}.", file);
-    try (BufferedReader bufferedReader = Files.newBufferedReader(file)) {
-      playerRankingData.load(bufferedReader);
-    }
+    readSaveFile(playerRankingData, file);
     logger.info("Finished loading from save file, {}.", file);
   }
 
+  /**
+   * Serializes the current data and hands it to the {@link PersistenceService}. The write itself
+   * happens off the calling thread.
+   */
   private void saveToFile(Path file) throws IOException {
-    Files.deleteIfExists(file);
-    logger.info("Saving to save file, {}.", file);
-    try (BufferedWriter bufferedWriter = Files.newBufferedWriter(file)) {
-      playerRankingData.save(bufferedWriter);
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    playerRankingData.save(snapshot);
+    savedSnapshot = Optional.of(snapshot.toByteArray());
+
+    logger.info("Scheduling save to save file, {}.", file);
+    persistenceService.scheduleWrite(file, savedSnapshot.get());
+  }
+
+  private static void readSaveFile(PlayerRankingData playerRankingData, Path file)
+      throws IOException {
+    if (isLegacySaveFile(file)) {
+      try (BufferedReader bufferedReader = Files.newBufferedReader(file)) {
+        playerRankingData.load(bufferedReader);
+      }
+    } else {
+      try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(file))) {
+        playerRankingData.load(inputStream);
+      }
+    }
+  }
+
+  private static void writeSaveFile(PlayerRankingData playerRankingData, Path file)
+      throws IOException {
+    if (isLegacySaveFile(file)) {
+      try (BufferedWriter bufferedWriter = Files.newBufferedWriter(file)) {
+        playerRankingData.save(bufferedWriter);
+      }
+    } else {
+      try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(file))) {
+        playerRankingData.save(outputStream);
+      }
     }
-    logger.info("Finished saving to save file, {}.", file);
+  }
+
+  private static boolean isLegacySaveFile(Path file) {
+    return file.getFileName().toString().endsWith(LEGACY_SAVE_FILE_EXTENSION);
   }
 
   @Immutable
   private static class RankingOperationState {
 
     private final RankingOperation rankingOperation;
-    private final Optional<Path> dataBeforeOperation;
+    private final Optional<Long> backupBeforeOperation;
 
     private RankingOperationState(RankingOperation rankingOperation,
-        Optional<Path> dataBeforeOperation) {
+        Optional<Long> backupBeforeOperation) {
       this.rankingOperation = rankingOperation;
-      this.dataBeforeOperation = dataBeforeOperation;
+      this.backupBeforeOperation = backupBeforeOperation;
     }
 
     RankingOperation getRankingOperation() {
       return rankingOperation;
     }
 
-    public Optional<Path> getDataBeforeOperation() {
-      return dataBeforeOperation;
+    public Optional<Long> getBackupBeforeOperation() {
+      return backupBeforeOperation;
     }
   }
 
-  private static int numberOfTopConfigurationsToConsider(int numberOfPlayers) {
-    if (numberOfPlayers <= 4) {
-      return 1;
-    }
-    if (numberOfPlayers <= 6) {
-      return 2;
-    }
-    return 3;
+  @FunctionalInterface
+  private interface DataOperation {
+
+    void run() throws IOException;
+  }
+
+  /**
+   * A {@link DataOperation} which only knows what it did once it has run.
+   */
+  @FunctionalInterface
+  private interface RecordingDataOperation {
+
+    RankingOperation run() throws IOException;
   }
 }
@@ -1,7 +1,14 @@
 package uk.co.andrewlee.cakebot.clients.aoe.ranking;
 
+import com.google.common.collect.ImmutableList;
+
 public interface RankingOperation {
 
+  /**
+   * A short, human readable description, used to label backups.
+   */
+  String getDescription();
+
   class CreatePlayerRankingOperation implements RankingOperation {
 
     private final long playerId;
@@ -19,6 +26,11 @@ public interface RankingOperation {
     public double getMeanRating() {
       return meanRating;
     }
+
+    @Override
+    public String getDescription() {
+      return String.format("registering player %d", playerId);
+    }
   }
 
   class MatchOutcomeRankingOperation implements RankingOperation {
@@ -32,5 +44,75 @@ public interface RankingOperation {
     public MatchOutcome getMatchOutcome() {
       return matchOutcome;
     }
+
+    @Override
+    public String getDescription() {
+      return "recording a match outcome";
+    }
+  }
+
+  class RestoreBackupRankingOperation implements RankingOperation {
+
+    private final long backupId;
+
+    RestoreBackupRankingOperation(long backupId) {
+      this.backupId = backupId;
+    }
+
+    public long getBackupId() {
+      return backupId;
+    }
+
+    @Override
+    public String getDescription() {
+      return String.format("restoring backup %d", backupId);
+    }
+  }
+
+  class ImportRankingOperation implements RankingOperation {
+
+    private final String source;
+    private final int matchOutcomeCount;
+
+    ImportRankingOperation(String source, int matchOutcomeCount) {
+      this.source = source;
+      this.matchOutcomeCount = matchOutcomeCount;
+    }
+
+    public String getSource() {
+      return source;
+    }
+
+    public int getMatchOutcomeCount() {
+      return matchOutcomeCount;
+    }
+
+    @Override
+    public String getDescription() {
+      return String.format("importing match outcomes from %s", source);
+    }
+  }
+
+  /**
+   * Several operations applied together, with one backup beforehand and one save afterwards, so
+   * that they are undone together.
+   */
+  class BatchRankingOperation implements RankingOperation {
+
+    private final ImmutableList<RankingOperation> rankingOperations;
+
+    BatchRankingOperation(ImmutableList<RankingOperation> rankingOperations) {
+      this.rankingOperations = rankingOperations;
+    }
+
+    public ImmutableList<RankingOperation> getRankingOperations() {
+      return rankingOperations;
+    }
+
+    @Override
+    public String getDescription() {
+      return String.format("a batch of %d operations, starting with %s",
+          rankingOperations.size(), rankingOperations.get(0).getDescription());
+    }
   }
 }
@@ -0,0 +1,366 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
+import de.gesundkrank.jskills.GameInfo;
+import de.gesundkrank.jskills.Rating;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import javax.annotation.concurrent.Immutable;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchConstraints.PlayerPair;
+import uk.co.andrewlee.cakebot.matchmaking.MatchmakingEngine;
+import uk.co.andrewlee.cakebot.matchmaking.ScoredCandidate;
+import uk.co.andrewlee.cakebot.matchmaking.SearchBudget;
+import uk.co.andrewlee.cakebot.matchmaking.SearchResult;
+import uk.co.andrewlee.cakebot.matchmaking.SearchStrategy;
+
+/**
+ * An immutable copy of a ladder as of its last change, published by {@link PlayerRankingSystem}
+ * so that read-only commands can run without waiting for writes.
+ */
+@Immutable
+public class RankingSnapshot {
+
+  /**
+   * Number of entries of each {@link PlayedWithRanking} kept per player.
+   */
+  public static final int MAX_RANKED_PLAYED_WITH = 10;
+
+  /**
+   * Number of the ladder's most recent match outcomes kept, see {@link
+   * MatchConstraints#getRecentTeammateGames}.
+   */
+  public static final int MAX_RECENT_MATCH_OUTCOMES = 20;
+
+  public static final int MAX_MATCH_PLAYERS = BalancedMatchSearch.MAX_PLAYERS;
+
+  // Splits are good enough once they are within this much of the best possible match quality.
+  private static final double MATCH_QUALITY_TOLERANCE = 0.0005;
+
+  private final GameInfo gameInfo;
+  private final ImmutableMap<Long, PlayerSnapshot> players;
+  // Oldest first.
+  private final ImmutableList<MatchOutcome> recentMatchOutcomes;
+  private final Optional<RankingOperation> lastOperation;
+  // Never modified once published.
+  private final Optional<byte[]> saveData;
+
+  static RankingSnapshot empty(GameInfo gameInfo) {
+    return new RankingSnapshot(gameInfo, ImmutableMap.of(), ImmutableList.of(), Optional.empty(),
+        Optional.empty());
+  }
+
+  RankingSnapshot(GameInfo gameInfo, ImmutableMap<Long, PlayerSnapshot> players,
+      ImmutableList<MatchOutcome> recentMatchOutcomes, Optional<RankingOperation> lastOperation,
+      Optional<byte[]> saveData) {
+    this.gameInfo = gameInfo;
+    this.players = players;
+    this.recentMatchOutcomes = recentMatchOutcomes;
+    this.lastOperation = lastOperation;
+    this.saveData = saveData;
+  }
+
+  public boolean hasPlayer(long playerId) {
+    return players.containsKey(playerId);
+  }
+
+  public Optional<PlayerSnapshot> getPlayer(long playerId) {
+    return Optional.ofNullable(players.get(playerId));
+  }
+
+  public ImmutableMap<Long, PlayerSnapshot> getAllPlayers() {
+    return players;
+  }
+
+  public Optional<RankingOperation> lastOperation() {
+    return lastOperation;
+  }
+
+  /**
+   * Returns the contents of the save file matching this snapshot, in the binary snapshot format.
+   * Empty if the ladder has never been saved.
+   */
+  public Optional<ByteSource> getSaveData() {
+    return saveData.map(ByteSource::wrap);
+  }
+
+  public Rating getPlayerRatingOrDefault(long playerId) {
+    return getPlayer(playerId)
+        .map(PlayerSnapshot::getPlayerRating)
+        .orElse(gameInfo.getDefaultRating());
+  }
+
+  /**
+   * Returns the ladder's most recent match outcomes, oldest first. At most {@link
+   * #MAX_RECENT_MATCH_OUTCOMES}.
+   */
+  public ImmutableList<MatchOutcome> getRecentMatchOutcomes() {
+    return recentMatchOutcomes;
+  }
+
+  public Match findBalancedMatch(ImmutableSet<Long> allPlayers) throws InterruptedException {
+    return findBalancedMatch(allPlayers, MatchConstraints.none(), SearchBudget.unlimited()).get();
+  }
+
+  /**
+   * Returns one of the most balanced splits of {@param allPlayers} into two teams, chosen at
+   * random so that the same players do not always get the same teams. Empty if no split meeting
+   * the constraints is found within the budget. Every player named by a constraint must be in
+   * {@param allPlayers}.
+   */
+  public Optional<Match> findBalancedMatch(ImmutableSet<Long> allPlayers,
+      MatchConstraints constraints, SearchBudget budget) throws InterruptedException {
+    ImmutableList<Match> bestSplits = matchmakingEngine(constraints, Optional.empty())
+        .findMatches(allPlayers, numberOfTopConfigurationsToConsider(allPlayers.size()), budget)
+        .candidates();
+    if (bestSplits.isEmpty()) {
+      return Optional.empty();
+    }
+
+    Random random = new Random();
+    Match split = bestSplits.get(random.nextInt(bestSplits.size()));
+    // The search always puts the strongest player on team 1 if the teams are the same size.
+    if (split.getTeam1().size() == split.getTeam2().size() && random.nextBoolean()) {
+      split = new Match(split.getTeam2(), split.getTeam1(), split.getMatchQuality());
+    }
+    return Optional.of(split);
+  }
+
+  /**
+   * Returns an engine which splits players from this snapshot into two teams, meeting {@param
+   * constraints}, with their match qualities. Without a {@param searchStrategy}, it uses {@link
+   * BalancedMatchSearch}, which stops once its splits are within {@link
+   * #MATCH_QUALITY_TOLERANCE} of an even match.
+   */
+  public MatchmakingEngine<Match> matchmakingEngine(MatchConstraints constraints,
+      Optional<SearchStrategy> searchStrategy) {
+    return (roster, candidatesToKeep, budget) -> findMatches(roster, constraints,
+        searchStrategy, candidatesToKeep, budget);
+  }
+
+  private SearchResult<Match> findMatches(ImmutableSet<Long> allPlayers,
+      MatchConstraints constraints, Optional<SearchStrategy> searchStrategy,
+      int candidatesToKeep, SearchBudget budget) throws InterruptedException {
+    Preconditions.checkArgument(allPlayers.size() >= 2
+        && allPlayers.size() <= MAX_MATCH_PLAYERS);
+    Preconditions.checkArgument(allPlayers.containsAll(constraints.players()),
+        "Every player in a constraint must be in the match.");
+
+    ImmutableMap<Long, Rating> playerIdToRating = allPlayers.stream()
+        .collect(ImmutableMap.toImmutableMap(Function.identity(),
+            this::getPlayerRatingOrDefault));
+
+    ImmutableList<PlayerPair> apart = ImmutableList.<PlayerPair>builder()
+        .addAll(constraints.getApart())
+        .addAll(recentTeammates(allPlayers, constraints.getRecentTeammateGames()))
+        .build();
+
+    if (searchStrategy.isPresent()) {
+      return searchStrategy.get().search(BalancedSplitEvaluator.create(gameInfo,
+          playerIdToRating, constraints.getTogether(), apart), candidatesToKeep, budget);
+    }
+
+    SearchResult<Match> splits = BalancedMatchSearch.findBestSplits(
+        ImmutableMap.copyOf(Maps.transformValues(playerIdToRating, Rating::getMean)),
+        constraints.getTogether(), apart, candidatesToKeep,
+        goodEnoughDifference(playerIdToRating.values()), budget);
+
+    double variance = playerIdToRating.values().stream()
+        .mapToDouble(rating -> TwoTeamQuality.variance(gameInfo, rating)).sum();
+    ImmutableList<ScoredCandidate<Match>> rated = splits.getCandidates().stream()
+        .map(split -> ScoredCandidate.create(split.getTeam1Mask(), split.getScore(),
+            new Match(split.getCandidate().getTeam1(), split.getCandidate().getTeam2(),
+                Optional.of(TwoTeamQuality.quality(gameInfo, allPlayers.size(),
+                    split.getScore(), variance)))))
+        .collect(ImmutableList.toImmutableList());
+    return new SearchResult<>(rated, splits.isComplete(), splits.getSplitsEvaluated(),
+        splits.getSearchTime());
+  }
+
+  /**
+   * Splits {@param allPlayers} into {@param gameCount} games of as close to the same size as
+   * possible, spending {@param timeBudget} on making the least balanced game as balanced as it
+   * can.
+   */
+  public MultiMatch findBalancedMatches(ImmutableSet<Long> allPlayers, int gameCount,
+      Duration timeBudget) {
+    long startNanos = System.nanoTime();
+    ImmutableMap<Long, Rating> playerIdToRating = allPlayers.stream()
+        .collect(ImmutableMap.toImmutableMap(Function.identity(),
+            this::getPlayerRatingOrDefault));
+
+    MultiMatchOptimizer optimizer = MultiMatchOptimizer.create(gameInfo, playerIdToRating,
+        gameCount, new Random());
+    ImmutableList<Match> matches = optimizer.optimise(startNanos,
+        startNanos + timeBudget.toNanos());
+    return new MultiMatch(matches, Duration.ofNanos(System.nanoTime() - startNanos),
+        optimizer.getIterations());
+  }
+
+  /**
+   * Rates the match between {@param team1} and {@param team2}, and finds the swaps of one and of
+   * two players between the teams which would make it most balanced.
+   */
+  public Rebalance rebalance(ImmutableList<Long> team1, ImmutableList<Long> team2) {
+    ImmutableMap<Long, Rating> playerIdToRating = Stream.concat(team1.stream(), team2.stream())
+        .collect(ImmutableMap.toImmutableMap(Function.identity(),
+            this::getPlayerRatingOrDefault));
+    return MatchRebalancer.rebalance(gameInfo, team1, team2, playerIdToRating);
+  }
+
+  /**
+   * Returns every pair of the players who were on the same team in any of the last {@param
+   * games} match outcomes.
+   */
+  private ImmutableList<PlayerPair> recentTeammates(ImmutableSet<Long> allPlayers, int games) {
+    ImmutableList.Builder<PlayerPair> pairs = ImmutableList.builder();
+    for (MatchOutcome matchOutcome : recentMatchOutcomes.subList(
+        Math.max(0, recentMatchOutcomes.size() - games), recentMatchOutcomes.size())) {
+      addTeammates(pairs, allPlayers, matchOutcome.getWinningPlayers());
+      addTeammates(pairs, allPlayers, matchOutcome.getLosingPlayers());
+    }
+    return pairs.build();
+  }
+
+  private static void addTeammates(ImmutableList.Builder<PlayerPair> pairs,
+      ImmutableSet<Long> allPlayers, ImmutableList<Long> team) {
+    ImmutableList<Long> playing = team.stream().filter(allPlayers::contains)
+        .collect(ImmutableList.toImmutableList());
+    for (int i = 0; i < playing.size(); i++) {
+      for (int j = i + 1; j < playing.size(); j++) {
+        pairs.add(new PlayerPair(playing.get(i), playing.get(j)));
+      }
+    }
+  }
+
+  /**
+   * TrueSkill match quality for two teams is proportional to exp(-d^2 / 2c^2), where d is the
+   * difference in total mean rating and c^2 is the total {@link TwoTeamQuality#variance}. Returns
+   * the d at which quality falls {@link #MATCH_QUALITY_TOLERANCE} short of an even match.
+   */
+  private double goodEnoughDifference(Collection<Rating> ratings) {
+    double c2 = ratings.stream()
+        .mapToDouble(rating -> TwoTeamQuality.variance(gameInfo, rating)).sum();
+    return Math.sqrt(-2 * c2 * Math.log(1 - MATCH_QUALITY_TOLERANCE));
+  }
+
+  private static int numberOfTopConfigurationsToConsider(int numberOfPlayers) {
+    if (numberOfPlayers <= 4) {
+      return 1;
+    }
+    if (numberOfPlayers <= 6) {
+      return 2;
+    }
+    return 3;
+  }
+
+  @Immutable
+  public static class PlayerSnapshot {
+
+    private final long playerId;
+    private final Rating playerRating;
+    private final int gamesWon;
+    private final int gamesLost;
+    private final ImmutableMap<PlayedWithRanking, ImmutableList<PlayedWithSnapshot>>
+        playedWithRankings;
+
+    PlayerSnapshot(long playerId, Rating playerRating, int gamesWon, int gamesLost,
+        ImmutableMap<PlayedWithRanking, ImmutableList<PlayedWithSnapshot>> playedWithRankings) {
+      this.playerId = playerId;
+      this.playerRating = playerRating;
+      this.gamesWon = gamesWon;
+      this.gamesLost = gamesLost;
+      this.playedWithRankings = playedWithRankings;
+    }
+
+    public long getPlayerId() {
+      return playerId;
+    }
+
+    public Rating getPlayerRating() {
+      return playerRating;
+    }
+
+    public int getGamesWon() {
+      return gamesWon;
+    }
+
+    public int getGamesLost() {
+      return gamesLost;
+    }
+
+    public int totalGamesPlayed() {
+      return gamesWon + gamesLost;
+    }
+
+    public double winRate() {
+      return (double) gamesWon / totalGamesPlayed();
+    }
+
+    /**
+     * Returns up to {@param limit} {@link PlayedWithSnapshot}s for the given ranking, best first.
+     * At most {@link #MAX_RANKED_PLAYED_WITH} are kept.
+     */
+    public ImmutableList<PlayedWithSnapshot> topPlayedWith(PlayedWithRanking ranking,
+        int limit) {
+      ImmutableList<PlayedWithSnapshot> rankedStats = playedWithRankings
+          .getOrDefault(ranking, ImmutableList.of());
+      return rankedStats.subList(0, Math.min(limit, rankedStats.size()));
+    }
+  }
+
+  @Immutable
+  public static class PlayedWithSnapshot {
+
+    private final long otherPlayerId;
+    private final int gamesWonWith;
+    private final int gamesLostWith;
+    private final int gamesWonAgainst;
+    private final int gamesLostAgainst;
+
+    PlayedWithSnapshot(long otherPlayerId, int gamesWonWith, int gamesLostWith,
+        int gamesWonAgainst, int gamesLostAgainst) {
+      this.otherPlayerId = otherPlayerId;
+      this.gamesWonWith = gamesWonWith;
+      this.gamesLostWith = gamesLostWith;
+      this.gamesWonAgainst = gamesWonAgainst;
+      this.gamesLostAgainst = gamesLostAgainst;
+    }
+
+    public long getOtherPlayerId() {
+      return otherPlayerId;
+    }
+
+    public int getGamesWon() {
+      return gamesWonWith;
+    }
+
+    public int getGamesLost() {
+      return gamesLostWith;
+    }
+
+    public int getGamesWonAgainst() {
+      return gamesWonAgainst;
+    }
+
+    public int getGamesLostAgainst() {
+      return gamesLostAgainst;
+    }
+
+    public int totalGamesPlayed() {
+      return gamesWonWith + gamesLostWith;
+    }
+
+    public double winRate() {
+      return (double) gamesWonWith / totalGamesPlayed();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import de.gesundkrank.jskills.GameInfo;
+import de.gesundkrank.jskills.ITeam;
+import de.gesundkrank.jskills.Rating;
+import de.gesundkrank.jskills.SkillCalculator;
+import de.gesundkrank.jskills.numerics.GaussianDistribution;
+import de.gesundkrank.jskills.trueskill.FactorGraphTrueSkillCalculator;
+import java.util.function.LongSupplier;
+
+/**
+ * The {@link SkillCalculator}s that AoE ladders can be rated with. Both keep ratings on the
+ * {@link GameInfo} scale, so a ladder can switch between them without losing its ratings.
+ */
+public enum RatingEngine {
+  TRUESKILL {
+    @Override
+    public SkillCalculator newSkillCalculator(LongSupplier clock) {
+      return new FactorGraphTrueSkillCalculator();
+    }
+
+    @Override
+    public double winProbability(SkillCalculator skillCalculator, GameInfo gameInfo,
+        ITeam team, ITeam otherTeam) {
+      double meanDifference = 0;
+      double variance = 0;
+      for (Rating rating : team.values()) {
+        meanDifference += rating.getMean();
+        variance += rating.getStandardDeviation() * rating.getStandardDeviation();
+      }
+      for (Rating rating : otherTeam.values()) {
+        meanDifference -= rating.getMean();
+        variance += rating.getStandardDeviation() * rating.getStandardDeviation();
+      }
+      variance += (team.size() + otherTeam.size()) * gameInfo.getBeta() * gameInfo.getBeta();
+      return GaussianDistribution.cumulativeTo(meanDifference / Math.sqrt(variance));
+    }
+  },
+  GLICKO2 {
+    @Override
+    public SkillCalculator newSkillCalculator(LongSupplier clock) {
+      return Glicko2SkillCalculator.create(Glicko2SkillCalculator.DEFAULT_TAU,
+          Glicko2SkillCalculator.DEFAULT_INITIAL_VOLATILITY,
+          Glicko2SkillCalculator.DEFAULT_RATING_PERIOD_MILLIS, clock);
+    }
+
+    @Override
+    public double winProbability(SkillCalculator skillCalculator, GameInfo gameInfo,
+        ITeam team, ITeam otherTeam) {
+      return ((Glicko2SkillCalculator) skillCalculator).winProbability(gameInfo, team,
+          otherTeam);
+    }
+  };
+
+  /**
+   * Returns a new calculator. Each ladder needs its own, as some engines keep per-player state.
+   * {@param clock} decides the rating period of each game, for engines which have them.
+   */
+  public abstract SkillCalculator newSkillCalculator(LongSupplier clock);
+
+  public SkillCalculator newSkillCalculator() {
+    return newSkillCalculator(System::currentTimeMillis);
+  }
+
+  /**
+   * Returns the probability that {@param team} beats {@param otherTeam}, as predicted by {@param
+   * skillCalculator}, which must have come from this engine.
+   */
+  public abstract double winProbability(SkillCalculator skillCalculator, GameInfo gameInfo,
+      ITeam team, ITeam otherTeam);
+
+  /**
+   * Parses an engine name, ignoring case, eg. {@code glicko2}.
+   */
+  public static RatingEngine parse(String name) throws IllegalArgumentException {
+    return valueOf(name.toUpperCase());
+  }
+}
@@ -0,0 +1,63 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import com.google.common.collect.ImmutableList;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A match as it stands, and the best improvements found by swapping one and two players, see
+ * {@link RankingSnapshot#rebalance}.
+ */
+@Immutable
+public class Rebalance {
+
+  private final Match currentMatch;
+  private final ImmutableList<Swap> swaps;
+
+  Rebalance(Match currentMatch, ImmutableList<Swap> swaps) {
+    this.currentMatch = currentMatch;
+    this.swaps = swaps;
+  }
+
+  /**
+   * Returns the match as it stands, with its match quality.
+   */
+  public Match getCurrentMatch() {
+    return currentMatch;
+  }
+
+  /**
+   * Returns the swaps which improve the match, fewest players first. Empty if none do.
+   */
+  public ImmutableList<Swap> getSwaps() {
+    return swaps;
+  }
+
+  @Immutable
+  public static class Swap {
+
+    private final ImmutableList<Long> fromTeam1;
+    private final ImmutableList<Long> fromTeam2;
+    private final Match result;
+
+    Swap(ImmutableList<Long> fromTeam1, ImmutableList<Long> fromTeam2, Match result) {
+      this.fromTeam1 = fromTeam1;
+      this.fromTeam2 = fromTeam2;
+      this.result = result;
+    }
+
+    public ImmutableList<Long> getFromTeam1() {
+      return fromTeam1;
+    }
+
+    public ImmutableList<Long> getFromTeam2() {
+      return fromTeam2;
+    }
+
+    /**
+     * Returns the teams after the swap, with their match quality.
+     */
+    public Match getResult() {
+      return result;
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import java.io.IOException;
+import uk.co.andrewlee.cakebot.persistence.SnapshotInput;
+import uk.co.andrewlee.cakebot.persistence.SnapshotOutput;
+
+/**
+ * Implemented by {@link de.gesundkrank.jskills.SkillCalculator}s which keep per-player state
+ * beyond each player's {@link de.gesundkrank.jskills.Rating}. {@link PlayerRankingData} saves the
+ * state alongside the ratings, so it is restored along with them on undo or from a backup.
+ */
+public interface StatefulSkillCalculator {
+
+  void saveState(SnapshotOutput output) throws IOException;
+
+  /**
+   * Replaces the current state with the saved state. The input is empty if the snapshot was saved
+   * without any state, eg. by a different engine.
+   */
+  void loadState(SnapshotInput input) throws IOException;
+
+  void clearState();
+}
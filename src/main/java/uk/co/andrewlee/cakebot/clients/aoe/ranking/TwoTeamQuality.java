@@ -0,0 +1,38 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking;
+
+import de.gesundkrank.jskills.GameInfo;
+import de.gesundkrank.jskills.Rating;
+import de.gesundkrank.jskills.TrueSkillCalculator;
+
+/**
+ * Closed form of TrueSkill match quality for two teams, for searches which score many splits of
+ * the same players. Gives the same result as {@link TrueSkillCalculator#calculateMatchQuality}.
+ * <p>
+ * Quality depends only on the number of players, the total of their {@link #variance}s, and the
+ * difference between the teams' total mean ratings. So for a fixed set of players, moving
+ * players between teams only changes the difference.
+ */
+class TwoTeamQuality {
+
+  private TwoTeamQuality() {
+  }
+
+  /**
+   * Returns the rating's variance plus beta squared, the player's share of the match variance.
+   */
+  static double variance(GameInfo gameInfo, Rating rating) {
+    return rating.getStandardDeviation() * rating.getStandardDeviation()
+        + gameInfo.getBeta() * gameInfo.getBeta();
+  }
+
+  /**
+   * @param meanDifference team 1's total mean rating minus team 2's.
+   * @param variance the total {@link #variance} of every player.
+   */
+  static double quality(GameInfo gameInfo, int players, double meanDifference,
+      double variance) {
+    double betaSquared = gameInfo.getBeta() * gameInfo.getBeta();
+    return Math.sqrt(players * betaSquared / variance)
+        * Math.exp(-meanDifference * meanDifference / (2 * variance));
+  }
+}
@@ -0,0 +1,97 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Optional;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.Match;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchOutcome;
+import uk.co.andrewlee.cakebot.discord.DiscordHelper;
+
+/**
+ * Reads match outcomes from CSV, one line at a time.
+ * <p>
+ * Each line is {@code winners,losers}, where each column lists the players on that team
+ * separated by spaces or semicolons, as user ids or mentions. Blank lines, lines starting with
+ * {@code #} and a {@code winners,losers} header are skipped.
+ */
+public class MatchOutcomeCsvReader {
+
+  private static final String HEADER = "winners,losers";
+  private static final String COMMENT_PREFIX = "#";
+  private static final Splitter COLUMN_SPLITTER = Splitter.on(',').trimResults();
+  private static final Splitter PLAYER_SPLITTER = Splitter.onPattern("[\\s;]+")
+      .omitEmptyStrings();
+
+  private final BufferedReader reader;
+  private int lineNumber;
+
+  public MatchOutcomeCsvReader(Reader reader) {
+    this.reader = reader instanceof BufferedReader ? (BufferedReader) reader
+        : new BufferedReader(reader);
+    this.lineNumber = 0;
+  }
+
+  /**
+   * Returns the next match outcome, or empty at the end of the input.
+   *
+   * @throws IllegalArgumentException if a line is malformed. The message names the line.
+   */
+  public Optional<MatchOutcome> next() throws IOException, IllegalArgumentException {
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      line = line.trim();
+
+      if (line.isEmpty() || line.startsWith(COMMENT_PREFIX)
+          || (lineNumber == 1 && line.equalsIgnoreCase(HEADER))) {
+        continue;
+      }
+
+      return Optional.of(parseLine(line));
+    }
+    return Optional.empty();
+  }
+
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  private MatchOutcome parseLine(String line) {
+    List<String> columns = COLUMN_SPLITTER.splitToList(line);
+    if (columns.size() != 2) {
+      throw new IllegalArgumentException(String.format(
+          "Line %d: expected 2 columns, winners and losers, but found %d.", lineNumber,
+          columns.size()));
+    }
+
+    ImmutableList<Long> winners = parsePlayers(columns.get(0));
+    ImmutableList<Long> losers = parsePlayers(columns.get(1));
+
+    if (winners.isEmpty() || losers.isEmpty()) {
+      throw new IllegalArgumentException(String.format("Line %d: both teams need players.",
+          lineNumber));
+    }
+    if (winners.stream().anyMatch(losers::contains)) {
+      throw new IllegalArgumentException(String.format(
+          "Line %d: a player is on both teams.", lineNumber));
+    }
+
+    return MatchOutcome.createTeam1Won(new Match(winners, losers, Optional.empty()));
+  }
+
+  private ImmutableList<Long> parsePlayers(String column) {
+    // Spreadsheets quote cells which contain separators.
+    String players = column.replace("\"", "");
+    try {
+      return ImmutableList.copyOf(DiscordHelper.parseUserList(PLAYER_SPLITTER.split(players))
+          .stream().distinct().iterator());
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      throw new IllegalArgumentException(String.format("Line %d: %s", lineNumber,
+          e.getMessage()), e);
+    }
+  }
+}
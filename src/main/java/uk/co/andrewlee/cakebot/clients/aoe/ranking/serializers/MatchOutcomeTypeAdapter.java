@@ -0,0 +1,89 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.Optional;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.Match;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchOutcome;
+
+/**
+ * Streams a {@link MatchOutcome} to and from JSON. Teams are read straight into {@link
+ * ImmutableList}s, without an intermediate tree or list copy.
+ */
+public class MatchOutcomeTypeAdapter extends TypeAdapter<MatchOutcome> {
+
+  private static final String TEAM1 = "team1";
+  private static final String TEAM2 = "team2";
+  private static final String OUTCOME = "outcome";
+
+  @Override
+  public void write(JsonWriter jsonWriter, MatchOutcome matchOutcome) throws IOException {
+    jsonWriter.beginObject();
+    jsonWriter.name(TEAM1);
+    writeTeam(jsonWriter, matchOutcome.getMatch().getTeam1());
+    jsonWriter.name(TEAM2);
+    writeTeam(jsonWriter, matchOutcome.getMatch().getTeam2());
+    jsonWriter.name(OUTCOME).value(matchOutcome.isTeam1Won());
+    jsonWriter.endObject();
+  }
+
+  @Override
+  public MatchOutcome read(JsonReader jsonReader) throws IOException {
+    ImmutableList<Long> team1 = null;
+    ImmutableList<Long> team2 = null;
+    Boolean isTeam1Won = null;
+
+    jsonReader.beginObject();
+    while (jsonReader.hasNext()) {
+      switch (jsonReader.nextName()) {
+        case TEAM1:
+          team1 = readTeam(jsonReader);
+          break;
+        case TEAM2:
+          team2 = readTeam(jsonReader);
+          break;
+        case OUTCOME:
+          isTeam1Won = jsonReader.nextBoolean();
+          break;
+        default:
+          jsonReader.skipValue();
+      }
+    }
+    jsonReader.endObject();
+
+    if (team1 == null || team2 == null || isTeam1Won == null) {
+      throw new JsonParseException(String.format("Incomplete match outcome at %s.",
+          jsonReader.getPath()));
+    }
+
+    Match match = new Match(team1, team2, Optional.empty());
+    if (isTeam1Won) {
+      return MatchOutcome.createTeam1Won(match);
+    } else {
+      return MatchOutcome.createTeam2Won(match);
+    }
+  }
+
+  private static void writeTeam(JsonWriter jsonWriter, ImmutableList<Long> team)
+      throws IOException {
+    jsonWriter.beginArray();
+    for (long playerId : team) {
+      jsonWriter.value(playerId);
+    }
+    jsonWriter.endArray();
+  }
+
+  private static ImmutableList<Long> readTeam(JsonReader jsonReader) throws IOException {
+    ImmutableList.Builder<Long> team = ImmutableList.builder();
+    jsonReader.beginArray();
+    while (jsonReader.hasNext()) {
+      team.add(jsonReader.nextLong());
+    }
+    jsonReader.endArray();
+    return team.build();
+  }
+}
@@ -0,0 +1,254 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers;
+
+import com.google.common.io.ByteSource;
+import com.google.gson.stream.JsonWriter;
+import de.gesundkrank.jskills.Rating;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchOutcome;
+
+/**
+ * Exports AoE ranking data from a binary snapshot, see {@link RankingSnapshotSerializer}, as CSV
+ * or newline delimited JSON.
+ * <p>
+ * Three kinds of record are written, in order: one per player with their rating and record, one
+ * per pair of players who have played together or against each other, and one per match outcome
+ * in the order they were recorded. The snapshot is read twice, once to total up the player and
+ * pair records and once to stream the match outcomes, so match outcomes are never held in memory.
+ */
+public class RankingExportWriter {
+
+  private static final String PLAYER_RECORD = "player";
+  private static final String PAIR_RECORD = "pair";
+  private static final String OUTCOME_RECORD = "outcome";
+
+  // Indexes into the pair totals.
+  private static final int PAIR_WON_WITH = 0;
+  private static final int PAIR_LOST_WITH = 1;
+  private static final int PAIR_WON_AGAINST = 2;
+  private static final int PAIR_LOST_AGAINST = 3;
+
+  public enum ExportFormat {
+    CSV("csv"),
+    NDJSON("ndjson");
+
+    private final String fileExtension;
+
+    ExportFormat(String fileExtension) {
+      this.fileExtension = fileExtension;
+    }
+
+    public String getFileExtension() {
+      return fileExtension;
+    }
+  }
+
+  public static void write(ByteSource snapshot, ExportFormat exportFormat, Writer writer)
+      throws IOException {
+    TreeMap<Long, PlayerTotals> playerTotals = new TreeMap<>();
+    try (InputStream inputStream = snapshot.openBufferedStream()) {
+      RankingSnapshotSerializer.read(inputStream,
+          (playerId, rating) -> playerTotals(playerTotals, playerId).rating = rating,
+          matchOutcome -> addToTotals(playerTotals, matchOutcome));
+    }
+
+    RecordWriter recordWriter = exportFormat == ExportFormat.CSV ? new CsvRecordWriter(writer)
+        : new JsonRecordWriter(writer);
+
+    for (PlayerTotals totals : playerTotals.values()) {
+      recordWriter.writePlayer(totals);
+    }
+    for (PlayerTotals totals : playerTotals.values()) {
+      for (Map.Entry<Long, int[]> pair : totals.pairTotals.entrySet()) {
+        recordWriter.writePair(totals.playerId, pair.getKey(), pair.getValue());
+      }
+    }
+
+    int[] outcomeIndex = new int[1];
+    try (InputStream inputStream = snapshot.openBufferedStream()) {
+      RankingSnapshotSerializer.read(inputStream, (playerId, rating) -> {
+      }, matchOutcome -> {
+        try {
+          recordWriter.writeOutcome(outcomeIndex[0]++, matchOutcome);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    writer.flush();
+  }
+
+  private static PlayerTotals playerTotals(TreeMap<Long, PlayerTotals> playerTotals,
+      long playerId) {
+    return playerTotals.computeIfAbsent(playerId, PlayerTotals::new);
+  }
+
+  private static void addToTotals(TreeMap<Long, PlayerTotals> playerTotals,
+      MatchOutcome matchOutcome) {
+    for (long winner : matchOutcome.getWinningPlayers()) {
+      PlayerTotals totals = playerTotals(playerTotals, winner);
+      totals.gamesWon++;
+      matchOutcome.getWinningPlayers().stream().filter(other -> other != winner)
+          .forEach(other -> totals.pairTotals(other)[PAIR_WON_WITH]++);
+      matchOutcome.getLosingPlayers().stream().filter(other -> other != winner)
+          .forEach(other -> totals.pairTotals(other)[PAIR_WON_AGAINST]++);
+    }
+    for (long loser : matchOutcome.getLosingPlayers()) {
+      PlayerTotals totals = playerTotals(playerTotals, loser);
+      totals.gamesLost++;
+      matchOutcome.getLosingPlayers().stream().filter(other -> other != loser)
+          .forEach(other -> totals.pairTotals(other)[PAIR_LOST_WITH]++);
+      matchOutcome.getWinningPlayers().stream().filter(other -> other != loser)
+          .forEach(other -> totals.pairTotals(other)[PAIR_LOST_AGAINST]++);
+    }
+  }
+
+  private static class PlayerTotals {
+
+    private final long playerId;
+    // Other player id to counts, indexed by the PAIR_ constants.
+    private final TreeMap<Long, int[]> pairTotals;
+
+    private Rating rating;
+    private int gamesWon;
+    private int gamesLost;
+
+    private PlayerTotals(long playerId) {
+      this.playerId = playerId;
+      this.pairTotals = new TreeMap<>();
+    }
+
+    private int[] pairTotals(long otherPlayerId) {
+      return pairTotals.computeIfAbsent(otherPlayerId, other -> new int[4]);
+    }
+  }
+
+  private interface RecordWriter {
+
+    void writePlayer(PlayerTotals totals) throws IOException;
+
+    void writePair(long playerId, long otherPlayerId, int[] pairTotals) throws IOException;
+
+    void writeOutcome(int index, MatchOutcome matchOutcome) throws IOException;
+  }
+
+  /**
+   * Writes one row per record, with the kind of record in the first column. Teams are lists of
+   * player ids separated by spaces.
+   */
+  private static class CsvRecordWriter implements RecordWriter {
+
+    private final Writer writer;
+
+    private CsvRecordWriter(Writer writer) throws IOException {
+      this.writer = writer;
+      writer.write("# player,playerId,mean,standardDeviation,gamesWon,gamesLost\n");
+      writer.write("# pair,playerId,otherPlayerId,gamesWonWith,gamesLostWith,gamesWonAgainst,"
+          + "gamesLostAgainst\n");
+      writer.write("# outcome,index,winners,losers\n");
+    }
+
+    @Override
+    public void writePlayer(PlayerTotals totals) throws IOException {
+      writer.write(String.format("%s,%d,%s,%s,%d,%d\n", PLAYER_RECORD, totals.playerId,
+          totals.rating == null ? "" : Double.toString(totals.rating.getMean()),
+          totals.rating == null ? "" : Double.toString(totals.rating.getStandardDeviation()),
+          totals.gamesWon, totals.gamesLost));
+    }
+
+    @Override
+    public void writePair(long playerId, long otherPlayerId, int[] pairTotals)
+        throws IOException {
+      writer.write(String.format("%s,%d,%d,%d,%d,%d,%d\n", PAIR_RECORD, playerId, otherPlayerId,
+          pairTotals[PAIR_WON_WITH], pairTotals[PAIR_LOST_WITH], pairTotals[PAIR_WON_AGAINST],
+          pairTotals[PAIR_LOST_AGAINST]));
+    }
+
+    @Override
+    public void writeOutcome(int index, MatchOutcome matchOutcome) throws IOException {
+      writer.write(String.format("%s,%d,%s,%s\n", OUTCOME_RECORD, index,
+          joinTeam(matchOutcome.getWinningPlayers()), joinTeam(matchOutcome.getLosingPlayers())));
+    }
+
+    private static String joinTeam(List<Long> team) {
+      return team.stream().map(Object::toString).collect(Collectors.joining(" "));
+    }
+  }
+
+  /**
+   * Writes one JSON object per line, with the kind of record in its {@code type} property.
+   */
+  private static class JsonRecordWriter implements RecordWriter {
+
+    private final Writer writer;
+    private final JsonWriter jsonWriter;
+
+    private JsonRecordWriter(Writer writer) {
+      this.writer = writer;
+      this.jsonWriter = new JsonWriter(writer);
+      // Allows one top level value per line.
+      jsonWriter.setLenient(true);
+    }
+
+    @Override
+    public void writePlayer(PlayerTotals totals) throws IOException {
+      jsonWriter.beginObject();
+      jsonWriter.name("type").value(PLAYER_RECORD);
+      jsonWriter.name("playerId").value(totals.playerId);
+      if (totals.rating != null) {
+        jsonWriter.name("mean").value(totals.rating.getMean());
+        jsonWriter.name("standardDeviation").value(totals.rating.getStandardDeviation());
+      }
+      jsonWriter.name("gamesWon").value(totals.gamesWon);
+      jsonWriter.name("gamesLost").value(totals.gamesLost);
+      endRecord();
+    }
+
+    @Override
+    public void writePair(long playerId, long otherPlayerId, int[] pairTotals)
+        throws IOException {
+      jsonWriter.beginObject();
+      jsonWriter.name("type").value(PAIR_RECORD);
+      jsonWriter.name("playerId").value(playerId);
+      jsonWriter.name("otherPlayerId").value(otherPlayerId);
+      jsonWriter.name("gamesWonWith").value(pairTotals[PAIR_WON_WITH]);
+      jsonWriter.name("gamesLostWith").value(pairTotals[PAIR_LOST_WITH]);
+      jsonWriter.name("gamesWonAgainst").value(pairTotals[PAIR_WON_AGAINST]);
+      jsonWriter.name("gamesLostAgainst").value(pairTotals[PAIR_LOST_AGAINST]);
+      endRecord();
+    }
+
+    @Override
+    public void writeOutcome(int index, MatchOutcome matchOutcome) throws IOException {
+      jsonWriter.beginObject();
+      jsonWriter.name("type").value(OUTCOME_RECORD);
+      jsonWriter.name("index").value(index);
+      writeTeam("winners", matchOutcome.getWinningPlayers());
+      writeTeam("losers", matchOutcome.getLosingPlayers());
+      endRecord();
+    }
+
+    private void writeTeam(String name, List<Long> team) throws IOException {
+      jsonWriter.name(name);
+      jsonWriter.beginArray();
+      for (long playerId : team) {
+        jsonWriter.value(playerId);
+      }
+      jsonWriter.endArray();
+    }
+
+    private void endRecord() throws IOException {
+      jsonWriter.endObject();
+      writer.write('\n');
+    }
+  }
+}
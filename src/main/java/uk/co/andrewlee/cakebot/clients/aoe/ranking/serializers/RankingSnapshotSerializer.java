@@ -0,0 +1,193 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers;
+
+import com.google.common.collect.ImmutableList;
+import de.gesundkrank.jskills.Rating;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.Match;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchOutcome;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.StatefulSkillCalculator;
+import uk.co.andrewlee.cakebot.persistence.CorruptSnapshotException;
+import uk.co.andrewlee.cakebot.persistence.SnapshotInput;
+import uk.co.andrewlee.cakebot.persistence.SnapshotOutput;
+import uk.co.andrewlee.cakebot.persistence.SnapshotReader;
+import uk.co.andrewlee.cakebot.persistence.SnapshotWriter;
+import uk.co.andrewlee.cakebot.persistence.SnapshotWriter.SectionContents;
+
+/**
+ * Binary snapshot format for AoE ranking data.
+ * <p>
+ * Player ids are stored once, sorted and delta encoded, and everything else refers to players by
+ * their index in that dictionary. Ratings are packed doubles and match outcomes are a bitset.
+ * From version 2, a final section holds any state the rating engine keeps beyond each player's
+ * rating, see {@link StatefulSkillCalculator}. It is empty for engines without such state.
+ */
+public class RankingSnapshotSerializer {
+
+  private static final int FORMAT_VERSION = 2;
+  private static final int FIRST_VERSION_WITH_CALCULATOR_STATE = 2;
+
+  private static final int PLAYERS_SECTION = 1;
+  private static final int RATINGS_SECTION = 2;
+  private static final int OUTCOMES_SECTION = 3;
+  private static final int MATCHES_SECTION = 4;
+  private static final int CALCULATOR_STATE_SECTION = 5;
+
+  public static void write(OutputStream outputStream, Map<Long, Rating> ratings,
+      List<MatchOutcome> matchOutcomes) throws IOException {
+    write(outputStream, ratings, matchOutcomes, output -> {
+    });
+  }
+
+  public static void write(OutputStream outputStream, Map<Long, Rating> ratings,
+      List<MatchOutcome> matchOutcomes, SectionContents calculatorState) throws IOException {
+    TreeSet<Long> allPlayerIds = new TreeSet<>(ratings.keySet());
+    matchOutcomes.forEach(matchOutcome -> {
+      allPlayerIds.addAll(matchOutcome.getMatch().getTeam1());
+      allPlayerIds.addAll(matchOutcome.getMatch().getTeam2());
+    });
+
+    HashMap<Long, Integer> playerIndexes = new HashMap<>();
+    allPlayerIds.forEach(playerId -> playerIndexes.put(playerId, playerIndexes.size()));
+
+    SnapshotWriter snapshotWriter = SnapshotWriter.create(outputStream, FORMAT_VERSION);
+
+    snapshotWriter.writeSection(PLAYERS_SECTION, output -> {
+      output.writeVarInt(allPlayerIds.size());
+      long previousPlayerId = 0;
+      for (long playerId : allPlayerIds) {
+        output.writeVarLong(playerId - previousPlayerId);
+        previousPlayerId = playerId;
+      }
+    });
+
+    snapshotWriter.writeSection(RATINGS_SECTION, output -> {
+      output.writeVarInt(ratings.size());
+      for (Map.Entry<Long, Rating> entry : ratings.entrySet()) {
+        Rating rating = entry.getValue();
+        output.writeVarInt(playerIndexes.get(entry.getKey()));
+        output.writeDouble(rating.getMean());
+        output.writeDouble(rating.getStandardDeviation());
+        output.writeDouble(rating.getConservativeStandardDeviationMultiplier());
+      }
+    });
+
+    snapshotWriter.writeSection(OUTCOMES_SECTION, output -> {
+      boolean[] team1Won = new boolean[matchOutcomes.size()];
+      for (int i = 0; i < team1Won.length; i++) {
+        team1Won[i] = matchOutcomes.get(i).isTeam1Won();
+      }
+      output.writeBits(team1Won);
+    });
+
+    snapshotWriter.writeSection(MATCHES_SECTION, output -> {
+      output.writeVarInt(matchOutcomes.size());
+      for (MatchOutcome matchOutcome : matchOutcomes) {
+        writeTeam(output, matchOutcome.getMatch().getTeam1(), playerIndexes);
+        writeTeam(output, matchOutcome.getMatch().getTeam2(), playerIndexes);
+      }
+    });
+
+    snapshotWriter.writeSection(CALCULATOR_STATE_SECTION, calculatorState);
+
+    snapshotWriter.finish();
+  }
+
+  /**
+   * Reads a snapshot, passing each rating and then each match outcome, in order, to the given
+   * consumers.
+   */
+  public static void read(InputStream inputStream, BiConsumer<Long, Rating> ratingConsumer,
+      Consumer<MatchOutcome> matchOutcomeConsumer) throws IOException {
+    read(inputStream, ratingConsumer, matchOutcomeConsumer, input -> {
+    });
+  }
+
+  /**
+   * As above, also passing the rating engine's state to {@param calculatorStateReader}. Snapshots
+   * from before the state was saved pass nothing.
+   */
+  public static void read(InputStream inputStream, BiConsumer<Long, Rating> ratingConsumer,
+      Consumer<MatchOutcome> matchOutcomeConsumer, SectionReader calculatorStateReader)
+      throws IOException {
+    SnapshotReader snapshotReader = SnapshotReader.open(inputStream, FORMAT_VERSION);
+
+    SnapshotInput players = snapshotReader.readSection(PLAYERS_SECTION);
+    long[] playerIds = new long[players.readCount()];
+    long previousPlayerId = 0;
+    for (int i = 0; i < playerIds.length; i++) {
+      previousPlayerId += players.readVarLong();
+      playerIds[i] = previousPlayerId;
+    }
+
+    SnapshotInput ratings = snapshotReader.readSection(RATINGS_SECTION);
+    int numberOfRatings = ratings.readCount();
+    for (int i = 0; i < numberOfRatings; i++) {
+      long playerId = playerIds[readPlayerIndex(ratings, playerIds)];
+      ratingConsumer.accept(playerId, new Rating(ratings.readDouble(), ratings.readDouble(),
+          ratings.readDouble()));
+    }
+
+    boolean[] team1Won = snapshotReader.readSection(OUTCOMES_SECTION).readBits();
+
+    SnapshotInput matches = snapshotReader.readSection(MATCHES_SECTION);
+    int numberOfMatches = matches.readCount();
+    if (numberOfMatches != team1Won.length) {
+      throw new CorruptSnapshotException(String.format(
+          "Snapshot has %d match outcomes but %d matches.", team1Won.length, numberOfMatches));
+    }
+    for (int i = 0; i < numberOfMatches; i++) {
+      Match match = new Match(readTeam(matches, playerIds), readTeam(matches, playerIds),
+          Optional.empty());
+      matchOutcomeConsumer.accept(team1Won[i] ? MatchOutcome.createTeam1Won(match)
+          : MatchOutcome.createTeam2Won(match));
+    }
+
+    if (snapshotReader.getFormatVersion() >= FIRST_VERSION_WITH_CALCULATOR_STATE) {
+      calculatorStateReader.read(snapshotReader.readSection(CALCULATOR_STATE_SECTION));
+    }
+
+    snapshotReader.readEnd();
+  }
+
+  private static void writeTeam(SnapshotOutput output, List<Long> team,
+      Map<Long, Integer> playerIndexes) throws IOException {
+    output.writeVarInt(team.size());
+    for (long playerId : team) {
+      output.writeVarInt(playerIndexes.get(playerId));
+    }
+  }
+
+  private static ImmutableList<Long> readTeam(SnapshotInput input, long[] playerIds)
+      throws IOException {
+    int teamSize = input.readCount();
+    ImmutableList.Builder<Long> team = ImmutableList.builder();
+    for (int i = 0; i < teamSize; i++) {
+      team.add(playerIds[readPlayerIndex(input, playerIds)]);
+    }
+    return team.build();
+  }
+
+  private static int readPlayerIndex(SnapshotInput input, long[] playerIds) throws IOException {
+    int playerIndex = input.readCount();
+    if (playerIndex >= playerIds.length) {
+      throw new CorruptSnapshotException(String.format("Unknown player index %d in snapshot.",
+          playerIndex));
+    }
+    return playerIndex;
+  }
+
+  @FunctionalInterface
+  public interface SectionReader {
+
+    void read(SnapshotInput input) throws IOException;
+  }
+}
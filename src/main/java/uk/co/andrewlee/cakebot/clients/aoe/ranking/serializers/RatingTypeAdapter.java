@@ -0,0 +1,58 @@
+package uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import de.gesundkrank.jskills.Rating;
+import java.io.IOException;
+
+/**
+ * Streams a {@link Rating} to and from JSON without building an intermediate tree.
+ */
+public class RatingTypeAdapter extends TypeAdapter<Rating> {
+
+  private static final String MEAN_PROPERTY = "mean";
+  private static final String STANDARD_DEVIATION = "std";
+  private static final String MULTIPLIER = "multiplier";
+
+  @Override
+  public void write(JsonWriter jsonWriter, Rating rating) throws IOException {
+    jsonWriter.beginObject();
+    jsonWriter.name(MEAN_PROPERTY).value(rating.getMean());
+    jsonWriter.name(STANDARD_DEVIATION).value(rating.getStandardDeviation());
+    jsonWriter.name(MULTIPLIER).value(rating.getConservativeStandardDeviationMultiplier());
+    jsonWriter.endObject();
+  }
+
+  @Override
+  public Rating read(JsonReader jsonReader) throws IOException {
+    Double mean = null;
+    Double standardDeviation = null;
+    Double multiplier = null;
+
+    jsonReader.beginObject();
+    while (jsonReader.hasNext()) {
+      switch (jsonReader.nextName()) {
+        case MEAN_PROPERTY:
+          mean = jsonReader.nextDouble();
+          break;
+        case STANDARD_DEVIATION:
+          standardDeviation = jsonReader.nextDouble();
+          break;
+        case MULTIPLIER:
+          multiplier = jsonReader.nextDouble();
+          break;
+        default:
+          jsonReader.skipValue();
+      }
+    }
+    jsonReader.endObject();
+
+    if (mean == null || standardDeviation == null || multiplier == null) {
+      throw new JsonParseException(String.format("Incomplete rating at %s.",
+          jsonReader.getPath()));
+    }
+    return new Rating(mean, standardDeviation, multiplier);
+  }
+}
@@ -1,8 +1,10 @@
 package uk.co.andrewlee.cakebot.clients.channelregistration;
 
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -10,16 +12,24 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Optional;
+import java.util.TreeMap;
 import java.util.concurrent.Executors;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.co.andrewlee.cakebot.persistence.Codec;
+import uk.co.andrewlee.cakebot.persistence.KeyValueStore;
+import uk.co.andrewlee.cakebot.persistence.KeyValueStore.WriteBatch;
+import uk.co.andrewlee.cakebot.persistence.PersistenceService;
+import uk.co.andrewlee.cakebot.persistence.SnapshotInput;
+import uk.co.andrewlee.cakebot.persistence.SnapshotOutput;
 
 @ThreadSafe
 public class ChannelRegistrar {
@@ -27,11 +37,45 @@ public class ChannelRegistrar {
   private static final Logger logger = LoggerFactory.getLogger(ChannelRegistrar.class);
   private static final Gson GSON = new GsonBuilder().create();
 
-  private static final String SAVE_FILE = "channels";
-  private static final String SAVE_FILE_EXTENSION = ".json";
+  private static final String LEGACY_SAVE_FILE = "channels.json";
+  private static final String CHANNEL_STORE = "channel-store";
+  private static final int CHANNEL_STORE_FORMAT_VERSION = 1;
+  // A channel's tags, in order.
+  private static final Codec<ImmutableSortedSet<String>> TAGS_CODEC =
+      new Codec<ImmutableSortedSet<String>>() {
+        @Override
+        public void write(SnapshotOutput output, ImmutableSortedSet<String> tags)
+            throws IOException {
+          output.writeVarInt(tags.size());
+          for (String tag : tags) {
+            output.writeString(tag);
+          }
+        }
+
+        @Override
+        public ImmutableSortedSet<String> read(SnapshotInput input, int formatVersion)
+            throws IOException {
+          int numberOfTags = input.readCount();
+          ImmutableSortedSet.Builder<String> tags = ImmutableSortedSet.naturalOrder();
+          for (int i = 0; i < numberOfTags; i++) {
+            tags.add(input.readString());
+          }
+          return tags.build();
+        }
+      };
+
+  /**
+   * Separates a registration tag from an optional suffix, eg. {@code aoe:weekend}. Callbacks
+   * registered with {@link #registerTagFamilyCallback} receive every tag in the family.
+   */
+  public static final String TAG_SUFFIX_SEPARATOR = ":";
 
   private final ListeningExecutorService executor;
-  private final Path saveFile;
+  private final Path legacySaveFile;
+
+  // Channel id to the tags it is registered with.
+  @GuardedBy("executor")
+  private final KeyValueStore<Long, ImmutableSortedSet<String>> channelStore;
 
   @GuardedBy("executor")
   private final HashMultimap<String, Long> registeredChannels;
@@ -40,30 +84,45 @@ public class ChannelRegistrar {
   private final ListMultimap<String, RegistrationCallback> registrationCallbacks;
   @GuardedBy("executor")
   private final ListMultimap<String, RegistrationCallback> unregistrationCallbacks;
+  @GuardedBy("executor")
+  private final ListMultimap<String, TaggedRegistrationCallback> tagFamilyRegistrationCallbacks;
+  @GuardedBy("executor")
+  private final ListMultimap<String, TaggedRegistrationCallback> tagFamilyUnregistrationCallbacks;
 
-  public static ChannelRegistrar create(Path saveDirectory) {
-    Path saveFile = saveDirectory.resolve(SAVE_FILE + SAVE_FILE_EXTENSION);
+  public static ChannelRegistrar create(Path saveDirectory,
+      PersistenceService persistenceService) {
+    Path legacySaveFile = saveDirectory.resolve(LEGACY_SAVE_FILE);
 
-    if (Files.exists(saveFile) && !Files.isRegularFile(saveFile)) {
+    if (Files.exists(legacySaveFile) && !Files.isRegularFile(legacySaveFile)) {
       throw new IllegalArgumentException(String.format("Channel Registration Save file, %s, is not"
-          + " a file.", saveFile));
+          + " a file.", legacySaveFile));
     }
 
+    KeyValueStore<Long, ImmutableSortedSet<String>> channelStore = KeyValueStore.create(
+        saveDirectory, CHANNEL_STORE, CHANNEL_STORE_FORMAT_VERSION, Codec.VAR_LONG, TAGS_CODEC,
+        persistenceService);
     ListeningExecutorService executor = MoreExecutors
         .listeningDecorator(Executors.newSingleThreadExecutor());
-    return new ChannelRegistrar(executor, saveFile, HashMultimap.create(),
-        LinkedListMultimap.create(), LinkedListMultimap.create());
+    return new ChannelRegistrar(executor, legacySaveFile, channelStore, HashMultimap.create(),
+        LinkedListMultimap.create(), LinkedListMultimap.create(), LinkedListMultimap.create(),
+        LinkedListMultimap.create());
   }
 
-  private ChannelRegistrar(ListeningExecutorService executor, Path saveFile,
+  private ChannelRegistrar(ListeningExecutorService executor, Path legacySaveFile,
+      KeyValueStore<Long, ImmutableSortedSet<String>> channelStore,
       HashMultimap<String, Long> registeredChannels,
       ListMultimap<String, RegistrationCallback> registrationCallbacks,
-      ListMultimap<String, RegistrationCallback> unregistrationCallbacks) {
+      ListMultimap<String, RegistrationCallback> unregistrationCallbacks,
+      ListMultimap<String, TaggedRegistrationCallback> tagFamilyRegistrationCallbacks,
+      ListMultimap<String, TaggedRegistrationCallback> tagFamilyUnregistrationCallbacks) {
     this.executor = executor;
-    this.saveFile = saveFile;
+    this.legacySaveFile = legacySaveFile;
+    this.channelStore = channelStore;
     this.registeredChannels = registeredChannels;
     this.registrationCallbacks = registrationCallbacks;
     this.unregistrationCallbacks = unregistrationCallbacks;
+    this.tagFamilyRegistrationCallbacks = tagFamilyRegistrationCallbacks;
+    this.tagFamilyUnregistrationCallbacks = tagFamilyUnregistrationCallbacks;
   }
 
   public void init() {
@@ -76,33 +135,89 @@ public class ChannelRegistrar {
     });
   }
 
-  private void save() throws Exception {
-    Files.deleteIfExists(saveFile);
-    try (BufferedWriter bufferedWriter = Files.newBufferedWriter(saveFile)) {
-      GSON.toJson(registeredChannels.asMap(), bufferedWriter);
-      logger.info("Saved {} registered channels.", registeredChannels.size());
+  private void load() throws Exception {
+    if (!channelStore.load()) {
+      migrateLegacySaveFile();
     }
+
+    registeredChannels.clear();
+    channelStore.entries().forEach((channelId, registrationTags) ->
+        registrationTags.forEach(registrationTag ->
+            registeredChannels.put(registrationTag, channelId)));
+    logger.info("Loaded {} registered channels.", registeredChannels.size());
   }
 
-  private void load() throws Exception {
-    try (BufferedReader bufferedReader = Files.newBufferedReader(saveFile)) {
-      registeredChannels.clear();
+  /**
+   * Moves the registrations from the JSON save file used before the store into it, with a single
+   * write. The JSON file is left in place.
+   */
+  private void migrateLegacySaveFile() throws Exception {
+    if (!Files.exists(legacySaveFile)) {
+      return;
+    }
 
-      HashMap<String, ArrayList<Long>> newRegisteredChannels = GSON.fromJson(bufferedReader,
+    HashMap<String, ArrayList<Long>> legacyRegisteredChannels;
+    try (BufferedReader bufferedReader = Files.newBufferedReader(legacySaveFile)) {
+      legacyRegisteredChannels = GSON.fromJson(bufferedReader,
           TypeToken.getParameterized(HashMap.class, String.class, TypeToken.getParameterized(
               ArrayList.class, Long.class).getType()).getType());
+    }
 
-      newRegisteredChannels.forEach(registeredChannels::putAll);
-      logger.info("Loaded {} registered channels.", newRegisteredChannels.size());
+    TreeMap<Long, ImmutableSortedSet.Builder<String>> channelTags = new TreeMap<>();
+    legacyRegisteredChannels.forEach((registrationTag, channelIds) ->
+        channelIds.forEach(channelId -> channelTags
+            .computeIfAbsent(channelId, id -> ImmutableSortedSet.naturalOrder())
+            .add(registrationTag)));
+
+    logger.info("Migrating {} registered channels from {} to their store.", channelTags.size(),
+        legacySaveFile);
+    WriteBatch<Long, ImmutableSortedSet<String>> batch = WriteBatch.create();
+    channelTags.forEach((channelId, registrationTags) ->
+        batch.put(channelId, registrationTags.build()));
+    channelStore.write(batch);
+  }
+
+  /**
+   * Stores the tags a channel is now registered with, before the change is made in memory.
+   */
+  private void saveChannelTags(long channelId, ImmutableSortedSet<String> registrationTags)
+      throws IOException {
+    if (registrationTags.isEmpty()) {
+      channelStore.delete(channelId);
+    } else {
+      channelStore.put(channelId, registrationTags);
     }
   }
 
+  private ImmutableSortedSet<String> channelTags(long channelId) {
+    return channelStore.get(channelId).orElse(ImmutableSortedSet.of());
+  }
+
+  /**
+   * Registers the channel with {@param registrationTag}. The future is false if it was already
+   * registered with that tag, and fails with an {@link IllegalArgumentException} if it is
+   * registered with another tag of the same family, since a client listens to each channel under
+   * only one tag of its family.
+   */
   public ListenableFuture<Boolean> registerChannel(long channelId, String registrationTag) {
     return executor.submit(() -> {
-      if (registeredChannels.put(registrationTag, channelId)) {
+      if (!registeredChannels.containsEntry(registrationTag, channelId)) {
+        Optional<String> familyTag = channelTags(channelId).stream()
+            .filter(tag -> tagFamily(tag).equals(tagFamily(registrationTag)))
+            .findFirst();
+        if (familyTag.isPresent()) {
+          throw new IllegalArgumentException(String.format("Channel is already registered with "
+              + "tag `%s`. Unregister it before registering with `%s`.", familyTag.get(),
+              registrationTag));
+        }
+
+        saveChannelTags(channelId, ImmutableSortedSet.<String>naturalOrder()
+            .addAll(channelTags(channelId)).add(registrationTag).build());
+        registeredChannels.put(registrationTag, channelId);
         registrationCallbacks.get(registrationTag).forEach(registrationCallback ->
             registrationCallback.callback(channelId));
-        save();
+        tagFamilyRegistrationCallbacks.get(tagFamily(registrationTag)).forEach(
+            registrationCallback -> registrationCallback.callback(channelId, registrationTag));
         return true;
       }
       return false;
@@ -111,10 +226,15 @@ public class ChannelRegistrar {
 
   public ListenableFuture<Boolean> unregisterChannel(long channelId, String registrationTag) {
     return executor.submit(() -> {
-      if (registeredChannels.remove(registrationTag, channelId)) {
+      if (registeredChannels.containsEntry(registrationTag, channelId)) {
+        saveChannelTags(channelId, ImmutableSortedSet.copyOf(Sets.filter(channelTags(channelId),
+            tag -> !tag.equals(registrationTag))));
+        registeredChannels.remove(registrationTag, channelId);
         unregistrationCallbacks.get(registrationTag).forEach(unregistrationCallback ->
             unregistrationCallback.callback(channelId));
-        save();
+        tagFamilyUnregistrationCallbacks.get(tagFamily(registrationTag)).forEach(
+            unregistrationCallback -> unregistrationCallback.callback(channelId,
+                registrationTag));
         return true;
       }
       return false;
@@ -138,9 +258,36 @@ public class ChannelRegistrar {
     });
   }
 
+  /**
+   * Like {@link #registerCallback}, but for every tag in the family {@param baseTag}: the base tag
+   * itself and any {@code baseTag:suffix}. The callbacks are passed the full tag.
+   */
+  public void registerTagFamilyCallback(String baseTag,
+      TaggedRegistrationCallback registerCallback,
+      TaggedRegistrationCallback unregisterCallback) {
+    executor.execute(() -> {
+      registeredChannels.entries().stream()
+          .filter(entry -> tagFamily(entry.getKey()).equals(baseTag))
+          .forEach(entry -> registerCallback.callback(entry.getValue(), entry.getKey()));
+      tagFamilyRegistrationCallbacks.put(baseTag, registerCallback);
+      tagFamilyUnregistrationCallbacks.put(baseTag, unregisterCallback);
+    });
+  }
+
+  private static String tagFamily(String registrationTag) {
+    int separatorIndex = registrationTag.indexOf(TAG_SUFFIX_SEPARATOR);
+    return separatorIndex < 0 ? registrationTag : registrationTag.substring(0, separatorIndex);
+  }
+
   @FunctionalInterface
   public interface RegistrationCallback {
 
     void callback(long channelId);
   }
+
+  @FunctionalInterface
+  public interface TaggedRegistrationCallback {
+
+    void callback(long channelId, String registrationTag);
+  }
 }
\ No newline at end of file
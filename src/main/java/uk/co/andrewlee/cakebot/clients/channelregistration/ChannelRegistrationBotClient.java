@@ -16,6 +16,7 @@ import org.slf4j.LoggerFactory;
 import uk.co.andrewlee.cakebot.discord.BotClient;
 import uk.co.andrewlee.cakebot.discord.BotSystem;
 import uk.co.andrewlee.cakebot.discord.DiscordHelper;
+import uk.co.andrewlee.cakebot.persistence.PersistenceService;
 
 @ThreadSafe
 public class ChannelRegistrationBotClient implements BotClient {
@@ -28,8 +29,9 @@ public class ChannelRegistrationBotClient implements BotClient {
   private final BotSystem botSystem;
   private final ChannelRegistrar channelRegistrar;
 
-  public static ChannelRegistrationBotClient create(BotSystem botSystem, Path saveDirectory) {
-    ChannelRegistrar channelRegistrar = ChannelRegistrar.create(saveDirectory);
+  public static ChannelRegistrationBotClient create(BotSystem botSystem, Path saveDirectory,
+      PersistenceService persistenceService) {
+    ChannelRegistrar channelRegistrar = ChannelRegistrar.create(saveDirectory, persistenceService);
     channelRegistrar.init();
 
     return new ChannelRegistrationBotClient(botSystem, channelRegistrar);
@@ -77,6 +79,10 @@ public class ChannelRegistrationBotClient implements BotClient {
 
         @Override
         public void onFailure(Throwable t) {
+          if (t instanceof IllegalArgumentException) {
+            DiscordHelper.respond(message, t.getMessage());
+            return;
+          }
           logger.error("Error registering channel.", t);
           DiscordHelper.respond(message, "Unexpected error registering the channel. Please check server logs.");
         }
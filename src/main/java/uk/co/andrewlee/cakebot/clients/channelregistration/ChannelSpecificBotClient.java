@@ -1,10 +1,18 @@
 package uk.co.andrewlee.cakebot.clients.channelregistration;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import discord4j.common.util.Snowflake;
+import discord4j.core.object.VoiceState;
+import discord4j.core.object.entity.Member;
 import discord4j.core.object.entity.Message;
+import discord4j.core.object.entity.channel.VoiceChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -20,16 +28,26 @@ public abstract class ChannelSpecificBotClient implements BotClient {
 
   protected final BotSystem botSystem;
   protected final ExecutorService executor;
+  // Runs handlers which only read state, so they do not queue behind writes on executor.
+  protected final ExecutorService readExecutor;
 
-  private final ConcurrentHashMap<Long, Boolean> channels;
-  private final ConcurrentHashMap<String, DiscordCommandHandler> handlers;
+  // Channel id to the registration tag it was registered with.
+  private final ConcurrentHashMap<Long, String> channels;
+  private final ConcurrentHashMap<String, RegisteredHandler> handlers;
   private final ChannelRegistrar channelRegistrar;
   private final String channelRegistrationTag;
 
   public ChannelSpecificBotClient(BotSystem botSystem, ExecutorService executor,
       ChannelRegistrar channelRegistrar, String channelRegistrationTag) {
+    this(botSystem, executor, executor, channelRegistrar, channelRegistrationTag);
+  }
+
+  public ChannelSpecificBotClient(BotSystem botSystem, ExecutorService executor,
+      ExecutorService readExecutor, ChannelRegistrar channelRegistrar,
+      String channelRegistrationTag) {
     this.botSystem = botSystem;
     this.executor = executor;
+    this.readExecutor = readExecutor;
     this.channelRegistrar = channelRegistrar;
     this.channelRegistrationTag = channelRegistrationTag;
     this.channels = new ConcurrentHashMap<>();
@@ -37,8 +55,8 @@ public abstract class ChannelSpecificBotClient implements BotClient {
   }
 
   public void init() {
-    channelRegistrar.registerCallback(channelRegistrationTag,
-        channelId -> channels.put(channelId, true), channels::remove);
+    channelRegistrar.registerTagFamilyCallback(channelRegistrationTag, channels::put,
+        channels::remove);
   }
 
   public void handle(List<String> arguments, Message message) {
@@ -50,18 +68,18 @@ public abstract class ChannelSpecificBotClient implements BotClient {
       return;
     }
 
-    Optional<DiscordCommandHandler> handlerOpt = Optional
+    Optional<RegisteredHandler> handlerOpt = Optional
         .ofNullable(handlers.get(arguments.get(0)));
 
     if (!handlerOpt.isPresent()) {
       return;
     }
 
-    DiscordCommandHandler handler = handlerOpt.get();
+    RegisteredHandler handler = handlerOpt.get();
 
-    executor.execute(() -> {
+    handler.executor.execute(() -> {
       try {
-        handler.handle(arguments, message);
+        handler.handler.handle(arguments, message);
       } catch (Exception e) {
         logger.error("Error while handling command.", e);
         DiscordHelper.respond(message,
@@ -71,15 +89,180 @@ public abstract class ChannelSpecificBotClient implements BotClient {
   }
 
   protected void listenToChannel(long channelId) {
-    channels.put(channelId, true);
+    channels.put(channelId, channelRegistrationTag);
+  }
+
+  /**
+   * Returns the suffix of the tag the channel was registered with, eg. {@code weekend} for a
+   * channel registered as {@code aoe:weekend}. Empty if it was registered with the plain tag.
+   */
+  protected Optional<String> channelTagSuffix(long channelId) {
+    String registrationTag = channels.getOrDefault(channelId, channelRegistrationTag);
+    int separatorIndex = registrationTag.indexOf(ChannelRegistrar.TAG_SUFFIX_SEPARATOR);
+    if (separatorIndex < 0) {
+      return Optional.empty();
+    }
+    return Optional.of(registrationTag.substring(separatorIndex + 1));
+  }
+
+  /**
+   * Collects the players named by a {@code game} command, from {@param playerArguments}.
+   * Arguments accepted by {@param otherArguments}, such as team constraints, are skipped.
+   * Responds and returns empty if an argument is neither.
+   */
+  protected Optional<ImmutableSet<Long>> parseRoster(List<String> playerArguments,
+      RosterArgumentParser otherArguments, Message message) {
+    HashSet<Long> players = new HashSet<>();
+    if (!addRosterArguments(players, playerArguments, false, otherArguments, message)) {
+      return Optional.empty();
+    }
+    return Optional.of(ImmutableSet.copyOf(players));
+  }
+
+  /**
+   * As {@link #parseRoster}, for a {@code channelgame} command. Everyone in the author's voice
+   * channel plays, along with {@code +@player}, and without {@code -@player}.
+   */
+  protected Optional<ImmutableSet<Long>> parseChannelRoster(List<String> playerArguments,
+      RosterArgumentParser otherArguments, Message message) {
+    Optional<ImmutableList<Long>> channelUsersOpt = voiceChannelUsers(message);
+    if (!channelUsersOpt.isPresent()) {
+      return Optional.empty();
+    }
+
+    HashSet<Long> players = new HashSet<>(channelUsersOpt.get());
+    if (!addRosterArguments(players, playerArguments, true, otherArguments, message)) {
+      return Optional.empty();
+    }
+    return Optional.of(ImmutableSet.copyOf(players));
+  }
+
+  /**
+   * Returns the users in the message author's voice channel, or responds and returns empty if
+   * they are not in one.
+   */
+  protected Optional<ImmutableList<Long>> voiceChannelUsers(Message message) {
+    VoiceChannel voiceChannel = message.getAuthorAsMember().flatMap(Member::getVoiceState)
+        .flatMap(VoiceState::getChannel).block();
+
+    if (voiceChannel == null) {
+      DiscordHelper.respond(message, "Not in voice channel.");
+      return Optional.empty();
+    }
+
+    return Optional.of(voiceChannel.getVoiceStates()
+        .map(VoiceState::getUserId)
+        .map(Snowflake::asLong)
+        .collect(ImmutableList.toImmutableList())
+        .block());
+  }
+
+  /**
+   * Splits a command pasted over several lines into the arguments of each line, so that a batch
+   * can be given in one message. Each line's arguments start with the command, as {@param
+   * arguments} do. Lines after the first may repeat the bot mention and the command, or leave
+   * them out. Blank lines are skipped.
+   */
+  protected ImmutableList<ImmutableList<String>> commandLines(List<String> arguments,
+      Message message) {
+    String command = arguments.get(0);
+    ImmutableList.Builder<ImmutableList<String>> commandLines = ImmutableList.builder();
+    for (String line : message.getContent().trim().split("\\R")) {
+      String lineContent = line.trim();
+      if (lineContent.startsWith(botSystem.selfNicknameMention())) {
+        lineContent = lineContent.substring(botSystem.selfNicknameMention().length()).trim();
+      } else if (lineContent.startsWith(botSystem.selfMention())) {
+        lineContent = lineContent.substring(botSystem.selfMention().length()).trim();
+      }
+      if (lineContent.isEmpty()) {
+        continue;
+      }
+
+      ImmutableList.Builder<String> lineArguments = ImmutableList.builder();
+      List<String> lineWords = Arrays.asList(lineContent.split("\\s+"));
+      if (!lineWords.get(0).equals(command)) {
+        lineArguments.add(command);
+      }
+      commandLines.add(lineArguments.addAll(lineWords).build());
+    }
+    return commandLines.build();
+  }
+
+  private boolean addRosterArguments(HashSet<Long> players, List<String> playerArguments,
+      boolean allowAddAndRemove, RosterArgumentParser otherArguments, Message message) {
+    for (String argument : playerArguments) {
+      try {
+        if (otherArguments.parse(argument)) {
+          continue;
+        }
+      } catch (IllegalArgumentException e) {
+        DiscordHelper.respond(message, e.getMessage());
+        return false;
+      }
+
+      boolean addPlayer = true;
+      String playerString = argument;
+
+      if (allowAddAndRemove && argument.startsWith("+")) {
+        playerString = argument.substring(1);
+      } else if (allowAddAndRemove && argument.startsWith("-")) {
+        addPlayer = false;
+        playerString = argument.substring(1);
+      }
+      Optional<Long> playerIdOpt = DiscordHelper.extractUserId(playerString);
+
+      if (!playerIdOpt.isPresent()) {
+        DiscordHelper.respond(message, String.format("Unknown player %s.", playerString));
+        return false;
+      }
+
+      if (addPlayer) {
+        players.add(playerIdOpt.get());
+      } else {
+        players.remove(playerIdOpt.get());
+      }
+    }
+    return true;
   }
 
   protected void registerMessageHandler(String commandString, DiscordCommandHandler handler) {
-    handlers.put(commandString, handler);
+    handlers.put(commandString, new RegisteredHandler(handler, executor));
+  }
+
+  /**
+   * Registers a handler which only reads state. It runs on {@link #readExecutor}, possibly
+   * concurrently with other handlers.
+   */
+  protected void registerReadOnlyMessageHandler(String commandString,
+      DiscordCommandHandler handler) {
+    handlers.put(commandString, new RegisteredHandler(handler, readExecutor));
+  }
+
+  private static class RegisteredHandler {
+
+    private final DiscordCommandHandler handler;
+    private final ExecutorService executor;
+
+    private RegisteredHandler(DiscordCommandHandler handler, ExecutorService executor) {
+      this.handler = handler;
+      this.executor = executor;
+    }
   }
 
   @FunctionalInterface
   public interface DiscordCommandHandler {
     void handle(List<String> arguments, Message message) throws Exception;
   }
+
+  /**
+   * Parses an argument to a game command which is not a player. Returns false if the argument is
+   * not one it handles.
+   */
+  @FunctionalInterface
+  protected interface RosterArgumentParser {
+
+    RosterArgumentParser NONE = argument -> false;
+
+    boolean parse(String argument) throws IllegalArgumentException;
+  }
 }
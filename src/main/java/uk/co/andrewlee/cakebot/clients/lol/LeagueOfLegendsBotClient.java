@@ -3,21 +3,26 @@ package uk.co.andrewlee.cakebot.clients.lol;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.gson.JsonParseException;
 import de.vandermeer.asciitable.AsciiTable;
-import discord4j.common.util.Snowflake;
-import discord4j.core.object.VoiceState;
-import discord4j.core.object.entity.Member;
 import discord4j.core.object.entity.Message;
-import discord4j.core.object.entity.channel.VoiceChannel;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -26,27 +31,49 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.co.andrewlee.cakebot.clients.channelregistration.ChannelRegistrar;
 import uk.co.andrewlee.cakebot.clients.channelregistration.ChannelSpecificBotClient;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.LaneAssignment;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.LaneMatchOutcome;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.LaneStrengthRefit;
 import uk.co.andrewlee.cakebot.clients.lol.matchmaking.Match;
 import uk.co.andrewlee.cakebot.clients.lol.matchmaking.PlayerData;
 import uk.co.andrewlee.cakebot.clients.lol.matchmaking.PlayerMatchmakingSystem;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.RoleSuggestion;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.ScoringModel;
 import uk.co.andrewlee.cakebot.discord.BotSystem;
 import uk.co.andrewlee.cakebot.discord.DiscordHelper;
+import uk.co.andrewlee.cakebot.matchmaking.SearchBudget;
+import uk.co.andrewlee.cakebot.matchmaking.SearchStrategy;
+import uk.co.andrewlee.cakebot.persistence.PersistenceService;
 
 public class LeagueOfLegendsBotClient extends ChannelSpecificBotClient {
 
   private static final Logger logger = LoggerFactory.getLogger(
       LeagueOfLegendsBotClient.class);
   private static final String CHANNEL_REGISTRATION_TAG = "lol";
-
+  private static final Duration SEARCH_TIME_BUDGET = Duration.ofSeconds(5);
+  // Split evaluation runs on its own pool, so the executor only waits for the result.
+  private static final int COMPUTE_THREADS = Runtime.getRuntime().availableProcessors();
+  private static final int SEARCH_TASKS_PER_THREAD = 4;
+  private static final int PLAYERS_PER_TEAM = 5;
+  private static final int REGISTER_ARGUMENTS_PER_PLAYER = 6;
+
+  private final ForkJoinPool computePool;
   @GuardedBy("executor")
   private final PlayerMatchmakingSystem playerMatchmakingSystem;
 
   public static LeagueOfLegendsBotClient create(BotSystem botSystem,
       ChannelRegistrar channelRegistrar,
-      Path saveDirectory) throws Exception {
+      Path saveDirectory, PersistenceService persistenceService) throws Exception {
 
     ExecutorService executor = Executors.newSingleThreadExecutor();
-    PlayerMatchmakingSystem playerMatchmakingSystem = PlayerMatchmakingSystem.create(saveDirectory);
+    ForkJoinPool computePool = new ForkJoinPool(COMPUTE_THREADS, pool -> {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("lol-compute-" + thread.getPoolIndex());
+      return thread;
+    }, null, false);
+    PlayerMatchmakingSystem playerMatchmakingSystem = PlayerMatchmakingSystem
+        .create(saveDirectory, persistenceService, SearchStrategy.parallel(computePool,
+            COMPUTE_THREADS * SEARCH_TASKS_PER_THREAD));
 
     Future<Boolean> initFuture = executor.submit(() -> {
       playerMatchmakingSystem.init();
@@ -54,15 +81,17 @@ public class LeagueOfLegendsBotClient extends ChannelSpecificBotClient {
     });
     initFuture.get();
 
-    return new LeagueOfLegendsBotClient(botSystem, executor, channelRegistrar,
+    return new LeagueOfLegendsBotClient(botSystem, executor, channelRegistrar, computePool,
         playerMatchmakingSystem);
   }
 
   private LeagueOfLegendsBotClient(BotSystem botSystem,
       ExecutorService executor,
       ChannelRegistrar channelRegistrar,
+      ForkJoinPool computePool,
       PlayerMatchmakingSystem playerMatchmakingSystem) {
     super(botSystem, executor, channelRegistrar, CHANNEL_REGISTRATION_TAG);
+    this.computePool = computePool;
     this.playerMatchmakingSystem = playerMatchmakingSystem;
   }
 
@@ -70,74 +99,34 @@ public class LeagueOfLegendsBotClient extends ChannelSpecificBotClient {
   public void init() {
     registerMessageHandler("game", this::gameCommand);
     registerMessageHandler("channelgame", this::channelGameCommand);
+    registerMessageHandler("roles", this::rolesCommand);
+    registerMessageHandler("outcome", this::outcomeCommand);
+    registerMessageHandler("refit", this::refitCommand);
+    registerMessageHandler("scoring", this::scoringCommand);
     registerMessageHandler("register", this::registerPlayerCommand);
+    registerMessageHandler("prefer", this::preferCommand);
     registerMessageHandler("list", this::listPlayerCommand);
     super.init();
   }
 
-  // TODO: Deduplicate code from here and AoEBotClient
-  private void gameCommand(List<String> arguments, Message message) {
-    HashSet<Long> players = new HashSet<>();
-    for (String argument : arguments.subList(1, arguments.size())) {
-      Optional<Long> playerIdOpt = DiscordHelper.extractUserId(argument);
-
-      if (!playerIdOpt.isPresent()) {
-        DiscordHelper.respond(message, String.format("Unknown player %s.", argument));
-        return;
-      }
-
-      players.add(playerIdOpt.get());
+  private void gameCommand(List<String> arguments, Message message) throws Exception {
+    Optional<ImmutableSet<Long>> playersOpt = parseRoster(arguments.subList(1, arguments.size()),
+        RosterArgumentParser.NONE, message);
+    if (playersOpt.isPresent()) {
+      findBalancedGame(playersOpt.get(), message);
     }
-
-    findBalancedGame(ImmutableSet.copyOf(players), message);
   }
 
-  private void channelGameCommand(List<String> arguments, Message message) {
-    VoiceChannel voiceChannel = message.getAuthorAsMember().flatMap(Member::getVoiceState)
-        .flatMap(VoiceState::getChannel).block();
-
-    if (voiceChannel == null) {
-      DiscordHelper.respond(message, "Not in voice channel.");
-      return;
-    }
-
-    ImmutableList<Long> channelUsers = voiceChannel.getVoiceStates()
-        .map(VoiceState::getUserId)
-        .map(Snowflake::asLong)
-        .collect(ImmutableList.toImmutableList())
-        .block();
-
-    HashSet<Long> players = new HashSet<>();
-    players.addAll(channelUsers);
-
-    for (String argument : arguments.subList(1, arguments.size())) {
-      boolean addPlayer = true;
-      String playerString = argument;
-
-      if (argument.startsWith("+")) {
-        playerString = argument.substring(1);
-      } else if (argument.startsWith("-")) {
-        addPlayer = false;
-        playerString = argument.substring(1);
-      }
-      Optional<Long> playerIdOpt = DiscordHelper.extractUserId(playerString);
-
-      if (!playerIdOpt.isPresent()) {
-        DiscordHelper.respond(message, String.format("Unknown player %s.", playerString));
-        return;
-      }
-
-      if (addPlayer) {
-        players.add(playerIdOpt.get());
-      } else if (argument.startsWith("-")) {
-        players.remove(playerIdOpt.get());
-      }
+  private void channelGameCommand(List<String> arguments, Message message) throws Exception {
+    Optional<ImmutableSet<Long>> playersOpt = parseChannelRoster(
+        arguments.subList(1, arguments.size()), RosterArgumentParser.NONE, message);
+    if (playersOpt.isPresent()) {
+      findBalancedGame(playersOpt.get(), message);
     }
-
-    findBalancedGame(ImmutableSet.copyOf(players), message);
   }
 
-  private void findBalancedGame(ImmutableSet<Long> playerIds, Message message) {
+  private void findBalancedGame(ImmutableSet<Long> playerIds, Message message)
+      throws InterruptedException {
     for (long playerId : playerIds) {
       if (!playerMatchmakingSystem.hasPlayerData(playerId)) {
         DiscordHelper.respond(message, String.format("Player %s not registered. Please use the "
@@ -154,8 +143,13 @@ public class LeagueOfLegendsBotClient extends ChannelSpecificBotClient {
 
     Message response = DiscordHelper.respond(message, "Calculating...");
 
-    ImmutableList<Match> matchCandidates = playerMatchmakingSystem.findMatchCandidates(playerIds);
+    ImmutableList<Match> matchCandidates = playerMatchmakingSystem.findMatchCandidates(playerIds,
+        SearchBudget.create(SEARCH_TIME_BUDGET));
     StringBuilder outputBuilder = new StringBuilder();
+    if (matchCandidates.isEmpty()) {
+      outputBuilder.append("There is no way to split the players so that each team can fill "
+          + "every role with players who have a rating for it and are willing to play it.");
+    }
     for (int i = 0; i < matchCandidates.size(); i++) {
       Match match = matchCandidates.get(i);
 
@@ -205,57 +199,408 @@ public class LeagueOfLegendsBotClient extends ChannelSpecificBotClient {
     }
   }
 
-  private void registerPlayerCommand(List<String> arguments, Message message) {
+  private void rolesCommand(List<String> arguments, Message message) {
+    int vsIndex = arguments.indexOf("vs");
+    if (vsIndex != 1 + PLAYERS_PER_TEAM || arguments.size() != 2 + 2 * PLAYERS_PER_TEAM) {
+      DiscordHelper.respond(message, String.format("Provide both teams of five. Usage: %s roles "
+              + "[player] [player] [player] [player] [player] vs [player] [player] [player] "
+              + "[player] [player]",
+          botSystem.selfNicknameMention()));
+      return;
+    }
+
+    ImmutableSet.Builder<Long> team1Builder = ImmutableSet.builder();
+    ImmutableSet.Builder<Long> team2Builder = ImmutableSet.builder();
+    for (int i = 1; i < arguments.size(); i++) {
+      if (i == vsIndex) {
+        continue;
+      }
+      String argument = arguments.get(i);
+      Optional<Long> playerIdOpt = DiscordHelper.extractUserId(argument);
+      if (!playerIdOpt.isPresent()) {
+        DiscordHelper.respond(message, String.format("Unknown player %s.", argument));
+        return;
+      }
+      long playerId = playerIdOpt.get();
+      if (!playerMatchmakingSystem.hasPlayerData(playerId)) {
+        DiscordHelper.respond(message, String.format("Player %s not registered. Please use the "
+            + "register command.", DiscordHelper.mentionPlayer(playerId)));
+        return;
+      }
+      if (i < vsIndex) {
+        team1Builder.add(playerId);
+      } else {
+        team2Builder.add(playerId);
+      }
+    }
+
+    ImmutableSet<Long> team1 = team1Builder.build();
+    ImmutableSet<Long> team2 = team2Builder.build();
+    if (team1.size() != PLAYERS_PER_TEAM || team2.size() != PLAYERS_PER_TEAM
+        || !Collections.disjoint(team1, team2)) {
+      DiscordHelper.respond(message, "A player can only be on one team once.");
+      return;
+    }
+
+    Optional<RoleSuggestion> roleSuggestionOpt = playerMatchmakingSystem.suggestRoles(team1,
+        team2);
+    if (!roleSuggestionOpt.isPresent()) {
+      DiscordHelper.respond(message, "A team cannot fill every role with players who have a "
+          + "rating for it and are willing to play it.");
+      return;
+    }
+    RoleSuggestion roleSuggestion = roleSuggestionOpt.get();
+    StringBuilder outputBuilder = new StringBuilder();
+    appendLaneAssignments(outputBuilder, "Team 1", roleSuggestion.getTeam1Assignments(),
+        message);
+    appendLaneAssignments(outputBuilder, "Team 2", roleSuggestion.getTeam2Assignments(),
+        message);
+    outputBuilder.append("```\n");
+    outputBuilder.append("Expected Lane Variance: ");
+    outputBuilder.append(String.format("%,.1f",
+        -roleSuggestion.getExpectedLaneVariance() / 10.0));
+    outputBuilder.append("   ");
+    outputBuilder.append("Lane Variance With Best Roles: ");
+    outputBuilder.append(String.format("%,.1f", -roleSuggestion.getBestLaneVariance() / 10.0));
+    outputBuilder.append("```");
+    DiscordHelper.respond(message, outputBuilder.toString());
+  }
+
+  private void appendLaneAssignments(StringBuilder outputBuilder, String teamName,
+      List<LaneAssignment> laneAssignments, Message message) {
+    outputBuilder.append("**");
+    outputBuilder.append(teamName);
+    outputBuilder.append("**\n");
+    outputBuilder.append("```\n");
+    for (int i = 0; i < laneAssignments.size(); i++) {
+      LaneAssignment laneAssignment = laneAssignments.get(i);
+      outputBuilder.append(i == 0 ? "Best:   " : "Option: ");
+      ImmutableList<PlayerData> lanePlayers = laneAssignment.getLanePlayers();
+      for (int laneId = 0; laneId < lanePlayers.size(); laneId++) {
+        outputBuilder.append(String.format("%s %s, ", Role.roleFromLaneId(laneId).name,
+            DiscordHelper.playerName(botSystem, lanePlayers.get(laneId).getPlayerId(),
+                message)));
+      }
+      outputBuilder.append("Str. ");
+      outputBuilder.append(formatRating(laneAssignment.getTeamStrength()));
+      outputBuilder.append("\n");
+    }
+    outputBuilder.append("```");
+  }
+
+  private void outcomeCommand(List<String> arguments, Message message) {
+    if (!DiscordHelper.messageIsFromAdmin(message)) {
+      return;
+    }
+
+    // Several outcomes can be pasted at once, one per line, and are recorded together.
+    ImmutableList.Builder<LaneMatchOutcome> outcomesBuilder = ImmutableList.builder();
+    for (List<String> lineArguments : commandLines(arguments, message)) {
+      Optional<LaneMatchOutcome> outcome = parseOutcome(lineArguments, message);
+      if (!outcome.isPresent()) {
+        return;
+      }
+      outcomesBuilder.add(outcome.get());
+    }
+    ImmutableList<LaneMatchOutcome> outcomes = outcomesBuilder.build();
+
+    // Each player's data before each outcome, updated as the outcomes are printed.
+    HashMap<Long, PlayerData> previousPlayerData = new HashMap<>(
+        playerMatchmakingSystem.getAllPlayerStats());
+    for (LaneMatchOutcome outcome : outcomes) {
+      ImmutableList<Long> lanePlayers = ImmutableList.<Long>builder()
+          .addAll(outcome.getWinners()).addAll(outcome.getLosers()).build();
+      for (int i = 0; i < lanePlayers.size(); i++) {
+        long playerId = lanePlayers.get(i);
+        int laneId = i % PLAYERS_PER_TEAM;
+        PlayerData playerData = previousPlayerData.get(playerId);
+        if (playerData == null || playerData.getLaneStrength(laneId) == Integer.MIN_VALUE) {
+          DiscordHelper.respond(message, String.format("Player %s has no %s rating. Please use "
+                  + "the register command.", DiscordHelper.mentionPlayer(playerId),
+              Role.roleFromLaneId(laneId).name.toLowerCase()));
+          return;
+        }
+      }
+    }
+
+    try {
+      ImmutableList<ImmutableList<PlayerData>> outcomeUpdatedPlayers = playerMatchmakingSystem
+          .recordMatchOutcomes(outcomes);
+
+      StringBuilder outputBuilder = new StringBuilder(outcomes.size() == 1
+          ? "Recorded the outcome. New lane scores:\n"
+          : String.format("Recorded %d outcomes. New lane scores:\n", outcomes.size()));
+      outputBuilder.append("```\n");
+      for (int outcomeIndex = 0; outcomeIndex < outcomes.size(); outcomeIndex++) {
+        if (outcomeIndex > 0) {
+          outputBuilder.append("\n");
+        }
+        ImmutableList<PlayerData> updatedPlayers = outcomeUpdatedPlayers.get(outcomeIndex);
+        for (int i = 0; i < updatedPlayers.size(); i++) {
+          PlayerData playerData = updatedPlayers.get(i);
+          int laneId = i % PLAYERS_PER_TEAM;
+          outputBuilder.append(String.format("%s %s: %s -> %s\n",
+              i < PLAYERS_PER_TEAM ? "Winner" : "Loser ",
+              Role.roleFromLaneId(laneId).name,
+              formatRating(previousPlayerData.get(playerData.getPlayerId())
+                  .getLaneStrength(laneId)),
+              formatRating(playerData.getLaneStrength(laneId))));
+          if (i == PLAYERS_PER_TEAM - 1) {
+            outputBuilder.append("\n");
+          }
+        }
+        for (PlayerData playerData : updatedPlayers) {
+          previousPlayerData.put(playerData.getPlayerId(), playerData);
+        }
+      }
+      outputBuilder.append("```");
+      DiscordHelper.respond(message, outputBuilder.toString());
+    } catch (Exception e) {
+      logger.error("Error recording LoL match outcome.", e);
+      DiscordHelper.respond(message, "Error recording match outcome. Please check server logs.");
+    }
+  }
+
+  /**
+   * Parses one {@code outcome} command. Responds and returns empty if it is malformed.
+   */
+  private Optional<LaneMatchOutcome> parseOutcome(List<String> arguments, Message message) {
+    int beatIndex = arguments.indexOf("beat");
+    if (beatIndex != 1 + PLAYERS_PER_TEAM || arguments.size() != 2 + 2 * PLAYERS_PER_TEAM) {
+      DiscordHelper.respond(message, String.format("Provide both teams in lane order, with one "
+              + "outcome per line. Usage: %s outcome [top] [jungle] [mid] [bot] [support] beat "
+              + "[top] [jungle] [mid] [bot] [support]",
+          botSystem.selfNicknameMention()));
+      return Optional.empty();
+    }
+
+    ImmutableList.Builder<Long> winners = ImmutableList.builder();
+    ImmutableList.Builder<Long> losers = ImmutableList.builder();
+    for (int i = 1; i < arguments.size(); i++) {
+      if (i == beatIndex) {
+        continue;
+      }
+      String argument = arguments.get(i);
+      Optional<Long> playerIdOpt = DiscordHelper.extractUserId(argument);
+      if (!playerIdOpt.isPresent()) {
+        DiscordHelper.respond(message, String.format("Unknown player %s.", argument));
+        return Optional.empty();
+      }
+      if (i < beatIndex) {
+        winners.add(playerIdOpt.get());
+      } else {
+        losers.add(playerIdOpt.get());
+      }
+    }
+
+    try {
+      return Optional.of(LaneMatchOutcome.create(winners.build(), losers.build(),
+          System.currentTimeMillis()));
+    } catch (IllegalArgumentException e) {
+      DiscordHelper.respond(message, "A player can only play one lane.");
+      return Optional.empty();
+    }
+  }
+
+  private void refitCommand(List<String> arguments, Message message) throws InterruptedException {
+    if (!DiscordHelper.messageIsFromAdmin(message)) {
+      return;
+    }
+
+    try {
+      LaneStrengthRefit refit = playerMatchmakingSystem.refitLaneStrengths(computePool,
+          COMPUTE_THREADS);
+      DiscordHelper.respond(message, String.format("Refit the lane scores of %d players to %d "
+              + "match outcomes, in %d iterations. Skipped %d outcomes with unregistered players "
+              + "or unknown ratings.",
+          refit.getUpdatedPlayers().size(), refit.getOutcomesUsed(), refit.getIterations(),
+          refit.getOutcomesSkipped()));
+    } catch (IOException e) {
+      logger.error("Error refitting LoL lane scores.", e);
+      DiscordHelper.respond(message, "Error refitting lane scores. Please check server logs.");
+    }
+  }
+
+  private void scoringCommand(List<String> arguments, Message message) {
+    if (arguments.size() == 1) {
+      DiscordHelper.respond(message, String.format("Scoring model: %s.",
+          playerMatchmakingSystem.getScoringModel()));
+      return;
+    }
+
+    if (!DiscordHelper.messageIsFromAdmin(message)) {
+      return;
+    }
+
+    if (arguments.size() != 2 || !arguments.get(1).equals("reload")) {
+      DiscordHelper.respond(message, String.format("Usage: %s scoring   or   %s scoring reload",
+          botSystem.selfNicknameMention(), botSystem.selfNicknameMention()));
+      return;
+    }
+
+    try {
+      ScoringModel scoringModel = playerMatchmakingSystem.reloadScoringModel();
+      DiscordHelper.respond(message, String.format("Reloaded scoring model: %s.",
+          scoringModel));
+    } catch (IOException | JsonParseException e) {
+      logger.error("Error reloading LoL scoring model.", e);
+      DiscordHelper.respond(message, String.format("Error reloading scoring model, so it is "
+          + "unchanged: %s", e.getMessage()));
+    }
+  }
+
+  private void registerPlayerCommand(List<String> commandArguments, Message message) {
     if (!DiscordHelper.messageIsFromAdmin(message)) {
       return;
     }
 
-    if (arguments.size() != 7) {
+    // Players can also be pasted one per line. They are all registered with one write.
+    ImmutableList.Builder<String> argumentsBuilder = ImmutableList.builder();
+    argumentsBuilder.add(commandArguments.get(0));
+    for (List<String> lineArguments : commandLines(commandArguments, message)) {
+      argumentsBuilder.addAll(lineArguments.subList(1, lineArguments.size()));
+    }
+    ImmutableList<String> arguments = argumentsBuilder.build();
+
+    int playerArguments = arguments.size() - 1;
+    if (playerArguments == 0 || playerArguments % REGISTER_ARGUMENTS_PER_PLAYER != 0) {
       DiscordHelper
-          .respond(message, String.format("Provide six arguments. Use `?` for unknown ratings."
-                  + " Usage: %s register [user] [%s rating] [%s rating] [%s rating] [%s rating]"
-                  + " [%s rating]",
+          .respond(message, String.format("Provide six arguments per player. Use `?` for unknown"
+                  + " ratings. Usage: %s register [user] [%s rating] [%s rating] [%s rating]"
+                  + " [%s rating] [%s rating], repeated to register several players at once",
               botSystem.selfNicknameMention(),
               Role.roleFromLaneId(0).name.toLowerCase(),
               Role.roleFromLaneId(1).name.toLowerCase(),
               Role.roleFromLaneId(2).name.toLowerCase(),
               Role.roleFromLaneId(3).name.toLowerCase(),
               Role.roleFromLaneId(4).name.toLowerCase()));
+      return;
+    }
+
+    // Ordered, so players are reported back in the order given.
+    LinkedHashMap<Long, int[]> playerLaneRatings = new LinkedHashMap<>();
+    for (int i = 1; i < arguments.size(); i += REGISTER_ARGUMENTS_PER_PLAYER) {
+      String playerMention = arguments.get(i);
+      Optional<Long> playerIdOpt = DiscordHelper.extractUserId(playerMention);
+
+      if (!playerIdOpt.isPresent()) {
+        DiscordHelper.respond(message, String
+            .format("Unknown player %s. Please mention the player, for example %s register %s",
+                playerMention, botSystem.selfNicknameMention(),
+                botSystem.selfNicknameMention()));
+        return;
+      }
+      if (playerLaneRatings.containsKey(playerIdOpt.get())) {
+        DiscordHelper.respond(message, String.format("User %s is on more than one line, so "
+            + "nobody was registered.", DiscordHelper.mentionPlayer(playerIdOpt.get())));
+        return;
+      }
+
+      int[] laneRatings = new int[5];
+      for (int laneId = 0; laneId < 5; laneId++) {
+        String stringRating = arguments.get(i + laneId + 1);
+        Optional<Integer> ratingOpt = parseFloatIfPossible(stringRating)
+            .map(floatRating -> Math.round(floatRating * 10))
+            .map(intRating -> Math.min(Math.max(intRating, 0), 1000));
+        laneRatings[laneId] = ratingOpt.orElse(Integer.MIN_VALUE);
+      }
+      playerLaneRatings.put(playerIdOpt.get(), laneRatings);
+    }
+
+    try {
+      playerMatchmakingSystem.updatePlayerData(ImmutableMap.copyOf(playerLaneRatings));
+      StringBuilder response = new StringBuilder();
+      for (Map.Entry<Long, int[]> entry : playerLaneRatings.entrySet()) {
+        int[] laneRatings = entry.getValue();
+        response.append(String.format("Registered user %s with lane scores: "
+                + "%s, %s, %s, %s, %s\n",
+            DiscordHelper.mentionPlayer(entry.getKey()),
+            formatRating(laneRatings[0]),
+            formatRating(laneRatings[1]),
+            formatRating(laneRatings[2]),
+            formatRating(laneRatings[3]),
+            formatRating(laneRatings[4])));
+      }
+      DiscordHelper.respond(message, response.toString());
+    } catch (Exception e) {
+      logger.error("Error registering LoL players.", e);
+      DiscordHelper.respond(message, "Error registering user. Please check server logs.");
+    }
+  }
+
+  private void preferCommand(List<String> arguments, Message message) {
+    if (!DiscordHelper.messageIsFromAdmin(message)) {
+      return;
+    }
+
+    if (arguments.size() < 3 || arguments.size() > 4) {
+      DiscordHelper.respond(message, String.format("Provide the player's primary roles, and "
+              + "optionally their secondary roles, each separated by commas. They will not be "
+              + "put in any other role. Use `any` to clear their preferences. Usage: %s prefer "
+              + "[user] [primary roles] [secondary roles], for example %s prefer %s mid,top "
+              + "jungle",
+          botSystem.selfNicknameMention(), botSystem.selfNicknameMention(),
+          botSystem.selfNicknameMention()));
+      return;
     }
 
     String playerMention = arguments.get(1);
     Optional<Long> playerIdOpt = DiscordHelper.extractUserId(playerMention);
-
     if (!playerIdOpt.isPresent()) {
-      DiscordHelper.respond(message, String
-          .format("Unknown player %s. Please mention the player, for example %s register %s",
-              playerMention, botSystem.selfNicknameMention(), botSystem.selfNicknameMention()));
+      DiscordHelper.respond(message, String.format("Unknown player %s.", playerMention));
       return;
     }
-
     long playerId = playerIdOpt.get();
+    PlayerData playerData = playerMatchmakingSystem.getAllPlayerStats().get(playerId);
+    if (playerData == null) {
+      DiscordHelper.respond(message, String.format("Player %s not registered. Please use the "
+          + "register command.", DiscordHelper.mentionPlayer(playerId)));
+      return;
+    }
 
-    int[] laneRatings = new int[5];
-    for (int laneId = 0; laneId < 5; laneId++) {
-      String stringRating = arguments.get(laneId + 2);
-      Optional<Integer> ratingOpt = parseFloatIfPossible(stringRating)
-          .map(floatRating -> Math.round(floatRating * 10))
-          .map(intRating -> Math.min(Math.max(intRating, 0), 1000));
-      laneRatings[laneId] = ratingOpt.orElse(Integer.MIN_VALUE);
+    ImmutableSet<Integer> primaryLanes = ImmutableSet.of();
+    ImmutableSet<Integer> secondaryLanes = ImmutableSet.of();
+    if (arguments.size() != 3 || !arguments.get(2).equalsIgnoreCase("any")) {
+      Optional<ImmutableSet<Integer>> primaryLanesOpt = parseRoles(arguments.get(2));
+      Optional<ImmutableSet<Integer>> secondaryLanesOpt = arguments.size() == 4
+          ? parseRoles(arguments.get(3)) : Optional.of(ImmutableSet.of());
+      if (!primaryLanesOpt.isPresent() || !secondaryLanesOpt.isPresent()) {
+        DiscordHelper.respond(message, String.format("Unknown role. Roles are %s.",
+            Arrays.stream(Role.values())
+                .map(role -> role.name.toLowerCase())
+                .collect(Collectors.joining(", "))));
+        return;
+      }
+      primaryLanes = primaryLanesOpt.get();
+      secondaryLanes = secondaryLanesOpt.get();
+    }
+
+    if (!Collections.disjoint(primaryLanes, secondaryLanes)) {
+      DiscordHelper.respond(message, "A role cannot be both primary and secondary.");
+      return;
+    }
+    for (int laneId : Sets.union(primaryLanes, secondaryLanes)) {
+      if (playerData.getLaneStrength(laneId) == Integer.MIN_VALUE) {
+        DiscordHelper.respond(message, String.format("Player %s has no %s rating. Please use the "
+                + "register command.", DiscordHelper.mentionPlayer(playerId),
+            Role.roleFromLaneId(laneId).name.toLowerCase()));
+        return;
+      }
     }
 
     try {
-      playerMatchmakingSystem.updatePlayerData(playerId, laneRatings);
-      DiscordHelper.respond(message, String.format("Registered user %s with lane scores: "
-              + "%s, %s, %s, %s, %s",
-          DiscordHelper.mentionPlayer(playerId),
-          formatRating(laneRatings[0]),
-          formatRating(laneRatings[1]),
-          formatRating(laneRatings[2]),
-          formatRating(laneRatings[3]),
-          formatRating(laneRatings[4])));
+      playerMatchmakingSystem.updateLanePreferences(playerId, primaryLanes, secondaryLanes);
+      if (primaryLanes.isEmpty() && secondaryLanes.isEmpty()) {
+        DiscordHelper.respond(message, String.format("Cleared the role preferences of %s.",
+            DiscordHelper.mentionPlayer(playerId)));
+      } else {
+        DiscordHelper.respond(message, String.format("Set the role preferences of %s. Primary: "
+                + "%s. Secondary: %s.", DiscordHelper.mentionPlayer(playerId),
+            formatRoles(primaryLanes), formatRoles(secondaryLanes)));
+      }
     } catch (Exception e) {
-      DiscordHelper.respond(message, "Error registering user. Please check server logs.");
+      logger.error("Error setting LoL role preferences.", e);
+      DiscordHelper.respond(message, "Error setting role preferences. Please check server logs.");
     }
   }
 
@@ -282,15 +627,17 @@ public class LeagueOfLegendsBotClient extends ChannelSpecificBotClient {
         .forEach(entry -> {
           PlayerData playerData = allPlayerStats.get(entry.getKey());
           asciiTable.addRow(entry.getValue(),
-              formatRating(playerData.getLaneStrength(0)),
-              formatRating(playerData.getLaneStrength(1)),
-              formatRating(playerData.getLaneStrength(2)),
-              formatRating(playerData.getLaneStrength(3)),
-              formatRating(playerData.getLaneStrength(4)));
+              formatLane(playerData, 0),
+              formatLane(playerData, 1),
+              formatLane(playerData, 2),
+              formatLane(playerData, 3),
+              formatLane(playerData, 4));
         });
 
     asciiTable.addRule();
-    DiscordHelper.respond(message, "```" + asciiTable.render() + "```");
+    DiscordHelper.respond(message, "```" + asciiTable.render() + "```\n"
+        + "Roles marked * are primary and + secondary, and players with preferences are not put "
+        + "in other roles.");
   }
 
   private Optional<Float> parseFloatIfPossible(String rating) {
@@ -301,6 +648,44 @@ public class LeagueOfLegendsBotClient extends ChannelSpecificBotClient {
     }
   }
 
+  /**
+   * Parses a comma separated list of role names, or `-` for none.
+   */
+  private Optional<ImmutableSet<Integer>> parseRoles(String roles) {
+    if (roles.equals("-")) {
+      return Optional.of(ImmutableSet.of());
+    }
+    ImmutableSet.Builder<Integer> lanes = ImmutableSet.builder();
+    for (String roleName : roles.split(",")) {
+      Optional<Role> roleOpt = Role.roleFromName(roleName);
+      if (!roleOpt.isPresent()) {
+        return Optional.empty();
+      }
+      lanes.add(roleOpt.get().laneId);
+    }
+    return Optional.of(lanes.build());
+  }
+
+  private String formatRoles(Set<Integer> lanes) {
+    if (lanes.isEmpty()) {
+      return "none";
+    }
+    return lanes.stream()
+        .sorted()
+        .map(laneId -> Role.roleFromLaneId(laneId).name)
+        .collect(Collectors.joining(", "));
+  }
+
+  private String formatLane(PlayerData playerData, int laneId) {
+    String rating = formatRating(playerData.getLaneStrength(laneId));
+    if (playerData.getPrimaryLanes().contains(laneId)) {
+      return rating + " *";
+    } else if (playerData.getSecondaryLanes().contains(laneId)) {
+      return rating + " +";
+    }
+    return rating;
+  }
+
   private String formatRating(int rating) {
     if (rating == Integer.MIN_VALUE) {
       return "?";
@@ -334,5 +719,14 @@ public class LeagueOfLegendsBotClient extends ChannelSpecificBotClient {
     public static Role roleFromLaneId(int laneId) {
       return BY_LANE_ID.get(laneId);
     }
+
+    public static Optional<Role> roleFromName(String name) {
+      for (Role role : values()) {
+        if (role.name.equalsIgnoreCase(name)) {
+          return Optional.of(role);
+        }
+      }
+      return Optional.empty();
+    }
   }
 }
@@ -0,0 +1,33 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking;
+
+import com.google.common.collect.ImmutableList;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A team put in lanes.
+ */
+@Immutable
+public class LaneAssignment {
+
+  private final ImmutableList<PlayerData> lanePlayers;
+  private final int teamStrength;
+
+  public LaneAssignment(ImmutableList<PlayerData> lanePlayers, int teamStrength) {
+    this.lanePlayers = lanePlayers;
+    this.teamStrength = teamStrength;
+  }
+
+  /**
+   * Returns the player in each lane, in lane order.
+   */
+  public ImmutableList<PlayerData> getLanePlayers() {
+    return lanePlayers;
+  }
+
+  /**
+   * Returns the sum of each player's strength in their lane.
+   */
+  public int getTeamStrength() {
+    return teamStrength;
+  }
+}
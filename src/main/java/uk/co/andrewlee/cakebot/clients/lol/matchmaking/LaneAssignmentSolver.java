@@ -0,0 +1,176 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Finds the strongest ways of putting a team of five in lanes, see {@link #solve}.
+ * <p>
+ * Walks through every assignment in a fixed order where each step swaps the lanes of two players,
+ * so that each assignment's strength comes from the previous one's with four lookups rather than
+ * adding up all five lanes, and only the steps of the strongest are kept until the end.
+ * Keeps its working arrays from one team to the next, so each thread needs its own instance.
+ * <p>
+ * Lanes a player must not be put in are marked {@link #EXCLUDED}. Assignments using them are
+ * never kept, and {@link #canFillLanes} lets a search rule out teams with no other assignment
+ * without walking them at all.
+ */
+@NotThreadSafe
+class LaneAssignmentSolver {
+
+  /**
+   * The lane strength of a player who must not be put in the lane.
+   */
+  static final int EXCLUDED = Integer.MIN_VALUE;
+  /**
+   * The sets of lanes which some of a team's players can fill, before any are added, see {@link
+   * #fillLanes}.
+   */
+  static final int NO_LANES_FILLED = 1;
+
+  private static final int PLAYERS = LaneMatchEvaluator.PLAYERS_PER_TEAM;
+  private static final int PERMUTATIONS = 120;
+  // Excluded lanes count as this much weaker than the weakest lane, so that no assignment using
+  // one is ever as strong as any without, and five of them still cannot overflow.
+  private static final int EXCLUDED_PENALTY = 1 << 24;
+  // Per lane, the sets of lanes without it, where bit s is the set of lanes in the bits of s.
+  private static final int[] LANE_SETS_WITHOUT = new int[PLAYERS];
+
+  // For each step of the walk after the first, the players swapping lanes, as the positions in
+  // the flattened lane strengths of their new and then old player and lane pairs.
+  private static final int[] GAINED_1 = new int[PERMUTATIONS];
+  private static final int[] GAINED_2 = new int[PERMUTATIONS];
+  private static final int[] LOST_1 = new int[PERMUTATIONS];
+  private static final int[] LOST_2 = new int[PERMUTATIONS];
+  // The player in each lane at each step of the walk.
+  private static final int[][] WALK_PERMUTATIONS = new int[PERMUTATIONS][];
+
+  static {
+    walkPermutations();
+    for (int laneId = 0; laneId < PLAYERS; laneId++) {
+      for (int laneSet = 0; laneSet < 1 << PLAYERS; laneSet++) {
+        if ((laneSet & (1 << laneId)) == 0) {
+          LANE_SETS_WITHOUT[laneId] |= 1 << laneSet;
+        }
+      }
+    }
+  }
+
+  private final int maxAssignments;
+  private final int[] flatLaneStrengths;
+  private final int[] topSteps;
+
+  LaneAssignmentSolver(int maxAssignments) {
+    this.maxAssignments = maxAssignments;
+    this.flatLaneStrengths = new int[PLAYERS * PLAYERS];
+    this.topSteps = new int[maxAssignments];
+  }
+
+  /**
+   * Fills {@param topStrengths} with the strengths of the strongest assignments of players to
+   * lanes, strongest first, and {@param topPermutations} with the index of the player in each
+   * lane. Of equally strong assignments, the first in the walk is kept. Returns how many were
+   * found, which is the number asked for unless there are fewer assignments without excluded
+   * lanes.
+   *
+   * @param laneStrengths the strength of each player in each lane, or {@link #EXCLUDED}.
+   */
+  int solve(int[][] laneStrengths, int[] topStrengths, int[][] topPermutations) {
+    for (int player = 0; player < PLAYERS; player++) {
+      for (int laneId = 0; laneId < PLAYERS; laneId++) {
+        int laneStrength = laneStrengths[player][laneId];
+        flatLaneStrengths[player * PLAYERS + laneId] = laneStrength == EXCLUDED
+            ? -EXCLUDED_PENALTY : laneStrength;
+      }
+    }
+    int[] permutation = WALK_PERMUTATIONS[0];
+    int strength = 0;
+    for (int laneId = 0; laneId < PLAYERS; laneId++) {
+      strength += flatLaneStrengths[permutation[laneId] * PLAYERS + laneId];
+    }
+    int found = 0;
+
+    for (int step = 0; step < PERMUTATIONS; step++) {
+      if (step > 0) {
+        strength += flatLaneStrengths[GAINED_1[step]] + flatLaneStrengths[GAINED_2[step]]
+            - flatLaneStrengths[LOST_1[step]] - flatLaneStrengths[LOST_2[step]];
+      }
+
+      if (strength <= -EXCLUDED_PENALTY / 2
+          || found == maxAssignments && strength <= topStrengths[found - 1]) {
+        continue;
+      }
+      int position = Math.min(found, maxAssignments - 1);
+      if (found < maxAssignments) {
+        found++;
+      }
+      while (position > 0 && topStrengths[position - 1] < strength) {
+        topStrengths[position] = topStrengths[position - 1];
+        topSteps[position] = topSteps[position - 1];
+        position--;
+      }
+      topStrengths[position] = strength;
+      topSteps[position] = step;
+    }
+
+    for (int i = 0; i < found; i++) {
+      System.arraycopy(WALK_PERMUTATIONS[topSteps[i]], 0, topPermutations[i], 0, PLAYERS);
+    }
+    return found;
+  }
+
+  /**
+   * Returns the sets of lanes which can be filled by a team's players so far, and then a player
+   * who can play {@param playableLanes}, given the sets those players could fill, {@param
+   * filledLaneSets}. Each set of lanes is a bit, as for {@link #NO_LANES_FILLED}.
+   */
+  static int fillLanes(int filledLaneSets, int playableLanes) {
+    int nextFilledLaneSets = 0;
+    for (int laneId = 0; laneId < PLAYERS; laneId++) {
+      if ((playableLanes & (1 << laneId)) != 0) {
+        // Adding the lane to a set of lanes adds 2^laneId to it, moving its bit along that far.
+        nextFilledLaneSets |= (filledLaneSets & LANE_SETS_WITHOUT[laneId]) << (1 << laneId);
+      }
+    }
+    return nextFilledLaneSets;
+  }
+
+  /**
+   * Returns true if, once every player of a team has been added with {@link #fillLanes}, they can
+   * fill every lane, with each player in a lane they can play.
+   */
+  static boolean canFillLanes(int filledLaneSets) {
+    return (filledLaneSets & (1 << ((1 << PLAYERS) - 1))) != 0;
+  }
+
+  /**
+   * Fills in the walk with Heap's algorithm, which reaches every permutation by swapping the
+   * lanes of two players each step.
+   */
+  private static void walkPermutations() {
+    int[] permutation = {0, 1, 2, 3, 4};
+    int[] counters = new int[PLAYERS];
+    WALK_PERMUTATIONS[0] = permutation.clone();
+    int step = 1;
+    int i = 1;
+    while (i < PLAYERS) {
+      if (counters[i] < i) {
+        int swapWith = i % 2 == 0 ? 0 : counters[i];
+        int player1 = permutation[swapWith];
+        int player2 = permutation[i];
+        permutation[swapWith] = player2;
+        permutation[i] = player1;
+        GAINED_1[step] = player2 * PLAYERS + swapWith;
+        GAINED_2[step] = player1 * PLAYERS + i;
+        LOST_1[step] = player1 * PLAYERS + swapWith;
+        LOST_2[step] = player2 * PLAYERS + i;
+        WALK_PERMUTATIONS[step] = permutation.clone();
+        step++;
+        counters[i]++;
+        i = 1;
+      } else {
+        counters[i] = 0;
+        i++;
+      }
+    }
+  }
+}
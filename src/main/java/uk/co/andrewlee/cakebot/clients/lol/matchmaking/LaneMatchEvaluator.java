@@ -0,0 +1,241 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Estimates how even a match is from the lane strengths of its players, see {@link #evaluate},
+ * with the lane weights of a {@link ScoringModel}.
+ * <p>
+ * Keeps its working arrays from one match to the next, so a search evaluating many matches only
+ * allocates the {@link Match} it returns. Each thread needs its own instance.
+ */
+@NotThreadSafe
+class LaneMatchEvaluator {
+
+  static final int PLAYERS_PER_TEAM = 5;
+  private static final int TEAM_PERMUTATIONS_TO_CONSIDER = 8;
+
+  private final ScoringModel scoringModel;
+  private final LaneAssignmentSolver laneAssignmentSolver;
+
+  // Per team, the strength of each player in each lane.
+  private final int[][] team1LaneStrengths;
+  private final int[][] team2LaneStrengths;
+  // Per team, the top permutations, the player put in each lane, and their strength there.
+  private final int[] team1TopStrengths;
+  private final int[] team2TopStrengths;
+  private final int[][] team1TopPermutations;
+  private final int[][] team2TopPermutations;
+  private final int[][] team1TopLanes;
+  private final int[][] team2TopLanes;
+
+  private final double[][] laneVariances;
+  private final double[] totalVariancesForTeam1;
+  private final double[] totalVariancesForTeam2;
+  private final double[] probabilityDistributionTeam1;
+  private final double[] probabilityDistributionTeam2;
+  // How many top permutations each team has, at most N.
+  private int team1Found;
+  private int team2Found;
+
+  LaneMatchEvaluator(ScoringModel scoringModel) {
+    this.scoringModel = scoringModel;
+    this.laneAssignmentSolver = new LaneAssignmentSolver(TEAM_PERMUTATIONS_TO_CONSIDER);
+    this.team1LaneStrengths = new int[PLAYERS_PER_TEAM][PLAYERS_PER_TEAM];
+    this.team2LaneStrengths = new int[PLAYERS_PER_TEAM][PLAYERS_PER_TEAM];
+    this.team1TopStrengths = new int[TEAM_PERMUTATIONS_TO_CONSIDER];
+    this.team2TopStrengths = new int[TEAM_PERMUTATIONS_TO_CONSIDER];
+    this.team1TopPermutations = new int[TEAM_PERMUTATIONS_TO_CONSIDER][PLAYERS_PER_TEAM];
+    this.team2TopPermutations = new int[TEAM_PERMUTATIONS_TO_CONSIDER][PLAYERS_PER_TEAM];
+    this.team1TopLanes = new int[TEAM_PERMUTATIONS_TO_CONSIDER][PLAYERS_PER_TEAM];
+    this.team2TopLanes = new int[TEAM_PERMUTATIONS_TO_CONSIDER][PLAYERS_PER_TEAM];
+    this.laneVariances = new double[TEAM_PERMUTATIONS_TO_CONSIDER]
+        [TEAM_PERMUTATIONS_TO_CONSIDER];
+    this.totalVariancesForTeam1 = new double[TEAM_PERMUTATIONS_TO_CONSIDER];
+    this.totalVariancesForTeam2 = new double[TEAM_PERMUTATIONS_TO_CONSIDER];
+    this.probabilityDistributionTeam1 = new double[TEAM_PERMUTATIONS_TO_CONSIDER];
+    this.probabilityDistributionTeam2 = new double[TEAM_PERMUTATIONS_TO_CONSIDER];
+  }
+
+  /**
+   * Returns the match, or empty if either team cannot fill every lane with a player who can play
+   * it, see {@link PlayerData#canPlay}.
+   */
+  Optional<Match> evaluate(ImmutableList<PlayerData> playersOnTeam1,
+      ImmutableList<PlayerData> playersOnTeam2) {
+    if (!findTopPermutations(playersOnTeam1, playersOnTeam2)) {
+      return Optional.empty();
+    }
+    double expectedVariance = expectedLaneVariance();
+
+    // 5. Calculate the other stats. The top permutations are kept strongest first. The average
+    //    difference is summed over N permutations, so a team with fewer has its mean stand in for
+    //    the rest.
+    int maxTeamStrengthDiff = team1TopStrengths[0] - team2TopStrengths[0];
+    int averageTeamStrengthDiff = (int) Math.round(TEAM_PERMUTATIONS_TO_CONSIDER
+        * (mean(team1TopStrengths, team1Found) - mean(team2TopStrengths, team2Found)));
+
+    return Optional.of(new Match(playersOnTeam1, playersOnTeam2, maxTeamStrengthDiff,
+        expectedVariance, averageTeamStrengthDiff));
+  }
+
+  /**
+   * Suggests lanes for two fixed teams: the strongest {@param assignmentsToReturn} ways of putting
+   * each team in lanes, and the lane variance of the match, as in {@link #evaluate}. Empty if
+   * either team cannot fill every lane.
+   */
+  Optional<RoleSuggestion> suggestRoles(ImmutableList<PlayerData> playersOnTeam1,
+      ImmutableList<PlayerData> playersOnTeam2, int assignmentsToReturn) {
+    Preconditions.checkArgument(assignmentsToReturn <= TEAM_PERMUTATIONS_TO_CONSIDER);
+    if (!findTopPermutations(playersOnTeam1, playersOnTeam2)) {
+      return Optional.empty();
+    }
+    double expectedVariance = expectedLaneVariance();
+    return Optional.of(new RoleSuggestion(
+        topAssignments(playersOnTeam1, team1TopStrengths, team1TopPermutations,
+            Math.min(assignmentsToReturn, team1Found)),
+        topAssignments(playersOnTeam2, team2TopStrengths, team2TopPermutations,
+            Math.min(assignmentsToReturn, team2Found)),
+        expectedVariance, laneVariances[0][0]));
+  }
+
+  /**
+   * Finds the top permutations of each team. Returns false if either has none.
+   */
+  private boolean findTopPermutations(ImmutableList<PlayerData> playersOnTeam1,
+      ImmutableList<PlayerData> playersOnTeam2) {
+    // 1. For each team determine the top N permutations which maximize the team strength.
+    copyLaneStrengths(playersOnTeam1, team1LaneStrengths);
+    copyLaneStrengths(playersOnTeam2, team2LaneStrengths);
+    team1Found = topTeamPermutations(team1LaneStrengths, team1TopStrengths, team1TopPermutations,
+        team1TopLanes);
+    if (team1Found == 0) {
+      return false;
+    }
+    team2Found = topTeamPermutations(team2LaneStrengths, team2TopStrengths, team2TopPermutations,
+        team2TopLanes);
+    return team2Found > 0;
+  }
+
+  /**
+   * Returns the expected lane variance of the top permutations of each team.
+   */
+  private double expectedLaneVariance() {
+    // 2. Calculate the lane variance for all permutations of team 1 vs all permutations of team 2.
+    //    Also calculate the total variance for each team configuration - this is used in step 3.
+    Arrays.fill(totalVariancesForTeam1, 0);
+    Arrays.fill(totalVariancesForTeam2, 0);
+    for (int team1Index = 0; team1Index < team1Found; team1Index++) {
+      for (int team2Index = 0; team2Index < team2Found; team2Index++) {
+        double laneVariance = scoringModel.laneVariance(team1TopLanes[team1Index],
+            team2TopLanes[team2Index]);
+        laneVariances[team1Index][team2Index] = laneVariance;
+        totalVariancesForTeam1[team1Index] += laneVariance;
+        totalVariancesForTeam2[team2Index] += laneVariance;
+      }
+    }
+
+    // 3. For each permutation, use the totalVariance to determine a probability function that
+    //    represents the probability that the team will pick that permutation.
+    //    To calculate the probability function, first we normalize the totalVariances.
+    double minTotalVarianceTeam1 = Double.POSITIVE_INFINITY;
+    double maxTotalVarianceTeam2 = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < team1Found; i++) {
+      minTotalVarianceTeam1 = Math.min(minTotalVarianceTeam1, totalVariancesForTeam1[i]);
+    }
+    for (int i = 0; i < team2Found; i++) {
+      maxTotalVarianceTeam2 = Math.max(maxTotalVarianceTeam2, totalVariancesForTeam2[i]);
+    }
+
+    double probabilitySumTeam1 = 0;
+    double probabilitySumTeam2 = 0;
+    for (int i = 0; i < team1Found; i++) {
+      probabilityDistributionTeam1[i] = totalVariancesForTeam1[i] - minTotalVarianceTeam1;
+      probabilitySumTeam1 += probabilityDistributionTeam1[i];
+    }
+    for (int i = 0; i < team2Found; i++) {
+      probabilityDistributionTeam2[i] = maxTotalVarianceTeam2 - totalVariancesForTeam2[i];
+      probabilitySumTeam2 += probabilityDistributionTeam2[i];
+    }
+
+    // If for some reason the probability sum is 0, then all are equally likely.
+    for (int i = 0; i < team1Found; i++) {
+      probabilityDistributionTeam1[i] = probabilitySumTeam1 < Double.MIN_VALUE
+          ? 1.0 / team1Found
+          : probabilityDistributionTeam1[i] / probabilitySumTeam1;
+    }
+    for (int i = 0; i < team2Found; i++) {
+      probabilityDistributionTeam2[i] = probabilitySumTeam2 < Double.MIN_VALUE
+          ? 1.0 / team2Found
+          : probabilityDistributionTeam2[i] / probabilitySumTeam2;
+    }
+
+    // 4. Using the probability functions, calculate the expected variance by assuming that the
+    //    probability that each team picks their respective permutation is independent.
+    //    (ie. we can multiply the probabilities to determine the probability of the two
+    //         teams facing with those particular permutations).
+    double expectedVariance = 0.0;
+    for (int team1Index = 0; team1Index < team1Found; team1Index++) {
+      for (int team2Index = 0; team2Index < team2Found; team2Index++) {
+        double probabilityOfOccurring = probabilityDistributionTeam1[team1Index]
+            * probabilityDistributionTeam2[team2Index];
+        expectedVariance += probabilityOfOccurring * laneVariances[team1Index][team2Index];
+      }
+    }
+
+    return expectedVariance;
+  }
+
+  private static void copyLaneStrengths(List<PlayerData> players, int[][] laneStrengths) {
+    for (int player = 0; player < PLAYERS_PER_TEAM; player++) {
+      for (int laneId = 0; laneId < PLAYERS_PER_TEAM; laneId++) {
+        PlayerData playerData = players.get(player);
+        laneStrengths[player][laneId] = playerData.canPlay(laneId)
+            ? playerData.getLaneStrength(laneId) : LaneAssignmentSolver.EXCLUDED;
+      }
+    }
+  }
+
+  /**
+   * Fills {@param topStrengths} with the strengths of the strongest permutations of a team,
+   * strongest first, {@param topPermutations} with the player in each lane, and {@param topLanes}
+   * with their strength in each lane. Returns how many were found, which is fewer than N if the
+   * team has fewer permutations with every player in a lane they can play.
+   */
+  private int topTeamPermutations(int[][] laneStrengths, int[] topStrengths,
+      int[][] topPermutations, int[][] topLanes) {
+    int found = laneAssignmentSolver.solve(laneStrengths, topStrengths, topPermutations);
+    for (int i = 0; i < found; i++) {
+      for (int laneId = 0; laneId < PLAYERS_PER_TEAM; laneId++) {
+        topLanes[i][laneId] = laneStrengths[topPermutations[i][laneId]][laneId];
+      }
+    }
+    return found;
+  }
+
+  private static double mean(int[] values, int count) {
+    double sum = 0;
+    for (int i = 0; i < count; i++) {
+      sum += values[i];
+    }
+    return sum / count;
+  }
+
+  private static ImmutableList<LaneAssignment> topAssignments(ImmutableList<PlayerData> players,
+      int[] topStrengths, int[][] topPermutations, int assignments) {
+    ImmutableList.Builder<LaneAssignment> topAssignments = ImmutableList.builder();
+    for (int i = 0; i < assignments; i++) {
+      ImmutableList.Builder<PlayerData> lanePlayers = ImmutableList.builder();
+      for (int laneId = 0; laneId < PLAYERS_PER_TEAM; laneId++) {
+        lanePlayers.add(players.get(topPermutations[i][laneId]));
+      }
+      topAssignments.add(new LaneAssignment(lanePlayers.build(), topStrengths[i]));
+    }
+    return topAssignments.build();
+  }
+}
@@ -0,0 +1,46 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The result of a played match, with the lane each player played. Each team is in lane order,
+ * so the player at index 0 played lane 0, and so on.
+ */
+@Immutable
+public class LaneMatchOutcome {
+
+  private final ImmutableList<Long> winners;
+  private final ImmutableList<Long> losers;
+  private final long timestampMillis;
+
+  public static LaneMatchOutcome create(ImmutableList<Long> winners, ImmutableList<Long> losers,
+      long timestampMillis) {
+    Preconditions.checkArgument(winners.size() == LaneMatchEvaluator.PLAYERS_PER_TEAM
+        && losers.size() == LaneMatchEvaluator.PLAYERS_PER_TEAM);
+    Preconditions.checkArgument(ImmutableSet.builder().addAll(winners).addAll(losers).build()
+        .size() == 2 * LaneMatchEvaluator.PLAYERS_PER_TEAM, "A player is on both teams.");
+    return new LaneMatchOutcome(winners, losers, timestampMillis);
+  }
+
+  private LaneMatchOutcome(ImmutableList<Long> winners, ImmutableList<Long> losers,
+      long timestampMillis) {
+    this.winners = winners;
+    this.losers = losers;
+    this.timestampMillis = timestampMillis;
+  }
+
+  public ImmutableList<Long> getWinners() {
+    return winners;
+  }
+
+  public ImmutableList<Long> getLosers() {
+    return losers;
+  }
+
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+}
@@ -0,0 +1,246 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Learns lane strengths from match outcomes.
+ * <p>
+ * A team's strength is the total of its players' strengths in the lanes they played, and the
+ * chance of a team winning is logistic in the difference, as with Elo: a team {@link
+ * #LOGISTIC_SCALE} stronger is expected to win ten games in eleven. After each match, every
+ * player's strength in the lane they played moves by up to {@link #K_FACTOR}, depending on how
+ * surprising the result was, so an update only looks at the players in the match.
+ * <p>
+ * A refit instead fits the strengths to the whole log at once, as the most likely strengths
+ * given a normal prior centred on the current ones. Each iteration takes a diagonal
+ * majorize-minimize step, which never makes the fit worse, and sums its gradient over the log in
+ * parallel.
+ */
+class LaneStrengthLearner {
+
+  static final int MIN_STRENGTH = 0;
+  static final int MAX_STRENGTH = 1000;
+
+  private static final double LOGISTIC_SCALE = 400;
+  private static final double K_FACTOR = 16;
+  // LOGISTIC_SCALE, for the natural logistic function.
+  private static final double NATURAL_SCALE = LOGISTIC_SCALE / Math.log(10);
+  private static final double PRIOR_STANDARD_DEVIATION = 150;
+  private static final double PRIOR_PRECISION =
+      1 / (PRIOR_STANDARD_DEVIATION * PRIOR_STANDARD_DEVIATION);
+  // Bounds the curvature of one match's log loss in any one of its players' strengths.
+  private static final double CURVATURE_PER_MATCH =
+      2.0 * LaneMatchEvaluator.PLAYERS_PER_TEAM / (4 * NATURAL_SCALE * NATURAL_SCALE);
+  private static final int MAX_REFIT_ITERATIONS = 200;
+  private static final double REFIT_TOLERANCE = 0.05;
+
+  private LaneStrengthLearner() {
+  }
+
+  /**
+   * Returns the chance that a team of {@param teamStrength} beats one of {@param
+   * opposingTeamStrength}.
+   */
+  static double winProbability(int teamStrength, int opposingTeamStrength) {
+    return 1 / (1 + Math.pow(10, (opposingTeamStrength - teamStrength) / LOGISTIC_SCALE));
+  }
+
+  /**
+   * Returns the total strength of a team in lane order, at the lanes they played.
+   */
+  static int teamStrength(List<PlayerData> team) {
+    int teamStrength = 0;
+    for (int laneId = 0; laneId < team.size(); laneId++) {
+      teamStrength += team.get(laneId).getLaneStrength(laneId);
+    }
+    return teamStrength;
+  }
+
+  /**
+   * Returns every player with their strength in the lane they played updated for the outcome,
+   * winners and then losers, each in lane order. Every player must have a known strength in the
+   * lane they played.
+   */
+  static ImmutableList<PlayerData> update(List<PlayerData> winners, List<PlayerData> losers) {
+    double surprise = 1 - winProbability(teamStrength(winners), teamStrength(losers));
+    int change = (int) Math.round(K_FACTOR * surprise);
+
+    ImmutableList.Builder<PlayerData> updatedPlayers = ImmutableList.builder();
+    for (int laneId = 0; laneId < winners.size(); laneId++) {
+      PlayerData winner = winners.get(laneId);
+      updatedPlayers.add(withLaneStrength(winner, laneId,
+          winner.getLaneStrength(laneId) + change));
+    }
+    for (int laneId = 0; laneId < losers.size(); laneId++) {
+      PlayerData loser = losers.get(laneId);
+      updatedPlayers.add(withLaneStrength(loser, laneId, loser.getLaneStrength(laneId) - change));
+    }
+    return updatedPlayers.build();
+  }
+
+  /**
+   * Fits the strengths in every lane a player has played to every outcome, using up to
+   * {@param tasks} tasks on {@param executor}. Outcomes with a player missing from {@param
+   * players}, or with an unknown strength in the lane they played, are skipped.
+   */
+  static LaneStrengthRefit refit(ImmutableList<LaneMatchOutcome> outcomes,
+      Map<Long, PlayerData> players, ExecutorService executor, int tasks)
+      throws InterruptedException {
+    Preconditions.checkArgument(tasks >= 1);
+
+    // Every strength being fitted gets an index, as a player and a lane.
+    LinkedHashMap<Long, int[]> strengthIndexes = new LinkedHashMap<>();
+    ArrayList<Double> priorStrengths = new ArrayList<>();
+    ArrayList<int[]> usedOutcomes = new ArrayList<>();
+    for (LaneMatchOutcome outcome : outcomes) {
+      if (!isUsable(outcome, players)) {
+        continue;
+      }
+      int[] outcomeIndexes = new int[2 * LaneMatchEvaluator.PLAYERS_PER_TEAM];
+      for (int i = 0; i < outcomeIndexes.length; i++) {
+        int laneId = i % LaneMatchEvaluator.PLAYERS_PER_TEAM;
+        long playerId = playerAt(outcome, i);
+        int[] playerIndexes = strengthIndexes.computeIfAbsent(playerId, id -> {
+          int[] indexes = new int[LaneMatchEvaluator.PLAYERS_PER_TEAM];
+          Arrays.fill(indexes, -1);
+          return indexes;
+        });
+        if (playerIndexes[laneId] < 0) {
+          playerIndexes[laneId] = priorStrengths.size();
+          priorStrengths.add((double) players.get(playerId).getLaneStrength(laneId));
+        }
+        outcomeIndexes[i] = playerIndexes[laneId];
+      }
+      usedOutcomes.add(outcomeIndexes);
+    }
+
+    int strengthCount = priorStrengths.size();
+    double[] prior = priorStrengths.stream().mapToDouble(Double::doubleValue).toArray();
+    double[] strengths = prior.clone();
+    double[] curvatures = new double[strengthCount];
+    Arrays.fill(curvatures, PRIOR_PRECISION);
+    for (int[] outcomeIndexes : usedOutcomes) {
+      for (int index : outcomeIndexes) {
+        curvatures[index] += CURVATURE_PER_MATCH;
+      }
+    }
+
+    // Each task sums the gradient over its own range of outcomes, into its own array.
+    int rangeSize = Math.max(1, (usedOutcomes.size() + tasks - 1) / tasks);
+    List<double[]> taskGradients = new ArrayList<>();
+    List<Callable<double[]>> callables = new ArrayList<>();
+    for (int from = 0; from < usedOutcomes.size(); from += rangeSize) {
+      List<int[]> range = usedOutcomes.subList(from,
+          Math.min(usedOutcomes.size(), from + rangeSize));
+      double[] gradient = new double[strengthCount];
+      taskGradients.add(gradient);
+      callables.add(() -> sumGradient(range, strengths, gradient));
+    }
+
+    int iterations = 0;
+    double largestStep = Double.POSITIVE_INFINITY;
+    while (iterations < MAX_REFIT_ITERATIONS && largestStep > REFIT_TOLERANCE) {
+      invokeAll(executor, callables);
+      largestStep = 0;
+      for (int index = 0; index < strengthCount; index++) {
+        double gradient = PRIOR_PRECISION * (strengths[index] - prior[index]);
+        // Summed in task order, so the result does not depend on which task finishes first.
+        for (double[] taskGradient : taskGradients) {
+          gradient += taskGradient[index];
+        }
+        double step = -gradient / curvatures[index];
+        strengths[index] += step;
+        largestStep = Math.max(largestStep, Math.abs(step));
+      }
+      iterations++;
+    }
+
+    ImmutableList.Builder<PlayerData> updatedPlayers = ImmutableList.builder();
+    for (Map.Entry<Long, int[]> entry : strengthIndexes.entrySet()) {
+      int[] laneStrengths = players.get(entry.getKey()).getLaneStrengths().clone();
+      for (int laneId = 0; laneId < LaneMatchEvaluator.PLAYERS_PER_TEAM; laneId++) {
+        int index = entry.getValue()[laneId];
+        if (index >= 0) {
+          laneStrengths[laneId] = clamp((int) Math.round(strengths[index]));
+        }
+      }
+      updatedPlayers.add(players.get(entry.getKey()).withLaneStrengths(laneStrengths));
+    }
+    return new LaneStrengthRefit(updatedPlayers.build(), usedOutcomes.size(),
+        outcomes.size() - usedOutcomes.size(), iterations);
+  }
+
+  /**
+   * Sets {@param gradient} to the gradient of the log loss of the outcomes, winners first, with
+   * respect to each strength.
+   */
+  private static double[] sumGradient(List<int[]> outcomeIndexes, double[] strengths,
+      double[] gradient) {
+    Arrays.fill(gradient, 0);
+    for (int[] indexes : outcomeIndexes) {
+      double difference = 0;
+      for (int i = 0; i < indexes.length; i++) {
+        difference += i < LaneMatchEvaluator.PLAYERS_PER_TEAM
+            ? strengths[indexes[i]] : -strengths[indexes[i]];
+      }
+      double surprise = 1 / (1 + Math.exp(difference / NATURAL_SCALE));
+      for (int i = 0; i < indexes.length; i++) {
+        gradient[indexes[i]] += i < LaneMatchEvaluator.PLAYERS_PER_TEAM
+            ? -surprise / NATURAL_SCALE : surprise / NATURAL_SCALE;
+      }
+    }
+    return gradient;
+  }
+
+  private static void invokeAll(ExecutorService executor, List<Callable<double[]>> callables)
+      throws InterruptedException {
+    try {
+      for (Future<double[]> future : executor.invokeAll(callables)) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static boolean isUsable(LaneMatchOutcome outcome, Map<Long, PlayerData> players) {
+    for (int i = 0; i < 2 * LaneMatchEvaluator.PLAYERS_PER_TEAM; i++) {
+      PlayerData playerData = players.get(playerAt(outcome, i));
+      if (playerData == null || playerData.getLaneStrength(i % LaneMatchEvaluator.PLAYERS_PER_TEAM)
+          == Integer.MIN_VALUE) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The winners and then the losers, each in lane order.
+   */
+  private static long playerAt(LaneMatchOutcome outcome, int i) {
+    return i < LaneMatchEvaluator.PLAYERS_PER_TEAM ? outcome.getWinners().get(i)
+        : outcome.getLosers().get(i - LaneMatchEvaluator.PLAYERS_PER_TEAM);
+  }
+
+  private static PlayerData withLaneStrength(PlayerData playerData, int laneId, int strength) {
+    int[] laneStrengths = playerData.getLaneStrengths().clone();
+    laneStrengths[laneId] = clamp(strength);
+    return playerData.withLaneStrengths(laneStrengths);
+  }
+
+  private static int clamp(int strength) {
+    return Math.min(Math.max(strength, MIN_STRENGTH), MAX_STRENGTH);
+  }
+}
@@ -0,0 +1,47 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking;
+
+import com.google.common.collect.ImmutableList;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The result of refitting lane strengths to every logged match outcome.
+ */
+@Immutable
+public class LaneStrengthRefit {
+
+  private final ImmutableList<PlayerData> updatedPlayers;
+  private final int outcomesUsed;
+  private final int outcomesSkipped;
+  private final int iterations;
+
+  LaneStrengthRefit(ImmutableList<PlayerData> updatedPlayers, int outcomesUsed,
+      int outcomesSkipped, int iterations) {
+    this.updatedPlayers = updatedPlayers;
+    this.outcomesUsed = outcomesUsed;
+    this.outcomesSkipped = outcomesSkipped;
+    this.iterations = iterations;
+  }
+
+  /**
+   * The players whose strengths were fitted, with their new strengths.
+   */
+  public ImmutableList<PlayerData> getUpdatedPlayers() {
+    return updatedPlayers;
+  }
+
+  public int getOutcomesUsed() {
+    return outcomesUsed;
+  }
+
+  /**
+   * Outcomes with a player who is no longer registered, or whose strength in the lane they
+   * played is unknown.
+   */
+  public int getOutcomesSkipped() {
+    return outcomesSkipped;
+  }
+
+  public int getIterations() {
+    return iterations;
+  }
+}
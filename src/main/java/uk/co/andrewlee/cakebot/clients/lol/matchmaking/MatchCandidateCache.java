@@ -0,0 +1,101 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The candidate matches found for recent rosters, so that asking again for the same players
+ * deals out the candidates not yet shown rather than searching again.
+ * <p>
+ * Each roster's candidates are kept with the {@link PlayerMatchmakingData#getVersion} they were
+ * found at, and are ignored once any player's data has changed. Only the most recently used
+ * rosters are kept.
+ */
+@NotThreadSafe
+class MatchCandidateCache {
+
+  private static final int MAX_CACHED_ROSTERS = 16;
+
+  private final LinkedHashMap<ImmutableSet<Long>, CachedCandidates> cachedCandidates;
+  private final Random random;
+
+  static MatchCandidateCache create(Random random) {
+    return new MatchCandidateCache(random);
+  }
+
+  private MatchCandidateCache(Random random) {
+    // Access ordered, so the eldest entry is the least recently used.
+    this.cachedCandidates = new LinkedHashMap<ImmutableSet<Long>, CachedCandidates>(16, 0.75f,
+        true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ImmutableSet<Long>, CachedCandidates> eldest) {
+        return size() > MAX_CACHED_ROSTERS;
+      }
+    };
+    this.random = random;
+  }
+
+  /**
+   * Returns true if candidates for the roster are cached as of {@param version}.
+   */
+  boolean contains(ImmutableSet<Long> roster, long version) {
+    CachedCandidates cached = cachedCandidates.get(roster);
+    return cached != null && cached.version == version;
+  }
+
+  /**
+   * Caches the candidates for a roster, replacing any already cached, in a random order.
+   */
+  void put(ImmutableSet<Long> roster, long version, ImmutableList<Match> candidates) {
+    cachedCandidates.put(roster, new CachedCandidates(version, candidates, random));
+  }
+
+  void clear() {
+    cachedCandidates.clear();
+  }
+
+  /**
+   * Returns up to {@param count} of the roster's cached candidates which have not been returned
+   * yet. Once every candidate has been returned, they are shuffled and dealt out again. Empty if
+   * nothing is cached for the roster as of {@param version}.
+   */
+  Optional<ImmutableList<Match>> next(ImmutableSet<Long> roster, long version, int count) {
+    if (!contains(roster, version)) {
+      return Optional.empty();
+    }
+    return Optional.of(cachedCandidates.get(roster).next(count, random));
+  }
+
+  @NotThreadSafe
+  private static class CachedCandidates {
+
+    private final long version;
+    private final ArrayList<Match> candidates;
+    private int nextIndex;
+
+    private CachedCandidates(long version, ImmutableList<Match> candidates, Random random) {
+      this.version = version;
+      this.candidates = new ArrayList<>(candidates);
+      Collections.shuffle(this.candidates, random);
+      this.nextIndex = 0;
+    }
+
+    private ImmutableList<Match> next(int count, Random random) {
+      if (nextIndex >= candidates.size()) {
+        Collections.shuffle(candidates, random);
+        nextIndex = 0;
+      }
+      int endIndex = Math.min(candidates.size(), nextIndex + count);
+      ImmutableList<Match> next = ImmutableList.copyOf(candidates.subList(nextIndex, endIndex));
+      nextIndex = endIndex;
+      return next;
+    }
+  }
+}
@@ -1,17 +1,43 @@
 package uk.co.andrewlee.cakebot.clients.lol.matchmaking;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import java.util.Objects;
+import java.util.Set;
 import javax.annotation.concurrent.Immutable;
 
+/**
+ * A player's strength in each lane, {@link Integer#MIN_VALUE} where unknown, and the lanes they
+ * prefer to play.
+ * <p>
+ * A player with no preferences plays any lane with a known strength. Otherwise they only play
+ * their primary and secondary lanes, see {@link #canPlay}.
+ */
 @Immutable
 public class PlayerData {
 
   private final long playerId;
   private final int[] laneStrength;
+  // Bitmasks of lane ids. Missing from older JSON save files, where they are read as 0.
+  private final int primaryLanes;
+  private final int secondaryLanes;
 
   public PlayerData(long playerId, int[] laneStrength) {
+    this(playerId, laneStrength, 0, 0);
+  }
+
+  public PlayerData(long playerId, int[] laneStrength, Set<Integer> primaryLanes,
+      Set<Integer> secondaryLanes) {
+    this(playerId, laneStrength, laneMask(primaryLanes), laneMask(secondaryLanes));
+    Preconditions.checkArgument((this.primaryLanes & this.secondaryLanes) == 0,
+        "A lane cannot be both a primary and a secondary lane.");
+  }
+
+  private PlayerData(long playerId, int[] laneStrength, int primaryLanes, int secondaryLanes) {
     this.playerId = playerId;
     this.laneStrength = laneStrength;
+    this.primaryLanes = primaryLanes;
+    this.secondaryLanes = secondaryLanes;
   }
 
   public long getPlayerId() {
@@ -26,6 +52,63 @@ public class PlayerData {
     return laneStrength[laneId];
   }
 
+  public ImmutableSet<Integer> getPrimaryLanes() {
+    return laneSet(primaryLanes);
+  }
+
+  public ImmutableSet<Integer> getSecondaryLanes() {
+    return laneSet(secondaryLanes);
+  }
+
+  public boolean hasLanePreferences() {
+    return (primaryLanes | secondaryLanes) != 0;
+  }
+
+  /**
+   * Returns true if matchmaking may put the player in the lane: their strength there is known,
+   * and it is one of their primary or secondary lanes, if they have any.
+   */
+  public boolean canPlay(int laneId) {
+    if (laneStrength[laneId] == Integer.MIN_VALUE) {
+      return false;
+    }
+    int preferredLanes = primaryLanes | secondaryLanes;
+    return preferredLanes == 0 || (preferredLanes & (1 << laneId)) != 0;
+  }
+
+  /**
+   * Returns this player with new lane strengths, and the same preferences.
+   */
+  public PlayerData withLaneStrengths(int[] laneStrengths) {
+    return new PlayerData(playerId, laneStrengths, primaryLanes, secondaryLanes);
+  }
+
+  /**
+   * Returns this player with new preferences, and the same lane strengths.
+   */
+  public PlayerData withLanePreferences(Set<Integer> primaryLanes, Set<Integer> secondaryLanes) {
+    return new PlayerData(playerId, laneStrength, primaryLanes, secondaryLanes);
+  }
+
+  private static int laneMask(Set<Integer> lanes) {
+    int laneMask = 0;
+    for (int laneId : lanes) {
+      Preconditions.checkArgument(laneId >= 0 && laneId < LaneMatchEvaluator.PLAYERS_PER_TEAM);
+      laneMask |= 1 << laneId;
+    }
+    return laneMask;
+  }
+
+  private static ImmutableSet<Integer> laneSet(int laneMask) {
+    ImmutableSet.Builder<Integer> lanes = ImmutableSet.builder();
+    for (int laneId = 0; laneId < LaneMatchEvaluator.PLAYERS_PER_TEAM; laneId++) {
+      if ((laneMask & (1 << laneId)) != 0) {
+        lanes.add(laneId);
+      }
+    }
+    return lanes.build();
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
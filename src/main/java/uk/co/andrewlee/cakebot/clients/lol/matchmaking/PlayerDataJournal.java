@@ -0,0 +1,97 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.serializers.PlayerDataJournalSerializer;
+import uk.co.andrewlee.cakebot.persistence.KeyValueStore;
+import uk.co.andrewlee.cakebot.persistence.RecordLog;
+
+/**
+ * The journal of changes to LoL players over the save file, from before players were kept in a
+ * {@link KeyValueStore}. Only read, to migrate into the store.
+ * <p>
+ * Each record holds the new data of every player changed together. The journal is split into
+ * numbered generations, each its own {@link RecordLog}, replayed oldest first.
+ */
+@NotThreadSafe
+class PlayerDataJournal {
+
+  private static final Logger logger = LoggerFactory.getLogger(PlayerDataJournal.class);
+  private static final String JOURNAL_FILE_PREFIX = "lol-players-";
+  private static final String JOURNAL_FILE_EXTENSION = ".log";
+  private static final Pattern JOURNAL_FILE_PATTERN = Pattern.compile(
+      Pattern.quote(JOURNAL_FILE_PREFIX) + "(\\d+)" + Pattern.quote(JOURNAL_FILE_EXTENSION));
+
+  private final Path saveDirectory;
+
+  static PlayerDataJournal create(Path saveDirectory) {
+    return new PlayerDataJournal(saveDirectory);
+  }
+
+  private PlayerDataJournal(Path saveDirectory) {
+    this.saveDirectory = saveDirectory;
+  }
+
+  /**
+   * Replays every generation, oldest first. Returns how many generations there were.
+   */
+  int replay(Consumer<PlayerData> playerDataConsumer) throws IOException {
+    ArrayList<Long> generations = generations();
+    Collections.sort(generations);
+    for (long generation : generations) {
+      int records = recordLog(generation).read(
+          (input, formatVersion) -> PlayerDataJournalSerializer.read(input, playerDataConsumer));
+      logger.info("Replayed {} records from LoL player journal generation {}.", records,
+          generation);
+    }
+    return generations.size();
+  }
+
+  /**
+   * Deletes every generation, oldest first, so that an interrupted delete never leaves an older
+   * generation to be replayed without the newer ones.
+   */
+  void deleteAllGenerations() throws IOException {
+    ArrayList<Long> generations = generations();
+    Collections.sort(generations);
+    for (long generation : generations) {
+      Files.deleteIfExists(journalFile(generation));
+      logger.info("Deleted LoL player journal generation {}.", generation);
+    }
+  }
+
+  private ArrayList<Long> generations() throws IOException {
+    ArrayList<Long> generations = new ArrayList<>();
+    if (!Files.isDirectory(saveDirectory)) {
+      return generations;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(saveDirectory,
+        JOURNAL_FILE_PREFIX + "*" + JOURNAL_FILE_EXTENSION)) {
+      for (Path file : files) {
+        Matcher matcher = JOURNAL_FILE_PATTERN.matcher(file.getFileName().toString());
+        if (matcher.matches()) {
+          generations.add(Long.parseLong(matcher.group(1)));
+        }
+      }
+    }
+    return generations;
+  }
+
+  private RecordLog recordLog(long generation) {
+    return RecordLog.create(journalFile(generation), PlayerDataJournalSerializer.FORMAT_VERSION);
+  }
+
+  private Path journalFile(long generation) {
+    return saveDirectory.resolve(JOURNAL_FILE_PREFIX + generation + JOURNAL_FILE_EXTENSION);
+  }
+}
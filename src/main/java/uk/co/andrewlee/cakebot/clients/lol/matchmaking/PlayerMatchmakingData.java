@@ -4,6 +4,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.HashMap;
@@ -12,6 +15,7 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.serializers.PlayerDataSnapshotSerializer;
 
 @NotThreadSafe
 public class PlayerMatchmakingData {
@@ -21,13 +25,17 @@ public class PlayerMatchmakingData {
       .create();
 
   private final HashMap<Long, PlayerData> playerStats;
+  // Bumped whenever any player's data changes.
+  private long version;
 
   PlayerMatchmakingData() {
     this.playerStats = new HashMap<>();
+    this.version = 0;
   }
 
   public void load(Reader reader) throws JsonParseException {
     playerStats.clear();
+    version++;
 
     SerializedData loadedData = GSON.fromJson(reader, SerializedData.class);
 
@@ -43,6 +51,26 @@ public class PlayerMatchmakingData {
     logger.info("Saved {} LoL player stats.", serializedData.players.size());
   }
 
+  /**
+   * Loads from the binary snapshot format. See {@link PlayerDataSnapshotSerializer}.
+   */
+  public void load(InputStream inputStream) throws IOException {
+    playerStats.clear();
+    version++;
+
+    PlayerDataSnapshotSerializer.read(inputStream,
+        playerData -> playerStats.put(playerData.getPlayerId(), playerData));
+    logger.info("Loaded {} LoL player stats.", playerStats.size());
+  }
+
+  /**
+   * Saves in the binary snapshot format. See {@link PlayerDataSnapshotSerializer}.
+   */
+  public void save(OutputStream outputStream) throws IOException {
+    PlayerDataSnapshotSerializer.write(outputStream, playerStats.values());
+    logger.info("Saved {} LoL player stats.", playerStats.size());
+  }
+
   @Nullable
   public PlayerData getPlayerData(long playerId) {
     return playerStats.get(playerId);
@@ -52,8 +80,17 @@ public class PlayerMatchmakingData {
     return playerStats.containsKey(playerId);
   }
 
-  public void updatePlayer(long playerId, int[] laneStrength) {
-    playerStats.put(playerId, new PlayerData(playerId, laneStrength));
+  public void updatePlayer(PlayerData playerData) {
+    playerStats.put(playerData.getPlayerId(), playerData);
+    version++;
+  }
+
+  /**
+   * Returns a number which changes whenever any player's data does, so that anything worked out
+   * from the data can tell when it is out of date.
+   */
+  public long getVersion() {
+    return version;
   }
 
   public HashMap<Long, PlayerData> getAllPlayerStats() {
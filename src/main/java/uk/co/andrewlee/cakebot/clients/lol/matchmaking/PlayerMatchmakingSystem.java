@@ -1,53 +1,85 @@
 package uk.co.andrewlee.cakebot.clients.lol.matchmaking;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.gson.JsonParseException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
-import java.util.stream.IntStream;
+import java.util.concurrent.ExecutorService;
 import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.serializers.LaneMatchOutcomeSerializer;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.serializers.PlayerDataStoreSerializer;
+import uk.co.andrewlee.cakebot.matchmaking.MatchmakingEngine;
+import uk.co.andrewlee.cakebot.matchmaking.SearchBudget;
+import uk.co.andrewlee.cakebot.matchmaking.SearchResult;
+import uk.co.andrewlee.cakebot.matchmaking.SearchStrategy;
+import uk.co.andrewlee.cakebot.matchmaking.SplitEvaluator;
+import uk.co.andrewlee.cakebot.persistence.Codec;
+import uk.co.andrewlee.cakebot.persistence.KeyValueStore;
+import uk.co.andrewlee.cakebot.persistence.KeyValueStore.WriteBatch;
+import uk.co.andrewlee.cakebot.persistence.PersistenceService;
+import uk.co.andrewlee.cakebot.persistence.RecordLog;
+import uk.co.andrewlee.cakebot.persistence.RecordLog.RecordContents;
 
 @NotThreadSafe
-public class PlayerMatchmakingSystem {
+public class PlayerMatchmakingSystem implements MatchmakingEngine<Match> {
 
   private static final Logger logger = LoggerFactory.getLogger(PlayerMatchmakingSystem.class);
   private static final String SAVE_FILE = "lol";
-  private static final String SAVE_FILE_EXTENSION = ".json";
+  private static final String SAVE_FILE_EXTENSION = ".bin";
+  private static final String LEGACY_SAVE_FILE_EXTENSION = ".json";
+  private static final String OUTCOME_LOG_FILE = "lol-outcomes.log";
+  private static final String SCORING_MODEL_FILE = "lol-scoring.json";
+  private static final String PLAYER_STORE = "lol-player-store";
 
+  private static final int PLAYERS_PER_MATCH = 10;
   private static final int CANDIDATE_TEAMS_TO_CONSIDER = 5;
   private static final int CANDIDATE_TEAMS_TO_RETURN = 2;
-  private static final int TEAM_PERMUTATIONS_TO_CONSIDER = 8;
-
-  // TODO: Think of a nicer way of doing this
-  private static final int[] LANE_WEIGHTS = {7, 10, 10, 3, 4, 3, 3};
-  private static final int LANE_WEIGHT_SUM = Arrays.stream(LANE_WEIGHTS).sum();
+  private static final int ROLE_ASSIGNMENTS_TO_RETURN = 3;
 
   private final PlayerMatchmakingData playerMatchmakingData;
   private final Path saveFile;
+  private final Path legacySaveFile;
+  private final KeyValueStore<Long, PlayerData> playerStore;
+  // Only read to migrate the players from before the store.
+  private final PlayerDataJournal playerDataJournal;
+  private final SearchStrategy searchStrategy;
+  private final MatchCandidateCache matchCandidateCache;
+  private final RecordLog outcomeLog;
+  private final Path scoringModelFile;
+  private ScoringModel scoringModel;
+
+  public static PlayerMatchmakingSystem create(Path saveDirectory,
+      PersistenceService persistenceService) {
+    return create(saveDirectory, persistenceService, SearchStrategy.exhaustive());
+  }
 
-  public static PlayerMatchmakingSystem create(Path saveDirectory) {
+  public static PlayerMatchmakingSystem create(Path saveDirectory,
+      PersistenceService persistenceService, SearchStrategy searchStrategy) {
     PlayerMatchmakingData playerMatchmakingData = new PlayerMatchmakingData();
 
     Path saveFile = saveDirectory.resolve(SAVE_FILE + SAVE_FILE_EXTENSION);
+    Path legacySaveFile = saveDirectory.resolve(SAVE_FILE + LEGACY_SAVE_FILE_EXTENSION);
 
     File saveDirectoryFile = saveDirectory.toFile();
     if (saveDirectoryFile.exists() && !saveDirectoryFile.isDirectory()) {
@@ -60,18 +92,96 @@ public class PlayerMatchmakingSystem {
           saveFile));
     }
 
-    return new PlayerMatchmakingSystem(playerMatchmakingData, saveFile);
+    RecordLog outcomeLog = RecordLog.create(saveDirectory.resolve(OUTCOME_LOG_FILE),
+        LaneMatchOutcomeSerializer.FORMAT_VERSION);
+
+    KeyValueStore<Long, PlayerData> playerStore = KeyValueStore.create(saveDirectory,
+        PLAYER_STORE, PlayerDataStoreSerializer.FORMAT_VERSION, Codec.VAR_LONG,
+        PlayerDataStoreSerializer.CODEC, persistenceService);
+
+    return new PlayerMatchmakingSystem(playerMatchmakingData, saveFile, legacySaveFile,
+        playerStore, PlayerDataJournal.create(saveDirectory), searchStrategy, outcomeLog,
+        saveDirectory.resolve(SCORING_MODEL_FILE));
   }
 
-  private PlayerMatchmakingSystem(PlayerMatchmakingData playerMatchmakingData, Path saveFile) {
+  private PlayerMatchmakingSystem(PlayerMatchmakingData playerMatchmakingData, Path saveFile,
+      Path legacySaveFile, KeyValueStore<Long, PlayerData> playerStore,
+      PlayerDataJournal playerDataJournal, SearchStrategy searchStrategy, RecordLog outcomeLog,
+      Path scoringModelFile) {
     this.playerMatchmakingData = playerMatchmakingData;
     this.saveFile = saveFile;
+    this.legacySaveFile = legacySaveFile;
+    this.playerStore = playerStore;
+    this.playerDataJournal = playerDataJournal;
+    this.searchStrategy = searchStrategy;
+    this.matchCandidateCache = MatchCandidateCache.create(new Random());
+    this.outcomeLog = outcomeLog;
+    this.scoringModelFile = scoringModelFile;
+    this.scoringModel = ScoringModel.DEFAULT;
   }
 
   public void init() throws IOException {
-    if (Files.exists(saveFile)) {
-      loadFromFile(saveFile);
+    if (playerStore.load()) {
+      playerStore.entries().values().forEach(playerMatchmakingData::updatePlayer);
+      logger.info("Loaded {} LoL players from their store.",
+          playerMatchmakingData.getAllPlayerStats().size());
+    } else {
+      migrateToPlayerStore();
+    }
+
+    // Also cuts off any outcome torn by a crash, before more are appended.
+    int outcomes = outcomeLog.read(
+        (input, formatVersion) -> LaneMatchOutcomeSerializer.read(input));
+    logger.info("Found {} logged LoL match outcomes.", outcomes);
+
+    reloadScoringModel();
+  }
+
+  /**
+   * Loads the scoring model from its file in the save directory, or goes back to the default
+   * model if there is no file. Returns the model now in use. On error, the current model is kept.
+   */
+  public ScoringModel reloadScoringModel() throws IOException, JsonParseException {
+    ScoringModel newScoringModel = ScoringModel.DEFAULT;
+    if (Files.exists(scoringModelFile)) {
+      try (BufferedReader bufferedReader = Files.newBufferedReader(scoringModelFile)) {
+        newScoringModel = ScoringModel.load(bufferedReader);
+      }
     }
+
+    logger.info("Using LoL scoring model: {}.", newScoringModel);
+    scoringModel = newScoringModel;
+    // The cached candidates were ranked by the old model.
+    matchCandidateCache.clear();
+    return scoringModel;
+  }
+
+  public ScoringModel getScoringModel() {
+    return scoringModel;
+  }
+
+  /**
+   * Converts between the JSON and binary save file formats. The format of each file is chosen by
+   * its extension. The source can also be a save directory, to export the players in its store.
+   */
+  public static void convertSaveFile(Path sourceFile, Path destinationFile) throws IOException {
+    PlayerMatchmakingData playerMatchmakingData = new PlayerMatchmakingData();
+    if (Files.isDirectory(sourceFile)) {
+      readPlayerStore(sourceFile).values().forEach(playerMatchmakingData::updatePlayer);
+    } else {
+      readSaveFile(playerMatchmakingData, sourceFile);
+    }
+    writeSaveFile(playerMatchmakingData, destinationFile);
+  }
+
+  /**
+   * Reads the players in the store in a save directory, without opening it for writes, for
+   * offline tools.
+   */
+  public static ImmutableSortedMap<Long, PlayerData> readPlayerStore(Path saveDirectory)
+      throws IOException {
+    return KeyValueStore.readEntries(saveDirectory, PLAYER_STORE,
+        PlayerDataStoreSerializer.FORMAT_VERSION, Codec.VAR_LONG, PlayerDataStoreSerializer.CODEC);
   }
 
   public boolean hasPlayerData(long playerId) {
@@ -83,55 +193,121 @@ public class PlayerMatchmakingSystem {
   }
 
   public void updatePlayerData(long playerId, int[] laneRatings) throws IOException {
-    playerMatchmakingData.updatePlayer(playerId, laneRatings);
-    saveToFile(saveFile);
+    updatePlayerData(ImmutableMap.of(playerId, laneRatings));
   }
 
   /**
-   * Returns the top N potential matches.
-   *
-   * Will return an emtpy list if any of the players do not have data. Use {@link #hasPlayerData}
-   * to verify that all players have data before calling this.
+   * Sets the lane strengths of several players with a single durable write. Players who already
+   * have data keep their lane preferences.
    */
-  public ImmutableList<Match> findMatchCandidates(ImmutableSet<Long> allPlayers) {
-    Preconditions.checkState(allPlayers.stream().allMatch(this::hasPlayerData));
-    Preconditions.checkState(allPlayers.size() == 10);
-
-    ImmutableSet<PlayerData> allPlayersData = allPlayers.stream()
-        .map(playerMatchmakingData::getPlayerData)
-        .collect(ImmutableSet.toImmutableSet());
-    Set<Set<PlayerData>> team1Candidates = Sets.combinations(allPlayersData, 5);
+  public void updatePlayerData(ImmutableMap<Long, int[]> laneRatings) throws IOException {
+    ImmutableList.Builder<PlayerData> updatedPlayers = ImmutableList.builder();
+    for (Map.Entry<Long, int[]> entry : laneRatings.entrySet()) {
+      PlayerData existing = playerMatchmakingData.getPlayerData(entry.getKey());
+      updatedPlayers.add(existing == null
+          ? new PlayerData(entry.getKey(), entry.getValue())
+          : existing.withLaneStrengths(entry.getValue()));
+    }
+    commitPlayers(updatedPlayers.build());
+  }
 
-    // Since there are an even number of players; team1Candidates will contain mirrored versions
-    // of themselves. To prevent this, we will choose a player and fix them to one of the teams.
-    PlayerData fixedPlayer = allPlayersData.stream().findFirst().get();
+  /**
+   * Sets the lanes a player prefers, see {@link PlayerData#canPlay}. Both sets empty clears their
+   * preferences. The player must have data.
+   */
+  public void updateLanePreferences(long playerId, Set<Integer> primaryLanes,
+      Set<Integer> secondaryLanes) throws IOException {
+    PlayerData existing = playerMatchmakingData.getPlayerData(playerId);
+    Preconditions.checkArgument(existing != null);
+    commitPlayers(ImmutableList.of(existing.withLanePreferences(primaryLanes, secondaryLanes)));
+  }
 
-    PriorityQueue<Match> potentialMatches = new PriorityQueue<>(
-        Comparator.comparingDouble(match -> -matchStrength(match)));
+  /**
+   * Logs the outcome, and then updates the strengths of each player in the lane they played. See
+   * {@link LaneStrengthLearner}. Returns every player's new data, winners and then losers, each in
+   * lane order.
+   *
+   * Every player must have data, with a known strength in the lane they played.
+   */
+  public ImmutableList<PlayerData> recordMatchOutcome(LaneMatchOutcome outcome)
+      throws IOException {
+    return recordMatchOutcomes(ImmutableList.of(outcome)).get(0);
+  }
 
-    for (Set<PlayerData> playersOnTeam1 : team1Candidates) {
-      if (!playersOnTeam1.contains(fixedPlayer)) {
-        continue;
+  /**
+   * As {@link #recordMatchOutcome} for several outcomes, in order, each updating the strengths
+   * left by those before it. The outcomes are logged with a single durable write, and the
+   * players' new data is journaled with another. Returns the players updated by each outcome.
+   *
+   * If any player is missing, or has an unknown strength in the lane they played, nothing is
+   * recorded.
+   */
+  public ImmutableList<ImmutableList<PlayerData>> recordMatchOutcomes(
+      ImmutableList<LaneMatchOutcome> outcomes) throws IOException {
+    // Players as updated by the outcomes so far, by id.
+    HashMap<Long, PlayerData> updatedPlayers = new HashMap<>();
+    ImmutableList.Builder<ImmutableList<PlayerData>> outcomeUpdatedPlayers =
+        ImmutableList.builder();
+    ImmutableList.Builder<RecordContents> outcomeRecords = ImmutableList.builder();
+    for (LaneMatchOutcome outcome : outcomes) {
+      ImmutableList<PlayerData> winners = lanePlayers(outcome.getWinners(), updatedPlayers);
+      ImmutableList<PlayerData> losers = lanePlayers(outcome.getLosers(), updatedPlayers);
+
+      ImmutableList<PlayerData> players = LaneStrengthLearner.update(winners, losers);
+      for (PlayerData playerData : players) {
+        updatedPlayers.put(playerData.getPlayerId(), playerData);
       }
+      outcomeUpdatedPlayers.add(players);
+      outcomeRecords.add(output -> LaneMatchOutcomeSerializer.write(output, outcome));
+    }
 
-      Set<PlayerData> playersOnTeam2 = Sets.difference(allPlayersData, playersOnTeam1);
-      Match match = evaluateMatch(playersOnTeam1, playersOnTeam2);
-
-      potentialMatches.add(match);
+    outcomeLog.appendAll(outcomeRecords.build());
+    commitPlayers(ImmutableList.copyOf(updatedPlayers.values()));
+    return outcomeUpdatedPlayers.build();
+  }
 
-      if (potentialMatches.size() > CANDIDATE_TEAMS_TO_CONSIDER) {
-        potentialMatches.poll();
-      }
+  /**
+   * Fits the strengths of every player in every lane they have played to the whole outcome log,
+   * starting from, and regularized towards, their current strengths. The fit is spread over
+   * {@param tasks} tasks on {@param executor}.
+   */
+  public LaneStrengthRefit refitLaneStrengths(ExecutorService executor, int tasks)
+      throws IOException, InterruptedException {
+    ImmutableList.Builder<LaneMatchOutcome> outcomes = ImmutableList.builder();
+    outcomeLog.read(
+        (input, formatVersion) -> outcomes.add(LaneMatchOutcomeSerializer.read(input)));
+
+    LaneStrengthRefit refit = LaneStrengthLearner.refit(outcomes.build(), getAllPlayerStats(),
+        executor, tasks);
+    if (!refit.getUpdatedPlayers().isEmpty()) {
+      commitPlayers(refit.getUpdatedPlayers());
     }
+    return refit;
+  }
 
-    ArrayList<Match> finalCandidateMatches = new ArrayList<>();
-    finalCandidateMatches.addAll(potentialMatches);
-    Collections.shuffle(finalCandidateMatches);
+  /**
+   * Returns a few of the top N potential matches, in random order.
+   *
+   * The top matches are cached until any player's data changes, and asking again for the same
+   * players returns the ones not returned yet, without searching again. Only once all have been
+   * returned are they repeated.
+   *
+   * All players must have data. Use {@link #hasPlayerData} to verify that all players have data
+   * before calling this.
+   */
+  public ImmutableList<Match> findMatchCandidates(ImmutableSet<Long> allPlayers,
+      SearchBudget budget) throws InterruptedException {
+    long version = playerMatchmakingData.getVersion();
+    if (!matchCandidateCache.contains(allPlayers, version)) {
+      matchCandidateCache.put(allPlayers, version,
+          findMatches(allPlayers, CANDIDATE_TEAMS_TO_CONSIDER, budget).candidates());
+    }
+    ArrayList<Match> returnList = new ArrayList<>(
+        matchCandidateCache.next(allPlayers, version, CANDIDATE_TEAMS_TO_RETURN).get());
 
     Random random = new Random();
     // Randomly mirror a few matches
-    List<Match> returnList = finalCandidateMatches.subList(0, CANDIDATE_TEAMS_TO_RETURN);
-    for (int i = 0; i < CANDIDATE_TEAMS_TO_RETURN; i++) {
+    for (int i = 0; i < returnList.size(); i++) {
       if (random.nextBoolean()) {
         returnList.set(i, returnList.get(i).mirror());
       }
@@ -141,200 +317,220 @@ public class PlayerMatchmakingSystem {
   }
 
   /**
-   * Arbitrary function to estimate the match strength
+   * Returns the strongest ways of putting each of two fixed teams of five in lanes, with the lane
+   * variance of the match, or empty if either team cannot fill every lane with a player who can
+   * play it. Every player must have data.
    */
-  private double matchStrength(Match match) {
-    return Math.abs(match.getExpectedLaneVariance())
-        + Math.abs(match.getMaxStrengthDiff() / 30.0);
+  public Optional<RoleSuggestion> suggestRoles(ImmutableSet<Long> team1, ImmutableSet<Long> team2) {
+    Preconditions.checkArgument(team1.size() == LaneMatchEvaluator.PLAYERS_PER_TEAM
+        && team2.size() == LaneMatchEvaluator.PLAYERS_PER_TEAM);
+    Preconditions.checkArgument(Collections.disjoint(team1, team2));
+    Preconditions.checkArgument(team1.stream().allMatch(this::hasPlayerData)
+        && team2.stream().allMatch(this::hasPlayerData));
+
+    return new LaneMatchEvaluator(scoringModel).suggestRoles(teamPlayers(team1),
+        teamPlayers(team2), ROLE_ASSIGNMENTS_TO_RETURN);
   }
 
-  private Match evaluateMatch(Set<PlayerData> playersOnTeam1,
-      Set<PlayerData> playersOnTeam2) {
-    // 1. For each team determine the top N permutations which maximize the team strength.
-    ImmutableList<TeamConfiguration> topPermutationsForTeam1 = topTeamPermutations(playersOnTeam1,
-        TEAM_PERMUTATIONS_TO_CONSIDER);
-    ImmutableList<TeamConfiguration> topPermutationsForTeam2 = topTeamPermutations(playersOnTeam2,
-        TEAM_PERMUTATIONS_TO_CONSIDER);
-
-    // 2. Calculate the lane variance for all permutations of team 1 vs all permutations of team 2.
-    //    Also calculate the total variance for each team configuration - this is used in step 3.
-    double[][] laneVariances = new double[TEAM_PERMUTATIONS_TO_CONSIDER]
-        [TEAM_PERMUTATIONS_TO_CONSIDER];
-    double[] totalVariancesForTeam1 = new double[TEAM_PERMUTATIONS_TO_CONSIDER];
-    double[] totalVariancesForTeam2 = new double[TEAM_PERMUTATIONS_TO_CONSIDER];
-
-    for (int team1Index = 0; team1Index < TEAM_PERMUTATIONS_TO_CONSIDER; team1Index++) {
-      for (int team2Index = 0; team2Index < TEAM_PERMUTATIONS_TO_CONSIDER; team2Index++) {
-        double laneVariance = calculateLaneVariance(
-            topPermutationsForTeam1.get(team1Index),
-            topPermutationsForTeam2.get(team2Index));
-        laneVariances[team1Index][team2Index] = laneVariance;
-        totalVariancesForTeam1[team1Index] += laneVariance;
-        totalVariancesForTeam2[team2Index] += laneVariance;
-      }
-    }
-
-    // 3. For each permutation, use the totalVariance to determine a probability function that
-    //    represents the probability that the team will pick that permutation.
-    //    To calculate the probability function, first we normalize the totalVariances.
+  /**
+   * Returns the best splits of the players into two teams of five, by {@link
+   * ScoringModel#matchStrength}. Only splits where each team can fill every lane with a player who
+   * can play it are considered, so there may be none. Every player must have data.
+   */
+  @Override
+  public SearchResult<Match> findMatches(ImmutableSet<Long> roster, int candidatesToKeep,
+      SearchBudget budget) throws InterruptedException {
+    Preconditions.checkArgument(roster.stream().allMatch(this::hasPlayerData));
+    Preconditions.checkArgument(roster.size() == PLAYERS_PER_MATCH);
 
-    double minTotalVarianceTeam1 = Arrays.stream(totalVariancesForTeam1).min().getAsDouble();
-    double maxTotalVarianceTeam2 = Arrays.stream(totalVariancesForTeam2).max().getAsDouble();
+    ImmutableList<PlayerData> allPlayersData = roster.stream()
+        .map(playerMatchmakingData::getPlayerData)
+        .collect(ImmutableList.toImmutableList());
+    return searchStrategy.search(new LaneSplitEvaluator(allPlayersData, scoringModel),
+        candidatesToKeep, budget);
+  }
 
-    double[] probabilityDistributionTeam1 = new double[TEAM_PERMUTATIONS_TO_CONSIDER];
-    double[] probabilityDistributionTeam2 = new double[TEAM_PERMUTATIONS_TO_CONSIDER];
+  private ImmutableList<PlayerData> teamPlayers(ImmutableSet<Long> team) {
+    return team.stream()
+        .map(playerMatchmakingData::getPlayerData)
+        .collect(ImmutableList.toImmutableList());
+  }
 
-    for (int i = 0; i < TEAM_PERMUTATIONS_TO_CONSIDER; i++) {
-      probabilityDistributionTeam1[i] = totalVariancesForTeam1[i] - minTotalVarianceTeam1;
-      probabilityDistributionTeam2[i] = maxTotalVarianceTeam2 - totalVariancesForTeam2[i];
+  /**
+   * Returns the team's players in lane order, taking those in {@param updatedPlayers} from there
+   * rather than from the current data.
+   */
+  private ImmutableList<PlayerData> lanePlayers(ImmutableList<Long> team,
+      Map<Long, PlayerData> updatedPlayers) {
+    ImmutableList.Builder<PlayerData> lanePlayers = ImmutableList.builder();
+    for (int laneId = 0; laneId < team.size(); laneId++) {
+      PlayerData playerData = updatedPlayers.getOrDefault(team.get(laneId),
+          playerMatchmakingData.getPlayerData(team.get(laneId)));
+      Preconditions.checkArgument(playerData != null
+          && playerData.getLaneStrength(laneId) != Integer.MIN_VALUE);
+      lanePlayers.add(playerData);
     }
+    return lanePlayers.build();
+  }
 
-    double probabilitySumTeam1 = Arrays.stream(probabilityDistributionTeam1).sum();
-    double probabilitySumTeam2 = Arrays.stream(probabilityDistributionTeam2).sum();
-
-    for (int i = 0; i < TEAM_PERMUTATIONS_TO_CONSIDER; i++) {
-      probabilityDistributionTeam1[i] /= probabilitySumTeam1;
-      probabilityDistributionTeam2[i] /= probabilitySumTeam2;
-    }
+  private void loadFromFile(Path file) throws IOException {
+    logger.info("Loading from save file, {}.", file);
+    readSaveFile(playerMatchmakingData, file);
+    logger.info("Finished loading from save file, {}.", file);
+  }
 
-    // If for some reason the probability sum is 0, then all are equally likely.
-    if (probabilitySumTeam1 < Double.MIN_VALUE) {
-      for (int i = 0; i < TEAM_PERMUTATIONS_TO_CONSIDER; i++) {
-        probabilityDistributionTeam1[i] = 1.0 / TEAM_PERMUTATIONS_TO_CONSIDER;
-      }
+  /**
+   * Writes the new data of players changed together to the store as one batch, and only then
+   * applies it.
+   */
+  private void commitPlayers(ImmutableList<PlayerData> updatedPlayers) throws IOException {
+    WriteBatch<Long, PlayerData> batch = WriteBatch.create();
+    for (PlayerData playerData : updatedPlayers) {
+      batch.put(playerData.getPlayerId(), playerData);
     }
-    if (probabilitySumTeam2 < Double.MIN_VALUE) {
-      for (int i = 0; i < TEAM_PERMUTATIONS_TO_CONSIDER; i++) {
-        probabilityDistributionTeam2[i] = 1.0 / TEAM_PERMUTATIONS_TO_CONSIDER;
-      }
+    playerStore.write(batch);
+    for (PlayerData playerData : updatedPlayers) {
+      playerMatchmakingData.updatePlayer(playerData);
     }
+  }
 
-    // 4. Using the probability functions, calculate the expected variance by assuming that the
-    //    probability that each team picks their respective permutation is independent.
-    //    (ie. we can multiply the probabilities to determine the probability of the two
-    //         teams facing with those particular permutations).
-    double expectedVariance = 0.0;
-    for (int team1Index = 0; team1Index < TEAM_PERMUTATIONS_TO_CONSIDER; team1Index++) {
-      for (int team2Index = 0; team2Index < TEAM_PERMUTATIONS_TO_CONSIDER; team2Index++) {
-        double probabilityOfOccurring = probabilityDistributionTeam1[team1Index]
-            * probabilityDistributionTeam2[team2Index];
-        expectedVariance += probabilityOfOccurring * laneVariances[team1Index][team2Index];
-      }
+  /**
+   * Moves the players saved before the store into it: the binary save file, or else the JSON
+   * one, with the journal replayed over it. The save files are left in place, but the journal is
+   * deleted once the store has the players, so it is not replayed over stale data later.
+   */
+  private void migrateToPlayerStore() throws IOException {
+    if (Files.exists(saveFile)) {
+      loadFromFile(saveFile);
+    } else if (Files.exists(legacySaveFile)) {
+      loadFromFile(legacySaveFile);
     }
+    int journalGenerations = playerDataJournal.replay(playerMatchmakingData::updatePlayer);
 
-    // 5. Calculate the other stats.
-    int maxTeamStrengthDiff = topPermutationsForTeam1.get(TEAM_PERMUTATIONS_TO_CONSIDER - 1)
-        .getTeamStrength() -  topPermutationsForTeam2.get(TEAM_PERMUTATIONS_TO_CONSIDER - 1)
-        .getTeamStrength();
-    int averageTeamStrengthDiff =
-        topPermutationsForTeam1.stream().mapToInt(TeamConfiguration::getTeamStrength).sum() -
-            topPermutationsForTeam2.stream().mapToInt(TeamConfiguration::getTeamStrength).sum();
-
-    return new Match(ImmutableList.copyOf(playersOnTeam1), ImmutableList.copyOf(playersOnTeam2),
-        maxTeamStrengthDiff, expectedVariance, averageTeamStrengthDiff);
+    if (playerMatchmakingData.getAllPlayerStats().isEmpty()) {
+      return;
+    }
+    logger.info("Migrating {} LoL players to their store.",
+        playerMatchmakingData.getAllPlayerStats().size());
+    WriteBatch<Long, PlayerData> batch = WriteBatch.create();
+    playerMatchmakingData.getAllPlayerStats().forEach(batch::put);
+    playerStore.write(batch);
+    playerStore.compact();
+    if (journalGenerations > 0) {
+      playerDataJournal.deleteAllGenerations();
+    }
   }
 
-  private double calculateLaneVariance(TeamConfiguration team1, TeamConfiguration team2) {
-    int squareVariance = 0;
-    for (int laneId = 0; laneId < 5; laneId++) {
-      int strengthDiff = team1.players.get(laneId).getLaneStrength(laneId)
-          - team2.players.get(laneId).getLaneStrength(laneId);
-      int squareDiff = strengthDiff * strengthDiff * LANE_WEIGHTS[laneId];
-      if (strengthDiff > 0) {
-        squareVariance += squareDiff;
-      } else {
-        squareVariance -= squareDiff;
+  private static void readSaveFile(PlayerMatchmakingData playerMatchmakingData, Path file)
+      throws IOException {
+    if (isLegacySaveFile(file)) {
+      try (BufferedReader bufferedReader = Files.newBufferedReader(file)) {
+        playerMatchmakingData.load(bufferedReader);
       }
-    }
-    // Special cross-lane variance for Support <-> Bot
-    {
-      int strengthDiff = team1.players.get(3).getLaneStrength(3)
-          - team2.players.get(4).getLaneStrength(4);
-      int squareDiff = strengthDiff * strengthDiff * LANE_WEIGHTS[5];
-      if (strengthDiff > 0) {
-        squareVariance += squareDiff;
-      } else {
-        squareVariance -= squareDiff;
-      }
-    }
-    {
-      int strengthDiff = team1.players.get(4).getLaneStrength(4)
-          - team2.players.get(3).getLaneStrength(3);
-      int squareDiff = strengthDiff * strengthDiff * LANE_WEIGHTS[6];
-      if (strengthDiff > 0) {
-        squareVariance += squareDiff;
-      } else {
-        squareVariance -= squareDiff;
+    } else {
+      try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(file))) {
+        playerMatchmakingData.load(inputStream);
       }
     }
+  }
 
-    double absVariance = Math.sqrt((double) Math.abs(squareVariance) / LANE_WEIGHT_SUM);
-    if (squareVariance > 0) {
-      return absVariance;
+  private static void writeSaveFile(PlayerMatchmakingData playerMatchmakingData, Path file)
+      throws IOException {
+    if (isLegacySaveFile(file)) {
+      try (BufferedWriter bufferedWriter = Files.newBufferedWriter(file)) {
+        playerMatchmakingData.save(bufferedWriter);
+      }
+    } else {
+      try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(file))) {
+        playerMatchmakingData.save(outputStream);
+      }
     }
-    return -absVariance;
   }
 
-  private ImmutableList<TeamConfiguration> topTeamPermutations(Set<PlayerData> players,
-      int numberOfPermutations) {
-    PriorityQueue<TeamConfiguration> potentialTeamConfigurations = new PriorityQueue<>(
-        Comparator.comparingInt(TeamConfiguration::getTeamStrength));
+  private static boolean isLegacySaveFile(Path file) {
+    return file.getFileName().toString().endsWith(LEGACY_SAVE_FILE_EXTENSION);
+  }
 
-    Collection<List<PlayerData>> teamPermutations = Collections2.permutations(players);
+  /**
+   * Scores the splits of ten players with a {@link LaneMatchEvaluator}. Each worker of a search
+   * gets its own, so that they can reuse their working arrays without sharing them.
+   * <p>
+   * Splits where a team cannot fill every lane are ruled out from the lanes each player can play
+   * alone, before any of their permutations are looked at.
+   */
+  private static class LaneSplitEvaluator implements SplitEvaluator<Match> {
 
-    for (List<PlayerData> teamPermutation: teamPermutations) {
-      TeamConfiguration teamConfiguration = TeamConfiguration.create(teamPermutation);
-      potentialTeamConfigurations.add(teamConfiguration);
+    private final ImmutableList<PlayerData> players;
+    private final ScoringModel scoringModel;
+    // Per player, a bitmask of the lanes they can play.
+    private final int[] playableLanes;
+    private final LaneMatchEvaluator laneMatchEvaluator;
 
-      if (potentialTeamConfigurations.size() > numberOfPermutations) {
-        potentialTeamConfigurations.poll();
-      }
+    private LaneSplitEvaluator(ImmutableList<PlayerData> players, ScoringModel scoringModel) {
+      this(players, scoringModel, playableLanes(players));
     }
 
-    return ImmutableList.copyOf(potentialTeamConfigurations);
-  }
-
-  private void loadFromFile(Path file) throws IOException {
-    logger.info("Loading from save file, {}.", file);
-    try (BufferedReader bufferedReader = Files.newBufferedReader(file)) {
-      playerMatchmakingData.load(bufferedReader);
+    private LaneSplitEvaluator(ImmutableList<PlayerData> players, ScoringModel scoringModel,
+        int[] playableLanes) {
+      this.players = players;
+      this.scoringModel = scoringModel;
+      this.playableLanes = playableLanes;
+      this.laneMatchEvaluator = new LaneMatchEvaluator(scoringModel);
     }
-    logger.info("Finished loading from save file, {}.", file);
-  }
 
-  private void saveToFile(Path file) throws IOException {
-    Files.deleteIfExists(file);
-    logger.info("Saving to save file, {}.", file);
-    try (BufferedWriter bufferedWriter = Files.newBufferedWriter(file)) {
-      playerMatchmakingData.save(bufferedWriter);
+    @Override
+    public SplitEvaluator<Match> forWorker() {
+      return new LaneSplitEvaluator(players, scoringModel, playableLanes);
     }
-    logger.info("Finished saving to save file, {}.", file);
-  }
 
-  private static class TeamConfiguration {
-    private final List<PlayerData> players;
-    private final int teamStrength;
-
-    public static TeamConfiguration create(List<PlayerData> players) {
-      int teamStrength = players.get(0).getLaneStrength(0) +
-          players.get(1).getLaneStrength(1) +
-          players.get(2).getLaneStrength(2) +
-          players.get(3).getLaneStrength(3) +
-          players.get(4).getLaneStrength(4);
-      return new TeamConfiguration(players, teamStrength);
+    @Override
+    public int playerCount() {
+      return players.size();
     }
 
-    private TeamConfiguration(List<PlayerData> players, int teamStrength) {
-      this.players = players;
-      this.teamStrength = teamStrength;
+    @Override
+    public Optional<Match> evaluate(long team1Mask) {
+      int team1LaneSets = LaneAssignmentSolver.NO_LANES_FILLED;
+      int team2LaneSets = LaneAssignmentSolver.NO_LANES_FILLED;
+      for (int i = 0; i < players.size(); i++) {
+        if ((team1Mask & (1L << i)) != 0) {
+          team1LaneSets = LaneAssignmentSolver.fillLanes(team1LaneSets, playableLanes[i]);
+        } else {
+          team2LaneSets = LaneAssignmentSolver.fillLanes(team2LaneSets, playableLanes[i]);
+        }
+      }
+      if (!LaneAssignmentSolver.canFillLanes(team1LaneSets)
+          || !LaneAssignmentSolver.canFillLanes(team2LaneSets)) {
+        return Optional.empty();
+      }
+
+      ImmutableList.Builder<PlayerData> team1 = ImmutableList.builder();
+      ImmutableList.Builder<PlayerData> team2 = ImmutableList.builder();
+      for (int i = 0; i < players.size(); i++) {
+        if ((team1Mask & (1L << i)) != 0) {
+          team1.add(players.get(i));
+        } else {
+          team2.add(players.get(i));
+        }
+      }
+      return laneMatchEvaluator.evaluate(team1.build(), team2.build());
     }
 
-    public List<PlayerData> getPlayers() {
-      return players;
+    @Override
+    public double score(Match match) {
+      return scoringModel.matchStrength(match);
     }
 
-    public int getTeamStrength() {
-      return teamStrength;
+    private static int[] playableLanes(ImmutableList<PlayerData> players) {
+      int[] playableLanes = new int[players.size()];
+      for (int i = 0; i < players.size(); i++) {
+        for (int laneId = 0; laneId < LaneMatchEvaluator.PLAYERS_PER_TEAM; laneId++) {
+          if (players.get(i).canPlay(laneId)) {
+            playableLanes[i] |= 1 << laneId;
+          }
+        }
+      }
+      return playableLanes;
     }
   }
 }
@@ -0,0 +1,54 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking;
+
+import com.google.common.collect.ImmutableList;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The strongest ways for each of two fixed teams to be put in lanes, and how even the match is.
+ */
+@Immutable
+public class RoleSuggestion {
+
+  private final ImmutableList<LaneAssignment> team1Assignments;
+  private final ImmutableList<LaneAssignment> team2Assignments;
+  private final double expectedLaneVariance;
+  private final double bestLaneVariance;
+
+  public RoleSuggestion(ImmutableList<LaneAssignment> team1Assignments,
+      ImmutableList<LaneAssignment> team2Assignments, double expectedLaneVariance,
+      double bestLaneVariance) {
+    this.team1Assignments = team1Assignments;
+    this.team2Assignments = team2Assignments;
+    this.expectedLaneVariance = expectedLaneVariance;
+    this.bestLaneVariance = bestLaneVariance;
+  }
+
+  /**
+   * Returns team 1's strongest lane assignments, strongest first.
+   */
+  public ImmutableList<LaneAssignment> getTeam1Assignments() {
+    return team1Assignments;
+  }
+
+  /**
+   * Returns team 2's strongest lane assignments, strongest first.
+   */
+  public ImmutableList<LaneAssignment> getTeam2Assignments() {
+    return team2Assignments;
+  }
+
+  /**
+   * Returns the lane variance expected over the lanes each team might pick, as for a {@link
+   * Match}.
+   */
+  public double getExpectedLaneVariance() {
+    return expectedLaneVariance;
+  }
+
+  /**
+   * Returns the lane variance if both teams play their strongest lane assignment.
+   */
+  public double getBestLaneVariance() {
+    return bestLaneVariance;
+  }
+}
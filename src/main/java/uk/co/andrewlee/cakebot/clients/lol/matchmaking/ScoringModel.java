@@ -0,0 +1,177 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * How matchmaking scores a match, so that it can be tuned without a rebuild.
+ * <p>
+ * The lane variance of two teams in given lanes compares each lane's strengths, and the bot and
+ * support strengths across the teams, see {@link #laneVariance}. The strength of a match, where
+ * lower is more even, then adds the size of its expected lane variance to the size of the
+ * difference between each team's strongest lanes, each with its own weight.
+ * <p>
+ * Models are saved as JSON, and can be fitted to recorded outcomes with {@code
+ * ScoringModelFitter}.
+ */
+@Immutable
+public class ScoringModel {
+
+  public static final ScoringModel DEFAULT = create(ImmutableList.of(7, 10, 10, 3, 4),
+      ImmutableList.of(3, 3), 1.0, 1.0 / 30.0);
+
+  private static final int NUMBER_OF_LANES = 5;
+  private static final int NUMBER_OF_CROSS_LANES = 2;
+  private static final int BOT_LANE = 3;
+  private static final int SUPPORT_LANE = 4;
+  private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+  private final ImmutableList<Integer> laneWeights;
+  private final ImmutableList<Integer> crossLaneWeights;
+  private final double laneVarianceWeight;
+  private final double strengthDiffWeight;
+  // The lane weights and then the cross lane weights, for the inner loop.
+  private final int[] weights;
+  private final int weightSum;
+
+  /**
+   * @param laneWeights the weight of each lane, in lane order.
+   * @param crossLaneWeights the weight of team 1's bot against team 2's support, and of team 1's
+   * support against team 2's bot.
+   * @param laneVarianceWeight the weight of the expected lane variance in the match strength.
+   * @param strengthDiffWeight the weight of the difference in the teams' strongest lanes in the
+   * match strength.
+   */
+  public static ScoringModel create(List<Integer> laneWeights, List<Integer> crossLaneWeights,
+      double laneVarianceWeight, double strengthDiffWeight) throws IllegalArgumentException {
+    Preconditions.checkArgument(laneWeights.size() == NUMBER_OF_LANES,
+        "There must be a weight for each of the %s lanes.", NUMBER_OF_LANES);
+    Preconditions.checkArgument(crossLaneWeights.size() == NUMBER_OF_CROSS_LANES,
+        "There must be %s cross lane weights.", NUMBER_OF_CROSS_LANES);
+    int[] weights = Ints.concat(Ints.toArray(laneWeights), Ints.toArray(crossLaneWeights));
+    Preconditions.checkArgument(Arrays.stream(weights).allMatch(weight -> weight >= 0)
+        && Arrays.stream(weights).sum() > 0, "Lane weights must be non-negative, and not all 0.");
+    Preconditions.checkArgument(laneVarianceWeight >= 0 && strengthDiffWeight >= 0,
+        "Match strength weights must be non-negative.");
+    return new ScoringModel(ImmutableList.copyOf(laneWeights),
+        ImmutableList.copyOf(crossLaneWeights), laneVarianceWeight, strengthDiffWeight, weights);
+  }
+
+  private ScoringModel(ImmutableList<Integer> laneWeights, ImmutableList<Integer> crossLaneWeights,
+      double laneVarianceWeight, double strengthDiffWeight, int[] weights) {
+    this.laneWeights = laneWeights;
+    this.crossLaneWeights = crossLaneWeights;
+    this.laneVarianceWeight = laneVarianceWeight;
+    this.strengthDiffWeight = strengthDiffWeight;
+    this.weights = weights;
+    this.weightSum = Arrays.stream(weights).sum();
+  }
+
+  /**
+   * @throws JsonParseException if the model is malformed.
+   */
+  public static ScoringModel load(Reader reader) throws JsonParseException {
+    SerializedModel serializedModel = GSON.fromJson(reader, SerializedModel.class);
+    if (serializedModel == null || serializedModel.laneWeights == null
+        || serializedModel.crossLaneWeights == null || serializedModel.laneWeights.contains(null)
+        || serializedModel.crossLaneWeights.contains(null)) {
+      throw new JsonParseException("Scoring model is missing its lane weights.");
+    }
+    try {
+      return create(serializedModel.laneWeights, serializedModel.crossLaneWeights,
+          serializedModel.laneVarianceWeight, serializedModel.strengthDiffWeight);
+    } catch (IllegalArgumentException e) {
+      throw new JsonParseException(e.getMessage(), e);
+    }
+  }
+
+  public void save(Writer writer) {
+    GSON.toJson(new SerializedModel(laneWeights, crossLaneWeights, laneVarianceWeight,
+        strengthDiffWeight), writer);
+  }
+
+  public ImmutableList<Integer> getLaneWeights() {
+    return laneWeights;
+  }
+
+  public ImmutableList<Integer> getCrossLaneWeights() {
+    return crossLaneWeights;
+  }
+
+  public double getLaneVarianceWeight() {
+    return laneVarianceWeight;
+  }
+
+  public double getStrengthDiffWeight() {
+    return strengthDiffWeight;
+  }
+
+  /**
+   * Returns the signed, weighted root mean square difference between two teams' lanes, given the
+   * strength of the player in each lane at that lane. Positive when team 1 is stronger.
+   */
+  public double laneVariance(int[] team1Lanes, int[] team2Lanes) {
+    int squareVariance = 0;
+    for (int laneId = 0; laneId < NUMBER_OF_LANES; laneId++) {
+      squareVariance += signedSquareDiff(team1Lanes[laneId], team2Lanes[laneId],
+          weights[laneId]);
+    }
+    // Special cross-lane variance for Support <-> Bot
+    squareVariance += signedSquareDiff(team1Lanes[BOT_LANE], team2Lanes[SUPPORT_LANE],
+        weights[NUMBER_OF_LANES]);
+    squareVariance += signedSquareDiff(team1Lanes[SUPPORT_LANE], team2Lanes[BOT_LANE],
+        weights[NUMBER_OF_LANES + 1]);
+
+    double absVariance = Math.sqrt((double) Math.abs(squareVariance) / weightSum);
+    if (squareVariance > 0) {
+      return absVariance;
+    }
+    return -absVariance;
+  }
+
+  /**
+   * Estimates how uneven a match is. Lower is more even.
+   */
+  public double matchStrength(Match match) {
+    return laneVarianceWeight * Math.abs(match.getExpectedLaneVariance())
+        + strengthDiffWeight * Math.abs(match.getMaxStrengthDiff());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("lane weights %s, cross lane weights %s, lane variance weight %.4f, "
+            + "strength difference weight %.4f", laneWeights, crossLaneWeights,
+        laneVarianceWeight, strengthDiffWeight);
+  }
+
+  private static int signedSquareDiff(int team1Strength, int team2Strength, int weight) {
+    int strengthDiff = team1Strength - team2Strength;
+    int squareDiff = strengthDiff * strengthDiff * weight;
+    return strengthDiff > 0 ? squareDiff : -squareDiff;
+  }
+
+  public static class SerializedModel {
+
+    public List<Integer> laneWeights;
+    public List<Integer> crossLaneWeights;
+    public double laneVarianceWeight;
+    public double strengthDiffWeight;
+
+    public SerializedModel(List<Integer> laneWeights, List<Integer> crossLaneWeights,
+        double laneVarianceWeight, double strengthDiffWeight) {
+      this.laneWeights = laneWeights;
+      this.crossLaneWeights = crossLaneWeights;
+      this.laneVarianceWeight = laneVarianceWeight;
+      this.strengthDiffWeight = strengthDiffWeight;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking.serializers;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.LaneMatchOutcome;
+import uk.co.andrewlee.cakebot.persistence.CorruptSnapshotException;
+import uk.co.andrewlee.cakebot.persistence.RecordLog;
+import uk.co.andrewlee.cakebot.persistence.SnapshotInput;
+import uk.co.andrewlee.cakebot.persistence.SnapshotOutput;
+
+/**
+ * Record format for the LoL match outcome log. See {@link RecordLog}.
+ * <p>
+ * Each record is the time of the outcome, then the winners and the losers, each in lane order.
+ */
+public class LaneMatchOutcomeSerializer {
+
+  public static final int FORMAT_VERSION = 1;
+  private static final int NUMBER_OF_LANES = 5;
+
+  public static void write(SnapshotOutput output, LaneMatchOutcome outcome) throws IOException {
+    output.writeVarLong(outcome.getTimestampMillis());
+    for (long playerId : outcome.getWinners()) {
+      output.writeVarLong(playerId);
+    }
+    for (long playerId : outcome.getLosers()) {
+      output.writeVarLong(playerId);
+    }
+  }
+
+  public static LaneMatchOutcome read(SnapshotInput input) throws IOException {
+    long timestampMillis = input.readVarLong();
+    ImmutableList<Long> winners = readTeam(input);
+    ImmutableList<Long> losers = readTeam(input);
+    try {
+      return LaneMatchOutcome.create(winners, losers, timestampMillis);
+    } catch (IllegalArgumentException e) {
+      throw new CorruptSnapshotException("Invalid match outcome in log.", e);
+    }
+  }
+
+  private static ImmutableList<Long> readTeam(SnapshotInput input) throws IOException {
+    ImmutableList.Builder<Long> team = ImmutableList.builder();
+    for (int laneId = 0; laneId < NUMBER_OF_LANES; laneId++) {
+      team.add(input.readVarLong());
+    }
+    return team.build();
+  }
+}
@@ -0,0 +1,27 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking.serializers;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.PlayerData;
+import uk.co.andrewlee.cakebot.persistence.RecordLog;
+import uk.co.andrewlee.cakebot.persistence.SnapshotInput;
+
+/**
+ * Record format for the LoL player journal, which is only read now, to migrate into the player
+ * store. See {@link RecordLog}.
+ * <p>
+ * Each record is the new data of every player changed together, as a count and then each player
+ * as in {@link PlayerDataSnapshotSerializer}.
+ */
+public class PlayerDataJournalSerializer {
+
+  public static final int FORMAT_VERSION = 1;
+
+  public static void read(SnapshotInput input, Consumer<PlayerData> playerDataConsumer)
+      throws IOException {
+    int numberOfPlayers = input.readCount();
+    for (int i = 0; i < numberOfPlayers; i++) {
+      playerDataConsumer.accept(PlayerDataSnapshotSerializer.readPlayer(input, true));
+    }
+  }
+}
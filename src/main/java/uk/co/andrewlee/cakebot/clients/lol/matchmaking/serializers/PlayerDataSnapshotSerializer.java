@@ -0,0 +1,115 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking.serializers;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Consumer;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.PlayerData;
+import uk.co.andrewlee.cakebot.persistence.CorruptSnapshotException;
+import uk.co.andrewlee.cakebot.persistence.SnapshotInput;
+import uk.co.andrewlee.cakebot.persistence.SnapshotOutput;
+import uk.co.andrewlee.cakebot.persistence.SnapshotReader;
+import uk.co.andrewlee.cakebot.persistence.SnapshotWriter;
+
+/**
+ * Binary snapshot format for LoL matchmaking data.
+ * <p>
+ * Lane strengths are zig-zag varints, so that unknown lanes ({@link Integer#MIN_VALUE}) survive
+ * the round trip. From version 2, each player's primary and then secondary lanes follow, each as
+ * a bitmask of lane ids.
+ */
+public class PlayerDataSnapshotSerializer {
+
+  private static final int FORMAT_VERSION = 2;
+  private static final int FIRST_VERSION_WITH_LANE_PREFERENCES = 2;
+  private static final int NUMBER_OF_LANES = 5;
+
+  private static final int PLAYERS_SECTION = 1;
+
+  public static void write(OutputStream outputStream, Collection<PlayerData> players)
+      throws IOException {
+    SnapshotWriter snapshotWriter = SnapshotWriter.create(outputStream, FORMAT_VERSION);
+
+    snapshotWriter.writeSection(PLAYERS_SECTION, output -> {
+      output.writeVarInt(players.size());
+      for (PlayerData playerData : players) {
+        writePlayer(output, playerData);
+      }
+    });
+
+    snapshotWriter.finish();
+  }
+
+  public static void read(InputStream inputStream, Consumer<PlayerData> playerDataConsumer)
+      throws IOException {
+    SnapshotReader snapshotReader = SnapshotReader.open(inputStream, FORMAT_VERSION);
+
+    SnapshotInput players = snapshotReader.readSection(PLAYERS_SECTION);
+    int numberOfPlayers = players.readCount();
+    for (int i = 0; i < numberOfPlayers; i++) {
+      playerDataConsumer.accept(readPlayer(players,
+          snapshotReader.getFormatVersion() >= FIRST_VERSION_WITH_LANE_PREFERENCES));
+    }
+
+    snapshotReader.readEnd();
+  }
+
+  /**
+   * Writes a player as in the latest snapshot format. Also used by {@link
+   * PlayerDataJournalSerializer} and {@link PlayerDataStoreSerializer}.
+   */
+  static void writePlayer(SnapshotOutput output, PlayerData playerData) throws IOException {
+    output.writeVarLong(playerData.getPlayerId());
+    for (int laneId = 0; laneId < NUMBER_OF_LANES; laneId++) {
+      output.writeSignedVarInt(playerData.getLaneStrength(laneId));
+    }
+    output.writeVarInt(laneMask(playerData.getPrimaryLanes()));
+    output.writeVarInt(laneMask(playerData.getSecondaryLanes()));
+  }
+
+  static PlayerData readPlayer(SnapshotInput input, boolean withLanePreferences)
+      throws IOException {
+    long playerId = input.readVarLong();
+    int[] laneStrengths = new int[NUMBER_OF_LANES];
+    for (int laneId = 0; laneId < NUMBER_OF_LANES; laneId++) {
+      laneStrengths[laneId] = input.readSignedVarInt();
+    }
+    if (!withLanePreferences) {
+      return new PlayerData(playerId, laneStrengths);
+    }
+
+    ImmutableSet<Integer> primaryLanes = readLanes(input);
+    ImmutableSet<Integer> secondaryLanes = readLanes(input);
+    try {
+      return new PlayerData(playerId, laneStrengths, primaryLanes, secondaryLanes);
+    } catch (IllegalArgumentException e) {
+      throw new CorruptSnapshotException("Invalid lane preferences in snapshot.", e);
+    }
+  }
+
+  private static int laneMask(Set<Integer> lanes) {
+    int laneMask = 0;
+    for (int laneId : lanes) {
+      laneMask |= 1 << laneId;
+    }
+    return laneMask;
+  }
+
+  private static ImmutableSet<Integer> readLanes(SnapshotInput input) throws IOException {
+    int laneMask = input.readVarInt();
+    if (laneMask < 0 || laneMask >= 1 << NUMBER_OF_LANES) {
+      throw new CorruptSnapshotException(String.format("Invalid lane mask %d in snapshot.",
+          laneMask));
+    }
+    ImmutableSet.Builder<Integer> lanes = ImmutableSet.builder();
+    for (int laneId = 0; laneId < NUMBER_OF_LANES; laneId++) {
+      if ((laneMask & (1 << laneId)) != 0) {
+        lanes.add(laneId);
+      }
+    }
+    return lanes.build();
+  }
+}
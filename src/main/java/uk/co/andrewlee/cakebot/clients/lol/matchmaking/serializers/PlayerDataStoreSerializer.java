@@ -0,0 +1,29 @@
+package uk.co.andrewlee.cakebot.clients.lol.matchmaking.serializers;
+
+import java.io.IOException;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.PlayerData;
+import uk.co.andrewlee.cakebot.persistence.Codec;
+import uk.co.andrewlee.cakebot.persistence.KeyValueStore;
+import uk.co.andrewlee.cakebot.persistence.SnapshotInput;
+import uk.co.andrewlee.cakebot.persistence.SnapshotOutput;
+
+/**
+ * Value format for the {@link KeyValueStore} of LoL players, which is keyed by player id. Each
+ * value is the player as in {@link PlayerDataSnapshotSerializer}.
+ */
+public class PlayerDataStoreSerializer {
+
+  public static final int FORMAT_VERSION = 1;
+
+  public static final Codec<PlayerData> CODEC = new Codec<PlayerData>() {
+    @Override
+    public void write(SnapshotOutput output, PlayerData playerData) throws IOException {
+      PlayerDataSnapshotSerializer.writePlayer(output, playerData);
+    }
+
+    @Override
+    public PlayerData read(SnapshotInput input, int formatVersion) throws IOException {
+      return PlayerDataSnapshotSerializer.readPlayer(input, true);
+    }
+  };
+}
@@ -5,7 +5,9 @@ import discord4j.common.util.Snowflake;
 import discord4j.core.object.entity.Member;
 import discord4j.core.object.entity.Message;
 import discord4j.core.object.entity.User;
+import discord4j.core.object.entity.channel.MessageChannel;
 import discord4j.rest.util.Permission;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.stream.Collectors;
 
@@ -45,6 +47,24 @@ public class DiscordHelper {
     return originalMessage.getChannel().flatMap(channel -> channel.createMessage(reply)).block();
   }
 
+  /**
+   * Posts to a channel without a message to reply to, eg. from a scheduled task.
+   */
+  public static Message sendMessage(BotSystem botSystem, long channelId, String content) {
+    return botSystem.getDiscordClient().getChannelById(Snowflake.of(channelId))
+        .ofType(MessageChannel.class)
+        .flatMap(channel -> channel.createMessage(content))
+        .block();
+  }
+
+  public static Message respondWithFile(Message originalMessage, String reply, String fileName,
+      InputStream file) {
+    return originalMessage.getChannel()
+        .flatMap(channel -> channel.createMessage(spec -> spec.setContent(reply)
+            .addFile(fileName, file)))
+        .block();
+  }
+
   public static boolean messageIsFromAdmin(Message message) {
     Boolean isMessageFromAdmin = message.getAuthorAsMember().flatMap(Member::getBasePermissions)
         .map(permissionSet -> permissionSet.contains(Permission.ADMINISTRATOR))
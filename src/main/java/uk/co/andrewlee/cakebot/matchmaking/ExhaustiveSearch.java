@@ -0,0 +1,63 @@
+package uk.co.andrewlee.cakebot.matchmaking;
+
+import com.google.common.base.Preconditions;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * See {@link SearchStrategy#exhaustive}.
+ */
+@Immutable
+class ExhaustiveSearch implements SearchStrategy {
+
+  static final ExhaustiveSearch INSTANCE = new ExhaustiveSearch();
+
+  // Splits between checks of the budget.
+  static final int BUDGET_CHECK_INTERVAL = 64;
+
+  private ExhaustiveSearch() {
+  }
+
+  @Override
+  public <C> SearchResult<C> search(SplitEvaluator<C> evaluator, int candidatesToKeep,
+      SearchBudget budget) {
+    Preconditions.checkArgument(candidatesToKeep >= 1);
+    SplitEnumeration splits = SplitEnumeration.create(evaluator.playerCount(),
+        evaluator.team1Size());
+    TopCandidates<C> topCandidates = new TopCandidates<>(candidatesToKeep);
+
+    long evaluated = searchRange(evaluator.forWorker(), splits, 0, splits.splitCount(),
+        topCandidates, budget);
+    return new SearchResult<>(topCandidates.bestFirst(), evaluated == splits.splitCount(),
+        evaluated, budget.elapsed());
+  }
+
+  /**
+   * Offers the splits numbered from {@param from} up to {@param to} to {@param topCandidates},
+   * stopping early if the budget runs out. Returns the number of splits evaluated.
+   */
+  static <C> long searchRange(SplitEvaluator<C> evaluator, SplitEnumeration splits, long from,
+      long to, TopCandidates<C> topCandidates, SearchBudget budget) {
+    if (from >= to) {
+      return 0;
+    }
+
+    long split = splits.split(from);
+    long index = from;
+    while (true) {
+      if ((index - from) % BUDGET_CHECK_INTERVAL == 0 && budget.isExhausted()) {
+        break;
+      }
+
+      long team1Mask = split;
+      evaluator.evaluate(team1Mask).ifPresent(candidate -> topCandidates.offer(
+          new ScoredCandidate<>(team1Mask, evaluator.score(candidate), candidate)));
+
+      index++;
+      if (index == to) {
+        break;
+      }
+      split = splits.next(split);
+    }
+    return index - from;
+  }
+}
@@ -0,0 +1,95 @@
+package uk.co.andrewlee.cakebot.matchmaking;
+
+import com.google.common.base.Preconditions;
+import java.util.Optional;
+import java.util.Random;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * See {@link SearchStrategy#heuristic}. Each start deals the players into teams at random, then
+ * tries every swap of one player from each team, taking any which improves the score, until a
+ * full pass finds none.
+ */
+@NotThreadSafe
+class HeuristicSearch implements SearchStrategy {
+
+  private final int restarts;
+  private final Random random;
+
+  static HeuristicSearch create(int restarts, Random random) {
+    Preconditions.checkArgument(restarts >= 1);
+    return new HeuristicSearch(restarts, random);
+  }
+
+  private HeuristicSearch(int restarts, Random random) {
+    this.restarts = restarts;
+    this.random = random;
+  }
+
+  @Override
+  public <C> SearchResult<C> search(SplitEvaluator<C> searchEvaluator, int candidatesToKeep,
+      SearchBudget budget) {
+    Preconditions.checkArgument(candidatesToKeep >= 1);
+    SplitEvaluator<C> evaluator = searchEvaluator.forWorker();
+    int playerCount = evaluator.playerCount();
+    SplitEnumeration splits = SplitEnumeration.create(playerCount, evaluator.team1Size());
+    long allPlayersMask = playerCount == 64 ? -1L : (1L << playerCount) - 1;
+    TopCandidates<C> topCandidates = new TopCandidates<>(candidatesToKeep);
+    long evaluated = 0;
+
+    for (int start = 0; start < restarts && !budget.isExhausted(); start++) {
+      long team1Mask = randomSplit(playerCount, evaluator.team1Size());
+      double score = Double.POSITIVE_INFINITY;
+      Optional<C> candidate = evaluator.evaluate(team1Mask);
+      evaluated++;
+      if (candidate.isPresent()) {
+        score = evaluator.score(candidate.get());
+        topCandidates.offer(new ScoredCandidate<>(splits.canonical(team1Mask, allPlayersMask),
+            score, candidate.get()));
+      }
+
+      boolean improved = true;
+      while (improved && !budget.isExhausted()) {
+        improved = false;
+        for (int team1Player = 0; team1Player < playerCount && !improved; team1Player++) {
+          if ((team1Mask & (1L << team1Player)) == 0) {
+            continue;
+          }
+          for (int team2Player = 0; team2Player < playerCount; team2Player++) {
+            if ((team1Mask & (1L << team2Player)) != 0) {
+              continue;
+            }
+
+            long swapped = team1Mask ^ (1L << team1Player) ^ (1L << team2Player);
+            Optional<C> swappedCandidate = evaluator.evaluate(swapped);
+            evaluated++;
+            if (!swappedCandidate.isPresent()) {
+              continue;
+            }
+            double swappedScore = evaluator.score(swappedCandidate.get());
+            topCandidates.offer(new ScoredCandidate<>(splits.canonical(swapped, allPlayersMask),
+                swappedScore, swappedCandidate.get()));
+            if (swappedScore < score) {
+              team1Mask = swapped;
+              score = swappedScore;
+              improved = true;
+              break;
+            }
+          }
+        }
+      }
+    }
+
+    return new SearchResult<>(topCandidates.bestFirst(), false, evaluated, budget.elapsed());
+  }
+
+  private long randomSplit(int playerCount, int team1Size) {
+    long team1Mask = 0;
+    // Floyd's algorithm, choosing team1Size players without repeats.
+    for (int player = playerCount - team1Size; player < playerCount; player++) {
+      int chosen = random.nextInt(player + 1);
+      team1Mask |= (team1Mask & (1L << chosen)) == 0 ? 1L << chosen : 1L << player;
+    }
+    return team1Mask;
+  }
+}
@@ -0,0 +1,21 @@
+package uk.co.andrewlee.cakebot.matchmaking;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Finds the best ways to split a roster of players into two teams, for one game.
+ *
+ * @param <C> the game's description of a split.
+ */
+public interface MatchmakingEngine<C> {
+
+  /**
+   * Returns up to {@param candidatesToKeep} of the best splits of {@param roster}, best first.
+   * The search stops early if {@param budget} runs out, in which case the result is not {@link
+   * SearchResult#isComplete complete}.
+   *
+   * @throws IllegalArgumentException if the game cannot be played by the roster.
+   */
+  SearchResult<C> findMatches(ImmutableSet<Long> roster, int candidatesToKeep,
+      SearchBudget budget) throws InterruptedException;
+}
@@ -0,0 +1,72 @@
+package uk.co.andrewlee.cakebot.matchmaking;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * See {@link SearchStrategy#parallel}. Each task keeps its own best candidates, and they are
+ * merged once every task is done. Ties are broken by split, so the result is the same however
+ * the work was divided.
+ */
+@Immutable
+class ParallelSearch implements SearchStrategy {
+
+  private final ExecutorService executor;
+  private final int tasks;
+
+  static ParallelSearch create(ExecutorService executor, int tasks) {
+    Preconditions.checkArgument(tasks >= 1);
+    return new ParallelSearch(executor, tasks);
+  }
+
+  private ParallelSearch(ExecutorService executor, int tasks) {
+    this.executor = executor;
+    this.tasks = tasks;
+  }
+
+  @Override
+  public <C> SearchResult<C> search(SplitEvaluator<C> evaluator, int candidatesToKeep,
+      SearchBudget budget) throws InterruptedException {
+    Preconditions.checkArgument(candidatesToKeep >= 1);
+    SplitEnumeration splits = SplitEnumeration.create(evaluator.playerCount(),
+        evaluator.team1Size());
+    long splitCount = splits.splitCount();
+    long rangeSize = Math.max(1, (splitCount + tasks - 1) / tasks);
+
+    List<TopCandidates<C>> taskCandidates = new ArrayList<>();
+    List<Callable<Long>> callables = new ArrayList<>();
+    for (long from = 0; from < splitCount; from += rangeSize) {
+      long rangeFrom = from;
+      long rangeTo = Math.min(splitCount, from + rangeSize);
+      TopCandidates<C> topCandidates = new TopCandidates<>(candidatesToKeep);
+      taskCandidates.add(topCandidates);
+      callables.add(() -> ExhaustiveSearch.searchRange(evaluator.forWorker(), splits, rangeFrom,
+          rangeTo, topCandidates, budget));
+    }
+
+    long evaluated = 0;
+    try {
+      for (Future<Long> future : executor.invokeAll(callables)) {
+        evaluated += future.get();
+      }
+    } catch (InterruptedException e) {
+      budget.cancel();
+      throw e;
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+
+    TopCandidates<C> merged = new TopCandidates<>(candidatesToKeep);
+    taskCandidates.forEach(merged::offerAll);
+    return new SearchResult<>(merged.bestFirst(), evaluated == splitCount, evaluated,
+        budget.elapsed());
+  }
+}
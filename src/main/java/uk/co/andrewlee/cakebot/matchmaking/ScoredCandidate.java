@@ -0,0 +1,51 @@
+package uk.co.andrewlee.cakebot.matchmaking;
+
+import java.util.Comparator;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A split found by a {@link SearchStrategy}, with its score.
+ */
+@Immutable
+public class ScoredCandidate<C> {
+
+  /**
+   * Best first. Ties are broken by the split, so that results do not depend on the order splits
+   * were found in.
+   */
+  static final Comparator<ScoredCandidate<?>> BEST_FIRST = Comparator
+      .<ScoredCandidate<?>>comparingDouble(ScoredCandidate::getScore)
+      .thenComparingLong(ScoredCandidate::getTeam1Mask);
+
+  private final long team1Mask;
+  private final double score;
+  private final C candidate;
+
+  /**
+   * For strategies outside this package. {@param team1Mask} must identify the split uniquely.
+   */
+  public static <C> ScoredCandidate<C> create(long team1Mask, double score, C candidate) {
+    return new ScoredCandidate<>(team1Mask, score, candidate);
+  }
+
+  ScoredCandidate(long team1Mask, double score, C candidate) {
+    this.team1Mask = team1Mask;
+    this.score = score;
+    this.candidate = candidate;
+  }
+
+  public long getTeam1Mask() {
+    return team1Mask;
+  }
+
+  /**
+   * Lower is better, see {@link SplitEvaluator#score}.
+   */
+  public double getScore() {
+    return score;
+  }
+
+  public C getCandidate() {
+    return candidate;
+  }
+}
@@ -0,0 +1,54 @@
+package uk.co.andrewlee.cakebot.matchmaking;
+
+import java.time.Duration;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * How long a search may run for. A search stops early, with the best it has found so far, once
+ * its time is up or it is cancelled.
+ */
+@ThreadSafe
+public class SearchBudget {
+
+  private final long startNanos;
+  private final long deadlineNanos;
+  private volatile boolean cancelled;
+
+  public static SearchBudget create(Duration timeBudget) {
+    long startNanos = System.nanoTime();
+    return new SearchBudget(startNanos, startNanos + timeBudget.toNanos());
+  }
+
+  public static SearchBudget unlimited() {
+    long startNanos = System.nanoTime();
+    return new SearchBudget(startNanos, startNanos + Long.MAX_VALUE);
+  }
+
+  private SearchBudget(long startNanos, long deadlineNanos) {
+    this.startNanos = startNanos;
+    this.deadlineNanos = deadlineNanos;
+    this.cancelled = false;
+  }
+
+  /**
+   * Stops any search using this budget. Safe to call from any thread.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public boolean isExhausted() {
+    return cancelled || System.nanoTime() - deadlineNanos >= 0;
+  }
+
+  /**
+   * Returns the time since the budget was created.
+   */
+  public Duration elapsed() {
+    return Duration.ofNanos(System.nanoTime() - startNanos);
+  }
+}
@@ -0,0 +1,53 @@
+package uk.co.andrewlee.cakebot.matchmaking;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The best splits found by a search, best first.
+ */
+@Immutable
+public class SearchResult<C> {
+
+  private final ImmutableList<ScoredCandidate<C>> candidates;
+  private final boolean complete;
+  private final long splitsEvaluated;
+  private final Duration searchTime;
+
+  public SearchResult(ImmutableList<ScoredCandidate<C>> candidates, boolean complete,
+      long splitsEvaluated, Duration searchTime) {
+    this.candidates = candidates;
+    this.complete = complete;
+    this.splitsEvaluated = splitsEvaluated;
+    this.searchTime = searchTime;
+  }
+
+  public ImmutableList<ScoredCandidate<C>> getCandidates() {
+    return candidates;
+  }
+
+  /**
+   * Returns the candidates without their scores.
+   */
+  public ImmutableList<C> candidates() {
+    return candidates.stream().map(ScoredCandidate::getCandidate)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /**
+   * Returns false if the search ran out of budget, or is a heuristic, so that better splits may
+   * have been missed.
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  public long getSplitsEvaluated() {
+    return splitsEvaluated;
+  }
+
+  public Duration getSearchTime() {
+    return searchTime;
+  }
+}
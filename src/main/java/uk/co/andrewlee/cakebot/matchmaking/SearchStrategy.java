@@ -0,0 +1,39 @@
+package uk.co.andrewlee.cakebot.matchmaking;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A way of searching the splits scored by a {@link SplitEvaluator}.
+ */
+public interface SearchStrategy {
+
+  /**
+   * Returns up to {@param candidatesToKeep} of the best splits found, best first.
+   */
+  <C> SearchResult<C> search(SplitEvaluator<C> evaluator, int candidatesToKeep,
+      SearchBudget budget) throws InterruptedException;
+
+  /**
+   * Tries every split, one after another.
+   */
+  static SearchStrategy exhaustive() {
+    return ExhaustiveSearch.INSTANCE;
+  }
+
+  /**
+   * Tries every split, divided into {@param tasks} ranges evaluated on {@param executor}.
+   */
+  static SearchStrategy parallel(ExecutorService executor, int tasks) {
+    return ParallelSearch.create(executor, tasks);
+  }
+
+  /**
+   * Improves random splits by swapping players until no swap helps, starting again until the
+   * budget runs out or {@param restarts} starts have been made. For rosters too large to search
+   * exhaustively.
+   */
+  static SearchStrategy heuristic(int restarts, Random random) {
+    return HeuristicSearch.create(restarts, random);
+  }
+}
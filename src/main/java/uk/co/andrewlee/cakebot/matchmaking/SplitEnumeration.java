@@ -0,0 +1,104 @@
+package uk.co.andrewlee.cakebot.matchmaking;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Numbers the splits a {@link SplitEvaluator} allows from 0, so that they can be walked in order
+ * or divided into ranges.
+ * <p>
+ * Splits are the combinations of {@link SplitEvaluator#team1Size} players, in increasing order
+ * of their bitmask. When the teams are the same size, player 0 is always on team 1, and only the
+ * other players are combined.
+ */
+class SplitEnumeration {
+
+  // BINOMIALS[n][k] is n choose k, or Long.MAX_VALUE if that does not fit.
+  private static final long[][] BINOMIALS = binomials(SplitEvaluator.MAX_PLAYERS);
+
+  private final int fixedPlayers;
+  private final int freePlayers;
+  private final int freeTeam1Size;
+  private final long splitCount;
+
+  static SplitEnumeration create(int playerCount, int team1Size) {
+    Preconditions.checkArgument(playerCount >= 2 && playerCount <= SplitEvaluator.MAX_PLAYERS);
+    Preconditions.checkArgument(team1Size >= 1 && team1Size <= playerCount - team1Size);
+    return new SplitEnumeration(playerCount, team1Size);
+  }
+
+  private SplitEnumeration(int playerCount, int team1Size) {
+    this.fixedPlayers = team1Size * 2 == playerCount ? 1 : 0;
+    this.freePlayers = playerCount - fixedPlayers;
+    this.freeTeam1Size = team1Size - fixedPlayers;
+    this.splitCount = BINOMIALS[freePlayers][freeTeam1Size];
+  }
+
+  /**
+   * Returns the number of splits, or Long.MAX_VALUE if there are too many to count.
+   */
+  long splitCount() {
+    return splitCount;
+  }
+
+  /**
+   * Returns the split numbered {@param index}.
+   */
+  long split(long index) {
+    // Combinations in increasing order of bitmask are in colexicographic order, so the highest
+    // player is the largest whose combinations all come before the index.
+    long combination = 0;
+    long remaining = index;
+    int player = freePlayers;
+    for (int chosen = freeTeam1Size; chosen > 0; chosen--) {
+      player--;
+      while (BINOMIALS[player][chosen] > remaining) {
+        player--;
+      }
+      combination |= 1L << player;
+      remaining -= BINOMIALS[player][chosen];
+    }
+    return toSplit(combination);
+  }
+
+  /**
+   * Returns the split after {@param split}, which must not be the last.
+   */
+  long next(long split) {
+    long combination = split >>> fixedPlayers;
+    if (combination == 0) {
+      return split;
+    }
+    // The next larger number with the same number of bits set.
+    long lowestBit = combination & -combination;
+    long ripple = combination + lowestBit;
+    return toSplit((((ripple ^ combination) >>> 2) / lowestBit) | ripple);
+  }
+
+  /**
+   * Returns {@param team1Mask}, or its mirror image if that is the one this enumeration uses.
+   */
+  long canonical(long team1Mask, long allPlayersMask) {
+    if (fixedPlayers == 1 && (team1Mask & 1) == 0) {
+      return ~team1Mask & allPlayersMask;
+    }
+    return team1Mask;
+  }
+
+  private long toSplit(long combination) {
+    return (combination << fixedPlayers) | (fixedPlayers == 1 ? 1 : 0);
+  }
+
+  private static long[][] binomials(int maxN) {
+    long[][] binomials = new long[maxN + 1][];
+    for (int n = 0; n <= maxN; n++) {
+      binomials[n] = new long[n + 2];
+      binomials[n][0] = 1;
+      for (int k = 1; k <= n; k++) {
+        long sum = binomials[n - 1][k - 1] + binomials[n - 1][k];
+        binomials[n][k] = sum < 0 || binomials[n - 1][k - 1] == Long.MAX_VALUE
+            || binomials[n - 1][k] == Long.MAX_VALUE ? Long.MAX_VALUE : sum;
+      }
+    }
+    return binomials;
+  }
+}
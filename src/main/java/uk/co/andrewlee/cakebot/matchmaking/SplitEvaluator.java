@@ -0,0 +1,47 @@
+package uk.co.andrewlee.cakebot.matchmaking;
+
+import java.util.Optional;
+
+/**
+ * A game's way of scoring the splits of a roster into two teams, searched by a {@link
+ * SearchStrategy}.
+ * <p>
+ * Players are numbered from 0, and a split is given as a bitmask of the players on team 1. When
+ * the teams are the same size, a split and its mirror image are taken to be equally good, so
+ * strategies only try the splits with player 0 on team 1.
+ *
+ * @param <C> the game's description of a split.
+ */
+public interface SplitEvaluator<C> {
+
+  int MAX_PLAYERS = 64;
+
+  int playerCount();
+
+  /**
+   * Returns the size of team 1. Team 2 has the rest of the players, and must not be smaller.
+   */
+  default int team1Size() {
+    return playerCount() / 2;
+  }
+
+  /**
+   * Returns an evaluator for a single thread of a search, which may reuse scratch space from one
+   * split to the next. By default this evaluator, which must then be safe to call from several
+   * threads at once.
+   */
+  default SplitEvaluator<C> forWorker() {
+    return this;
+  }
+
+  /**
+   * Returns the split with the players in {@param team1Mask} on team 1, or empty if it is not
+   * allowed.
+   */
+  Optional<C> evaluate(long team1Mask);
+
+  /**
+   * Returns how good a split is. Lower is better.
+   */
+  double score(C candidate);
+}
@@ -0,0 +1,48 @@
+package uk.co.andrewlee.cakebot.matchmaking;
+
+import com.google.common.collect.ImmutableList;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The best candidates offered so far, up to a fixed number. Each split is kept at most once.
+ */
+@NotThreadSafe
+class TopCandidates<C> {
+
+  private final int candidatesToKeep;
+  // Worst first, so that it can be dropped.
+  private final PriorityQueue<ScoredCandidate<C>> candidates;
+  private final HashSet<Long> team1Masks;
+
+  TopCandidates(int candidatesToKeep) {
+    this.candidatesToKeep = candidatesToKeep;
+    this.candidates = new PriorityQueue<>(candidatesToKeep + 1,
+        ScoredCandidate.BEST_FIRST.reversed());
+    this.team1Masks = new HashSet<>();
+  }
+
+  void offer(ScoredCandidate<C> candidate) {
+    if (team1Masks.contains(candidate.getTeam1Mask())) {
+      return;
+    }
+    candidates.add(candidate);
+    team1Masks.add(candidate.getTeam1Mask());
+    if (candidates.size() > candidatesToKeep) {
+      team1Masks.remove(candidates.poll().getTeam1Mask());
+    }
+  }
+
+  void offerAll(TopCandidates<C> other) {
+    other.candidates.forEach(this::offer);
+  }
+
+  /**
+   * Returns the kept candidates, best first.
+   */
+  ImmutableList<ScoredCandidate<C>> bestFirst() {
+    return candidates.stream().sorted(ScoredCandidate.BEST_FIRST)
+        .collect(ImmutableList.toImmutableList());
+  }
+}
@@ -0,0 +1,300 @@
+package uk.co.andrewlee.cakebot.persistence;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores compressed, content-addressed snapshots of a save file.
+ * <p>
+ * Each backup is an entry in an index, pointing at a gzipped object named after the SHA-256 of
+ * the snapshot, so identical snapshots share one object. After every backup the {@link
+ * RetentionPolicy} is applied and objects which are no longer referenced are deleted.
+ */
+@NotThreadSafe
+public class BackupStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(BackupStore.class);
+  private static final Gson GSON = new GsonBuilder().create();
+
+  private static final String INDEX_FILE = "index.json";
+  private static final String OBJECTS_FOLDER = "objects";
+  private static final String OBJECT_EXTENSION = ".gz";
+
+  private final Path indexFile;
+  private final Path objectsDirectory;
+  private final RetentionPolicy retentionPolicy;
+  private final PersistenceService persistenceService;
+
+  // Newest last.
+  private final List<BackupEntry> entries;
+  private long nextBackupId;
+
+  public static BackupStore create(Path backupDirectory, RetentionPolicy retentionPolicy,
+      PersistenceService persistenceService) throws IOException {
+    Path objectsDirectory = backupDirectory.resolve(OBJECTS_FOLDER);
+    Files.createDirectories(objectsDirectory);
+
+    BackupStore backupStore = new BackupStore(backupDirectory.resolve(INDEX_FILE),
+        objectsDirectory, retentionPolicy, persistenceService);
+    backupStore.loadIndex();
+    return backupStore;
+  }
+
+  private BackupStore(Path indexFile, Path objectsDirectory, RetentionPolicy retentionPolicy,
+      PersistenceService persistenceService) {
+    this.indexFile = indexFile;
+    this.objectsDirectory = objectsDirectory;
+    this.retentionPolicy = retentionPolicy;
+    this.persistenceService = persistenceService;
+    this.entries = new ArrayList<>();
+    this.nextBackupId = 1;
+  }
+
+  /**
+   * Records a backup of {@param snapshot}. The snapshot is only compressed and written if no
+   * existing backup has the same contents.
+   */
+  public BackupEntry backup(byte[] snapshot, String description) throws IOException {
+    String contentHash = Hashing.sha256().hashBytes(snapshot).toString();
+    boolean isNewObject = entries.stream()
+        .noneMatch(entry -> entry.getContentHash().equals(contentHash))
+        && !Files.exists(objectFile(contentHash));
+
+    if (isNewObject) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+        gzipOutputStream.write(snapshot);
+      }
+      persistenceService.scheduleWrite(objectFile(contentHash), compressed.toByteArray());
+    }
+
+    BackupEntry backupEntry = new BackupEntry(nextBackupId++, System.currentTimeMillis(),
+        contentHash, description);
+    entries.add(backupEntry);
+    logger.info("Recorded backup {} ({}), {}.", backupEntry.getBackupId(), contentHash,
+        isNewObject ? "new contents" : "deduplicated");
+
+    applyRetentionPolicy();
+    saveIndex();
+    return backupEntry;
+  }
+
+  /**
+   * Returns the uncompressed snapshot of a backup. Pending writes must have been flushed first.
+   */
+  public Optional<byte[]> restore(long backupId) throws IOException {
+    Optional<BackupEntry> backupEntry = getBackup(backupId);
+    if (!backupEntry.isPresent()) {
+      return Optional.empty();
+    }
+
+    try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(
+        objectFile(backupEntry.get().getContentHash())))) {
+      return Optional.of(ByteStreams.toByteArray(inputStream));
+    }
+  }
+
+  public Optional<BackupEntry> getBackup(long backupId) {
+    return entries.stream().filter(entry -> entry.getBackupId() == backupId).findFirst();
+  }
+
+  /**
+   * Returns all retained backups, newest first.
+   */
+  public ImmutableList<BackupEntry> listBackups() {
+    return ImmutableList.copyOf(entries).reverse();
+  }
+
+  private void applyRetentionPolicy() throws IOException {
+    List<BackupEntry> newestFirst = listBackups();
+    ZoneId zone = ZoneId.systemDefault();
+
+    Set<BackupEntry> retained = new HashSet<>(
+        newestFirst.subList(0, Math.min(retentionPolicy.keepLast, newestFirst.size())));
+
+    Set<LocalDate> days = new HashSet<>();
+    Set<LocalDate> weeks = new HashSet<>();
+    for (BackupEntry entry : newestFirst) {
+      LocalDate day = Instant.ofEpochMilli(entry.getTimestampMillis()).atZone(zone).toLocalDate();
+      LocalDate week = day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+
+      // The newest backup of each of the most recent days and weeks is kept.
+      if (!days.contains(day) && days.size() < retentionPolicy.keepDaily) {
+        days.add(day);
+        retained.add(entry);
+      }
+      if (!weeks.contains(week) && weeks.size() < retentionPolicy.keepWeekly) {
+        weeks.add(week);
+        retained.add(entry);
+      }
+    }
+
+    if (retained.size() == entries.size()) {
+      return;
+    }
+
+    Set<String> prunedHashes = entries.stream()
+        .filter(entry -> !retained.contains(entry))
+        .map(BackupEntry::getContentHash)
+        .collect(Collectors.toSet());
+    entries.removeIf(entry -> !retained.contains(entry));
+    entries.forEach(entry -> prunedHashes.remove(entry.getContentHash()));
+
+    for (String contentHash : prunedHashes) {
+      deleteObject(contentHash);
+    }
+  }
+
+  private void deleteObject(String contentHash) throws IOException {
+    // The object may not have been written yet if backups are made in quick succession.
+    persistenceService.cancelWrite(objectFile(contentHash));
+    Files.deleteIfExists(objectFile(contentHash));
+    logger.info("Deleted unreferenced backup object {}.", contentHash);
+  }
+
+  private void loadIndex() throws IOException {
+    if (!Files.exists(indexFile)) {
+      return;
+    }
+
+    SerializedIndex serializedIndex;
+    try (Reader reader = Files.newBufferedReader(indexFile)) {
+      serializedIndex = GSON.fromJson(reader, SerializedIndex.class);
+    }
+
+    // Objects are written independently of the index, so a crash may leave entries pointing at
+    // objects which never made it to disk.
+    serializedIndex.entries.stream()
+        .filter(entry -> Files.exists(objectFile(entry.getContentHash())))
+        .sorted(Comparator.comparingLong(BackupEntry::getBackupId))
+        .forEach(entries::add);
+    nextBackupId = serializedIndex.nextBackupId;
+    logger.info("Loaded {} backups.", entries.size());
+
+    // Sweep up objects orphaned by a crash part way through pruning.
+    Set<String> referencedHashes = entries.stream().map(BackupEntry::getContentHash)
+        .collect(Collectors.toSet());
+    try (Stream<Path> objectFiles = Files.list(objectsDirectory)) {
+      for (Path objectFile : (Iterable<Path>) objectFiles::iterator) {
+        String fileName = objectFile.getFileName().toString();
+        if (!fileName.endsWith(OBJECT_EXTENSION)) {
+          continue;
+        }
+
+        String contentHash = fileName.substring(0,
+            fileName.length() - OBJECT_EXTENSION.length());
+        if (!referencedHashes.contains(contentHash)) {
+          deleteObject(contentHash);
+        }
+      }
+    }
+  }
+
+  private void saveIndex() {
+    SerializedIndex serializedIndex = new SerializedIndex(new ArrayList<>(entries),
+        nextBackupId);
+    persistenceService.scheduleWrite(indexFile,
+        GSON.toJson(serializedIndex).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private Path objectFile(String contentHash) {
+    return objectsDirectory.resolve(contentHash + OBJECT_EXTENSION);
+  }
+
+  /**
+   * Which backups to keep: the most recent {@code keepLast}, plus the newest backup of each of
+   * the last {@code keepDaily} days and {@code keepWeekly} weeks that have backups.
+   */
+  @Immutable
+  public static class RetentionPolicy {
+
+    private final int keepLast;
+    private final int keepDaily;
+    private final int keepWeekly;
+
+    public RetentionPolicy(int keepLast, int keepDaily, int keepWeekly) {
+      Preconditions.checkArgument(keepLast >= 1);
+      this.keepLast = keepLast;
+      this.keepDaily = keepDaily;
+      this.keepWeekly = keepWeekly;
+    }
+
+    public int getKeepLast() {
+      return keepLast;
+    }
+  }
+
+  @Immutable
+  public static class BackupEntry {
+
+    private final long backupId;
+    private final long timestampMillis;
+    private final String contentHash;
+    private final String description;
+
+    private BackupEntry(long backupId, long timestampMillis, String contentHash,
+        String description) {
+      this.backupId = backupId;
+      this.timestampMillis = timestampMillis;
+      this.contentHash = contentHash;
+      this.description = description;
+    }
+
+    public long getBackupId() {
+      return backupId;
+    }
+
+    public long getTimestampMillis() {
+      return timestampMillis;
+    }
+
+    public String getContentHash() {
+      return contentHash;
+    }
+
+    public String getDescription() {
+      return description;
+    }
+  }
+
+  private static class SerializedIndex {
+
+    public List<BackupEntry> entries;
+    public long nextBackupId;
+
+    public SerializedIndex(List<BackupEntry> entries, long nextBackupId) {
+      this.entries = entries;
+      this.nextBackupId = nextBackupId;
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package uk.co.andrewlee.cakebot.persistence;
+
+import java.io.IOException;
+
+/**
+ * Encodes the keys or values of a {@link KeyValueStore}.
+ */
+public interface Codec<T> {
+
+  Codec<Long> VAR_LONG = new Codec<Long>() {
+    @Override
+    public void write(SnapshotOutput output, Long value) throws IOException {
+      output.writeVarLong(value);
+    }
+
+    @Override
+    public Long read(SnapshotInput input, int formatVersion) throws IOException {
+      return input.readVarLong();
+    }
+  };
+
+  void write(SnapshotOutput output, T value) throws IOException;
+
+  /**
+   * Reads a value written by {@link #write}, in {@param formatVersion} of the store's format.
+   */
+  T read(SnapshotInput input, int formatVersion) throws IOException;
+}
@@ -0,0 +1,18 @@
+package uk.co.andrewlee.cakebot.persistence;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a binary snapshot is truncated, fails a checksum or is otherwise unreadable. This
+ * is usually the result of a torn write.
+ */
+public class CorruptSnapshotException extends IOException {
+
+  public CorruptSnapshotException(String message) {
+    super(message);
+  }
+
+  public CorruptSnapshotException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,370 @@
+package uk.co.andrewlee.cakebot.persistence;
+
+import com.google.common.collect.ImmutableSortedMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small log-structured key-value store, for data which changes a few keys at a time, so that a
+ * change costs one durable append rather than a rewrite of everything.
+ * <p>
+ * Each {@link WriteBatch} is appended to a log as one record, see {@link RecordLog}, and kept in
+ * a memtable of the changes since the last compaction. Everything older is in a segment file of
+ * the live entries sorted by key, held in memory once loaded. Reads look in the memtable and then
+ * the segment.
+ * <p>
+ * The log is split into numbered generations. Once the current one has {@link
+ * #COMPACTION_THRESHOLD} batches, the memtable is merged into a new segment, which is written in
+ * the background by the {@link PersistenceService}, and a new generation is started. The older
+ * generations are deleted once the segment is on disk, oldest first, so that whichever survive a
+ * failed or interrupted delete are always the newest. Replaying those over the segment on load
+ * is harmless, since each change is a whole value or a deletion and the last of them for each key
+ * is already in the segment.
+ */
+@NotThreadSafe
+public class KeyValueStore<K extends Comparable<K>, V> {
+
+  private static final Logger logger = LoggerFactory.getLogger(KeyValueStore.class);
+  private static final String SEGMENT_FILE_EXTENSION = ".seg";
+  private static final String LOG_FILE_EXTENSION = ".log";
+  private static final int COMPACTION_THRESHOLD = 32;
+
+  private static final int ENTRIES_SECTION = 1;
+  private static final int DELETE = 0;
+  private static final int PUT = 1;
+
+  private final Path directory;
+  private final String name;
+  private final int formatVersion;
+  private final Codec<K> keyCodec;
+  private final Codec<V> valueCodec;
+  private final PersistenceService persistenceService;
+  private final Path segmentFile;
+  private final Pattern logFilePattern;
+
+  private ImmutableSortedMap<K, V> segment;
+  // The changes since the segment was written, where empty is a deletion.
+  private final TreeMap<K, Optional<V>> memtable;
+  private long generation;
+  private RecordLog log;
+  private int logBatches;
+  private boolean replayedOlderFormat;
+
+  /**
+   * Creates a store whose files are in {@param directory}, named after {@param name}. Nothing is
+   * read until {@link #load}.
+   *
+   * @param formatVersion the version of the key and value encodings, passed back to the codecs
+   * when reading. Bump it when they change.
+   */
+  public static <K extends Comparable<K>, V> KeyValueStore<K, V> create(Path directory,
+      String name, int formatVersion, Codec<K> keyCodec, Codec<V> valueCodec,
+      PersistenceService persistenceService) {
+    return new KeyValueStore<>(directory, name, formatVersion, keyCodec, valueCodec,
+        persistenceService);
+  }
+
+  /**
+   * Reads the live entries of a store without opening it for writes, eg. for offline tools.
+   * Nothing is compacted, though as with {@link #load}, a torn batch at the end of the log is cut
+   * off.
+   */
+  public static <K extends Comparable<K>, V> ImmutableSortedMap<K, V> readEntries(
+      Path directory, String name, int formatVersion, Codec<K> keyCodec, Codec<V> valueCodec)
+      throws IOException {
+    // Never compacts, so needs no persistence service.
+    KeyValueStore<K, V> store = new KeyValueStore<>(directory, name, formatVersion, keyCodec,
+        valueCodec, null);
+    store.replay();
+    return store.entries();
+  }
+
+  private KeyValueStore(Path directory, String name, int formatVersion, Codec<K> keyCodec,
+      Codec<V> valueCodec, PersistenceService persistenceService) {
+    this.directory = directory;
+    this.name = name;
+    this.formatVersion = formatVersion;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.persistenceService = persistenceService;
+    this.segmentFile = directory.resolve(name + SEGMENT_FILE_EXTENSION);
+    this.logFilePattern = Pattern.compile(
+        Pattern.quote(name + "-") + "(\\d+)" + Pattern.quote(LOG_FILE_EXTENSION));
+    this.segment = ImmutableSortedMap.of();
+    this.memtable = new TreeMap<>();
+    this.generation = 1;
+    this.log = log(generation);
+    this.logBatches = 0;
+    this.replayedOlderFormat = false;
+  }
+
+  /**
+   * Reads the segment, and replays every log generation over it, oldest first. Returns false if
+   * the store has no files yet, for example so that older save files can be migrated into it.
+   */
+  public boolean load() throws IOException {
+    int generations = replay();
+
+    // More than one generation means the last segment write never finished. A log in an older
+    // format must not be appended to, as its header would be wrong for the new batches.
+    if (generations > 1 || logBatches >= COMPACTION_THRESHOLD || replayedOlderFormat) {
+      compact();
+    }
+    return generations > 0 || Files.exists(segmentFile);
+  }
+
+  /**
+   * Reads the segment, and replays every log generation over it. Returns how many generations
+   * there were.
+   */
+  private int replay() throws IOException {
+    if (Files.exists(segmentFile)) {
+      logger.info("Loading segment file, {}.", segmentFile);
+      segment = readSegment(Files.readAllBytes(segmentFile));
+    }
+
+    ArrayList<Long> generations = logGenerations();
+    Collections.sort(generations);
+    for (long logGeneration : generations) {
+      generation = logGeneration;
+      log = log(generation);
+      // Also cuts off any batch torn by a crash, before more are appended.
+      logBatches = log.read(this::replayBatch);
+      logger.info("Replayed {} batches from log generation {} of {}.", logBatches, generation,
+          name);
+    }
+    return generations.size();
+  }
+
+  public Optional<V> get(K key) {
+    Optional<V> change = memtable.get(key);
+    if (change != null) {
+      return change;
+    }
+    return Optional.ofNullable(segment.get(key));
+  }
+
+  /**
+   * Returns every live entry, sorted by key.
+   */
+  public ImmutableSortedMap<K, V> entries() {
+    if (memtable.isEmpty()) {
+      return segment;
+    }
+    TreeMap<K, V> entries = new TreeMap<>(segment);
+    memtable.forEach((key, change) -> {
+      if (change.isPresent()) {
+        entries.put(key, change.get());
+      } else {
+        entries.remove(key);
+      }
+    });
+    return ImmutableSortedMap.copyOfSorted(entries);
+  }
+
+  public void put(K key, V value) throws IOException {
+    write(WriteBatch.<K, V>create().put(key, value));
+  }
+
+  public void delete(K key) throws IOException {
+    write(WriteBatch.<K, V>create().delete(key));
+  }
+
+  /**
+   * Applies every change in the batch, and returns once they are durable. Compacts once the log
+   * has grown long enough.
+   */
+  public void write(WriteBatch<K, V> batch) throws IOException {
+    if (batch.isEmpty()) {
+      return;
+    }
+    log.append(output -> writeBatch(output, batch.changes));
+    memtable.putAll(batch.changes);
+    logBatches++;
+    if (logBatches >= COMPACTION_THRESHOLD) {
+      compact();
+    }
+  }
+
+  /**
+   * Merges the memtable into a new segment, which is handed to the {@link PersistenceService},
+   * and starts a new log generation. The generations the segment covers are deleted once it is
+   * written.
+   */
+  public void compact() throws IOException {
+    segment = entries();
+    memtable.clear();
+    ByteArrayOutputStream segmentContents = new ByteArrayOutputStream();
+    writeSegment(segmentContents, segment);
+
+    long coveredGeneration = generation;
+    generation++;
+    log = log(generation);
+    logBatches = 0;
+    replayedOlderFormat = false;
+
+    logger.info("Scheduling write of {} entries to segment file, {}.", segment.size(),
+        segmentFile);
+    persistenceService.scheduleWrite(segmentFile, segmentContents.toByteArray(),
+        () -> deleteLogGenerations(coveredGeneration));
+  }
+
+  private void writeBatch(SnapshotOutput output, Map<K, Optional<V>> changes)
+      throws IOException {
+    output.writeVarInt(changes.size());
+    for (Map.Entry<K, Optional<V>> change : changes.entrySet()) {
+      keyCodec.write(output, change.getKey());
+      if (change.getValue().isPresent()) {
+        output.writeVarInt(PUT);
+        valueCodec.write(output, change.getValue().get());
+      } else {
+        output.writeVarInt(DELETE);
+      }
+    }
+  }
+
+  private void replayBatch(SnapshotInput input, int batchFormatVersion) throws IOException {
+    replayedOlderFormat |= batchFormatVersion < formatVersion;
+    int numberOfChanges = input.readCount();
+    for (int i = 0; i < numberOfChanges; i++) {
+      K key = keyCodec.read(input, batchFormatVersion);
+      int changeType = input.readVarInt();
+      if (changeType == PUT) {
+        memtable.put(key, Optional.of(valueCodec.read(input, batchFormatVersion)));
+      } else if (changeType == DELETE) {
+        memtable.put(key, Optional.empty());
+      } else {
+        throw new CorruptSnapshotException(String.format("Unknown change type %d in log.",
+            changeType));
+      }
+    }
+  }
+
+  private void writeSegment(ByteArrayOutputStream outputStream, ImmutableSortedMap<K, V> entries)
+      throws IOException {
+    SnapshotWriter snapshotWriter = SnapshotWriter.create(outputStream, formatVersion);
+    snapshotWriter.writeSection(ENTRIES_SECTION, output -> {
+      output.writeVarInt(entries.size());
+      for (Map.Entry<K, V> entry : entries.entrySet()) {
+        keyCodec.write(output, entry.getKey());
+        valueCodec.write(output, entry.getValue());
+      }
+    });
+    snapshotWriter.finish();
+  }
+
+  private ImmutableSortedMap<K, V> readSegment(byte[] segmentContents) throws IOException {
+    SnapshotReader snapshotReader = SnapshotReader.open(
+        new ByteArrayInputStream(segmentContents), formatVersion);
+    int segmentFormatVersion = snapshotReader.getFormatVersion();
+
+    SnapshotInput input = snapshotReader.readSection(ENTRIES_SECTION);
+    int numberOfEntries = input.readCount();
+    ImmutableSortedMap.Builder<K, V> entries = ImmutableSortedMap.naturalOrder();
+    for (int i = 0; i < numberOfEntries; i++) {
+      K key = keyCodec.read(input, segmentFormatVersion);
+      entries.put(key, valueCodec.read(input, segmentFormatVersion));
+    }
+    snapshotReader.readEnd();
+
+    try {
+      return entries.build();
+    } catch (IllegalArgumentException e) {
+      throw new CorruptSnapshotException("Duplicate key in segment.", e);
+    }
+  }
+
+  /**
+   * Deletes the log generations up to and including {@param coveredGeneration}. Only touches the
+   * files of old generations, so it is safe to call from the persistence thread while the current
+   * generation is appended to.
+   */
+  private void deleteLogGenerations(long coveredGeneration) {
+    try {
+      ArrayList<Long> generations = logGenerations();
+      Collections.sort(generations);
+      for (long logGeneration : generations) {
+        if (logGeneration <= coveredGeneration) {
+          Files.deleteIfExists(logFile(logGeneration));
+          logger.info("Deleted log generation {} of {}.", logGeneration, name);
+        }
+      }
+    } catch (IOException e) {
+      // They will be replayed harmlessly on the next load, and deleted after the next compaction.
+      logger.error(String.format("Error deleting old log generations of %s.", name), e);
+    }
+  }
+
+  private ArrayList<Long> logGenerations() throws IOException {
+    ArrayList<Long> generations = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return generations;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+        name + "-*" + LOG_FILE_EXTENSION)) {
+      for (Path file : files) {
+        Matcher matcher = logFilePattern.matcher(file.getFileName().toString());
+        if (matcher.matches()) {
+          generations.add(Long.parseLong(matcher.group(1)));
+        }
+      }
+    }
+    return generations;
+  }
+
+  private RecordLog log(long logGeneration) {
+    return RecordLog.create(logFile(logGeneration), formatVersion);
+  }
+
+  private Path logFile(long logGeneration) {
+    return directory.resolve(name + "-" + logGeneration + LOG_FILE_EXTENSION);
+  }
+
+  /**
+   * Changes applied to a store together, with a single durable write. A later change to a key
+   * replaces an earlier one.
+   */
+  @NotThreadSafe
+  public static class WriteBatch<K extends Comparable<K>, V> {
+
+    // Empty is a deletion.
+    private final LinkedHashMap<K, Optional<V>> changes;
+
+    public static <K extends Comparable<K>, V> WriteBatch<K, V> create() {
+      return new WriteBatch<>();
+    }
+
+    private WriteBatch() {
+      this.changes = new LinkedHashMap<>();
+    }
+
+    public WriteBatch<K, V> put(K key, V value) {
+      changes.put(key, Optional.of(value));
+      return this;
+    }
+
+    public WriteBatch<K, V> delete(K key) {
+      changes.put(key, Optional.empty());
+      return this;
+    }
+
+    public boolean isEmpty() {
+      return changes.isEmpty();
+    }
+  }
+}
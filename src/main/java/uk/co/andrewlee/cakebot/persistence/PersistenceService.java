@@ -0,0 +1,224 @@
+package uk.co.andrewlee.cakebot.persistence;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind persistence for save files.
+ * <p>
+ * Callers hand over the complete new contents of a file, and the write happens later on a
+ * dedicated thread. Writes to the same file that arrive before the flush are coalesced, so only
+ * the latest contents are written. Each write goes to a temporary file which is fsynced and then
+ * atomically moved over the original, so a crash leaves either the old or the new file intact.
+ * <p>
+ * A write can carry a callback to run once its contents, or newer contents which replaced them,
+ * are on disk, for example to delete a journal which the written snapshot makes redundant.
+ */
+@ThreadSafe
+public class PersistenceService {
+
+  private static final Logger logger = LoggerFactory.getLogger(PersistenceService.class);
+  private static final long FLUSH_DELAY_MILLIS = 500;
+  private static final long RETRY_DELAY_MILLIS = 5000;
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+  private final ScheduledExecutorService executor;
+
+  @GuardedBy("this")
+  private final HashMap<Path, PendingWrite> pendingWrites;
+
+  public static PersistenceService create() {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("persistence-%d").build());
+    PersistenceService persistenceService = new PersistenceService(executor);
+
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        persistenceService.flush();
+      } catch (Exception e) {
+        logger.error("Error flushing pending writes on shutdown.", e);
+      }
+    }));
+    return persistenceService;
+  }
+
+  private PersistenceService(ScheduledExecutorService executor) {
+    this.executor = executor;
+    this.pendingWrites = new HashMap<>();
+  }
+
+  /**
+   * Schedules {@param contents} to be written to {@param file}, replacing any write to the same
+   * file which has not happened yet.
+   */
+  public void scheduleWrite(Path file, byte[] contents) {
+    scheduleWrite(file, contents, ImmutableList.of());
+  }
+
+  /**
+   * As {@link #scheduleWrite(Path, byte[])}, and then runs {@param onWritten} on the persistence
+   * thread once the contents are on disk. If newer contents replace them first, it runs once
+   * those are on disk instead. It does not run if the write is cancelled.
+   */
+  public void scheduleWrite(Path file, byte[] contents, Runnable onWritten) {
+    scheduleWrite(file, contents, ImmutableList.of(onWritten));
+  }
+
+  private void scheduleWrite(Path file, byte[] contents, ImmutableList<Runnable> onWritten) {
+    boolean alreadyScheduled;
+    synchronized (this) {
+      PendingWrite replacedWrite = pendingWrites.get(file);
+      alreadyScheduled = replacedWrite != null;
+      ImmutableList<Runnable> allOnWritten = alreadyScheduled
+          ? ImmutableList.<Runnable>builder().addAll(replacedWrite.onWritten).addAll(onWritten)
+              .build()
+          : onWritten;
+      pendingWrites.put(file, new PendingWrite(contents, allOnWritten));
+    }
+
+    if (!alreadyScheduled) {
+      executor.schedule(() -> writePending(file), FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Drops any write to {@param file} which has not started yet.
+   */
+  public synchronized void cancelWrite(Path file) {
+    pendingWrites.remove(file);
+  }
+
+  /**
+   * Blocks until every write scheduled before this call is on disk.
+   */
+  public void flush() throws IOException {
+    try {
+      Boolean allWritten = executor.submit(() -> {
+        boolean written = true;
+        for (Path file : pendingFiles()) {
+          written &= writePending(file);
+        }
+        return written;
+      }).get();
+
+      if (!allWritten) {
+        throw new IOException("Error flushing pending writes. Please check server logs.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while flushing pending writes.", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Error flushing pending writes.", e.getCause());
+    }
+  }
+
+  private synchronized Path[] pendingFiles() {
+    return pendingWrites.keySet().toArray(new Path[0]);
+  }
+
+  /**
+   * Writes the pending contents of {@param file}, if any. Returns false if the write failed, in
+   * which case a retry is scheduled.
+   */
+  private boolean writePending(Path file) {
+    PendingWrite pendingWrite;
+    synchronized (this) {
+      pendingWrite = pendingWrites.get(file);
+    }
+
+    if (pendingWrite == null) {
+      // Already written by an earlier flush.
+      return true;
+    }
+
+    try {
+      writeAtomically(file, pendingWrite.contents);
+    } catch (IOException e) {
+      logger.error(String.format("Error writing %s. Retrying.", file), e);
+      executor.schedule(() -> writePending(file), RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+      return false;
+    }
+
+    boolean replaced;
+    synchronized (this) {
+      // Only clear the entry if no newer contents arrived while writing. If they did, they took
+      // over the callbacks, which run once they are written.
+      replaced = !pendingWrites.remove(file, pendingWrite);
+      if (replaced) {
+        executor.schedule(() -> writePending(file), FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    if (!replaced) {
+      for (Runnable onWritten : pendingWrite.onWritten) {
+        try {
+          onWritten.run();
+        } catch (RuntimeException e) {
+          logger.error(String.format("Error after writing %s.", file), e);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Writes {@param contents} to a temporary file, fsyncs it and atomically renames it over
+   * {@param file}.
+   */
+  public static void writeAtomically(Path file, byte[] contents) throws IOException {
+    Path tempFile = file.resolveSibling(file.getFileName() + TEMP_FILE_SUFFIX);
+
+    try (FileChannel fileChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.wrap(contents);
+      while (buffer.hasRemaining()) {
+        fileChannel.write(buffer);
+      }
+      fileChannel.force(true);
+    }
+
+    Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    syncDirectory(file.toAbsolutePath().getParent());
+    logger.info("Wrote {} bytes to {}.", contents.length, file);
+  }
+
+  private static void syncDirectory(Path directory) {
+    // Makes the rename itself durable. Not every platform allows opening a directory, in which
+    // case the rename is left to the OS.
+    try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      directoryChannel.force(true);
+    } catch (IOException e) {
+      logger.debug("Could not fsync directory {}.", directory, e);
+    }
+  }
+
+  @Immutable
+  private static class PendingWrite {
+
+    private final byte[] contents;
+    private final ImmutableList<Runnable> onWritten;
+
+    private PendingWrite(byte[] contents, ImmutableList<Runnable> onWritten) {
+      this.contents = contents;
+      this.onWritten = onWritten;
+    }
+  }
+}
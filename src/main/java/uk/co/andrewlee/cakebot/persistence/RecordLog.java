@@ -0,0 +1,197 @@
+package uk.co.andrewlee.cakebot.persistence;
+
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only file of records, each written and fsynced as it happens.
+ * <p>
+ * The file starts with the same magic number and format version as a snapshot, see {@link
+ * SnapshotWriter}, and each record is its length, its payload and a CRC32 of the payload. A crash
+ * part way through an append leaves a torn record at the end, which {@link #read} drops, or a torn
+ * header if it was the first append, which leaves the log empty.
+ */
+@NotThreadSafe
+public class RecordLog {
+
+  private static final Logger logger = LoggerFactory.getLogger(RecordLog.class);
+  private static final int HEADER_LENGTH = 8;
+  private static final int RECORD_OVERHEAD = 8;
+  // Records are read fully into memory, so refuse absurd lengths from a corrupt header, and never
+  // write a record which would be refused.
+  private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+  private final Path file;
+  private final int formatVersion;
+
+  public static RecordLog create(Path file, int formatVersion) {
+    return new RecordLog(file, formatVersion);
+  }
+
+  private RecordLog(Path file, int formatVersion) {
+    this.file = file;
+    this.formatVersion = formatVersion;
+  }
+
+  /**
+   * Appends a record, and returns once it is durable. The file is created if needed.
+   */
+  public void append(RecordContents recordContents) throws IOException {
+    appendAll(ImmutableList.of(recordContents));
+  }
+
+  /**
+   * Appends several records with a single write, and returns once they are all durable. A crash
+   * part way through can leave only some of them, but never a torn record before the last.
+   *
+   * @throws IllegalArgumentException if a record is longer than {@link #MAX_RECORD_LENGTH}, in
+   * which case nothing is written.
+   */
+  public void appendAll(List<RecordContents> allRecordContents) throws IOException {
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    DataOutputStream recordOutput = new DataOutputStream(records);
+    // A file too short for its header was torn by a crash during its first append.
+    boolean newFile = !Files.exists(file) || Files.size(file) < HEADER_LENGTH;
+    if (newFile) {
+      recordOutput.writeInt(SnapshotWriter.MAGIC);
+      recordOutput.writeInt(formatVersion);
+    }
+
+    for (RecordContents recordContents : allRecordContents) {
+      ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      SnapshotOutput snapshotOutput = new SnapshotOutput(payload);
+      recordContents.write(snapshotOutput);
+      snapshotOutput.flush();
+      if (payload.size() > MAX_RECORD_LENGTH) {
+        throw new IllegalArgumentException(String.format(
+            "Record of %d bytes is longer than the limit of %d bytes for %s.", payload.size(),
+            MAX_RECORD_LENGTH, file));
+      }
+
+      CRC32 crc = new CRC32();
+      crc.update(payload.toByteArray());
+      recordOutput.writeInt(payload.size());
+      payload.writeTo(recordOutput);
+      recordOutput.writeInt((int) crc.getValue());
+    }
+    recordOutput.flush();
+
+    try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE)) {
+      if (newFile) {
+        fileChannel.truncate(0);
+      }
+      fileChannel.position(fileChannel.size());
+      ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+      while (buffer.hasRemaining()) {
+        fileChannel.write(buffer);
+      }
+      fileChannel.force(false);
+    }
+  }
+
+  /**
+   * Reads every record in the order they were appended, and returns how many there were. Does
+   * nothing if there is no file yet.
+   * <p>
+   * A torn record at the end of the file is cut off, so that later appends follow the last whole
+   * record, and a torn header leaves the file empty. Call this before appending to a log which
+   * might have been torn.
+   *
+   * @throws CorruptSnapshotException if the file is not a log, or a record before the last is
+   * unreadable.
+   */
+  public int read(RecordConsumer recordConsumer) throws IOException {
+    if (!Files.exists(file)) {
+      return 0;
+    }
+
+    ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(file));
+    if (contents.remaining() < HEADER_LENGTH) {
+      logger.warn("Cutting off a torn header of {} bytes from {}.", contents.remaining(), file);
+      try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+        fileChannel.truncate(0);
+        fileChannel.force(false);
+      }
+      return 0;
+    }
+    if (contents.getInt() != SnapshotWriter.MAGIC) {
+      throw new CorruptSnapshotException(String.format("%s is not a log file.", file));
+    }
+    int fileFormatVersion = contents.getInt();
+    if (fileFormatVersion < 1 || fileFormatVersion > formatVersion) {
+      throw new CorruptSnapshotException(String.format("Unsupported log version %d in %s.",
+          fileFormatVersion, file));
+    }
+
+    int records = 0;
+    while (contents.hasRemaining()) {
+      int recordStart = contents.position();
+      byte[] payload = readRecordPayload(contents);
+      if (payload == null) {
+        if (contents.hasRemaining()) {
+          throw new CorruptSnapshotException(String.format(
+              "Log %s has an unreadable record at byte %d.", file, recordStart));
+        }
+        logger.warn("Cutting off a torn record at byte {} of {}.", recordStart, file);
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+          fileChannel.truncate(recordStart);
+          fileChannel.force(false);
+        }
+        break;
+      }
+      recordConsumer.accept(new SnapshotInput(payload), fileFormatVersion);
+      records++;
+    }
+    return records;
+  }
+
+  /**
+   * Returns the payload of the record at the buffer's position, or null if it is torn or fails
+   * its checksum. A torn record is skipped to the end of the buffer.
+   */
+  private static byte[] readRecordPayload(ByteBuffer contents) {
+    if (contents.remaining() < RECORD_OVERHEAD) {
+      contents.position(contents.limit());
+      return null;
+    }
+    int length = contents.getInt();
+    if (length < 0 || length > MAX_RECORD_LENGTH || contents.remaining() < length + 4) {
+      contents.position(contents.limit());
+      return null;
+    }
+
+    byte[] payload = new byte[length];
+    contents.get(payload);
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    if (contents.getInt() != (int) crc.getValue()) {
+      return null;
+    }
+    return payload;
+  }
+
+  @FunctionalInterface
+  public interface RecordContents {
+
+    void write(SnapshotOutput output) throws IOException;
+  }
+
+  @FunctionalInterface
+  public interface RecordConsumer {
+
+    void accept(SnapshotInput input, int formatVersion) throws IOException;
+  }
+}
@@ -0,0 +1,108 @@
+package uk.co.andrewlee.cakebot.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Primitive decoders for the contents of a snapshot section. The mirror of {@link
+ * SnapshotOutput}.
+ */
+@NotThreadSafe
+public class SnapshotInput {
+
+  private final DataInputStream in;
+
+  SnapshotInput(byte[] payload) {
+    this.in = new DataInputStream(new ByteArrayInputStream(payload));
+  }
+
+  public long readVarLong() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new CorruptSnapshotException("Malformed varint in snapshot.");
+  }
+
+  public int readVarInt() throws IOException {
+    long value = readVarLong();
+    if ((value & ~0xFFFFFFFFL) != 0) {
+      throw new CorruptSnapshotException("Varint in snapshot is out of range.");
+    }
+    return (int) value;
+  }
+
+  /**
+   * Reads a count, length or index written with {@link SnapshotOutput#writeVarInt}, which can
+   * never be negative.
+   */
+  public int readCount() throws IOException {
+    int value = readVarInt();
+    if (value < 0) {
+      throw new CorruptSnapshotException("Negative count in snapshot.");
+    }
+    return value;
+  }
+
+  public int readSignedVarInt() throws IOException {
+    int value = readVarInt();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  public double readDouble() throws IOException {
+    try {
+      return in.readDouble();
+    } catch (EOFException e) {
+      throw new CorruptSnapshotException("Unexpected end of snapshot section.", e);
+    }
+  }
+
+  public String readString() throws IOException {
+    int length = readCount();
+    if (length > in.available()) {
+      throw new CorruptSnapshotException("String in snapshot is longer than its section.");
+    }
+    byte[] encoded = new byte[length];
+    in.readFully(encoded);
+    return new String(encoded, StandardCharsets.UTF_8);
+  }
+
+  public boolean[] readBits() throws IOException {
+    int length = readCount();
+    byte[] packed = new byte[(length + 7) / 8];
+    try {
+      in.readFully(packed);
+    } catch (EOFException e) {
+      throw new CorruptSnapshotException("Unexpected end of snapshot section.", e);
+    }
+
+    boolean[] bits = new boolean[length];
+    for (int i = 0; i < length; i++) {
+      bits[i] = (packed[i / 8] & (1 << (i % 8))) != 0;
+    }
+    return bits;
+  }
+
+  /**
+   * Whether any of the section is left to read.
+   */
+  public boolean hasRemaining() throws IOException {
+    return in.available() > 0;
+  }
+
+  private int readByte() throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new CorruptSnapshotException("Unexpected end of snapshot section.");
+    }
+    return b;
+  }
+}
@@ -0,0 +1,71 @@
+package uk.co.andrewlee.cakebot.persistence;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Primitive encoders used for the contents of a snapshot section.
+ */
+@NotThreadSafe
+public class SnapshotOutput {
+
+  private final DataOutputStream out;
+
+  SnapshotOutput(OutputStream out) {
+    this.out = new DataOutputStream(out);
+  }
+
+  /**
+   * Writes a non-negative long as an unsigned LEB128 varint.
+   */
+  public void writeVarLong(long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  public void writeVarInt(int value) throws IOException {
+    writeVarLong(value & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Writes a possibly negative int using zig-zag encoding, so that small negative numbers stay
+   * small.
+   */
+  public void writeSignedVarInt(int value) throws IOException {
+    writeVarInt((value << 1) ^ (value >> 31));
+  }
+
+  public void writeDouble(double value) throws IOException {
+    out.writeDouble(value);
+  }
+
+  /**
+   * Writes a string as the varint length of its UTF-8 encoding, and then the encoding.
+   */
+  public void writeString(String value) throws IOException {
+    byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(encoded.length);
+    out.write(encoded);
+  }
+
+  public void writeBits(boolean[] bits) throws IOException {
+    writeVarInt(bits.length);
+    byte[] packed = new byte[(bits.length + 7) / 8];
+    for (int i = 0; i < bits.length; i++) {
+      if (bits[i]) {
+        packed[i / 8] |= 1 << (i % 8);
+      }
+    }
+    out.write(packed);
+  }
+
+  void flush() throws IOException {
+    out.flush();
+  }
+}
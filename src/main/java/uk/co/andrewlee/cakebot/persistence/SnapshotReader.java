@@ -0,0 +1,97 @@
+package uk.co.andrewlee.cakebot.persistence;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Reads a snapshot written by {@link SnapshotWriter}, verifying the checksum of every section.
+ */
+@NotThreadSafe
+public class SnapshotReader {
+
+  // Sections are read fully into memory, so refuse absurd lengths from a corrupt header.
+  private static final int MAX_SECTION_LENGTH = 1 << 30;
+
+  private final DataInputStream in;
+  private final int formatVersion;
+
+  public static SnapshotReader open(InputStream in, int maxSupportedVersion) throws IOException {
+    DataInputStream dataInputStream = new DataInputStream(in);
+    try {
+      if (dataInputStream.readInt() != SnapshotWriter.MAGIC) {
+        throw new CorruptSnapshotException("Not a snapshot file.");
+      }
+
+      int formatVersion = dataInputStream.readInt();
+      if (formatVersion < 1 || formatVersion > maxSupportedVersion) {
+        throw new CorruptSnapshotException(String.format("Unsupported snapshot version %d.",
+            formatVersion));
+      }
+      return new SnapshotReader(dataInputStream, formatVersion);
+    } catch (EOFException e) {
+      throw new CorruptSnapshotException("Snapshot is truncated.", e);
+    }
+  }
+
+  private SnapshotReader(DataInputStream in, int formatVersion) {
+    this.in = in;
+    this.formatVersion = formatVersion;
+  }
+
+  public int getFormatVersion() {
+    return formatVersion;
+  }
+
+  public SnapshotInput readSection(int expectedSectionId) throws IOException {
+    int sectionId = readSectionHeaderId();
+    if (sectionId != expectedSectionId) {
+      throw new CorruptSnapshotException(String.format(
+          "Expected snapshot section %d, found %d.", expectedSectionId, sectionId));
+    }
+    return new SnapshotInput(readSectionPayload(sectionId));
+  }
+
+  /**
+   * Verifies that the end marker is present.
+   */
+  public void readEnd() throws IOException {
+    readSection(SnapshotWriter.END_SECTION_ID);
+  }
+
+  private int readSectionHeaderId() throws IOException {
+    try {
+      return in.readInt();
+    } catch (EOFException e) {
+      throw new CorruptSnapshotException("Snapshot is truncated.", e);
+    }
+  }
+
+  private byte[] readSectionPayload(int sectionId) throws IOException {
+    try {
+      int length = in.readInt();
+      if (length < 0 || length > MAX_SECTION_LENGTH) {
+        throw new CorruptSnapshotException(String.format(
+            "Snapshot section %d has invalid length %d.", sectionId, length));
+      }
+
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+      int expectedCrc = in.readInt();
+
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      if ((int) crc.getValue() != expectedCrc) {
+        throw new CorruptSnapshotException(String.format(
+            "Checksum mismatch in snapshot section %d.", sectionId));
+      }
+      return payload;
+    } catch (EOFException e) {
+      throw new CorruptSnapshotException(String.format("Snapshot section %d is truncated.",
+          sectionId), e);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package uk.co.andrewlee.cakebot.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Writes a versioned, sectioned binary snapshot.
+ * <p>
+ * The layout is a magic number and format version, followed by any number of sections and an end
+ * marker. Each section is its id, its length, its payload and a CRC32 of the payload, so a reader
+ * can detect truncation or corruption of any part of the file.
+ */
+@NotThreadSafe
+public class SnapshotWriter {
+
+  static final int MAGIC = 0x43414B45; // "CAKE"
+  static final int END_SECTION_ID = 0;
+
+  private final DataOutputStream out;
+
+  public static SnapshotWriter create(OutputStream out, int formatVersion) throws IOException {
+    SnapshotWriter snapshotWriter = new SnapshotWriter(new DataOutputStream(out));
+    snapshotWriter.out.writeInt(MAGIC);
+    snapshotWriter.out.writeInt(formatVersion);
+    return snapshotWriter;
+  }
+
+  private SnapshotWriter(DataOutputStream out) {
+    this.out = out;
+  }
+
+  public void writeSection(int sectionId, SectionContents sectionContents) throws IOException {
+    if (sectionId == END_SECTION_ID) {
+      throw new IllegalArgumentException("Section id 0 is reserved for the end marker.");
+    }
+
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    SnapshotOutput snapshotOutput = new SnapshotOutput(payload);
+    sectionContents.write(snapshotOutput);
+    snapshotOutput.flush();
+    writeRawSection(sectionId, payload.toByteArray());
+  }
+
+  /**
+   * Writes the end marker. A snapshot without an end marker is treated as torn.
+   */
+  public void finish() throws IOException {
+    writeRawSection(END_SECTION_ID, new byte[0]);
+    out.flush();
+  }
+
+  private void writeRawSection(int sectionId, byte[] payload) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+
+    out.writeInt(sectionId);
+    out.writeInt(payload.length);
+    out.write(payload);
+    out.writeInt((int) crc.getValue());
+  }
+
+  @FunctionalInterface
+  public interface SectionContents {
+
+    void write(SnapshotOutput output) throws IOException;
+  }
+}
@@ -0,0 +1,55 @@
+package uk.co.andrewlee.cakebot.tools;
+
+import de.gesundkrank.jskills.GameInfo;
+import java.io.BufferedReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.PlayerRankingSystem;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RankingOperation.ImportRankingOperation;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RatingEngine;
+import uk.co.andrewlee.cakebot.persistence.PersistenceService;
+
+/**
+ * Offline import of AoE match outcomes from CSV into a ladder's save directory, eg.
+ * <pre>MatchOutcomeImporter saves history.csv</pre>
+ * For a named ladder, pass its folder, eg. {@code saves/ladders/weekend}. The bot must not be
+ * running against the same save directory, and should be given the same rating engine as the
+ * bot, trueskill by default. See {@link PlayerRankingSystem#importMatchOutcomes}.
+ */
+public class MatchOutcomeImporter {
+
+  private static final Logger logger = LoggerFactory.getLogger(MatchOutcomeImporter.class);
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2 && args.length != 3) {
+      logger.info("Usage: MatchOutcomeImporter [SaveDirectory] [CsvFile] [trueskill|glicko2]."
+          + " Each line of the CSV file is winners,losers, with players separated by spaces.");
+      System.exit(1);
+    }
+
+    Path saveDirectory = Paths.get(args[0]);
+    Path csvFile = Paths.get(args[1]);
+    RatingEngine ratingEngine = args.length == 3 ? RatingEngine.parse(args[2])
+        : RatingEngine.TRUESKILL;
+
+    PersistenceService persistenceService = PersistenceService.create();
+    PlayerRankingSystem playerRankingSystem = PlayerRankingSystem.create(
+        ratingEngine.newSkillCalculator(), GameInfo.getDefaultGameInfo(), 1, saveDirectory,
+        persistenceService);
+    playerRankingSystem.init();
+
+    ImportRankingOperation importRankingOperation;
+    try (BufferedReader reader = Files.newBufferedReader(csvFile)) {
+      importRankingOperation = playerRankingSystem.importMatchOutcomes(reader,
+          csvFile.getFileName().toString());
+    }
+    persistenceService.flush();
+
+    logger.info("Imported {} match outcomes from {} into {}.",
+        importRankingOperation.getMatchOutcomeCount(), csvFile, saveDirectory);
+    System.exit(0);
+  }
+}
@@ -0,0 +1,51 @@
+package uk.co.andrewlee.cakebot.tools;
+
+import com.google.common.io.MoreFiles;
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers.RankingExportWriter;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers.RankingExportWriter.ExportFormat;
+
+/**
+ * Offline export of an AoE binary save file as CSV or newline delimited JSON, eg.
+ * <pre>RankingExporter saves/aoe.bin ndjson aoe.ndjson.gz</pre>
+ * The output is gzipped if its name ends in {@code .gz}.
+ */
+public class RankingExporter {
+
+  private static final Logger logger = LoggerFactory.getLogger(RankingExporter.class);
+  private static final String GZIP_EXTENSION = ".gz";
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      logger.info("Usage: RankingExporter [SaveFile] [csv|ndjson] [OutputFile]. The save file"
+          + " must be in the binary format, see SaveFileConverter.");
+      System.exit(1);
+    }
+
+    Path saveFile = Paths.get(args[0]);
+    ExportFormat exportFormat = ExportFormat.valueOf(args[1].toUpperCase());
+    Path outputFile = Paths.get(args[2]);
+
+    OutputStream outputStream = Files.newOutputStream(outputFile);
+    if (outputFile.getFileName().toString().endsWith(GZIP_EXTENSION)) {
+      outputStream = new GZIPOutputStream(outputStream);
+    }
+
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream,
+        StandardCharsets.UTF_8))) {
+      RankingExportWriter.write(MoreFiles.asByteSource(saveFile), exportFormat, writer);
+    }
+
+    logger.info("Exported {} to {}.", saveFile, outputFile);
+  }
+}
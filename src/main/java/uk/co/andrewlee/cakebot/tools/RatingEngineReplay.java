@@ -0,0 +1,124 @@
+package uk.co.andrewlee.cakebot.tools;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import de.gesundkrank.jskills.GameInfo;
+import de.gesundkrank.jskills.IPlayer;
+import de.gesundkrank.jskills.Player;
+import de.gesundkrank.jskills.Rating;
+import de.gesundkrank.jskills.SkillCalculator;
+import de.gesundkrank.jskills.Team;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.Glicko2SkillCalculator;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.MatchOutcome;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.RatingEngine;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.serializers.RankingSnapshotSerializer;
+
+/**
+ * Replays the match history of an AoE binary save file through every {@link RatingEngine},
+ * comparing how well each predicts the next match from the ratings so far, eg.
+ * <pre>RatingEngineReplay saves/aoe.bin 20</pre>
+ * Before each match, each engine gives the probability that team 1 wins. Reports the log loss
+ * and Brier score of those predictions, the fraction of matches whose winner was favoured, and
+ * the mean time per rating update. Lower log loss and Brier score are better.
+ * <p>
+ * Match outcomes are not timestamped, so a new rating period starts every {@code
+ * MatchesPerPeriod} matches.
+ */
+public class RatingEngineReplay {
+
+  private static final Logger logger = LoggerFactory.getLogger(RatingEngineReplay.class);
+  // Keeps the log loss finite for a confident wrong prediction.
+  private static final double MIN_PROBABILITY = 1e-15;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      logger.info("Usage: RatingEngineReplay [SaveFile] [MatchesPerPeriod]. The save file must"
+          + " be in the binary format, see SaveFileConverter.");
+      System.exit(1);
+    }
+
+    Path saveFile = Paths.get(args[0]);
+    int matchesPerPeriod = Integer.parseInt(args[1]);
+    Preconditions.checkArgument(matchesPerPeriod > 0, "MatchesPerPeriod must be positive.");
+
+    List<MatchOutcome> matchOutcomes = new ArrayList<>();
+    try (InputStream inputStream = Files.newInputStream(saveFile)) {
+      RankingSnapshotSerializer.read(inputStream, (playerId, rating) -> {
+      }, matchOutcomes::add);
+    }
+    logger.info("Replaying {} match outcomes from {}.", matchOutcomes.size(), saveFile);
+
+    GameInfo gameInfo = GameInfo.getDefaultGameInfo();
+    for (RatingEngine ratingEngine : RatingEngine.values()) {
+      replay(ratingEngine, gameInfo, matchOutcomes, matchesPerPeriod);
+    }
+  }
+
+  private static void replay(RatingEngine ratingEngine, GameInfo gameInfo,
+      List<MatchOutcome> matchOutcomes, int matchesPerPeriod) {
+    AtomicLong clock = new AtomicLong();
+    SkillCalculator skillCalculator = ratingEngine.newSkillCalculator(clock::get);
+    HashMap<Long, Rating> ratings = new HashMap<>();
+
+    double logLoss = 0;
+    double brierScore = 0;
+    double correct = 0;
+    long updateNanos = 0;
+
+    for (int i = 0; i < matchOutcomes.size(); i++) {
+      clock.set((i / matchesPerPeriod) * Glicko2SkillCalculator.DEFAULT_RATING_PERIOD_MILLIS);
+
+      MatchOutcome matchOutcome = matchOutcomes.get(i);
+      Team team1 = team(matchOutcome.getMatch().getTeam1(), ratings, gameInfo);
+      Team team2 = team(matchOutcome.getMatch().getTeam2(), ratings, gameInfo);
+
+      double team1WinProbability = Math.min(1 - MIN_PROBABILITY, Math.max(MIN_PROBABILITY,
+          ratingEngine.winProbability(skillCalculator, gameInfo, team1, team2)));
+      double team1Score = matchOutcome.isTeam1Won() ? 1 : 0;
+
+      logLoss -= team1Score * Math.log(team1WinProbability)
+          + (1 - team1Score) * Math.log(1 - team1WinProbability);
+      brierScore += (team1WinProbability - team1Score) * (team1WinProbability - team1Score);
+      if (team1WinProbability == 0.5) {
+        correct += 0.5;
+      } else if ((team1WinProbability > 0.5) == matchOutcome.isTeam1Won()) {
+        correct += 1;
+      }
+
+      long startNanos = System.nanoTime();
+      Map<IPlayer, Rating> newRatings = skillCalculator.calculateNewRatings(gameInfo,
+          ImmutableList.of(team1, team2), matchOutcome.isTeam1Won() ? 1 : 2,
+          matchOutcome.isTeam1Won() ? 2 : 1);
+      updateNanos += System.nanoTime() - startNanos;
+
+      newRatings.forEach((player, rating) ->
+          ratings.put(((Player<Long>) player).getId(), rating));
+    }
+
+    int count = Math.max(1, matchOutcomes.size());
+    logger.info(String.format("%s: log loss %.4f, Brier score %.4f, favourite won %.1f%%,"
+            + " %.1f us per update.", ratingEngine, logLoss / count, brierScore / count,
+        100 * correct / count, updateNanos / 1000.0 / count));
+  }
+
+  private static Team team(ImmutableList<Long> playerIds, Map<Long, Rating> ratings,
+      GameInfo gameInfo) {
+    Team team = new Team();
+    for (long playerId : playerIds) {
+      team.addPlayer(new Player<>(playerId),
+          ratings.getOrDefault(playerId, gameInfo.getDefaultRating()));
+    }
+    return team;
+  }
+}
@@ -0,0 +1,45 @@
+package uk.co.andrewlee.cakebot.tools;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.andrewlee.cakebot.clients.aoe.ranking.PlayerRankingSystem;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.PlayerMatchmakingSystem;
+
+/**
+ * Offline converter between the JSON and binary save file formats, eg.
+ * <pre>SaveFileConverter aoe saves/aoe.bin aoe.json</pre>
+ * LoL players are kept in a store in the save directory, which can be exported with eg.
+ * <pre>SaveFileConverter lol saves lol.json</pre>
+ */
+public class SaveFileConverter {
+
+  private static final Logger logger = LoggerFactory.getLogger(SaveFileConverter.class);
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      logger.info("Usage: SaveFileConverter [aoe|lol] [SourceFile] [DestinationFile]. The format"
+          + " of each file is chosen by its extension, .json or .bin. For lol, the source can"
+          + " also be a save directory.");
+      System.exit(1);
+    }
+
+    Path sourceFile = Paths.get(args[1]);
+    Path destinationFile = Paths.get(args[2]);
+
+    switch (args[0]) {
+      case "aoe":
+        PlayerRankingSystem.convertSaveFile(sourceFile, destinationFile);
+        break;
+      case "lol":
+        PlayerMatchmakingSystem.convertSaveFile(sourceFile, destinationFile);
+        break;
+      default:
+        logger.info("Unknown save file type {}. Expected aoe or lol.", args[0]);
+        System.exit(1);
+    }
+
+    logger.info("Converted {} to {}.", sourceFile, destinationFile);
+  }
+}
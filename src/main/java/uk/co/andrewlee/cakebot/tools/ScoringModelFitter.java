@@ -0,0 +1,293 @@
+package uk.co.andrewlee.cakebot.tools;
+
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.LaneMatchOutcome;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.PlayerData;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.PlayerMatchmakingSystem;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.ScoringModel;
+import uk.co.andrewlee.cakebot.clients.lol.matchmaking.serializers.LaneMatchOutcomeSerializer;
+import uk.co.andrewlee.cakebot.persistence.RecordLog;
+
+/**
+ * Fits the weights of a LoL {@link ScoringModel} to the match outcome log, eg.
+ * <pre>ScoringModelFitter saves saves/lol-outcomes.log lol-scoring.json</pre>
+ * Each logged match is replayed with the players' current lane strengths, in the lanes they
+ * played. The model predicts the winner from the lane variance of the match and the difference
+ * in the teams' strengths, logistically, and the lane and cross lane weights are chosen to
+ * minimise the log loss, one weight at a time. The candidate values of each weight are scored
+ * in parallel.
+ * <p>
+ * The match strength weights are then set so that the match strength is the size of the
+ * predicted log odds, as near as it can be. Copy the result to the save directory, and use the
+ * scoring reload command.
+ */
+public class ScoringModelFitter {
+
+  private static final Logger logger = LoggerFactory.getLogger(ScoringModelFitter.class);
+  private static final int NUMBER_OF_LANES = 5;
+  private static final int NUMBER_OF_CROSS_LANES = 2;
+  private static final int MAX_WEIGHT = 20;
+  private static final int MAX_PASSES = 10;
+  private static final int MIN_OUTCOMES = 20;
+  private static final int MAX_NEWTON_ITERATIONS = 50;
+  // Keeps the fit finite if the outcomes can be perfectly separated.
+  private static final double RIDGE = 1e-6;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      logger.info("Usage: ScoringModelFitter [SaveDirectory] [OutcomeLog] [ModelFile]. The"
+          + " players are read from the store in the save directory.");
+      System.exit(1);
+    }
+
+    Path saveDirectory = Paths.get(args[0]);
+    Path outcomeLog = Paths.get(args[1]);
+    Path modelFile = Paths.get(args[2]);
+
+    HashMap<Long, PlayerData> players = new HashMap<>(
+        PlayerMatchmakingSystem.readPlayerStore(saveDirectory));
+    List<LaneMatchOutcome> outcomes = new ArrayList<>();
+    RecordLog.create(outcomeLog, LaneMatchOutcomeSerializer.FORMAT_VERSION).read(
+        (input, formatVersion) -> outcomes.add(LaneMatchOutcomeSerializer.read(input)));
+
+    ImmutableList<Replay> replays = replays(outcomes, players);
+    logger.info("Replaying {} of {} match outcomes from {}. The rest have unregistered players or"
+        + " unknown ratings.", replays.size(), outcomes.size(), outcomeLog);
+    if (replays.size() < MIN_OUTCOMES) {
+      logger.info("At least {} match outcomes are needed.", MIN_OUTCOMES);
+      System.exit(1);
+    }
+
+    int[] weights = new int[NUMBER_OF_LANES + NUMBER_OF_CROSS_LANES];
+    for (int i = 0; i < NUMBER_OF_LANES; i++) {
+      weights[i] = ScoringModel.DEFAULT.getLaneWeights().get(i);
+    }
+    weights[NUMBER_OF_LANES] = ScoringModel.DEFAULT.getCrossLaneWeights().get(0);
+    weights[NUMBER_OF_LANES + 1] = ScoringModel.DEFAULT.getCrossLaneWeights().get(1);
+    Fit defaultFit = fit(weights, replays);
+    report("Default model", defaultFit, replays);
+
+    Fit bestFit = defaultFit;
+    for (int pass = 0; pass < MAX_PASSES; pass++) {
+      boolean changed = false;
+      for (int weight = 0; weight < weights.length; weight++) {
+        int weightIndex = weight;
+        Fit fit = IntStream.rangeClosed(0, MAX_WEIGHT).parallel()
+            .mapToObj(value -> {
+              int[] candidateWeights = weights.clone();
+              candidateWeights[weightIndex] = value;
+              return candidateWeights;
+            })
+            .filter(candidateWeights -> IntStream.of(candidateWeights).sum() > 0)
+            .map(candidateWeights -> fit(candidateWeights, replays))
+            // Of equally good values, the smallest.
+            .min(Comparator.comparingDouble((Fit candidate) -> candidate.logLoss)
+                .thenComparingInt(candidate -> candidate.weights[weightIndex]))
+            .get();
+        if (fit.logLoss < bestFit.logLoss && fit.weights[weight] != weights[weight]) {
+          weights[weight] = fit.weights[weight];
+          bestFit = fit;
+          changed = true;
+        }
+      }
+      logger.info("Pass {}: log loss {}.", pass + 1, String.format("%.4f", bestFit.logLoss));
+      if (!changed) {
+        break;
+      }
+    }
+    report("Fitted model", bestFit, replays);
+
+    if (bestFit.laneVarianceCoefficient <= 0) {
+      logger.warn("Lane variance does not predict the winner in these outcomes, so the match"
+          + " strength is left as the difference in strengths alone.");
+    }
+    ScoringModel scoringModel = bestFit.scoringModel();
+    try (BufferedWriter bufferedWriter = Files.newBufferedWriter(modelFile)) {
+      scoringModel.save(bufferedWriter);
+    }
+    logger.info("Wrote scoring model to {}: {}.", modelFile, scoringModel);
+  }
+
+  private static ImmutableList<Replay> replays(List<LaneMatchOutcome> outcomes,
+      HashMap<Long, PlayerData> players) {
+    ImmutableList.Builder<Replay> replays = ImmutableList.builder();
+    for (LaneMatchOutcome outcome : outcomes) {
+      int[] winnerLanes = laneStrengths(outcome.getWinners(), players);
+      int[] loserLanes = laneStrengths(outcome.getLosers(), players);
+      if (winnerLanes != null && loserLanes != null) {
+        replays.add(new Replay(winnerLanes, loserLanes));
+      }
+    }
+    return replays.build();
+  }
+
+  /**
+   * Returns the strength of each player of a team in the lane they played, or null if any is
+   * unknown.
+   */
+  private static int[] laneStrengths(ImmutableList<Long> team,
+      HashMap<Long, PlayerData> players) {
+    int[] laneStrengths = new int[NUMBER_OF_LANES];
+    for (int laneId = 0; laneId < NUMBER_OF_LANES; laneId++) {
+      PlayerData playerData = players.get(team.get(laneId));
+      if (playerData == null || playerData.getLaneStrength(laneId) == Integer.MIN_VALUE) {
+        return null;
+      }
+      laneStrengths[laneId] = playerData.getLaneStrength(laneId);
+    }
+    return laneStrengths;
+  }
+
+  /**
+   * Fits the chance of the winner winning, as the logistic function of a weighted sum of the
+   * lane variance under {@param weights} and the difference in strengths, by Newton's method.
+   */
+  private static Fit fit(int[] weights, ImmutableList<Replay> replays) {
+    ScoringModel scoringModel = toScoringModel(weights, 1, 0);
+    double[] laneVariances = new double[replays.size()];
+    double[] strengthDiffs = new double[replays.size()];
+    for (int i = 0; i < replays.size(); i++) {
+      Replay replay = replays.get(i);
+      laneVariances[i] = scoringModel.laneVariance(replay.winnerLanes, replay.loserLanes);
+      strengthDiffs[i] = replay.strengthDiff;
+    }
+
+    double a = 0;
+    double b = 0;
+    double logLoss = logLoss(laneVariances, strengthDiffs, a, b);
+    for (int iteration = 0; iteration < MAX_NEWTON_ITERATIONS; iteration++) {
+      double gradientA = RIDGE * a;
+      double gradientB = RIDGE * b;
+      double hessianAA = RIDGE;
+      double hessianAB = 0;
+      double hessianBB = RIDGE;
+      for (int i = 0; i < laneVariances.length; i++) {
+        double probability = logistic(a * laneVariances[i] + b * strengthDiffs[i]);
+        double weight = probability * (1 - probability);
+        gradientA += (probability - 1) * laneVariances[i];
+        gradientB += (probability - 1) * strengthDiffs[i];
+        hessianAA += weight * laneVariances[i] * laneVariances[i];
+        hessianAB += weight * laneVariances[i] * strengthDiffs[i];
+        hessianBB += weight * strengthDiffs[i] * strengthDiffs[i];
+      }
+      double determinant = hessianAA * hessianBB - hessianAB * hessianAB;
+      double stepA = -(hessianBB * gradientA - hessianAB * gradientB) / determinant;
+      double stepB = -(hessianAA * gradientB - hessianAB * gradientA) / determinant;
+
+      // Halves the step until it improves the fit, in case Newton's method overshoots.
+      double newLogLoss = logLoss(laneVariances, strengthDiffs, a + stepA, b + stepB);
+      for (int halving = 0; halving < 20 && !(newLogLoss <= logLoss); halving++) {
+        stepA /= 2;
+        stepB /= 2;
+        newLogLoss = logLoss(laneVariances, strengthDiffs, a + stepA, b + stepB);
+      }
+      if (!(newLogLoss <= logLoss)) {
+        break;
+      }
+      a += stepA;
+      b += stepB;
+      boolean converged = logLoss - newLogLoss < 1e-12;
+      logLoss = newLogLoss;
+      if (converged) {
+        break;
+      }
+    }
+
+    int correct = 0;
+    for (int i = 0; i < laneVariances.length; i++) {
+      if (a * laneVariances[i] + b * strengthDiffs[i] > 0) {
+        correct++;
+      }
+    }
+    return new Fit(weights, a, b, logLoss, (double) correct / laneVariances.length);
+  }
+
+  /**
+   * The mean log loss, plus the ridge penalty.
+   */
+  private static double logLoss(double[] laneVariances, double[] strengthDiffs, double a,
+      double b) {
+    double logLoss = 0;
+    for (int i = 0; i < laneVariances.length; i++) {
+      double logOdds = a * laneVariances[i] + b * strengthDiffs[i];
+      // log(1 + exp(-logOdds)), without overflow.
+      logLoss += logOdds > 0 ? Math.log1p(Math.exp(-logOdds))
+          : -logOdds + Math.log1p(Math.exp(logOdds));
+    }
+    return (logLoss + RIDGE * (a * a + b * b) / 2) / laneVariances.length;
+  }
+
+  private static double logistic(double logOdds) {
+    return 1 / (1 + Math.exp(-logOdds));
+  }
+
+  private static void report(String name, Fit fit, ImmutableList<Replay> replays) {
+    logger.info(String.format("%s: log loss %.4f, favourite won %.1f%% of %d matches.", name,
+        fit.logLoss, 100 * fit.accuracy, replays.size()));
+  }
+
+  private static ScoringModel toScoringModel(int[] weights, double laneVarianceWeight,
+      double strengthDiffWeight) {
+    ImmutableList.Builder<Integer> laneWeights = ImmutableList.builder();
+    for (int i = 0; i < NUMBER_OF_LANES; i++) {
+      laneWeights.add(weights[i]);
+    }
+    return ScoringModel.create(laneWeights.build(),
+        ImmutableList.of(weights[NUMBER_OF_LANES], weights[NUMBER_OF_LANES + 1]),
+        laneVarianceWeight, strengthDiffWeight);
+  }
+
+  private static class Replay {
+
+    private final int[] winnerLanes;
+    private final int[] loserLanes;
+    private final int strengthDiff;
+
+    private Replay(int[] winnerLanes, int[] loserLanes) {
+      this.winnerLanes = winnerLanes;
+      this.loserLanes = loserLanes;
+      this.strengthDiff = IntStream.of(winnerLanes).sum() - IntStream.of(loserLanes).sum();
+    }
+  }
+
+  private static class Fit {
+
+    private final int[] weights;
+    private final double laneVarianceCoefficient;
+    private final double strengthDiffCoefficient;
+    private final double logLoss;
+    private final double accuracy;
+
+    private Fit(int[] weights, double laneVarianceCoefficient, double strengthDiffCoefficient,
+        double logLoss, double accuracy) {
+      this.weights = weights;
+      this.laneVarianceCoefficient = laneVarianceCoefficient;
+      this.strengthDiffCoefficient = strengthDiffCoefficient;
+      this.logLoss = logLoss;
+      this.accuracy = accuracy;
+    }
+
+    /**
+     * The match strength weighs the lane variance and the difference in strengths as the fit
+     * does, in units of the lane variance.
+     */
+    private ScoringModel scoringModel() {
+      if (laneVarianceCoefficient <= 0) {
+        return toScoringModel(weights, 0, 1);
+      }
+      return toScoringModel(weights, 1,
+          Math.max(0, strengthDiffCoefficient / laneVarianceCoefficient));
+    }
+  }
+}